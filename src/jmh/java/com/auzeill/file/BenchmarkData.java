@@ -0,0 +1,43 @@
+package com.auzeill.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic paths and entries shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+  private static final String NAME_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789-_.";
+
+  private BenchmarkData() {
+  }
+
+  static String randomPath(Random random, String parent) {
+    StringBuilder name = new StringBuilder(parent);
+    int length = 4 + random.nextInt(20);
+    for (int i = 0; i < length; i++) {
+      name.append(NAME_CHARACTERS.charAt(random.nextInt(NAME_CHARACTERS.length())));
+    }
+    return name.toString();
+  }
+
+  // files of a few directories in the snapshot order, with a sha1
+  static List<FileAttributes> snapshot(Random random, int size) {
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      paths.add(randomPath(random, "dir" + random.nextInt(10) + "/"));
+    }
+    paths.sort(FileAttributes::comparePath);
+    List<FileAttributes> entries = new ArrayList<>();
+    byte[] sha1 = new byte[20];
+    for (String path : paths) {
+      random.nextBytes(sha1);
+      entries.add(new FileAttributes(path, FileAttributes.Type.FILE, random.nextInt(1 << 20), "alban", "alban", "rw-r--r--",
+        "2020-09-02T15:43:48.680382Z", Sha1.byteToHex(sha1)));
+    }
+    return entries;
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.auzeill.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Path comparison and the sort of the children of a directory, done for each directory of a scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparePathBenchmark {
+
+  @Param({"100", "10000"})
+  public int children;
+
+  private List<String> paths;
+  private String[] pairs;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    paths = new ArrayList<>();
+    for (int i = 0; i < children; i++) {
+      paths.add(BenchmarkData.randomPath(random, "dir/sub/"));
+    }
+    pairs = new String[2 * 1024];
+    for (int i = 0; i < pairs.length; i += 2) {
+      // same directory, to compare long common prefixes
+      pairs[i] = "a/common/prefix/" + BenchmarkData.randomPath(random, "");
+      pairs[i + 1] = "a/common/prefix/" + BenchmarkData.randomPath(random, "");
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int comparePath() {
+    int result = 0;
+    for (int i = 0; i < pairs.length; i += 2) {
+      result += FileAttributes.comparePath(pairs[i], pairs[i + 1]);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public List<String> sortChildren() {
+    List<String> sorted = new ArrayList<>(paths);
+    sorted.sort(FileAttributes::comparePath);
+    return sorted;
+  }
+
+}
@@ -0,0 +1,63 @@
+package com.auzeill.file;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * In-memory digests, without the file system, and the hex text of a sha1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestBenchmark {
+
+  @Param({"4096", "1048576"})
+  public int size;
+
+  @Param({"sha1", "sha256", "xxh64", "crc32c"})
+  public String algorithm;
+
+  private HashAlgorithm hashAlgorithm;
+  private byte[] data;
+  private byte[] sha1;
+
+  @Setup
+  public void setup() {
+    hashAlgorithm = HashAlgorithm.fromString(algorithm);
+    Random random = new Random(42);
+    data = new byte[size];
+    random.nextBytes(data);
+    sha1 = new byte[20];
+    random.nextBytes(sha1);
+  }
+
+  @Benchmark
+  public String digest() {
+    return hashAlgorithm.digest(data, 0, data.length);
+  }
+
+  @Benchmark
+  public String sha1Digest() {
+    return Sha1.digest(data);
+  }
+
+  @Benchmark
+  public String byteToHex() {
+    return Sha1.byteToHex(sha1);
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.auzeill.file;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Text snapshot lines, parsed for each entry of the last snapshot and written for each entry of a scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileAttributesBenchmark {
+
+  private static final int ENTRIES = 1024;
+
+  private List<FileAttributes> entries;
+  private String[] lines;
+
+  @Setup
+  public void setup() {
+    entries = BenchmarkData.snapshot(new Random(42), ENTRIES);
+    lines = new String[ENTRIES];
+    for (int i = 0; i < ENTRIES; i++) {
+      lines[i] = entries.get(i).toString();
+    }
+  }
+
+  @Benchmark
+  public void fromString(Blackhole blackhole) {
+    for (String line : lines) {
+      blackhole.consume(FileAttributes.fromString(line));
+    }
+  }
+
+  @Benchmark
+  public void toText(Blackhole blackhole) {
+    for (FileAttributes attributes : entries) {
+      blackhole.consume(attributes.toString());
+    }
+  }
+
+  @Benchmark
+  public void roundTrip(Blackhole blackhole) {
+    for (String line : lines) {
+      blackhole.consume(FileAttributes.fromString(line).toString());
+    }
+  }
+
+}
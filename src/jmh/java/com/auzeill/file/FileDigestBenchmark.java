@@ -0,0 +1,102 @@
+package com.auzeill.file;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Digests of a file in the page cache, through the FileChannel reads of the small files and the
+ * memory-mapped reads of the big ones, against the legacy sha1 of a FileInputStream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileDigestBenchmark {
+
+  @Param({"4096", "268435456"})
+  public long size;
+
+  private Path file;
+
+  // a state of its own, the legacy baseline only runs once by size
+  @State(Scope.Benchmark)
+  public static class Algorithm {
+
+    @Param({"sha1", "sha256", "xxh64", "crc32c"})
+    public String algorithm;
+
+    private HashAlgorithm hashAlgorithm;
+
+    @Setup
+    public void setup() {
+      hashAlgorithm = HashAlgorithm.fromString(algorithm);
+    }
+
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("file-digest-benchmark", ".bin");
+    Random random = new Random(42);
+    byte[] block = new byte[(int) Math.min(size, 1024 * 1024)];
+    try (OutputStream out = Files.newOutputStream(file)) {
+      for (long written = 0; written < size; written += block.length) {
+        random.nextBytes(block);
+        out.write(block);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.delete(file);
+  }
+
+  @Benchmark
+  public String digest(Algorithm state) throws IOException {
+    return state.hashAlgorithm.digest(file);
+  }
+
+  // the implementation before HashAlgorithm: 8 KB reads of a FileInputStream, a new MessageDigest by
+  // file and a Formatter for the hexadecimal digest
+  @Benchmark
+  public String legacySha1() throws IOException, NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    try (InputStream fis = new FileInputStream(file.toFile())) {
+      byte[] buffer = new byte[8192];
+      for (int n = fis.read(buffer); n != -1; n = fis.read(buffer)) {
+        digest.update(buffer, 0, n);
+      }
+    }
+    try (Formatter formatter = new Formatter()) {
+      for (byte b : digest.digest()) {
+        formatter.format("%02x", b);
+      }
+      return formatter.toString();
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+package com.auzeill.file;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ignore matcher, called for each entry of a scan, with exact paths and suffix patterns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IgnoreBenchmark {
+
+  private static final int PATHS = 1024;
+
+  @Param({"10", "500"})
+  public int patterns;
+
+  private IgnoreExpression.Matcher matcher;
+  private Path[] absolutePaths;
+  private String[] relativePaths;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    matcher = new IgnoreExpression.Matcher();
+    String[] suffixes = new String[patterns];
+    for (int i = 0; i < patterns; i++) {
+      suffixes[i] = "." + BenchmarkData.randomPath(random, "");
+      matcher.add(i % 2 == 0 ? BenchmarkData.randomPath(random, "dir/") : ("*" + suffixes[i]));
+    }
+    Path base = Paths.get("/base");
+    absolutePaths = new Path[PATHS];
+    relativePaths = new String[PATHS];
+    for (int i = 0; i < PATHS; i++) {
+      // one path out of four is ignored
+      String suffix = i % 4 == 0 ? suffixes[1 + 2 * random.nextInt(patterns / 2)] : ".txt";
+      relativePaths[i] = BenchmarkData.randomPath(random, "dir/") + suffix;
+      absolutePaths[i] = base.resolve(relativePaths[i]);
+    }
+  }
+
+  @Benchmark
+  public int ignore() {
+    int ignored = 0;
+    for (int i = 0; i < PATHS; i++) {
+      if (matcher.ignore(absolutePaths[i], relativePaths[i])) {
+        ignored++;
+      }
+    }
+    return ignored;
+  }
+
+}
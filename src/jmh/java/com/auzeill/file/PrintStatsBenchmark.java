@@ -0,0 +1,65 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The diff output of a scan over synthetic snapshots, a part of the entries being modified.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrintStatsBenchmark {
+
+  private static final int ENTRIES = 10_000;
+
+  // percentage of modified entries
+  @Param({"1", "50"})
+  public int modified;
+
+  private StatContext context;
+  private LineWriter out;
+  private List<FileAttributes> previous;
+  private FileAttributes[] current;
+
+  @Setup
+  public void setup() throws IOException {
+    context = new StatContext(new String[] {"--diff", System.getProperty("java.io.tmpdir")});
+    out = LineWriter.of(OutputStream.nullOutputStream(), false);
+    Random random = new Random(42);
+    previous = BenchmarkData.snapshot(random, ENTRIES);
+    current = new FileAttributes[ENTRIES];
+    for (int i = 0; i < ENTRIES; i++) {
+      FileAttributes attributes = previous.get(i);
+      current[i] = random.nextInt(100) < modified ? attributes.withSha1OrSymbolicLink(Sha1.digest(attributes.toString().getBytes(UTF_8))) : attributes;
+    }
+  }
+
+  @Benchmark
+  public void printStats() throws IOException {
+    for (int i = 0; i < ENTRIES; i++) {
+      context.printStats(out, previous.get(i), current[i]);
+    }
+    out.flush();
+  }
+
+}
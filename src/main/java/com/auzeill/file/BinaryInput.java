@@ -0,0 +1,140 @@
+package com.auzeill.file;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Buffered decoding of the values written by BinaryOutput, keeping track of the offset in the stream.
+ */
+public class BinaryInput implements Closeable {
+
+  private final InputStream in;
+  private final byte[] buffer;
+  private int position = 0;
+  private int limit = 0;
+  // bytes read or skipped from the stream
+  private long consumed;
+
+  // startOffset is the offset of the next byte of the stream
+  public BinaryInput(InputStream in, int bufferSize, long startOffset) {
+    this.in = in;
+    this.buffer = new byte[bufferSize];
+    this.consumed = startOffset;
+  }
+
+  public long offset() {
+    return consumed - (limit - position);
+  }
+
+  // moves forward to the given offset without decoding the bytes in between
+  public void skipTo(long offset) throws IOException {
+    long length = offset - offset();
+    if (length < 0) {
+      throw new IOException("Can not skip backward from " + offset() + " to " + offset);
+    } else if (length <= limit - position) {
+      position += (int) length;
+      return;
+    }
+    long remaining = length - (limit - position);
+    position = 0;
+    limit = 0;
+    while (remaining > 0) {
+      long skipped = in.skip(remaining);
+      if (skipped <= 0) {
+        if (in.read() == -1) {
+          throw new EOFException();
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+      consumed += skipped;
+    }
+  }
+
+  public String readPath(String previousPath) throws IOException {
+    int shared = (int) readVarLong();
+    String suffix = readString();
+    return shared == 0 ? suffix : previousPath.substring(0, shared).concat(suffix);
+  }
+
+  public String readString() throws IOException {
+    int length = (int) readVarLong();
+    if (length <= buffer.length) {
+      ensureAvailable(length);
+      String value = new String(buffer, position, length, UTF_8);
+      position += length;
+      return value;
+    }
+    byte[] bytes = new byte[length];
+    readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  public long readVarLong() throws IOException {
+    long value = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  public long readLong() throws IOException {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | readByte();
+    }
+    return value;
+  }
+
+  public int readByte() throws IOException {
+    if (position == limit) {
+      ensureAvailable(1);
+    }
+    return buffer[position++] & 0xFF;
+  }
+
+  public void readFully(byte[] bytes) throws IOException {
+    int length = bytes.length;
+    int copied = Math.min(length, limit - position);
+    System.arraycopy(buffer, position, bytes, 0, copied);
+    position += copied;
+    if (copied < length) {
+      int read = in.readNBytes(bytes, copied, length - copied);
+      consumed += read;
+      if (read != length - copied) {
+        throw new EOFException();
+      }
+    }
+  }
+
+  private void ensureAvailable(int length) throws IOException {
+    if (limit - position >= length) {
+      return;
+    }
+    System.arraycopy(buffer, position, buffer, 0, limit - position);
+    limit -= position;
+    position = 0;
+    while (limit < length) {
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read == -1) {
+        throw new EOFException();
+      }
+      limit += read;
+      consumed += read;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+}
@@ -0,0 +1,101 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Buffered encoding of the values of a binary snapshot, keeping track of the offset in the stream.
+ */
+public class BinaryOutput implements Closeable {
+
+  private final OutputStream out;
+  private final byte[] buffer;
+  private int position = 0;
+  private long flushed = 0;
+
+  public BinaryOutput(OutputStream out, int bufferSize) {
+    this.out = out;
+    this.buffer = new byte[bufferSize];
+  }
+
+  public long offset() {
+    return flushed + position;
+  }
+
+  // the length shared with the previous path followed by the remaining characters
+  public void writePath(String path, String previousPath) throws IOException {
+    int shared = 0;
+    int maxShared = Math.min(path.length(), previousPath.length());
+    while (shared < maxShared && path.charAt(shared) == previousPath.charAt(shared)) {
+      shared++;
+    }
+    if (shared > 0 && Character.isHighSurrogate(path.charAt(shared - 1))) {
+      shared--;
+    }
+    writeVarLong(shared);
+    writeString(path.substring(shared));
+  }
+
+  public void writeString(String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    writeVarLong(bytes.length);
+    writeBytes(bytes);
+  }
+
+  public void writeVarLong(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    writeByte((int) value);
+  }
+
+  public void writeLong(long value) throws IOException {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      writeByte((int) (value >>> shift));
+    }
+  }
+
+  public void writeByte(int value) throws IOException {
+    if (position == buffer.length) {
+      flush();
+    }
+    buffer[position++] = (byte) value;
+  }
+
+  public void writeBytes(byte[] bytes) throws IOException {
+    if (position + bytes.length > buffer.length) {
+      flush();
+      if (bytes.length > buffer.length) {
+        out.write(bytes);
+        flushed += bytes.length;
+        return;
+      }
+    }
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+  }
+
+  public void writeBytes(ByteArrayOutputStream bytes) throws IOException {
+    flush();
+    bytes.writeTo(out);
+    flushed += bytes.size();
+  }
+
+  public void flush() throws IOException {
+    out.write(buffer, 0, position);
+    flushed += position;
+    position = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+
+}
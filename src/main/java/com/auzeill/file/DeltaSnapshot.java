@@ -0,0 +1,320 @@
+package com.auzeill.file;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A "delta-*" snapshot only holds the entries changed since its base snapshot, a full "stat-*" one
+ * or another delta. Its text lines are in the comparePath order:
+ * <pre>
+ * CDSD|base snapshot file name
+ * +|new or modified entry, like a text snapshot line
+ * -|relative path of a deleted entry
+ * =|entry count|size of the last entry, of the rebuilt snapshot
+ * </pre>
+ * Reading a delta replays its chain as a stream, each delta being merge-joined with its base.
+ * The "head" file of the stats directory holds the file name of the latest snapshot, followed by the
+ * directory digest version of this snapshot, the entry lines of a text snapshot having no room for it:
+ * <pre>
+ * stat-2020.09.02-15h43m48s680
+ * directory-digest-version=2
+ * </pre>
+ */
+public class DeltaSnapshot {
+
+  static final byte[] MAGIC = {'C', 'D', 'S', 'D'};
+  public static final String PREFIX = "delta-";
+  public static final String HEAD_FILE = "head";
+  static final String DIRECTORY_DIGEST_VERSION = "directory-digest-version=";
+  private static final String HEADER = new String(MAGIC, UTF_8) + "|";
+  private static final String ADDED = "+|";
+  private static final String DELETED = "-|";
+  private static final String END = "=|";
+
+  public static boolean isDelta(Path snapshotPath) throws IOException {
+    try (InputStream in = Files.newInputStream(snapshotPath)) {
+      byte[] header = in.readNBytes(MAGIC.length + 1);
+      return header.length == MAGIC.length + 1 && Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC) && header[MAGIC.length] == '|';
+    }
+  }
+
+  // the base snapshot, next to the delta
+  public static Path base(Path deltaPath) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(deltaPath, UTF_8)) {
+      String header = reader.readLine();
+      if (header == null || !header.startsWith(HEADER) || header.length() == HEADER.length()) {
+        throw new IOException("Corrupted delta snapshot, invalid header in " + deltaPath);
+      }
+      return deltaPath.resolveSibling(header.substring(HEADER.length()));
+    }
+  }
+
+  // the deltas to replay over a full snapshot to rebuild the given one, from the given one, empty for a full snapshot
+  public static List<Path> chain(Path snapshotPath) throws IOException {
+    List<Path> deltas = new ArrayList<>();
+    for (Path path = snapshotPath; isDelta(path); path = base(path)) {
+      if (deltas.contains(path)) {
+        throw new IOException("Corrupted delta snapshot, cyclic base " + path);
+      }
+      deltas.add(path);
+    }
+    return deltas;
+  }
+
+  // the snapshot named by the head file, or the last "stat-*" name for a stats directory without head file,
+  // null if there is no snapshot
+  public static Path head(Path statsDirectory) throws IOException {
+    if (!Files.isDirectory(statsDirectory)) {
+      return null;
+    }
+    Path headPath = statsDirectory.resolve(HEAD_FILE);
+    if (Files.exists(headPath)) {
+      List<String> lines = Files.readAllLines(headPath, UTF_8);
+      String name = lines.isEmpty() ? "" : lines.get(0).trim();
+      if (!name.isEmpty() && Files.exists(statsDirectory.resolve(name))) {
+        return statsDirectory.resolve(name);
+      }
+    }
+    try (Stream<Path> statsFiles = Files.list(statsDirectory)) {
+      return statsFiles
+        .map(p -> p.getFileName().toString())
+        .filter(name -> name.startsWith("stat-"))
+        .max(Comparator.comparing(Object::toString))
+        .map(statsDirectory::resolve)
+        .orElse(null);
+    }
+  }
+
+  // the directory digest version that the head file of its stats directory gives to a snapshot, 0 when the
+  // head file does not name this snapshot or has no version
+  static int headDirectoryDigestVersion(Path snapshotPath) throws IOException {
+    Path headPath = snapshotPath.resolveSibling(HEAD_FILE);
+    if (!Files.exists(headPath)) {
+      return 0;
+    }
+    List<String> lines = Files.readAllLines(headPath, UTF_8);
+    if (lines.isEmpty() || !lines.get(0).trim().equals(snapshotPath.getFileName().toString())) {
+      return 0;
+    }
+    for (String line : lines.subList(1, lines.size())) {
+      if (line.startsWith(DIRECTORY_DIGEST_VERSION)) {
+        try {
+          return Integer.parseInt(line.substring(DIRECTORY_DIGEST_VERSION.length()).trim());
+        } catch (NumberFormatException e) {
+          throw new IOException("Corrupted head file " + headPath + ", invalid line: " + line, e);
+        }
+      }
+    }
+    return 0;
+  }
+
+  // replaced atomically, so a reader never sees a partial name
+  public static void writeHead(Path statsDirectory, Path snapshotPath) throws IOException {
+    Path headPath = statsDirectory.resolve(HEAD_FILE);
+    Path tempPath = headPath.resolveSibling(HEAD_FILE + ".tmp");
+    Files.writeString(tempPath, snapshotPath.getFileName().toString() + "\n" +
+      DIRECTORY_DIGEST_VERSION + SnapshotWriter.DIRECTORY_DIGEST_VERSION + "\n", UTF_8);
+    Files.move(tempPath, headPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // rewrites the head delta as a full snapshot having the same time in its name, the deltas of its chain are
+  // deleted. Returns the full snapshot.
+  public static Path compact(StatContext context) throws IOException {
+    Path head = context.lastStatPath;
+    if (head == null) {
+      throw new IllegalArgumentException("Invalid --compact, no snapshot in " + context.statsDirectory);
+    }
+    List<Path> deltas = chain(head);
+    if (deltas.isEmpty()) {
+      return head;
+    }
+    String name = head.getFileName().toString();
+    Path full = head.resolveSibling("stat-" + (name.startsWith(PREFIX) ? name.substring(PREFIX.length()) : name));
+    try (SnapshotReader reader = SnapshotReader.open(head);
+         SnapshotWriter writer = SnapshotWriter.create(full, context.format, context.hashAlgorithm)) {
+      while (reader.next()) {
+        writer.write(reader.attributes());
+      }
+    }
+    writeHead(context.statsDirectory, full);
+    for (Path delta : deltas) {
+      Files.delete(delta);
+    }
+    return full;
+  }
+
+  // entry count and size of the last entry from the end line
+  static ScanProgress.Totals totals(Path deltaPath) throws IOException {
+    try (FileChannel channel = FileChannel.open(deltaPath, StandardOpenOption.READ)) {
+      ByteBuffer tail = ByteBuffer.allocate((int) Math.min(channel.size(), 64));
+      long position = channel.size() - tail.capacity();
+      while (tail.hasRemaining() && channel.read(tail, position + tail.position()) != -1) {
+        // until the end of the file
+      }
+      String text = new String(tail.array(), 0, tail.position(), UTF_8).stripTrailing();
+      String[] fields = text.substring(text.lastIndexOf('\n') + 1).split("\\|");
+      if (fields.length != 3 || !(fields[0] + "|").equals(END)) {
+        throw new IOException("Corrupted delta snapshot, no end line in " + deltaPath);
+      }
+      return new ScanProgress.Totals(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+    }
+  }
+
+  /**
+   * Writes the entries that differ from the base snapshot, the entries being given in the comparePath order
+   * like to a full snapshot.
+   */
+  public static class Writer implements SnapshotWriter {
+
+    private final LineWriter out;
+    private final SnapshotCursor base;
+    private long count = 0;
+    private long lastSize = 0;
+
+    public Writer(Path deltaPath, Path basePath) throws IOException {
+      this.base = new SnapshotCursor(SnapshotReader.open(basePath));
+      this.out = LineWriter.create(deltaPath, false);
+      out.append(HEADER).append(basePath.getFileName().toString()).newLine();
+    }
+
+    @Override
+    public void write(FileAttributes attributes) throws IOException {
+      String path = attributes.relativeLinuxPath;
+      writeDeletedBefore(path);
+      String basePath = base.peekPath();
+      FileAttributes previous = basePath != null && FileAttributes.comparePath(basePath, path) == 0 ? base.next() : null;
+      if (previous == null || !previous.sameAs(attributes)) {
+        out.append(ADDED).append(attributes).newLine();
+      }
+      count++;
+      lastSize = attributes.size;
+    }
+
+    private void writeDeletedBefore(String path) throws IOException {
+      for (String basePath = base.peekPath(); basePath != null && (path == null || FileAttributes.comparePath(basePath, path) < 0);
+        basePath = base.peekPath()) {
+        out.append(DELETED).append(base.next().relativeLinuxPath).newLine();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        writeDeletedBefore(null);
+        out.append(END).append(count).append('|').append(lastSize).newLine();
+      } finally {
+        out.close();
+        base.close();
+      }
+    }
+
+  }
+
+  /**
+   * The entries of the base snapshot with the changes of the delta applied.
+   */
+  public static class Reader implements SnapshotReader {
+
+    private final Path deltaPath;
+    private final BufferedReader delta;
+    private final SnapshotCursor base;
+    // the next line of the delta, null after the end line
+    private String change;
+    private FileAttributes changeAttributes;
+    private FileAttributes current;
+
+    public Reader(Path deltaPath) throws IOException {
+      this.deltaPath = deltaPath;
+      this.base = new SnapshotCursor(SnapshotReader.open(base(deltaPath)));
+      this.delta = Files.newBufferedReader(deltaPath, UTF_8);
+      try {
+        delta.readLine();
+        readChange();
+      } catch (IOException | RuntimeException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      while (true) {
+        String basePath = base.peekPath();
+        if (change == null) {
+          current = base.next();
+          return current != null;
+        }
+        String changePath = changeAttributes != null ? changeAttributes.relativeLinuxPath : change.substring(DELETED.length());
+        int order = basePath == null ? -1 : FileAttributes.comparePath(changePath, basePath);
+        if (order > 0) {
+          current = base.next();
+          return true;
+        }
+        if (order == 0) {
+          base.next();
+        } else if (changeAttributes == null) {
+          throw new IOException("Corrupted delta snapshot, " + deltaPath + " deletes " + changePath + " missing from its base");
+        }
+        current = changeAttributes;
+        readChange();
+        if (current != null) {
+          return true;
+        }
+      }
+    }
+
+    private void readChange() throws IOException {
+      change = delta.readLine();
+      changeAttributes = null;
+      if (change == null) {
+        throw new IOException("Corrupted delta snapshot, no end line in " + deltaPath);
+      } else if (change.startsWith(END)) {
+        change = null;
+      } else if (change.startsWith(ADDED)) {
+        changeAttributes = FileAttributes.fromString(change.substring(ADDED.length()));
+      } else if (!change.startsWith(DELETED)) {
+        throw new IOException("Corrupted delta snapshot, invalid line in " + deltaPath + ": " + change);
+      }
+    }
+
+    @Override
+    public String path() {
+      return current.relativeLinuxPath;
+    }
+
+    @Override
+    public FileAttributes.Type type() {
+      return current.type;
+    }
+
+    @Override
+    public FileAttributes attributes() {
+      return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        delta.close();
+      } finally {
+        base.close();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,272 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares two directories walked in lockstep, in the comparePath order, and prints their differences like a
+ * diff from the left directory to the right one. The content is only read for the files having the same size
+ * on both sides, both files at once, until their first different block. Directory sizes are aggregated from
+ * their entries, no sha1 is computed.
+ */
+public class DirectoryComparison implements AutoCloseable {
+
+  static final int BLOCK_SIZE = 256 * 1024;
+  // entries waiting for a content comparison before being printed
+  static final int MAX_PENDING = 16 * 1024;
+
+  private static class Pending {
+
+    // null for an entry only in the right directory
+    final FileAttributes left;
+    // null for an entry only in the left directory
+    final FileAttributes right;
+    // the offset of the first different byte, null if the content is not compared
+    final Future<Long> firstDifference;
+
+    Pending(FileAttributes left, FileAttributes right, Future<Long> firstDifference) {
+      this.left = left;
+      this.right = right;
+      this.firstDifference = firstDifference;
+    }
+
+  }
+
+  private final LineWriter out;
+  private final StatContext context;
+  private final DirectoryWalker leftWalker;
+  private final DirectoryWalker rightWalker;
+  private final ExecutorService executor;
+  private final Deque<Pending> pending = new ArrayDeque<>();
+  private int pendingComparisons = 0;
+
+  public DirectoryComparison(LineWriter out, StatContext context) {
+    this.out = out;
+    this.context = context;
+    this.leftWalker = new DirectoryWalker(context, context.directoriesToCompare.get(0));
+    this.rightWalker = new DirectoryWalker(context, context.directoriesToCompare.get(1));
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(context.hashThreads, runnable -> {
+      Thread thread = new Thread(runnable, "compare-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public static void compare(LineWriter out, StatContext context) throws IOException {
+    try (DirectoryComparison comparison = new DirectoryComparison(out, context)) {
+      comparison.compare();
+    }
+  }
+
+  public void compare() throws IOException {
+    List<Path> directories = context.directoriesToCompare;
+    compare(leftWalker.walk(directories.get(0)), rightWalker.walk(directories.get(1)));
+    while (!pending.isEmpty()) {
+      print(pending.poll());
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    leftWalker.close();
+    rightWalker.close();
+  }
+
+  // an entry having the same relative path on both sides, returns the sizes of the left and right entries
+  private long[] compare(DirectoryWalker.Entry leftEntry, DirectoryWalker.Entry rightEntry) throws IOException {
+    FileAttributes left = leftEntry.attributes();
+    FileAttributes right = rightEntry.attributes();
+    if (left == null || right == null) {
+      // ignored on one side by a sibling condition
+      return new long[] {left != null ? single(leftEntry, true) : 0, right != null ? single(rightEntry, false) : 0};
+    }
+    if (left.type != FileAttributes.Type.DIRECTORY && right.type != FileAttributes.Type.DIRECTORY) {
+      Future<Long> firstDifference = null;
+      if (left.type == FileAttributes.Type.FILE && right.type == FileAttributes.Type.FILE && left.size == right.size &&
+        left.size > 0 && context.computeSha1) {
+        Path leftPath = leftEntry.path;
+        Path rightPath = rightEntry.path;
+        long size = left.size;
+        firstDifference = executor.submit(() -> firstDifference(leftPath, rightPath, size, context.throttle));
+      }
+      add(new Pending(left, right, firstDifference));
+      return new long[] {left.size, right.size};
+    }
+    // a directory replaced by another type has all its entries on one side only
+    List<DirectoryWalker.Entry> leftChildren = children(leftEntry, left);
+    List<DirectoryWalker.Entry> rightChildren = children(rightEntry, right);
+    long leftSize = 0;
+    long rightSize = 0;
+    int leftPos = 0;
+    int rightPos = 0;
+    while (leftPos < leftChildren.size() || rightPos < rightChildren.size()) {
+      int order;
+      if (leftPos == leftChildren.size()) {
+        order = 1;
+      } else if (rightPos == rightChildren.size()) {
+        order = -1;
+      } else {
+        order = FileAttributes.comparePath(name(leftChildren.get(leftPos)), name(rightChildren.get(rightPos)));
+      }
+      if (order < 0) {
+        leftSize += single(leftChildren.set(leftPos++, null), true);
+      } else if (order > 0) {
+        rightSize += single(rightChildren.set(rightPos++, null), false);
+      } else {
+        long[] sizes = compare(leftChildren.set(leftPos++, null), rightChildren.set(rightPos++, null));
+        leftSize += sizes[0];
+        rightSize += sizes[1];
+      }
+    }
+    if (left.type == FileAttributes.Type.DIRECTORY) {
+      left = withSize(left, leftSize);
+    }
+    if (right.type == FileAttributes.Type.DIRECTORY) {
+      right = withSize(right, rightSize);
+    }
+    add(new Pending(left, right, null));
+    return new long[] {left.size, right.size};
+  }
+
+  // an entry, and its descendants, only in the left or the right directory, returns its size
+  private long single(DirectoryWalker.Entry entry, boolean left) throws IOException {
+    FileAttributes attributes = entry.attributes();
+    if (attributes == null) {
+      return 0;
+    }
+    if (attributes.type == FileAttributes.Type.DIRECTORY) {
+      List<DirectoryWalker.Entry> children = entry.takeChildren();
+      long size = 0;
+      for (int i = 0; i < children.size(); i++) {
+        size += single(children.set(i, null), left);
+      }
+      attributes = withSize(attributes, size);
+    }
+    add(left ? new Pending(attributes, null, null) : new Pending(null, attributes, null));
+    return attributes.size;
+  }
+
+  private static List<DirectoryWalker.Entry> children(DirectoryWalker.Entry entry, FileAttributes attributes) throws IOException {
+    return attributes.type == FileAttributes.Type.DIRECTORY ? entry.takeChildren() : Collections.emptyList();
+  }
+
+  private static String name(DirectoryWalker.Entry entry) {
+    return entry.path.getFileName().toString();
+  }
+
+  private static FileAttributes withSize(FileAttributes directory, long size) {
+    return new FileAttributes(directory.relativeLinuxPath, directory.type, size, directory.owner, directory.group,
+      directory.permissions, directory.modifiedTime, directory.sha1OrSymbolicLink);
+  }
+
+  // printed in the output order, the entries after a content comparison wait for its result
+  private void add(Pending entry) throws IOException {
+    if (pending.isEmpty() && entry.firstDifference == null) {
+      print(entry);
+      return;
+    }
+    pending.add(entry);
+    if (entry.firstDifference != null) {
+      pendingComparisons++;
+    }
+    while (!pending.isEmpty() && (pending.size() > MAX_PENDING || pendingComparisons > 2 * context.hashThreads ||
+      pending.peek().firstDifference == null || pending.peek().firstDifference.isDone())) {
+      print(pending.poll());
+    }
+  }
+
+  private void print(Pending entry) throws IOException {
+    if (entry.left == null) {
+      context.printStats(out, null, entry.right);
+    } else if (entry.right == null) {
+      context.printDeleted(out, entry.left);
+    } else if (entry.firstDifference == null) {
+      context.printCompared(out, entry.left, entry.right, -1);
+    } else {
+      pendingComparisons--;
+      context.printCompared(out, entry.left, entry.right, await(entry.firstDifference));
+    }
+  }
+
+  private static long await(Future<Long> firstDifference) throws IOException {
+    try {
+      return firstDifference.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while comparing files");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  // the offset of the first different byte of two files of the given size, -1 if they have the same content,
+  // each block of the right file is read while the left one is
+  static long firstDifference(Path leftPath, Path rightPath, long size, IoThrottle throttle) throws IOException {
+    int blockSize = (int) Math.min(BLOCK_SIZE, size);
+    ByteBuffer leftBlock = ByteBuffer.allocate(blockSize);
+    ByteBuffer rightBlock = ByteBuffer.allocate(blockSize);
+    try (FileChannel left = FileChannel.open(leftPath, StandardOpenOption.READ);
+         AsynchronousFileChannel right = AsynchronousFileChannel.open(rightPath, StandardOpenOption.READ)) {
+      for (long position = 0; position < size; position += blockSize) {
+        leftBlock.clear().limit((int) Math.min(blockSize, size - position));
+        rightBlock.clear().limit(leftBlock.limit());
+        Future<Integer> rightRead = right.read(rightBlock, position);
+        while (leftBlock.hasRemaining() && left.read(leftBlock, position + leftBlock.position()) != -1) {
+          // until the block is full or the end of the file
+        }
+        readBlock(right, rightRead, rightBlock, position);
+        throttle.read((long) leftBlock.position() + rightBlock.position());
+        int length = Math.min(leftBlock.position(), rightBlock.position());
+        int mismatch = Arrays.mismatch(leftBlock.array(), 0, length, rightBlock.array(), 0, length);
+        if (mismatch != -1) {
+          return position + mismatch;
+        } else if (leftBlock.hasRemaining() || rightBlock.hasRemaining()) {
+          // a file changed during the comparison
+          return position + length;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static void readBlock(AsynchronousFileChannel channel, Future<Integer> read, ByteBuffer block, long position) throws IOException {
+    try {
+      while (read.get() != -1 && block.hasRemaining()) {
+        read = channel.read(block, position + block.position());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading a compared file");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.auzeill.file;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Size and sha1 of a directory, aggregated from its children added in the comparePath order. The sha1
+ * is a digest, by the context hash algorithm, of the type, name and digest (raw digest or link target)
+ * of each child, the records are buffered before being digested so the digest of an unchanged directory
+ * is usually not computed when its previous sha1 can be reused.
+ */
+public class DirectorySummary {
+
+  static final int BUFFER_LIMIT = 64 * 1024;
+
+  public final String path;
+  private final StatContext context;
+  private long size = 0;
+  // a child is new, deleted or has another type, size or sha1 than in the last snapshot
+  private boolean changed = false;
+  private byte[] buffer = new byte[256];
+  private int length = 0;
+  // only created for the directories having more children than the buffer can hold
+  private HashAlgorithm.Hasher hasher;
+
+  public DirectorySummary(StatContext context, String path) {
+    this.context = context;
+    this.path = path;
+  }
+
+  public void add(FileAttributes child) {
+    add(child, null);
+  }
+
+  // previousChild is the attributes of the child in the last snapshot, null if unknown
+  public void add(FileAttributes child, FileAttributes previousChild) {
+    size += child.size;
+    if (previousChild == null || previousChild.type != child.type || previousChild.size != child.size ||
+      !previousChild.sha1OrSymbolicLink.equals(child.sha1OrSymbolicLink)) {
+      changed = true;
+    }
+    if (context.computeSha1) {
+      appendRecord(child);
+    }
+  }
+
+  // an entry of the last snapshot under this directory no longer exists
+  public void deleted() {
+    changed = true;
+  }
+
+  // previous is the directory attributes of the last snapshot, its sha1 is reused when the
+  // reuseDirectorySha1 option is set and no child changed, null if unknown
+  public FileAttributes attributes(FileAttributes directory, FileAttributes previous) {
+    String sha1 = "";
+    if (context.computeSha1) {
+      HashAlgorithm algorithm = context.hashAlgorithm;
+      if (context.reuseDirectorySha1 && !changed && previous != null && previous.type == FileAttributes.Type.DIRECTORY &&
+        previous.size == size && algorithm.isDigest(previous.sha1OrSymbolicLink)) {
+        sha1 = previous.sha1OrSymbolicLink;
+      } else if (hasher == null) {
+        sha1 = algorithm.digest(buffer, 0, length);
+      } else {
+        hasher.update(buffer, 0, length);
+        sha1 = algorithm.format(hasher.digest());
+      }
+    }
+    return new FileAttributes(
+      directory.relativeLinuxPath,
+      directory.type,
+      size,
+      directory.owner,
+      directory.group,
+      directory.permissions,
+      directory.modifiedTime,
+      sha1);
+  }
+
+  // type code, name length, name, digest length, digest
+  private void appendRecord(FileAttributes child) {
+    String childPath = child.relativeLinuxPath;
+    byte[] name = childPath.substring(childPath.lastIndexOf('/') + 1).getBytes(UTF_8);
+    String sha1 = child.sha1OrSymbolicLink;
+    HashAlgorithm algorithm = context.hashAlgorithm;
+    boolean rawSha1 = child.type != FileAttributes.Type.SYMBOLIC_LINK && algorithm.isDigest(sha1);
+    byte[] text = rawSha1 ? null : sha1.getBytes(UTF_8);
+    int digestLength = rawSha1 ? algorithm.length : text.length;
+    reserve(11 + name.length + digestLength);
+    buffer[length++] = (byte) child.type.code.charAt(0);
+    appendVarInt(name.length);
+    System.arraycopy(name, 0, buffer, length, name.length);
+    length += name.length;
+    appendVarInt(digestLength);
+    if (rawSha1) {
+      algorithm.parse(sha1, buffer, length);
+    } else {
+      System.arraycopy(text, 0, buffer, length, digestLength);
+    }
+    length += digestLength;
+  }
+
+  private void appendVarInt(int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[length++] = (byte) value;
+  }
+
+  private void reserve(int recordLength) {
+    if (length + recordLength <= buffer.length) {
+      return;
+    }
+    if (length + recordLength > BUFFER_LIMIT) {
+      if (hasher == null) {
+        hasher = context.hashAlgorithm.newHasher();
+      }
+      hasher.update(buffer, 0, length);
+      length = 0;
+    }
+    if (length + recordLength > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(Math.min(buffer.length * 2, BUFFER_LIMIT), length + recordLength));
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads the tree attributes in parallel, the caller joins the entries in comparePath order. The walk
+ * only runs ahead of the caller by about MAX_PENDING_ENTRIES entries: beyond them, the children of a
+ * directory are listed but only forked when the caller takes them.
+ */
+public class DirectoryWalker implements AutoCloseable {
+
+  static final int MAX_PENDING_ENTRIES = 16 * 1024;
+
+  private final StatContext context;
+  // the relative paths of the entries are relative to this directory
+  private final Path baseDirectory;
+  private final ForkJoinPool pool;
+  private final int maxPendingEntries;
+  // entries forked and not taken by the caller yet
+  private final AtomicInteger pendingEntries = new AtomicInteger();
+
+  public DirectoryWalker(StatContext context) {
+    this(context, context.baseDirectory);
+  }
+
+  public DirectoryWalker(StatContext context, Path baseDirectory) {
+    this(context, baseDirectory, MAX_PENDING_ENTRIES);
+  }
+
+  DirectoryWalker(StatContext context, Path baseDirectory, int maxPendingEntries) {
+    this.context = context;
+    this.baseDirectory = baseDirectory;
+    this.pool = new ForkJoinPool(context.threads);
+    this.maxPendingEntries = maxPendingEntries;
+  }
+
+  public Entry walk(Path path) {
+    Entry entry = new Entry(path, FileAttributes.relativeLinuxPath(baseDirectory, path), false);
+    pendingEntries.incrementAndGet();
+    pool.execute(entry);
+    return entry;
+  }
+
+  int pendingEntries() {
+    return pendingEntries.get();
+  }
+
+  @Override
+  public void close() {
+    pool.shutdownNow();
+  }
+
+  public class Entry extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    public final Path path;
+    private final String relativePath;
+    // false if the entry has not been matched against the ignore patterns yet
+    private final boolean matched;
+    private FileAttributes attributes;
+    private List<Entry> children;
+    // false when the walk was too far ahead of the caller to fork the children
+    private boolean childrenForked = false;
+    // only used by the caller
+    private boolean taken = false;
+    private Exception failure;
+
+    private Entry(Path path, String relativePath, boolean matched) {
+      this.path = path;
+      this.relativePath = relativePath;
+      this.matched = matched;
+    }
+
+    @Override
+    protected void compute() {
+      Path fileName = path.getFileName();
+      if (fileName != null && fileName.toString().equals(StatContext.DEFAULT_STATS_DIRECTORY)) {
+        return;
+      }
+      try {
+        // ignored entries are neither read nor hashed
+        if (!matched && !context.include(path, relativePath)) {
+          return;
+        }
+        ScanMetrics metrics = context.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        FileAttributes fileAttributes = FileAttributes.metadataFromPath(context, path, relativePath);
+        if (metrics != null) {
+          metrics.add(ScanMetrics.Phase.STAT, System.nanoTime() - start);
+        }
+        if (fileAttributes.type == FileAttributes.Type.DIRECTORY) {
+          start = metrics != null ? System.nanoTime() : 0;
+          List<Path> childPaths;
+          context.throttle.operation();
+          try (Stream<Path> fileList = Files.list(path)) {
+            childPaths = fileList.collect(Collectors.toList());
+          }
+          if (metrics != null) {
+            metrics.add(ScanMetrics.Phase.LIST, System.nanoTime() - start);
+          }
+          children = includedChildren(fileAttributes.relativeLinuxPath, childPaths);
+          if (pendingEntries.get() < maxPendingEntries) {
+            pendingEntries.addAndGet(children.size());
+            // forked in reverse order, so the first child, the next one to be joined, is the first to be processed
+            for (int i = children.size() - 1; i >= 0; i--) {
+              children.get(i).fork();
+            }
+            childrenForked = true;
+          }
+        }
+        attributes = fileAttributes;
+      } catch (IOException | RuntimeException e) {
+        // rethrown as is by attributes(), join() would wrap it
+        failure = e;
+      }
+    }
+
+    // the children not ignored, in the comparePath order, the sibling conditions are answered by the listing
+    private List<Entry> includedChildren(String relativePath, List<Path> childPaths) {
+      Set<String> names = null;
+      if (context.ignoreMatcher.hasSiblingConditions()) {
+        names = new HashSet<>();
+        for (Path childPath : childPaths) {
+          names.add(childPath.getFileName().toString());
+        }
+      }
+      List<Entry> included = new ArrayList<>();
+      for (Path childPath : childPaths) {
+        String name = childPath.getFileName().toString();
+        String childRelativePath = relativePath.equals(".") ? name : (relativePath + "/" + name);
+        if (context.include(childPath, childRelativePath, names)) {
+          included.add(new Entry(childPath, childRelativePath, true));
+        }
+      }
+      included.sort((a, b) -> FileAttributes.comparePath(a.path.getFileName().toString(), b.path.getFileName().toString()));
+      return included;
+    }
+
+    // null if the entry is ignored, the sha1 of files is not resolved
+    public FileAttributes attributes() throws IOException {
+      join();
+      if (!taken) {
+        taken = true;
+        pendingEntries.decrementAndGet();
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      } else if (failure != null) {
+        throw (RuntimeException) failure;
+      }
+      return attributes;
+    }
+
+    public List<Entry> takeChildren() throws IOException {
+      attributes();
+      List<Entry> result = children;
+      children = null;
+      if (result != null && !childrenForked) {
+        // submitted in order, the first child is the first to be processed
+        pendingEntries.addAndGet(result.size());
+        for (Entry child : result) {
+          pool.execute(child);
+        }
+      }
+      return result;
+    }
+
+  }
+
+}
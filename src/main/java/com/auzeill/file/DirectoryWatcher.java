@@ -0,0 +1,372 @@
+package com.auzeill.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the tree in memory after a first full scan and updates it from the WatchService events. Only
+ * the changed entries are read and hashed again, the directories are aggregated again up to the root,
+ * and the changes are printed in the diff format.
+ */
+public class DirectoryWatcher implements Closeable {
+
+  private static class Node {
+
+    private FileAttributes attributes;
+    // by name in the comparePath order, null if the entry is not a directory
+    private final TreeMap<String, Node> children;
+
+    private Node(boolean directory) {
+      this.children = directory ? new TreeMap<>(FileAttributes::comparePath) : null;
+    }
+
+  }
+
+  private final LineWriter out;
+  // the output created from a PrintStream is closed with the watcher
+  private final boolean closeOutput;
+  private final StatContext context;
+  private final WatchService watchService;
+  private final DirectoryWalker walker;
+  private final Map<String, Node> nodes = new HashMap<>();
+  private final Map<String, WatchKey> watchKeys = new HashMap<>();
+
+  public DirectoryWatcher(PrintStream out, StatContext context) throws IOException {
+    this(LineWriter.of(out, context.outputThread), true, context);
+  }
+
+  // the output is flushed after the first scan and each batch of changes, and not closed
+  public DirectoryWatcher(LineWriter out, StatContext context) throws IOException {
+    this(out, false, context);
+  }
+
+  private DirectoryWatcher(LineWriter out, boolean closeOutput, StatContext context) throws IOException {
+    if (!Files.isDirectory(context.rootPath, LinkOption.NOFOLLOW_LINKS)) {
+      throw new IllegalArgumentException("Invalid watched path, not a directory: " + context.rootPath);
+    }
+    this.out = out;
+    this.closeOutput = closeOutput;
+    this.context = context;
+    this.watchService = context.rootPath.getFileSystem().newWatchService();
+    this.walker = new DirectoryWalker(context);
+  }
+
+  // the first full scan, printed like Stats does, the snapshot can be null
+  public void scan(SnapshotWriter snapshot) throws IOException {
+    SnapshotWriter tree = new SnapshotWriter() {
+      @Override
+      public void write(FileAttributes attributes) throws IOException {
+        add(attributes);
+        if (snapshot != null) {
+          snapshot.write(attributes);
+        }
+      }
+
+      @Override
+      public void close() {
+        // nothing to release
+      }
+    };
+    Stats.stats(out, tree, context, context.rootPath);
+    out.flush();
+  }
+
+  // until the watched directory is deleted
+  public void watch() throws IOException {
+    while (nodes.containsKey(".")) {
+      processEvents(-1);
+    }
+  }
+
+  // null if the entry does not exist or is ignored
+  public FileAttributes attributes(String relativeLinuxPath) {
+    Node node = nodes.get(relativeLinuxPath);
+    return node != null ? node.attributes : null;
+  }
+
+  // waits at most timeoutMillis (forever if negative) for a first event, then for the coalescing
+  // window, and prints the changes, false if there was no event
+  boolean processEvents(long timeoutMillis) throws IOException {
+    Set<String> dirtyPaths = new HashSet<>();
+    Set<String> overflowDirectories = new HashSet<>();
+    try {
+      WatchKey key = timeoutMillis < 0 ? watchService.take() : watchService.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+      if (key == null) {
+        return false;
+      }
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(context.watchWindowMillis);
+      while (key != null) {
+        collect(key, dirtyPaths, overflowDirectories);
+        long remaining = deadline - System.nanoTime();
+        key = remaining > 0 ? watchService.poll(remaining, TimeUnit.NANOSECONDS) : null;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while watching " + context.rootPath);
+    }
+    update(dirtyPaths, overflowDirectories);
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (closeOutput) {
+        out.close();
+      } else {
+        out.flush();
+      }
+    } finally {
+      walker.close();
+      watchService.close();
+    }
+  }
+
+  private void collect(WatchKey key, Set<String> dirtyPaths, Set<String> overflowDirectories) {
+    Path directory = (Path) key.watchable();
+    String directoryPath = FileAttributes.relativeLinuxPath(context, directory);
+    // the modified time of the directory changes with its entries
+    dirtyPaths.add(directoryPath);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        overflowDirectories.add(directoryPath);
+      } else {
+        dirtyPaths.add(FileAttributes.relativeLinuxPath(context, directory.resolve((Path) event.context())));
+      }
+    }
+    key.reset();
+  }
+
+  void update(Set<String> dirtyPaths, Set<String> overflowDirectories) throws IOException {
+    // attributes before the update, null for new entries, in the output order
+    Map<String, FileAttributes> changes = new TreeMap<>(FileAttributes::comparePath);
+    TreeSet<String> directoriesToAggregate = new TreeSet<>(FileAttributes::comparePath);
+    // events were lost, the whole subtree is read again
+    List<String> rescannedDirectories = new ArrayList<>();
+    for (String directory : new TreeSet<>(overflowDirectories)) {
+      if (!isInside(rescannedDirectories, directory)) {
+        rescan(directory, changes, directoriesToAggregate);
+        rescannedDirectories.add(directory);
+      }
+    }
+    // descendants first, so a new directory is not scanned before its entries are filtered
+    TreeSet<String> sortedPaths = new TreeSet<>(FileAttributes::comparePath);
+    sortedPaths.addAll(dirtyPaths);
+    for (String path : sortedPaths) {
+      if (!isInside(rescannedDirectories, path)) {
+        update(path, changes, directoriesToAggregate);
+      }
+    }
+    aggregate(directoriesToAggregate, changes);
+    for (Map.Entry<String, FileAttributes> change : changes.entrySet()) {
+      FileAttributes previous = change.getValue();
+      FileAttributes attributes = attributes(change.getKey());
+      if (attributes != null) {
+        context.printStats(out, previous, attributes);
+      } else if (previous != null) {
+        context.printDeleted(out, previous);
+      }
+    }
+    out.flush();
+  }
+
+  private void update(String path, Map<String, FileAttributes> changes, Set<String> directoriesToAggregate) throws IOException {
+    Node node = nodes.get(path);
+    if (node != null && node.children != null) {
+      // an existing directory only needs its own attributes, its entries have their own events
+      Path absolutePath = absolutePath(path);
+      if (Files.isDirectory(absolutePath, LinkOption.NOFOLLOW_LINKS)) {
+        try {
+          FileAttributes attributes = FileAttributes.metadataFromPath(context, absolutePath);
+          recordPrevious(changes, path, node.attributes);
+          node.attributes = attributes;
+          directoriesToAggregate.add(path);
+          return;
+        } catch (IOException | IllegalArgumentException e) {
+          if (Files.exists(absolutePath, LinkOption.NOFOLLOW_LINKS)) {
+            throw e;
+          }
+        }
+      }
+    }
+    Node parent = path.equals(".") ? null : nodes.get(parent(path));
+    // entries of ignored directories are not scanned
+    if (path.equals(".") || (parent != null && parent.children != null)) {
+      rescan(path, changes, directoriesToAggregate);
+    }
+  }
+
+  // reads again the entry and its descendants, the sha1 of the unchanged files are reused
+  private void rescan(String path, Map<String, FileAttributes> changes, Set<String> directoriesToAggregate) throws IOException {
+    Map<String, FileAttributes> previousAttributes = new HashMap<>();
+    Node node = nodes.get(path);
+    Node parent = path.equals(".") ? null : nodes.get(parent(path));
+    if (node != null) {
+      remove(path, node, previousAttributes, changes);
+      if (parent != null) {
+        parent.children.remove(name(path));
+      }
+    }
+    Path absolutePath = absolutePath(path);
+    if (Files.exists(absolutePath, LinkOption.NOFOLLOW_LINKS)) {
+      Node scanned = scan(walker.walk(absolutePath), previousAttributes, changes);
+      if (scanned != null && parent != null) {
+        parent.children.put(name(path), scanned);
+      }
+    }
+    if (parent != null) {
+      directoriesToAggregate.add(parent(path));
+    }
+  }
+
+  private Node scan(DirectoryWalker.Entry entry, Map<String, FileAttributes> previousAttributes, Map<String, FileAttributes> changes) throws IOException {
+    try {
+      FileAttributes attributes = entry.attributes();
+      if (attributes == null) {
+        return null;
+      }
+      String path = attributes.relativeLinuxPath;
+      FileAttributes previous = previousAttributes.get(path);
+      recordPrevious(changes, path, previous);
+      Node node = new Node(attributes.type == FileAttributes.Type.DIRECTORY);
+      if (node.children != null) {
+        register(path, entry.path);
+        DirectorySummary summary = new DirectorySummary(context, path);
+        for (DirectoryWalker.Entry child : entry.takeChildren()) {
+          Node childNode = scan(child, previousAttributes, changes);
+          if (childNode != null) {
+            node.children.put(child.path.getFileName().toString(), childNode);
+            summary.add(childNode.attributes);
+          }
+        }
+        attributes = summary.attributes(attributes, null);
+      } else if (attributes.type == FileAttributes.Type.FILE && context.computeSha1) {
+        String sha1 = FileAttributes.reusableSha1(context, previous, attributes);
+        attributes = attributes.withSha1OrSymbolicLink(sha1 != null ? sha1 : context.hashAlgorithm.digest(entry.path, attributes.size, context.quickHash, context.throttle));
+      }
+      node.attributes = attributes;
+      nodes.put(path, node);
+      return node;
+    } catch (IOException | IllegalArgumentException e) {
+      if (Files.exists(entry.path, LinkOption.NOFOLLOW_LINKS)) {
+        throw e;
+      }
+      // deleted while being read, its deletion event follows
+      return null;
+    }
+  }
+
+  // from the deepest directory, the changes of sizes and sha1 are propagated up to the root
+  private void aggregate(TreeSet<String> directoriesToAggregate, Map<String, FileAttributes> changes) {
+    for (String path = directoriesToAggregate.pollFirst(); path != null; path = directoriesToAggregate.pollFirst()) {
+      Node node = nodes.get(path);
+      if (node == null || node.children == null) {
+        continue;
+      }
+      DirectorySummary summary = new DirectorySummary(context, path);
+      for (Node child : node.children.values()) {
+        summary.add(child.attributes);
+      }
+      FileAttributes attributes = summary.attributes(node.attributes, null);
+      boolean aggregateChanged = attributes.size != node.attributes.size ||
+        !attributes.sha1OrSymbolicLink.equals(node.attributes.sha1OrSymbolicLink);
+      if (aggregateChanged) {
+        recordPrevious(changes, path, node.attributes);
+        node.attributes = attributes;
+        if (!path.equals(".")) {
+          directoriesToAggregate.add(parent(path));
+        }
+      }
+    }
+  }
+
+  private void remove(String path, Node node, Map<String, FileAttributes> previousAttributes, Map<String, FileAttributes> changes) {
+    if (node.children != null) {
+      for (Map.Entry<String, Node> child : node.children.entrySet()) {
+        remove(path.equals(".") ? child.getKey() : path + "/" + child.getKey(), child.getValue(), previousAttributes, changes);
+      }
+      WatchKey key = watchKeys.remove(path);
+      if (key != null) {
+        key.cancel();
+      }
+    }
+    nodes.remove(path);
+    previousAttributes.put(path, node.attributes);
+    recordPrevious(changes, path, node.attributes);
+  }
+
+  // the entries of the first scan, in the comparePath order, so directories come after their entries
+  private void add(FileAttributes attributes) throws IOException {
+    String path = attributes.relativeLinuxPath;
+    Node node;
+    if (attributes.type == FileAttributes.Type.DIRECTORY) {
+      node = nodes.computeIfAbsent(path, p -> new Node(true));
+      register(path, absolutePath(path));
+    } else {
+      node = new Node(false);
+      nodes.put(path, node);
+    }
+    node.attributes = attributes;
+    if (!path.equals(".")) {
+      nodes.computeIfAbsent(parent(path), p -> new Node(true)).children.put(name(path), node);
+    }
+  }
+
+  private void register(String path, Path absolutePath) throws IOException {
+    try {
+      watchKeys.put(path, absolutePath.register(watchService,
+        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+    } catch (NoSuchFileException e) {
+      // deleted since, its deletion event follows
+    }
+  }
+
+  // only the first previous attributes of a path are kept during an update
+  private static void recordPrevious(Map<String, FileAttributes> changes, String path, FileAttributes previous) {
+    if (!changes.containsKey(path)) {
+      changes.put(path, previous);
+    }
+  }
+
+  private Path absolutePath(String path) {
+    return path.equals(".") ? context.baseDirectory : context.baseDirectory.resolve(path);
+  }
+
+  private static boolean isInside(List<String> directories, String path) {
+    for (String directory : directories) {
+      if (directory.equals(".") || path.equals(directory) || path.startsWith(directory + "/")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String parent(String path) {
+    int separator = path.lastIndexOf('/');
+    return separator != -1 ? path.substring(0, separator) : ".";
+  }
+
+  private static String name(String path) {
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+}
@@ -0,0 +1,345 @@
+package com.auzeill.file;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the files having the same content with a funnel: the files are grouped by size, the files of a
+ * group are told apart by the fingerprint of their first and last blocks, and only the remaining ones get
+ * a full digest, reused from the last snapshot when the file did not change. The files are sorted by size
+ * in runs of RUN_SIZE files, spilled to temporary files and merged back, so the memory does not grow with
+ * the number of files. Each set of duplicates is printed as:
+ * <pre>
+ * =dup= wasted bytes|size|file count|digest
+ * relative path of each file
+ * </pre>
+ * followed by a "=wasted= bytes|sets|files" total line. Empty files are not reported.
+ */
+public class DuplicateFinder implements AutoCloseable {
+
+  static final int RUN_SIZE = 256 * 1024;
+  // files hashed together, the sets of a batch are printed once all their digests are known
+  static final int BATCH_SIZE = 4096;
+  private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+  static class FileEntry {
+
+    final long size;
+    final String modifiedTime;
+    final String path;
+
+    FileEntry(long size, String modifiedTime, String path) {
+      this.size = size;
+      this.modifiedTime = modifiedTime;
+      this.path = path;
+    }
+
+  }
+
+  private static final Comparator<FileEntry> ORDER = Comparator.<FileEntry>comparingLong(entry -> entry.size)
+    .thenComparing((a, b) -> FileAttributes.comparePath(a.path, b.path));
+
+  // the sorted entries of a run, null after the last one
+  private interface Run {
+    FileEntry next() throws IOException;
+  }
+
+  private final LineWriter out;
+  private final StatContext context;
+  private final int runSize;
+  private final HashPipeline hashPipeline;
+  private final List<FileEntry> run = new ArrayList<>();
+  private final List<Path> spilledRuns = new ArrayList<>();
+  private final List<Integer> spilledRunSizes = new ArrayList<>();
+  // created by the first spilled run
+  private Path spillDirectory;
+  private long wastedBytes = 0;
+  private long sets = 0;
+  private long duplicateFiles = 0;
+
+  public DuplicateFinder(LineWriter out, StatContext context) {
+    this(out, context, RUN_SIZE);
+  }
+
+  DuplicateFinder(LineWriter out, StatContext context, int runSize) {
+    this.out = out;
+    this.context = context;
+    this.runSize = runSize;
+    this.hashPipeline = new HashPipeline(context.hashAlgorithm, false, context.hashThreads, context.hashMaxInFlight, context.throttle);
+  }
+
+  public static void find(LineWriter out, StatContext context) throws IOException {
+    try (DuplicateFinder finder = new DuplicateFinder(out, context)) {
+      try (DirectoryWalker walker = new DirectoryWalker(context)) {
+        finder.addTree(walker.walk(context.rootPath));
+      }
+      finder.report();
+    }
+  }
+
+  private void addTree(DirectoryWalker.Entry entry) throws IOException {
+    FileAttributes attributes = entry.attributes();
+    if (attributes == null) {
+      return;
+    }
+    if (attributes.type == FileAttributes.Type.DIRECTORY) {
+      List<DirectoryWalker.Entry> children = entry.takeChildren();
+      for (int i = 0; i < children.size(); i++) {
+        addTree(children.set(i, null));
+      }
+    } else {
+      add(attributes);
+    }
+  }
+
+  public void add(FileAttributes attributes) throws IOException {
+    if (attributes.type != FileAttributes.Type.FILE || attributes.size == 0) {
+      return;
+    }
+    run.add(new FileEntry(attributes.size, attributes.modifiedTime, attributes.relativeLinuxPath));
+    if (run.size() >= runSize) {
+      spill();
+    }
+  }
+
+  // the number of runs written to the disk
+  int spilledRuns() {
+    return spilledRuns.size();
+  }
+
+  private void spill() throws IOException {
+    run.sort(ORDER);
+    if (spillDirectory == null) {
+      spillDirectory = Files.createTempDirectory("duplicates-");
+    }
+    Path runPath = spillDirectory.resolve("run-" + spilledRuns.size());
+    spilledRuns.add(runPath);
+    spilledRunSizes.add(run.size());
+    try (BinaryOutput output = new BinaryOutput(Files.newOutputStream(runPath), SPILL_BUFFER_SIZE)) {
+      String previousPath = "";
+      for (FileEntry entry : run) {
+        output.writeVarLong(entry.size);
+        output.writeString(entry.modifiedTime);
+        output.writePath(entry.path, previousPath);
+        previousPath = entry.path;
+      }
+    }
+    run.clear();
+  }
+
+  // prints the sets of duplicates, by increasing file size, and the total line
+  public void report() throws IOException {
+    List<Run> runs = new ArrayList<>();
+    List<BinaryInput> inputs = new ArrayList<>();
+    try {
+      if (spilledRuns.isEmpty()) {
+        run.sort(ORDER);
+        runs.add(memoryRun(run));
+      } else {
+        if (!run.isEmpty()) {
+          spill();
+        }
+        for (int i = 0; i < spilledRuns.size(); i++) {
+          BinaryInput input = new BinaryInput(new BufferedInputStream(Files.newInputStream(spilledRuns.get(i))), SPILL_BUFFER_SIZE, 0);
+          inputs.add(input);
+          runs.add(spilledRun(input, spilledRunSizes.get(i)));
+        }
+      }
+      report(merge(runs));
+    } finally {
+      for (BinaryInput input : inputs) {
+        input.close();
+      }
+    }
+    out.append("=wasted= ").append(wastedBytes).append('|').append(sets).append('|').append(duplicateFiles).newLine();
+    ScanMetrics metrics = context.metrics;
+    if (metrics != null) {
+      metrics.hashedFiles.add(hashPipeline.hashedFiles.sum());
+      metrics.hashedBytes.add(hashPipeline.hashedBytes.sum());
+      metrics.add(ScanMetrics.Phase.HASH, hashPipeline.hashNanos.sum());
+      metrics.add(ScanMetrics.Phase.HASH_WAIT, hashPipeline.waitNanos.sum());
+    }
+  }
+
+  private void report(Run files) throws IOException {
+    List<List<FileEntry>> batch = new ArrayList<>();
+    int batchFiles = 0;
+    List<FileEntry> group = new ArrayList<>();
+    for (FileEntry entry = files.next(); entry != null; entry = files.next()) {
+      if (!group.isEmpty() && group.get(0).size != entry.size) {
+        if (group.size() > 1) {
+          batch.add(group);
+          batchFiles += group.size();
+          if (batchFiles >= BATCH_SIZE) {
+            hash(batch);
+            batch.clear();
+            batchFiles = 0;
+          }
+        }
+        group = new ArrayList<>();
+      }
+      group.add(entry);
+    }
+    if (group.size() > 1) {
+      batch.add(group);
+    }
+    hash(batch);
+  }
+
+  // the groups of files having the same size, split by edges fingerprint then by digest, all the files of a stage
+  // are submitted before waiting for the first one
+  private void hash(List<List<FileEntry>> groups) throws IOException {
+    List<List<FileEntry>> candidates = new ArrayList<>();
+    List<List<FileEntry>> fingerprinted = new ArrayList<>();
+    List<List<Future<String>>> fingerprints = new ArrayList<>();
+    for (List<FileEntry> group : groups) {
+      // the edges of a small file are the whole file, its full digest costs the same
+      if (group.get(0).size <= 2L * HashAlgorithm.QUICK_SAMPLE_SIZE) {
+        candidates.add(group);
+      } else {
+        List<Future<String>> groupFingerprints = new ArrayList<>();
+        for (FileEntry entry : group) {
+          groupFingerprints.add(hashPipeline.submitEdges(absolutePath(entry), entry.size));
+        }
+        fingerprinted.add(group);
+        fingerprints.add(groupFingerprints);
+      }
+    }
+    for (int i = 0; i < fingerprinted.size(); i++) {
+      candidates.addAll(split(fingerprinted.get(i), fingerprints.get(i)).values());
+    }
+    // in size order, the small files were not fingerprinted
+    candidates.sort(Comparator.comparingLong(group -> group.get(0).size));
+    List<List<Future<String>>> digests = new ArrayList<>();
+    for (List<FileEntry> group : candidates) {
+      List<Future<String>> groupDigests = new ArrayList<>();
+      for (FileEntry entry : group) {
+        String digest = reusableDigest(entry);
+        groupDigests.add(digest != null ? CompletableFuture.completedFuture(digest) : hashPipeline.submit(absolutePath(entry), entry.size));
+      }
+      digests.add(groupDigests);
+    }
+    for (int i = 0; i < candidates.size(); i++) {
+      for (Map.Entry<String, List<FileEntry>> duplicates : split(candidates.get(i), digests.get(i)).entrySet()) {
+        print(duplicates.getKey(), duplicates.getValue());
+      }
+    }
+  }
+
+  // the files by hash, only the hashes of at least two files
+  private Map<String, List<FileEntry>> split(List<FileEntry> group, List<Future<String>> hashes) throws IOException {
+    Map<String, List<FileEntry>> sameHash = new LinkedHashMap<>();
+    for (int i = 0; i < group.size(); i++) {
+      sameHash.computeIfAbsent(hashPipeline.await(hashes.get(i)), hash -> new ArrayList<>()).add(group.get(i));
+    }
+    sameHash.values().removeIf(files -> files.size() < 2);
+    return sameHash;
+  }
+
+  // the full digest of the last snapshot if the file did not change since, null otherwise
+  private String reusableDigest(FileEntry entry) throws IOException {
+    if (context.lastStatPath == null) {
+      return null;
+    }
+    FileAttributes last = context.lastAttributes(entry.path);
+    if (last != null && last.type == FileAttributes.Type.FILE && last.size == entry.size &&
+      last.modifiedTime.equals(entry.modifiedTime) && context.hashAlgorithm.isDigest(last.sha1OrSymbolicLink)) {
+      return last.sha1OrSymbolicLink;
+    }
+    return null;
+  }
+
+  private void print(String digest, List<FileEntry> duplicates) throws IOException {
+    long size = duplicates.get(0).size;
+    long wasted = size * (duplicates.size() - 1);
+    out.append("=dup= ").append(wasted).append('|').append(size).append('|').append(duplicates.size()).append('|')
+      .append(digest).newLine();
+    for (FileEntry entry : duplicates) {
+      out.append(entry.path).newLine();
+    }
+    wastedBytes += wasted;
+    sets++;
+    duplicateFiles += duplicates.size();
+  }
+
+  private Path absolutePath(FileEntry entry) {
+    return context.baseDirectory.resolve(entry.path);
+  }
+
+  private static Run memoryRun(List<FileEntry> entries) {
+    int[] position = {0};
+    return () -> position[0] < entries.size() ? entries.get(position[0]++) : null;
+  }
+
+  private static Run spilledRun(BinaryInput input, int size) {
+    int[] remaining = {size};
+    String[] previousPath = {""};
+    return () -> {
+      if (remaining[0] == 0) {
+        return null;
+      }
+      remaining[0]--;
+      long fileSize = input.readVarLong();
+      String modifiedTime = input.readString();
+      previousPath[0] = input.readPath(previousPath[0]);
+      return new FileEntry(fileSize, modifiedTime, previousPath[0]);
+    };
+  }
+
+  // the entries of all the runs in the ORDER
+  private static Run merge(List<Run> runs) throws IOException {
+    if (runs.size() == 1) {
+      return runs.get(0);
+    }
+    class Head {
+      final Run run;
+      FileEntry entry;
+
+      Head(Run run, FileEntry entry) {
+        this.run = run;
+        this.entry = entry;
+      }
+    }
+    PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> ORDER.compare(a.entry, b.entry));
+    for (Run sortedRun : runs) {
+      FileEntry entry = sortedRun.next();
+      if (entry != null) {
+        heads.add(new Head(sortedRun, entry));
+      }
+    }
+    return () -> {
+      Head head = heads.poll();
+      if (head == null) {
+        return null;
+      }
+      FileEntry entry = head.entry;
+      head.entry = head.run.next();
+      if (head.entry != null) {
+        heads.add(head);
+      }
+      return entry;
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    hashPipeline.close();
+    for (Path runPath : spilledRuns) {
+      Files.deleteIfExists(runPath);
+    }
+    if (spillDirectory != null) {
+      Files.deleteIfExists(spillDirectory);
+    }
+  }
+
+}
@@ -4,14 +4,33 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermissions;
-import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 public class FileAttributes {
 
+  private static final String UNIX_ATTRIBUTES = "unix:mode,uid,gid,size,lastModifiedTime";
+  // file type bits of the unix mode
+  private static final int S_IFMT = 0170000;
+  private static final int S_IFLNK = 0120000;
+  private static final int S_IFDIR = 0040000;
+  private static final int S_IFREG = 0100000;
+  // "rwxr-xr-x" like text of the 9 permission bits
+  private static final String[] PERMISSIONS = new String[01000];
+
+  static {
+    for (int bits = 0; bits < PERMISSIONS.length; bits++) {
+      char[] text = new char[9];
+      for (int i = 0; i < 9; i++) {
+        text[i] = (bits & (0400 >> i)) != 0 ? "rwx".charAt(i % 3) : '-';
+      }
+      PERMISSIONS[bits] = new String(text);
+    }
+  }
+
   public enum Type {
     FILE("f"),
     DIRECTORY("d"),
@@ -60,69 +79,146 @@ public class FileAttributes {
     this.sha1OrSymbolicLink = sha1OrSymbolicLink;
   }
 
-  public static FileAttributes fromPath(StatContext context, Path path) throws IOException {
-    boolean isRootPath = context.baseDirectory.equals(path);
-    String relativeLinuxPath = isRootPath ? "." : normalize(context.baseDirectory.relativize(path));
+  // all the attributes except the file sha1 which is left empty, from a single lstat when the
+  // file system has the "unix" view, the owner and group names are resolved once per scan
+  public static FileAttributes metadataFromPath(StatContext context, Path path) throws IOException {
+    return metadataFromPath(context, path, relativeLinuxPath(context, path));
+  }
+
+  // relativeLinuxPath is the path of the entry in the output, relative to the scanned tree
+  public static FileAttributes metadataFromPath(StatContext context, Path path, String relativeLinuxPath) throws IOException {
+    context.throttle.operation();
+    if (!path.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+      return posixMetadataFromPath(context, path, relativeLinuxPath);
+    }
+    Map<String, Object> unixAttributes;
+    try {
+      unixAttributes = Files.readAttributes(path, UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      throw new IllegalArgumentException("File not found: " + path);
+    }
+    int mode = (Integer) unixAttributes.get("mode");
+    Type type;
+    String sha1OrSymbolicLink = "";
+    switch (mode & S_IFMT) {
+      case S_IFLNK:
+        type = Type.SYMBOLIC_LINK;
+        sha1OrSymbolicLink = normalize(Files.readSymbolicLink(path));
+        break;
+      case S_IFDIR:
+        type = Type.DIRECTORY;
+        break;
+      case S_IFREG:
+        type = Type.FILE;
+        break;
+      default:
+        type = Type.OTHER;
+        break;
+    }
+    int uid = (Integer) unixAttributes.get("uid");
+    int gid = (Integer) unixAttributes.get("gid");
+    String owner = context.userNames.get(uid);
+    String group = context.groupNames.get(gid);
+    if (owner == null || group == null) {
+      PosixFileAttributes posixAttributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      owner = context.userNames.computeIfAbsent(uid, id -> posixAttributes.owner().getName());
+      group = context.groupNames.computeIfAbsent(gid, id -> posixAttributes.group().getName());
+    }
+    long size = (Long) unixAttributes.get("size");
+    String permissions = PERMISSIONS[mode & 0777];
+    String modifiedTime = unixAttributes.get("lastModifiedTime").toString(); // last time the file's content has been modified
+    return new FileAttributes(relativeLinuxPath, type, size, owner, group, permissions, modifiedTime, sha1OrSymbolicLink);
+  }
+
+  private static FileAttributes posixMetadataFromPath(StatContext context, Path path, String relativeLinuxPath) throws IOException {
+    PosixFileAttributes posixAttributes;
+    try {
+      posixAttributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      throw new IllegalArgumentException("File not found: " + path);
+    }
     Type type;
     String sha1OrSymbolicLink = "";
-    if (Files.isSymbolicLink(path)) {
+    if (posixAttributes.isSymbolicLink()) {
       type = Type.SYMBOLIC_LINK;
       sha1OrSymbolicLink = normalize(Files.readSymbolicLink(path));
-    } else if (Files.isDirectory(path)) {
+    } else if (posixAttributes.isDirectory()) {
       type = Type.DIRECTORY;
-    } else if (Files.isRegularFile(path)) {
+    } else if (posixAttributes.isRegularFile()) {
       type = Type.FILE;
-    } else if (Files.exists(path)) {
-      type = Type.OTHER;
     } else {
-      throw new IllegalArgumentException("File not found: " + path);
+      type = Type.OTHER;
     }
-    PosixFileAttributes posixAttributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
     long size = posixAttributes.size();
     String owner = posixAttributes.owner().getName();
     String group = posixAttributes.group().getName();
     String permissions = PosixFilePermissions.toString(posixAttributes.permissions());
     String modifiedTime = posixAttributes.lastModifiedTime().toString(); // last time the file's content has been modified
-    if (type == Type.FILE) {
-      sha1OrSymbolicLink = resolveSha1(context, path, relativeLinuxPath, size, modifiedTime);
-    }
     return new FileAttributes(relativeLinuxPath, type, size, owner, group, permissions, modifiedTime, sha1OrSymbolicLink);
   }
 
-  private static String resolveSha1(StatContext context, Path path, String relativeLinuxPath, long size, String modifiedTime) throws IOException {
-    if (context.computeSha1) {
-      FileAttributes lastAttributes = context.lastFileAttributesMap.get(relativeLinuxPath);
-      if (lastAttributes != null && !lastAttributes.sha1OrSymbolicLink.isEmpty() &&
-        lastAttributes.type == Type.FILE && lastAttributes.size == size && lastAttributes.modifiedTime.equals(modifiedTime)) {
-        return lastAttributes.sha1OrSymbolicLink;
-      }
-      return Sha1.digest(path);
+  public static String relativeLinuxPath(StatContext context, Path path) {
+    return relativeLinuxPath(context.baseDirectory, path);
+  }
+
+  public static String relativeLinuxPath(Path baseDirectory, Path path) {
+    return baseDirectory.equals(path) ? "." : normalize(baseDirectory.relativize(path));
+  }
+
+  // the sha1 of the previous stats if the file has not been modified since and the sha1 comes from
+  // the same algorithm, otherwise null. A quick fingerprint is not reused by --full-hash.
+  public static String reusableSha1(StatContext context, FileAttributes lastAttributes, FileAttributes attributes) {
+    if (lastAttributes != null && isReusableDigest(context, lastAttributes.sha1OrSymbolicLink) &&
+      lastAttributes.type == Type.FILE && lastAttributes.size == attributes.size && lastAttributes.modifiedTime.equals(attributes.modifiedTime)) {
+      return lastAttributes.sha1OrSymbolicLink;
     }
-    return "";
+    return null;
+  }
+
+  static boolean isReusableDigest(StatContext context, String sha1) {
+    return context.hashAlgorithm.isDigest(sha1) || (!context.fullHash && context.hashAlgorithm.isFingerprint(sha1));
   }
 
+  public FileAttributes withSha1OrSymbolicLink(String sha1OrSymbolicLink) {
+    return new FileAttributes(relativeLinuxPath, type, size, owner, group, permissions, modifiedTime, sha1OrSymbolicLink);
+  }
+
+  // the fields are split from the end, the path being the only one that can contain '|'
   public static FileAttributes fromString(String fileDescription) {
-    String[] parts = fileDescription.split("\\|", -1);
-    if (parts.length < 8) {
-      throw new IllegalArgumentException("Invalid fileDescription: " + fileDescription);
-    } else if (parts.length > 8) {
-      parts = new String[] {
-        Arrays.stream(parts).limit(parts.length - 7).collect(Collectors.joining("|")),
-        parts[parts.length - 7], parts[parts.length - 6], parts[parts.length - 5],
-        parts[parts.length - 4], parts[parts.length - 3], parts[parts.length - 2], parts[parts.length - 1]
-      };
-    }
-    String relativeLinuxPath = parts[0];
-    Type type = Type.fromString(parts[1]);
-    long size = Long.parseLong(parts[2]);
-    String owner = parts[3];
-    String group = parts[4];
-    String permissions = parts[5];
-    String modifiedTime = parts[6];
-    String sha1OrSymbolicLink = parts[7];
+    int sha1Start = fieldStart(fileDescription, fileDescription.length());
+    int modifiedTimeStart = fieldStart(fileDescription, sha1Start - 1);
+    int permissionsStart = fieldStart(fileDescription, modifiedTimeStart - 1);
+    int groupStart = fieldStart(fileDescription, permissionsStart - 1);
+    int ownerStart = fieldStart(fileDescription, groupStart - 1);
+    int sizeStart = fieldStart(fileDescription, ownerStart - 1);
+    int typeStart = fieldStart(fileDescription, sizeStart - 1);
+    String relativeLinuxPath = fileDescription.substring(0, typeStart - 1);
+    Type type = Type.fromString(fileDescription.substring(typeStart, sizeStart - 1));
+    long size = Long.parseLong(fileDescription.substring(sizeStart, ownerStart - 1));
+    String owner = fileDescription.substring(ownerStart, groupStart - 1);
+    String group = fileDescription.substring(groupStart, permissionsStart - 1);
+    String permissions = fileDescription.substring(permissionsStart, modifiedTimeStart - 1);
+    String modifiedTime = fileDescription.substring(modifiedTimeStart, sha1Start - 1);
+    String sha1OrSymbolicLink = fileDescription.substring(sha1Start);
     return new FileAttributes(relativeLinuxPath, type, size, owner, group, permissions, modifiedTime, sha1OrSymbolicLink);
   }
 
+  // start of the field ending at fieldEnd, after the previous '|'
+  private static int fieldStart(String fileDescription, int fieldEnd) {
+    int separator = fieldEnd > 0 ? fileDescription.lastIndexOf('|', fieldEnd - 1) : -1;
+    if (separator == -1) {
+      throw new IllegalArgumentException("Invalid fileDescription: " + fileDescription);
+    }
+    return separator + 1;
+  }
+
+  // same fields, like equal toString() texts without building them
+  public boolean sameAs(FileAttributes other) {
+    return size == other.size && type == other.type && relativeLinuxPath.equals(other.relativeLinuxPath) &&
+      modifiedTime.equals(other.modifiedTime) && sha1OrSymbolicLink.equals(other.sha1OrSymbolicLink) &&
+      permissions.equals(other.permissions) && owner.equals(other.owner) && group.equals(other.group);
+  }
+
   @Override
   public String toString() {
     return relativeLinuxPath + "|" + type + "|" + size + "|" + owner + "|" + group + "|" + permissions + "|" + modifiedTime + "|" + sha1OrSymbolicLink;
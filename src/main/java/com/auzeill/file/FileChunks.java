@@ -0,0 +1,284 @@
+package com.auzeill.file;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Content-defined chunks of a big file, FastCDC style: a gear rolling hash cuts a chunk when its
+ * masked bits are zero, using a harder mask before the average size and an easier one after it.
+ * An insertion only changes the chunks around it, the following chunks keep their digest.
+ * The chunks of a snapshot are saved in a "chunks-*" side file next to it.
+ */
+public class FileChunks {
+
+  static final int MIN_SIZE = 256 * 1024;
+  static final int AVERAGE_SIZE = 1024 * 1024;
+  static final int MAX_SIZE = 4 * 1024 * 1024;
+  // the most significant bits depend on the last 64 bytes
+  private static final long MASK_BEFORE_AVERAGE = -1L << (64 - 22);
+  private static final long MASK_AFTER_AVERAGE = -1L << (64 - 18);
+  private static final long[] GEAR = gearTable();
+
+  static final String SIDE_FILE_PREFIX = "chunks-";
+
+  public final String path;
+  public final long size;
+  public final String modifiedTime;
+  // digest of the whole file
+  public final String digest;
+  // end offset of each chunk, exclusive
+  public final long[] ends;
+  public final String[] digests;
+
+  public FileChunks(String path, long size, String modifiedTime, String digest, long[] ends, String[] digests) {
+    this.path = path;
+    this.size = size;
+    this.modifiedTime = modifiedTime;
+    this.digest = digest;
+    this.ends = ends;
+    this.digests = digests;
+  }
+
+  // reads the file once for its digest and the digest of its chunks
+  public static FileChunks compute(HashAlgorithm algorithm, Path path, FileAttributes attributes, IoThrottle throttle) throws IOException {
+    HashAlgorithm.Hasher fileHasher = algorithm.newHasher();
+    HashAlgorithm.Hasher chunkHasher = algorithm.newHasher();
+    List<Long> ends = new ArrayList<>();
+    List<String> digests = new ArrayList<>();
+    ByteBuffer buffer = ByteBuffer.allocate(HashAlgorithm.BUFFER_SIZE);
+    byte[] data = buffer.array();
+    long offset = 0;
+    long chunkLength = 0;
+    long fingerprint = 0;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      int length;
+      while ((length = channel.read(buffer)) != -1) {
+        throttle.read(length);
+        fileHasher.update(data, 0, length);
+        int sliceStart = 0;
+        int position = 0;
+        while (position < length) {
+          if (chunkLength < MIN_SIZE) {
+            // no cut point before the minimum size, the rolling hash does not need those bytes
+            int skipped = (int) Math.min(MIN_SIZE - chunkLength, length - position);
+            position += skipped;
+            chunkLength += skipped;
+            continue;
+          }
+          // scans up to the average size, the max size or the end of the data with the same mask
+          long mask = chunkLength < AVERAGE_SIZE ? MASK_BEFORE_AVERAGE : MASK_AFTER_AVERAGE;
+          int limit = position + (int) Math.min((chunkLength < AVERAGE_SIZE ? AVERAGE_SIZE : MAX_SIZE) - chunkLength, length - position);
+          int start = position;
+          boolean cut = false;
+          while (position < limit) {
+            fingerprint = (fingerprint << 1) + GEAR[data[position++] & 0xFF];
+            if ((fingerprint & mask) == 0) {
+              cut = true;
+              break;
+            }
+          }
+          chunkLength += position - start;
+          if (cut || chunkLength >= MAX_SIZE) {
+            chunkHasher.update(data, sliceStart, position - sliceStart);
+            sliceStart = position;
+            offset += chunkLength;
+            ends.add(offset);
+            digests.add(algorithm.format(chunkHasher.digest()));
+            chunkLength = 0;
+            fingerprint = 0;
+          }
+        }
+        chunkHasher.update(data, sliceStart, length - sliceStart);
+        buffer.clear();
+      }
+    }
+    if (chunkLength > 0) {
+      offset += chunkLength;
+      ends.add(offset);
+      digests.add(algorithm.format(chunkHasher.digest()));
+    }
+    long[] endArray = new long[ends.size()];
+    for (int i = 0; i < endArray.length; i++) {
+      endArray[i] = ends.get(i);
+    }
+    return new FileChunks(attributes.relativeLinuxPath, offset, attributes.modifiedTime, algorithm.format(fileHasher.digest()),
+      endArray, digests.toArray(new String[0]));
+  }
+
+  // byte ranges, with inclusive bounds, of the chunks not found in the previous version of the file,
+  // like "0-262143,1048576-2097151", empty if all the chunks are known
+  public String changedBytes(FileChunks previous) {
+    Set<String> previousDigests = new HashSet<>();
+    for (String previousDigest : previous.digests) {
+      previousDigests.add(previousDigest);
+    }
+    StringBuilder ranges = new StringBuilder();
+    long rangeStart = -1;
+    long start = 0;
+    for (int i = 0; i <= ends.length; i++) {
+      boolean changed = i < ends.length && !previousDigests.contains(digests[i]);
+      if (changed && rangeStart == -1) {
+        rangeStart = start;
+      } else if (!changed && rangeStart != -1) {
+        if (ranges.length() > 0) {
+          ranges.append(',');
+        }
+        ranges.append(rangeStart).append('-').append(start - 1);
+        rangeStart = -1;
+      }
+      if (i < ends.length) {
+        start = ends[i];
+      }
+    }
+    return ranges.toString();
+  }
+
+  // side file of the given snapshot, shared by a delta snapshot and the full snapshot it is compacted to
+  public static Path sideFile(Path snapshotPath) {
+    String name = snapshotPath.getFileName().toString();
+    if (name.startsWith("stat-")) {
+      name = name.substring("stat-".length());
+    } else if (name.startsWith(DeltaSnapshot.PREFIX)) {
+      name = name.substring(DeltaSnapshot.PREFIX.length());
+    }
+    return snapshotPath.resolveSibling(SIDE_FILE_PREFIX + name);
+  }
+
+  // "path|size|modifiedTime|digest|chunk count" followed by one "end|digest" line per chunk
+  public static void save(Path sideFile, List<FileChunks> files) throws IOException {
+    try (PrintStream out = new PrintStream(new BufferedOutputStream(Files.newOutputStream(sideFile), 64 * 1024), false, UTF_8)) {
+      for (FileChunks file : files) {
+        out.println(file.path + '|' + file.size + '|' + file.modifiedTime + '|' + file.digest + '|' + file.ends.length);
+        for (int i = 0; i < file.ends.length; i++) {
+          out.println(file.ends[i] + "|" + file.digests[i]);
+        }
+      }
+      if (out.checkError()) {
+        throw new IOException("Failed to write " + sideFile);
+      }
+    }
+  }
+
+  // empty if the side file does not exist
+  public static Map<String, FileChunks> load(Path sideFile) throws IOException {
+    Map<String, FileChunks> files = new HashMap<>();
+    if (!Files.exists(sideFile)) {
+      return files;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(sideFile, UTF_8)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        // the path can contain '|', it ends before the 4 last fields
+        String[] fields = new String[5];
+        int end = line.length();
+        for (int i = 4; i > 0; i--) {
+          int separator = line.lastIndexOf('|', end - 1);
+          if (separator == -1) {
+            throw new IllegalArgumentException("Invalid chunks: " + line);
+          }
+          fields[i] = line.substring(separator + 1, end);
+          end = separator;
+        }
+        fields[0] = line.substring(0, end);
+        int count = Integer.parseInt(fields[4]);
+        long[] ends = new long[count];
+        String[] digests = new String[count];
+        for (int i = 0; i < count; i++) {
+          String chunk = reader.readLine();
+          int separator = chunk == null ? -1 : chunk.indexOf('|');
+          if (separator == -1) {
+            throw new IllegalArgumentException("Invalid chunks of " + fields[0] + ": " + chunk);
+          }
+          ends[i] = Long.parseLong(chunk.substring(0, separator));
+          digests[i] = chunk.substring(separator + 1);
+        }
+        files.put(fields[0], new FileChunks(fields[0], Long.parseLong(fields[1]), fields[2], fields[3], ends, digests));
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Chunks of the last snapshot, loaded on the first use, and chunks of the current scan.
+   */
+  public static class Store {
+
+    private final Path previousSideFile;
+    private Map<String, FileChunks> previous;
+    private final Map<String, FileChunks> current = new ConcurrentHashMap<>();
+
+    // previousSideFile can be null
+    public Store(Path previousSideFile) {
+      this.previousSideFile = previousSideFile;
+    }
+
+    public synchronized FileChunks previous(String path) throws IOException {
+      if (previous == null) {
+        previous = previousSideFile != null ? load(previousSideFile) : new HashMap<>();
+      }
+      return previous.get(path);
+    }
+
+    // the previous chunks if the size and modified time say the file has not changed
+    public FileChunks reusable(HashAlgorithm algorithm, FileAttributes attributes) throws IOException {
+      FileChunks chunks = previous(attributes.relativeLinuxPath);
+      if (chunks != null && chunks.size == attributes.size && chunks.modifiedTime.equals(attributes.modifiedTime) &&
+        algorithm.isDigest(chunks.digest)) {
+        return chunks;
+      }
+      return null;
+    }
+
+    public void add(FileChunks chunks) {
+      current.put(chunks.path, chunks);
+    }
+
+    public FileChunks current(String path) {
+      return current.get(path);
+    }
+
+    // null if the chunks of one of the versions are unknown
+    public String changedBytes(String path) throws IOException {
+      FileChunks chunks = current(path);
+      FileChunks previousChunks = previous(path);
+      return chunks != null && previousChunks != null ? chunks.changedBytes(previousChunks) : null;
+    }
+
+    public void save(Path sideFile) throws IOException {
+      List<FileChunks> files = new ArrayList<>(current.values());
+      files.sort((a, b) -> FileAttributes.comparePath(a.path, b.path));
+      FileChunks.save(sideFile, files);
+    }
+
+  }
+
+  // SplitMix64, the table only has to be random and never change
+  private static long[] gearTable() {
+    long[] table = new long[256];
+    long state = 0x6A09E667F3BCC908L;
+    for (int i = 0; i < table.length; i++) {
+      state += 0x9E3779B97F4A7C15L;
+      long value = state;
+      value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+      value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+      table[i] = value ^ (value >>> 31);
+    }
+    return table;
+  }
+
+}
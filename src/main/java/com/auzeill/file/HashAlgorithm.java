@@ -0,0 +1,255 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+/**
+ * Content hash of the files and directories. The sha1 text has no prefix to stay compatible with
+ * the existing snapshots, the other digests are prefixed by the algorithm code, like
+ * "xxh64:ef46db3751d8e999", so a digest is only reused by the same algorithm. A quick fingerprint
+ * of a big file only hashes its size and some sampled blocks, its text is the digest text prefixed
+ * by "quick:".
+ */
+public enum HashAlgorithm {
+
+  SHA1("sha1", 20, () -> new MessageDigestHasher("SHA-1")),
+  SHA256("sha256", 32, () -> new MessageDigestHasher("SHA-256")),
+  // not cryptographic, only to detect changes
+  XXH64("xxh64", 8, Xxh64::new),
+  CRC32C("crc32c", 4, Crc32cHasher::new);
+
+  static final int BUFFER_SIZE = 1024 * 1024;
+  static final long MAPPED_THRESHOLD = 64L * 1024 * 1024;
+  static final long MAPPED_REGION_SIZE = 256L * 1024 * 1024;
+  static final String QUICK_PREFIX = "quick:";
+  static final int QUICK_SAMPLES = 16;
+  static final int QUICK_SAMPLE_SIZE = 64 * 1024;
+  // smaller files are fully hashed, sampling would read them almost entirely
+  static final long QUICK_THRESHOLD = 4L * QUICK_SAMPLES * QUICK_SAMPLE_SIZE;
+
+  private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+  public final String code;
+  // length of the raw digest in bytes
+  public final int length;
+  private final Supplier<Hasher> factory;
+  // hashers are reused by each walk and hashing thread
+  private final ThreadLocal<Hasher> hasher;
+
+  HashAlgorithm(String code, int length, Supplier<Hasher> factory) {
+    this.code = code;
+    this.length = length;
+    this.factory = factory;
+    this.hasher = ThreadLocal.withInitial(factory);
+  }
+
+  public interface Hasher {
+
+    void update(byte[] data, int offset, int length);
+
+    void update(ByteBuffer data);
+
+    // returns the digest and resets the hasher
+    byte[] digest();
+
+  }
+
+  public static HashAlgorithm fromString(String code) {
+    for (HashAlgorithm algorithm : values()) {
+      if (algorithm.code.equals(code)) {
+        return algorithm;
+      }
+    }
+    throw new IllegalArgumentException("Invalid hash: " + code);
+  }
+
+  public Hasher newHasher() {
+    return factory.get();
+  }
+
+  public String digest(byte[] data, int offset, int length) {
+    Hasher threadHasher = hasher.get();
+    threadHasher.update(data, offset, length);
+    return format(threadHasher.digest());
+  }
+
+  public String digest(Path path) throws IOException {
+    return digest(path, IoThrottle.UNLIMITED);
+  }
+
+  // a throttled read rate is kept by reading the file by buffers instead of mapping it
+  public String digest(Path path, IoThrottle throttle) throws IOException {
+    Hasher threadHasher = hasher.get();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size >= MAPPED_THRESHOLD && !throttle.limitsReads()) {
+        long position = 0;
+        while (position < size) {
+          long regionLength = Math.min(MAPPED_REGION_SIZE, size - position);
+          threadHasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position, regionLength));
+          position += regionLength;
+        }
+      } else {
+        ByteBuffer buffer = BUFFER.get();
+        buffer.clear();
+        int length;
+        while ((length = channel.read(buffer)) != -1) {
+          throttle.read(length);
+          buffer.flip();
+          threadHasher.update(buffer);
+          buffer.clear();
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // drops the partial content
+      threadHasher.digest();
+      throw e;
+    }
+    return format(threadHasher.digest());
+  }
+
+  // a quick fingerprint of the files bigger than QUICK_THRESHOLD if quick is true, a full digest otherwise
+  public String digest(Path path, long size, boolean quick) throws IOException {
+    return digest(path, size, quick, IoThrottle.UNLIMITED);
+  }
+
+  public String digest(Path path, long size, boolean quick, IoThrottle throttle) throws IOException {
+    return quick && size > QUICK_THRESHOLD ? fingerprint(path, QUICK_SAMPLES, throttle) : digest(path, throttle);
+  }
+
+  // size of the file and QUICK_SAMPLES blocks, the first at the head, the last at the tail and the
+  // others evenly spaced in between
+  public String fingerprint(Path path) throws IOException {
+    return fingerprint(path, QUICK_SAMPLES, IoThrottle.UNLIMITED);
+  }
+
+  // size of the file, its first and its last block, files of the same size usually differ there
+  public String edgesFingerprint(Path path, IoThrottle throttle) throws IOException {
+    return fingerprint(path, 2, throttle);
+  }
+
+  private String fingerprint(Path path, int samples, IoThrottle throttle) throws IOException {
+    Hasher threadHasher = hasher.get();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteBuffer buffer = BUFFER.get();
+      buffer.clear();
+      buffer.putLong(size);
+      buffer.flip();
+      threadHasher.update(buffer);
+      long sampleSize = Math.min(QUICK_SAMPLE_SIZE, size);
+      for (int i = 0; i < samples; i++) {
+        long position = (size - sampleSize) * i / (samples - 1);
+        buffer.clear();
+        buffer.limit((int) sampleSize);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, position + buffer.position()) == -1) {
+            throw new IOException("File truncated while hashing: " + path);
+          }
+        }
+        throttle.read(sampleSize);
+        buffer.flip();
+        threadHasher.update(buffer);
+      }
+    } catch (IOException | RuntimeException e) {
+      threadHasher.digest();
+      throw e;
+    }
+    return QUICK_PREFIX + format(threadHasher.digest());
+  }
+
+  // bytes read to hash a file
+  public static long readBytes(long size, boolean quick) {
+    return quick && size > QUICK_THRESHOLD ? (QUICK_SAMPLES * (long) QUICK_SAMPLE_SIZE) : size;
+  }
+
+  // text of a raw digest, as stored in the sha1OrSymbolicLink field
+  public String format(byte[] digest) {
+    String hex = Sha1.byteToHex(digest);
+    return this == SHA1 ? hex : (code + ':' + hex);
+  }
+
+  // true if the text is a digest of this algorithm
+  public boolean isDigest(String text) {
+    if (this == SHA1) {
+      return Sha1.isHex(text, length * 2);
+    }
+    return text.length() == code.length() + 1 + length * 2 && text.startsWith(code) && text.charAt(code.length()) == ':' &&
+      Sha1.isHex(text.substring(code.length() + 1), length * 2);
+  }
+
+  // true if the text is a quick fingerprint of this algorithm
+  public boolean isFingerprint(String text) {
+    return text.startsWith(QUICK_PREFIX) && isDigest(text.substring(QUICK_PREFIX.length()));
+  }
+
+  // writes the raw digest of a text accepted by isDigest
+  public void parse(String text, byte[] digest, int offset) {
+    Sha1.hexToByte(this == SHA1 ? text : text.substring(code.length() + 1), digest, offset);
+  }
+
+  @Override
+  public String toString() {
+    return code;
+  }
+
+  private static class MessageDigestHasher implements Hasher {
+
+    private final MessageDigest messageDigest;
+
+    private MessageDigestHasher(String algorithm) {
+      try {
+        messageDigest = MessageDigest.getInstance(algorithm);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+      messageDigest.update(data, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+      messageDigest.update(data);
+    }
+
+    @Override
+    public byte[] digest() {
+      return messageDigest.digest();
+    }
+
+  }
+
+  private static class Crc32cHasher implements Hasher {
+
+    private final CRC32C crc = new CRC32C();
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+      crc.update(data, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+      crc.update(data);
+    }
+
+    @Override
+    public byte[] digest() {
+      int value = (int) crc.getValue();
+      crc.reset();
+      return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+  }
+
+}
@@ -0,0 +1,143 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashes files on dedicated threads, the number of bytes of the files being hashed is limited
+ * so the walk waits when the hashing threads can not keep up.
+ */
+public class HashPipeline implements AutoCloseable {
+
+  public final HashAlgorithm algorithm;
+  // big files only get a quick fingerprint
+  public final boolean quickHash;
+  public final int threads;
+  public final long maxInFlightBytes;
+  public final IoThrottle throttle;
+  public final LongAdder hashedFiles = new LongAdder();
+  public final LongAdder hashedBytes = new LongAdder();
+  public final LongAdder waitNanos = new LongAdder();
+  // summed over the hashing threads
+  public final LongAdder hashNanos = new LongAdder();
+  private final ExecutorService executor;
+  private long inFlightBytes = 0;
+
+  public HashPipeline(int threads, long maxInFlightBytes) {
+    this(HashAlgorithm.SHA1, false, threads, maxInFlightBytes);
+  }
+
+  public HashPipeline(HashAlgorithm algorithm, boolean quickHash, int threads, long maxInFlightBytes) {
+    this(algorithm, quickHash, threads, maxInFlightBytes, IoThrottle.UNLIMITED);
+  }
+
+  public HashPipeline(HashAlgorithm algorithm, boolean quickHash, int threads, long maxInFlightBytes, IoThrottle throttle) {
+    this.algorithm = algorithm;
+    this.quickHash = quickHash;
+    this.threads = threads;
+    this.maxInFlightBytes = maxInFlightBytes;
+    this.throttle = throttle;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "hash-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public Future<String> submit(Path path, long size) throws IOException {
+    return submit(HashAlgorithm.readBytes(size, quickHash), () -> algorithm.digest(path, size, quickHash, throttle));
+  }
+
+  // the fingerprint of the first and the last block of the file
+  public Future<String> submitEdges(Path path, long size) throws IOException {
+    return submit(Math.min(size, 2L * HashAlgorithm.QUICK_SAMPLE_SIZE), () -> algorithm.edgesFingerprint(path, throttle));
+  }
+
+  // the digest of the file, its chunks are added to the store
+  public Future<String> submitChunks(Path path, FileAttributes attributes, FileChunks.Store store) throws IOException {
+    return submit(attributes.size, () -> {
+      FileChunks chunks = FileChunks.compute(algorithm, path, attributes, throttle);
+      store.add(chunks);
+      return chunks.digest;
+    });
+  }
+
+  private Future<String> submit(long readBytes, Callable<String> digest) throws IOException {
+    long reservedBytes = Math.min(Math.max(readBytes, 1), maxInFlightBytes);
+    reserve(reservedBytes);
+    try {
+      return executor.submit(() -> {
+        long start = System.nanoTime();
+        try {
+          String sha1 = digest.call();
+          hashedFiles.increment();
+          hashedBytes.add(readBytes);
+          return sha1;
+        } finally {
+          hashNanos.add(System.nanoTime() - start);
+          release(reservedBytes);
+        }
+      });
+    } catch (RuntimeException e) {
+      release(reservedBytes);
+      throw e;
+    }
+  }
+
+  public String await(Future<String> sha1) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return sha1.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a sha1");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      waitNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  private synchronized void reserve(long bytes) throws InterruptedIOException {
+    while (inFlightBytes + bytes > maxInFlightBytes) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a hashing thread");
+      }
+    }
+    inFlightBytes += bytes;
+  }
+
+  private synchronized void release(long bytes) {
+    inFlightBytes -= bytes;
+    notifyAll();
+  }
+
+  public String report() {
+    return "hash: " + hashedFiles.sum() + " files, " + hashedBytes.sum() + " bytes, " + threads + " threads, " +
+      (waitNanos.sum() / 1_000_000) + " ms waiting for hashes";
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+}
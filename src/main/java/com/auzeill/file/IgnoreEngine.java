@@ -0,0 +1,249 @@
+package com.auzeill.file;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The patterns of an IgnoreExpression.Matcher compiled together, so the cost of a match does not
+ * grow with the number of patterns: a hash set of the exact paths, a trie of the reversed suffixes,
+ * the sibling conditions by entry name, and a trie of the glob segments walked as an automaton.
+ */
+public class IgnoreEngine {
+
+  private static final int NO_MATCH = 0;
+  private static final int DIRECTORY_MATCH = 1;
+  private static final int MATCH = 2;
+
+  private final Set<String> exactPaths;
+  private final SuffixNode suffixes = new SuffixNode();
+  private final boolean hasSuffixes;
+  // sibling names by entry name
+  private final Map<String, List<String>> siblingConditions = new HashMap<>();
+  private final GlobNode globs = new GlobNode();
+  private final boolean hasGlobs;
+  // other expressions, matched one by one
+  private final List<IgnoreExpression> others = new ArrayList<>();
+
+  public IgnoreEngine(Collection<String> exactPaths, Collection<IgnoreExpression> expressions) {
+    this.exactPaths = new HashSet<>(exactPaths);
+    boolean suffix = false;
+    boolean glob = false;
+    for (IgnoreExpression expression : expressions) {
+      if (expression instanceof IgnoreExpression.EndWith) {
+        suffixes.add(((IgnoreExpression.EndWith) expression).suffix);
+        suffix = true;
+      } else if (expression instanceof IgnoreExpression.ConditionalSibling) {
+        IgnoreExpression.ConditionalSibling conditional = (IgnoreExpression.ConditionalSibling) expression;
+        siblingConditions.computeIfAbsent(conditional.relativePathPattern, name -> new ArrayList<>()).add(conditional.siblingPattern);
+      } else if (expression instanceof IgnoreExpression.Glob) {
+        globs.add((IgnoreExpression.Glob) expression);
+        glob = true;
+      } else {
+        others.add(expression);
+      }
+    }
+    this.hasSuffixes = suffix;
+    this.hasGlobs = glob;
+  }
+
+  // false when the siblings given to ignore() are not used
+  public boolean hasSiblingConditions() {
+    return !siblingConditions.isEmpty();
+  }
+
+  // siblings can be null, see IgnoreExpression.Matcher
+  public boolean ignore(Path absolutePath, String relativePath, Set<String> siblings) {
+    if (exactPaths.contains(relativePath) || (hasSuffixes && suffixes.matchesEndOf(relativePath))) {
+      return true;
+    }
+    if (!siblingConditions.isEmpty() && matchesSiblingCondition(absolutePath, siblings)) {
+      return true;
+    }
+    if (hasGlobs) {
+      int match = globs.match(relativePath);
+      if (match == MATCH || (match == DIRECTORY_MATCH && Files.isDirectory(absolutePath, LinkOption.NOFOLLOW_LINKS))) {
+        return true;
+      }
+    }
+    for (IgnoreExpression other : others) {
+      if (other.ignore(absolutePath, relativePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean matchesSiblingCondition(Path absolutePath, Set<String> siblings) {
+    Path fileName = absolutePath.getFileName();
+    List<String> siblingNames = fileName != null ? siblingConditions.get(fileName.toString()) : null;
+    if (siblingNames == null) {
+      return false;
+    }
+    for (String sibling : siblingNames) {
+      if (siblings != null && sibling.indexOf('/') == -1) {
+        if (siblings.contains(sibling)) {
+          return true;
+        }
+      } else {
+        Path parent = absolutePath.getParent();
+        if (parent != null && Files.exists(parent.resolve(sibling))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // the suffixes are stored from their last character
+  private static class SuffixNode {
+
+    private char[] characters = new char[0];
+    private SuffixNode[] children = new SuffixNode[0];
+    private boolean terminal = false;
+
+    private void add(String suffix) {
+      SuffixNode node = this;
+      for (int i = suffix.length() - 1; i >= 0; i--) {
+        node = node.childOrCreate(suffix.charAt(i));
+      }
+      node.terminal = true;
+    }
+
+    private boolean matchesEndOf(String text) {
+      SuffixNode node = this;
+      for (int i = text.length() - 1; i >= 0 && !node.terminal; i--) {
+        node = node.child(text.charAt(i));
+        if (node == null) {
+          return false;
+        }
+      }
+      return node.terminal;
+    }
+
+    private SuffixNode child(char ch) {
+      for (int i = 0; i < characters.length; i++) {
+        if (characters[i] == ch) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    private SuffixNode childOrCreate(char ch) {
+      SuffixNode child = child(ch);
+      if (child == null) {
+        child = new SuffixNode();
+        int length = characters.length;
+        characters = Arrays.copyOf(characters, length + 1);
+        children = Arrays.copyOf(children, length + 1);
+        characters[length] = ch;
+        children[length] = child;
+      }
+      return child;
+    }
+
+  }
+
+  // a state of the glob automaton, its transitions consume one path segment
+  private static class GlobNode {
+
+    private final Map<String, GlobNode> literals = new HashMap<>();
+    private final List<String> wildcardSegments = new ArrayList<>();
+    private final List<Pattern> wildcardPatterns = new ArrayList<>();
+    private final List<GlobNode> wildcardChildren = new ArrayList<>();
+    // reached by "**" without consuming a segment, it consumes any segment and stays active
+    private GlobNode anyDepth;
+    private boolean loop = false;
+    private int match = NO_MATCH;
+
+    private void add(IgnoreExpression.Glob glob) {
+      GlobNode node = this;
+      for (String segment : glob.segments) {
+        if (segment.equals(IgnoreExpression.Glob.ANY_DEPTH)) {
+          if (node.anyDepth == null) {
+            node.anyDepth = new GlobNode();
+            node.anyDepth.loop = true;
+          }
+          node = node.anyDepth;
+        } else if (IgnoreExpression.Glob.isLiteral(segment)) {
+          node = node.literals.computeIfAbsent(segment, name -> new GlobNode());
+        } else {
+          node = node.wildcardChild(segment);
+        }
+      }
+      node.match = Math.max(node.match, glob.directoryOnly ? DIRECTORY_MATCH : MATCH);
+    }
+
+    private GlobNode wildcardChild(String segment) {
+      int index = wildcardSegments.indexOf(segment);
+      if (index != -1) {
+        return wildcardChildren.get(index);
+      }
+      GlobNode child = new GlobNode();
+      wildcardSegments.add(segment);
+      wildcardPatterns.add(IgnoreExpression.Glob.compileSegment(segment));
+      wildcardChildren.add(child);
+      return child;
+    }
+
+    // the best match of the active states after the last segment
+    private int match(String relativePath) {
+      List<GlobNode> active = new ArrayList<>();
+      addWithAnyDepth(active, this);
+      List<GlobNode> next = new ArrayList<>();
+      int start = 0;
+      while (!active.isEmpty()) {
+        int end = relativePath.indexOf('/', start);
+        String name = relativePath.substring(start, end == -1 ? relativePath.length() : end);
+        for (GlobNode node : active) {
+          if (node.loop) {
+            addWithAnyDepth(next, node);
+          }
+          GlobNode literal = node.literals.get(name);
+          if (literal != null) {
+            addWithAnyDepth(next, literal);
+          }
+          for (int i = 0; i < node.wildcardPatterns.size(); i++) {
+            if (node.wildcardPatterns.get(i).matcher(name).matches()) {
+              addWithAnyDepth(next, node.wildcardChildren.get(i));
+            }
+          }
+        }
+        List<GlobNode> swap = active;
+        active = next;
+        next = swap;
+        next.clear();
+        if (end == -1) {
+          break;
+        }
+        start = end + 1;
+      }
+      int result = NO_MATCH;
+      for (GlobNode node : active) {
+        result = Math.max(result, node.match);
+      }
+      return result;
+    }
+
+    private static void addWithAnyDepth(List<GlobNode> nodes, GlobNode node) {
+      if (!nodes.contains(node)) {
+        nodes.add(node);
+        if (node.anyDepth != null) {
+          addWithAnyDepth(nodes, node.anyDepth);
+        }
+      }
+    }
+
+  }
+
+}
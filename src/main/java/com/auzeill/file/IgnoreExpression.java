@@ -1,6 +1,7 @@
 package com.auzeill.file;
 
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -8,7 +9,17 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 
+/**
+ * Ignore patterns, matched against the relative linux path of the entries:
+ * - "dir/file" an exact relative path
+ * - "*suffix" any path ending with the suffix, like "*.log" or "*&#47;.git"
+ * - "(?sibling:pom.xml)target" an entry named "target" having a "pom.xml" sibling
+ * - "(?glob)" followed by a gitignore-style glob, like "(?glob)build/", "(?glob)/target",
+ *   "(?glob)**&#47;gen/*.java" or "(?glob)cache-?/[a-f]*"
+ * Without "(?glob)", the wildcards of the other forms are literal characters.
+ */
 public interface IgnoreExpression {
 
   boolean ignore(Path absolutePath, String relativePath);
@@ -17,15 +28,19 @@ public interface IgnoreExpression {
 
     private final List<Function<String, IgnoreExpression>> SUPPORTED_MATCHERS = Arrays.asList(
       EndWith::create,
-      ConditionalSibling::create);
+      ConditionalSibling::create,
+      Glob::create);
 
     public final Set<String> ignoredRelativePaths = new HashSet<>();
     public final List<IgnoreExpression> advancedMatchers = new ArrayList<>();
+    // compiled on the first use after a change
+    private volatile IgnoreEngine engine;
 
     public void add(String relativePath) {
       if (relativePath.isBlank() || relativePath.startsWith("#")) {
         return;
       }
+      engine = null;
       for (Function<String, IgnoreExpression> candidate : SUPPORTED_MATCHERS) {
         IgnoreExpression matcher = candidate.apply(relativePath);
         if (matcher != null) {
@@ -37,8 +52,33 @@ public interface IgnoreExpression {
     }
 
     public boolean ignore(Path absolutePath, String relativePath) {
-      return ignoredRelativePaths.contains(relativePath) ||
-        advancedMatchers.stream().anyMatch(matcher -> matcher.ignore(absolutePath, relativePath));
+      return ignore(absolutePath, relativePath, null);
+    }
+
+    // siblings are the names listed in the parent directory, they answer the sibling conditions
+    // without accessing the file system, null if unknown
+    public boolean ignore(Path absolutePath, String relativePath, Set<String> siblings) {
+      IgnoreEngine compiled = engine;
+      if (compiled == null) {
+        compiled = compile();
+      }
+      return compiled.ignore(absolutePath, relativePath, siblings);
+    }
+
+    // false when the siblings are not needed to know if an entry is ignored
+    public boolean hasSiblingConditions() {
+      IgnoreEngine compiled = engine;
+      if (compiled == null) {
+        compiled = compile();
+      }
+      return compiled.hasSiblingConditions();
+    }
+
+    private synchronized IgnoreEngine compile() {
+      if (engine == null) {
+        engine = new IgnoreEngine(ignoredRelativePaths, advancedMatchers);
+      }
+      return engine;
     }
 
   }
@@ -51,6 +91,7 @@ public interface IgnoreExpression {
       this.suffix = suffix;
     }
 
+    // the suffix after the leading '*' is literal, even with other wildcards
     public static IgnoreExpression create(String pattern) {
       if (pattern.startsWith("*")) {
         return new EndWith(pattern.substring(1));
@@ -95,4 +136,128 @@ public interface IgnoreExpression {
 
   }
 
+  /**
+   * A gitignore-style glob. Without '/' other than a trailing one, it matches the entry name at any
+   * depth, otherwise the whole relative path from the base directory. "*" and "?" do not match '/',
+   * "**" matches any number of directories, a trailing '/' only matches directories. Negations
+   * are not supported.
+   */
+  class Glob implements IgnoreExpression {
+
+    private static final String PREFIX = "(?glob)";
+    static final String ANY_DEPTH = "**";
+
+    public final String pattern;
+    // "**" or a glob matching a single path segment
+    public final List<String> segments;
+    public final boolean directoryOnly;
+
+    public Glob(String pattern) {
+      this.pattern = pattern;
+      String glob = pattern;
+      this.directoryOnly = glob.endsWith("/");
+      if (directoryOnly) {
+        glob = glob.substring(0, glob.length() - 1);
+      }
+      boolean anchored = glob.indexOf('/') != -1;
+      if (glob.startsWith("/")) {
+        glob = glob.substring(1);
+      }
+      List<String> list = new ArrayList<>();
+      if (!anchored) {
+        list.add(ANY_DEPTH);
+      }
+      for (String segment : glob.split("/", -1)) {
+        if (segment.isEmpty() || (segment.equals(ANY_DEPTH) && !list.isEmpty() && list.get(list.size() - 1).equals(ANY_DEPTH))) {
+          continue;
+        }
+        list.add(segment);
+      }
+      if (!list.isEmpty() && list.get(list.size() - 1).equals(ANY_DEPTH)) {
+        // "dir/**" matches the entries inside "dir", not "dir" itself
+        list.set(list.size() - 1, "*");
+        list.add(ANY_DEPTH);
+      }
+      this.segments = List.copyOf(list);
+    }
+
+    public static IgnoreExpression create(String pattern) {
+      if (pattern.startsWith(PREFIX) && pattern.length() > PREFIX.length()) {
+        return new Glob(pattern.substring(PREFIX.length()));
+      }
+      return null;
+    }
+
+    static boolean hasWildcard(String text) {
+      for (int i = 0; i < text.length(); i++) {
+        char ch = text.charAt(i);
+        if (ch == '*' || ch == '?' || ch == '[' || ch == '\\') {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // true if the segment has no wildcard, its text is the segment name
+    static boolean isLiteral(String segment) {
+      return !hasWildcard(segment);
+    }
+
+    // a regular expression matching the same segment names
+    static Pattern compileSegment(String segment) {
+      StringBuilder regex = new StringBuilder();
+      int i = 0;
+      while (i < segment.length()) {
+        char ch = segment.charAt(i);
+        int classEnd = ch == '[' ? segment.indexOf(']', i + 2) : -1;
+        if (ch == '*') {
+          regex.append(".*");
+        } else if (ch == '?') {
+          regex.append('.');
+        } else if (ch == '\\' && i + 1 < segment.length()) {
+          i++;
+          regex.append(Pattern.quote(String.valueOf(segment.charAt(i))));
+        } else if (classEnd != -1) {
+          String characters = segment.substring(i + 1, classEnd);
+          boolean negated = characters.startsWith("!") || characters.startsWith("^");
+          if (negated) {
+            characters = characters.substring(1);
+          }
+          regex.append(negated ? "[^" : "[").append(characters.replace("\\", "\\\\").replace("[", "\\[").replace("&", "\\&")).append(']');
+          i = classEnd;
+        } else {
+          regex.append(Pattern.quote(String.valueOf(ch)));
+        }
+        i++;
+      }
+      return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    // the reference matching, IgnoreEngine compiles the globs together
+    public boolean ignore(Path absolutePath, String relativePath) {
+      if (!matches(0, relativePath.split("/", -1), 0)) {
+        return false;
+      }
+      return !directoryOnly || Files.isDirectory(absolutePath, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private boolean matches(int segmentIndex, String[] names, int nameIndex) {
+      if (segmentIndex == segments.size()) {
+        return nameIndex == names.length;
+      }
+      String segment = segments.get(segmentIndex);
+      if (segment.equals(ANY_DEPTH)) {
+        for (int i = nameIndex; i <= names.length; i++) {
+          if (matches(segmentIndex + 1, names, i)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      return nameIndex < names.length && compileSegment(segment).matcher(names[nameIndex]).matches() &&
+        matches(segmentIndex + 1, names, nameIndex + 1);
+    }
+
+  }
+
 }
@@ -0,0 +1,211 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Token buckets limiting the bytes read to hash or compare the files and the metadata operations, lstat
+ * and directory listing, of a scan. A reader takes the tokens of what it has just read and sleeps until
+ * the tokens taken before are paid back, so the rate holds whatever the size of the reads. The limits can
+ * be changed during the scan in a control file, read again when its modification time changes:
+ * <pre>
+ * max-read-rate=20M
+ * max-iops=500
+ * </pre>
+ * A missing key keeps its current limit, 0 removes it.
+ */
+public class IoThrottle {
+
+  public static final IoThrottle UNLIMITED = new IoThrottle(0, 0, null);
+
+  static final String MAX_READ_RATE = "max-read-rate";
+  static final String MAX_IOPS = "max-iops";
+  // at most this time of unused tokens is saved for a burst
+  static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  static final long CONTROL_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  static class Bucket {
+
+    // tokens per second, 0 without limit
+    private volatile long rate;
+    // the time when the tokens already taken are paid back
+    private long freeNanos;
+    final LongAdder tokens = new LongAdder();
+    final LongAdder waitNanos = new LongAdder();
+
+    Bucket(long rate, long now) {
+      this.rate = rate;
+      this.freeNanos = now;
+    }
+
+    long rate() {
+      return rate;
+    }
+
+    synchronized void setRate(long rate) {
+      this.rate = rate;
+    }
+
+    // the time to wait before using the given tokens
+    synchronized long reserve(long count, long now) {
+      if (rate == 0) {
+        return 0;
+      }
+      long free = Math.max(freeNanos, now - BURST_NANOS);
+      freeNanos = free + (long) (count * 1e9 / rate);
+      return Math.max(0, free - now);
+    }
+
+  }
+
+  final Bucket reads;
+  final Bucket operations;
+  // null without control file
+  private final Path controlFile;
+  // false when there is no limit and no control file to set one
+  private final boolean enabled;
+  private final long startNanos;
+  private volatile long nextControlCheck;
+  private FileTime controlModifiedTime;
+
+  public IoThrottle(long maxReadRate, long maxIops, Path controlFile) {
+    this.startNanos = System.nanoTime();
+    this.reads = new Bucket(maxReadRate, startNanos);
+    this.operations = new Bucket(maxIops, startNanos);
+    this.controlFile = controlFile;
+    this.enabled = maxReadRate > 0 || maxIops > 0 || controlFile != null;
+    this.nextControlCheck = startNanos;
+  }
+
+  // also reads the control file, if it exists
+  public static IoThrottle create(long maxReadRate, long maxIops, Path controlFile) throws IOException {
+    IoThrottle throttle = new IoThrottle(maxReadRate, maxIops, controlFile);
+    if (controlFile != null) {
+      throttle.readControlFile();
+    }
+    return throttle;
+  }
+
+  public boolean enabled() {
+    return enabled;
+  }
+
+  public boolean limitsReads() {
+    return reads.rate() > 0;
+  }
+
+  // bytes just read from a file
+  public void read(long bytes) throws InterruptedIOException {
+    if (enabled) {
+      acquire(reads, bytes);
+    }
+  }
+
+  // an lstat or a directory listing about to be done
+  public void operation() throws InterruptedIOException {
+    if (enabled) {
+      acquire(operations, 1);
+    }
+  }
+
+  private void acquire(Bucket bucket, long count) throws InterruptedIOException {
+    long now = System.nanoTime();
+    if (controlFile != null && now - nextControlCheck >= 0) {
+      checkControlFile(now);
+    }
+    bucket.tokens.add(count);
+    long waitNanos = bucket.reserve(count, now);
+    if (waitNanos > 0) {
+      bucket.waitNanos.add(waitNanos);
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while throttling the scan");
+      }
+    }
+  }
+
+  // an invalid control file does not stop a running scan, its limits are ignored
+  private synchronized void checkControlFile(long now) {
+    if (now - nextControlCheck < 0) {
+      return;
+    }
+    nextControlCheck = now + CONTROL_CHECK_NANOS;
+    try {
+      readControlFile();
+    } catch (IOException | IllegalArgumentException e) {
+      System.err.println(e.getMessage() + ", limits unchanged");
+    }
+  }
+
+  synchronized void readControlFile() throws IOException {
+    FileTime modifiedTime;
+    List<String> lines;
+    try {
+      modifiedTime = Files.getLastModifiedTime(controlFile);
+      if (modifiedTime.equals(controlModifiedTime)) {
+        return;
+      }
+      lines = Files.readAllLines(controlFile, UTF_8);
+    } catch (NoSuchFileException e) {
+      // the file can be created later
+      return;
+    }
+    controlModifiedTime = modifiedTime;
+    long maxReadRate = reads.rate();
+    long maxIops = operations.rate();
+    for (String line : lines) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int equals = line.indexOf('=');
+      String key = equals == -1 ? line : line.substring(0, equals).trim();
+      String value = equals == -1 ? "" : line.substring(equals + 1).trim();
+      if (key.equals(MAX_READ_RATE)) {
+        maxReadRate = parseRate(controlFile + " " + MAX_READ_RATE, value);
+      } else if (key.equals(MAX_IOPS)) {
+        maxIops = parseRate(controlFile + " " + MAX_IOPS, value);
+      } else {
+        throw new IllegalArgumentException("Invalid throttle control file " + controlFile + ", unknown line: " + line);
+      }
+    }
+    reads.setRate(maxReadRate);
+    operations.setRate(maxIops);
+  }
+
+  // a size like "20M", or 0 for no limit
+  static long parseRate(String option, String value) {
+    return value.equals("0") ? 0 : StatContext.parseSize(option, value);
+  }
+
+  // the achieved rates since the start of the scan
+  public String report() {
+    double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+    return "throttle: " +
+      reads.tokens.sum() + " bytes read, " + Math.round(reads.tokens.sum() / seconds) + " bytes/s (limit " + limit(reads) + "), " +
+      operations.tokens.sum() + " operations, " + Math.round(operations.tokens.sum() / seconds) + " operations/s (limit " + limit(operations) + "), " +
+      TimeUnit.NANOSECONDS.toMillis(waitNanos()) + " ms throttled";
+  }
+
+  // summed over the threads
+  public long waitNanos() {
+    return reads.waitNanos.sum() + operations.waitNanos.sum();
+  }
+
+  private static String limit(Bucket bucket) {
+    long rate = bucket.rate();
+    return rate == 0 ? "none" : String.valueOf(rate);
+  }
+
+}
@@ -0,0 +1,264 @@
+package com.auzeill.file;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Text output encoded as UTF-8 into a reusable byte buffer, written to a channel by blocks of
+ * BUFFER_SIZE bytes. With a writer thread, a full block is written while the next one is being
+ * filled. Same bytes as a PrintStream println of the same strings, without its lock and encoder
+ * per line.
+ */
+public class LineWriter implements Closeable {
+
+  static final int BUFFER_SIZE = 256 * 1024;
+  // blocks handed to the writer thread and not yet written
+  private static final int MAX_PENDING_BLOCKS = 2;
+  private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(UTF_8);
+
+  // one of channel and stream is null
+  private final WritableByteChannel channel;
+  private final OutputStream stream;
+  private final boolean closeOutput;
+  // null without writer thread
+  private final ExecutorService writer;
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+
+  public LineWriter(WritableByteChannel channel, boolean closeChannel, boolean writerThread) {
+    this(channel, null, closeChannel, writerThread);
+  }
+
+  public LineWriter(OutputStream stream, boolean closeStream, boolean writerThread) {
+    this(null, stream, closeStream, writerThread);
+  }
+
+  private LineWriter(WritableByteChannel channel, OutputStream stream, boolean closeOutput, boolean writerThread) {
+    this.channel = channel;
+    this.stream = stream;
+    this.closeOutput = closeOutput;
+    this.writer = writerThread ? Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "output-writer");
+      thread.setDaemon(true);
+      return thread;
+    }) : null;
+  }
+
+  // the file is created or truncated, and closed with the writer
+  public static LineWriter create(Path path, boolean writerThread) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    return new LineWriter(channel, true, writerThread);
+  }
+
+  // the standard output, written through the channel of its file descriptor and not closed
+  public static LineWriter stdout(boolean writerThread) {
+    System.out.flush();
+    return new LineWriter(new FileOutputStream(FileDescriptor.out).getChannel(), false, writerThread);
+  }
+
+  // the stream is flushed but not closed
+  public static LineWriter of(OutputStream out, boolean writerThread) {
+    return new LineWriter(null, out, false, writerThread);
+  }
+
+  public LineWriter append(String text) throws IOException {
+    int length = text.length();
+    if (BUFFER_SIZE - position < 3 * length) {
+      return appendSlow(text);
+    }
+    byte[] bytes = buffer;
+    int offset = position;
+    for (int i = 0; i < length; i++) {
+      char ch = text.charAt(i);
+      if (ch < 0x80) {
+        bytes[offset++] = (byte) ch;
+      } else {
+        position = offset;
+        return appendSlow(text.substring(i));
+      }
+    }
+    position = offset;
+    return this;
+  }
+
+  // any character, a block being written when the buffer is full
+  private LineWriter appendSlow(String text) throws IOException {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      if (BUFFER_SIZE - position < 4) {
+        writeBlock();
+      }
+      char ch = text.charAt(i);
+      if (ch < 0x80) {
+        buffer[position++] = (byte) ch;
+      } else if (ch < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (ch >> 6));
+        buffer[position++] = (byte) (0x80 | (ch & 0x3F));
+      } else if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(ch, text.charAt(++i));
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(ch)) {
+        // like the UTF-8 encoder of String.getBytes
+        buffer[position++] = '?';
+      } else {
+        buffer[position++] = (byte) (0xE0 | (ch >> 12));
+        buffer[position++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (ch & 0x3F));
+      }
+    }
+    return this;
+  }
+
+  public LineWriter append(char ch) throws IOException {
+    if (ch >= 0x80) {
+      return appendSlow(String.valueOf(ch));
+    }
+    if (position == BUFFER_SIZE) {
+      writeBlock();
+    }
+    buffer[position++] = (byte) ch;
+    return this;
+  }
+
+  public LineWriter append(long value) throws IOException {
+    if (BUFFER_SIZE - position < 20) {
+      writeBlock();
+    }
+    if (value < 0) {
+      if (value == Long.MIN_VALUE) {
+        return append(Long.toString(value));
+      }
+      buffer[position++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long rest = value / 10; rest != 0; rest /= 10) {
+      digits++;
+    }
+    for (int i = position + digits - 1; i >= position; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    position += digits;
+    return this;
+  }
+
+  // the FileAttributes.toString() text
+  public LineWriter append(FileAttributes attributes) throws IOException {
+    return append(attributes.relativeLinuxPath).append('|')
+      .append(attributes.type.code).append('|')
+      .append(attributes.size).append('|')
+      .append(attributes.owner).append('|')
+      .append(attributes.group).append('|')
+      .append(attributes.permissions).append('|')
+      .append(attributes.modifiedTime).append('|')
+      .append(attributes.sha1OrSymbolicLink);
+  }
+
+  public LineWriter newLine() throws IOException {
+    if (BUFFER_SIZE - position < LINE_SEPARATOR.length) {
+      writeBlock();
+    }
+    for (byte b : LINE_SEPARATOR) {
+      buffer[position++] = b;
+    }
+    return this;
+  }
+
+  // writes the buffered lines and waits for the writer thread
+  public void flush() throws IOException {
+    writeBlock();
+    while (!pending.isEmpty()) {
+      await(pending.poll());
+    }
+    if (stream != null) {
+      stream.flush();
+    }
+  }
+
+  private void writeBlock() throws IOException {
+    if (position == 0) {
+      return;
+    }
+    if (writer == null) {
+      write(buffer, position);
+      position = 0;
+      return;
+    }
+    byte[] block = buffer;
+    int length = position;
+    pending.add(writer.submit(() -> {
+      write(block, length);
+      return block;
+    }));
+    // a block already written is reused, the memory is bounded by MAX_PENDING_BLOCKS + 1 blocks
+    if (pending.size() > MAX_PENDING_BLOCKS || pending.peek().isDone()) {
+      buffer = await(pending.poll());
+    } else {
+      buffer = new byte[BUFFER_SIZE];
+    }
+    position = 0;
+  }
+
+  private void write(byte[] block, int length) throws IOException {
+    if (stream != null) {
+      stream.write(block, 0, length);
+      return;
+    }
+    ByteBuffer data = ByteBuffer.wrap(block, 0, length);
+    while (data.hasRemaining()) {
+      channel.write(data);
+    }
+  }
+
+  private static byte[] await(Future<byte[]> block) throws IOException {
+    try {
+      return block.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing the output");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      if (writer != null) {
+        writer.shutdownNow();
+      }
+      if (closeOutput) {
+        (channel != null ? channel : stream).close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,246 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Counters and timers of a scan, written at the end of the run as JSON and in the Prometheus
+ * textfile format. The phase times are summed over the threads doing them, so the walk and hash
+ * phases can be longer than the whole scan.
+ */
+public class ScanMetrics {
+
+  static final String FILE_NAME = "compare-directory";
+  static final int SLOWEST_DIRECTORIES = 10;
+
+  public enum Phase {
+    // parsing of the arguments, ignore file and last snapshot lookup
+    CONTEXT("context"),
+    // lstat of the entries
+    STAT("stat"),
+    LIST("list"),
+    IGNORE("ignore"),
+    // reading of the previous snapshot
+    SNAPSHOT_LOAD("snapshot_load"),
+    HASH("hash"),
+    // time the output waited for a file being hashed
+    HASH_WAIT("hash_wait"),
+    // printed diff and written snapshot
+    OUTPUT("output"),
+    // time slept to keep the --max-read-rate and --max-iops limits
+    THROTTLE("throttle"),
+    SCAN("scan");
+
+    public final String code;
+
+    Phase(String code) {
+      this.code = code;
+    }
+  }
+
+  public final Path directory;
+  public final LongAdder entries = new LongAdder();
+  public final LongAdder files = new LongAdder();
+  public final LongAdder directories = new LongAdder();
+  public final LongAdder hashedFiles = new LongAdder();
+  public final LongAdder hashedBytes = new LongAdder();
+  // files having the sha1 of the previous snapshot, or hashed because they are new or modified
+  public final LongAdder reusedSha1 = new LongAdder();
+  public final LongAdder computedSha1 = new LongAdder();
+  private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+  // only used by the output thread, the exclusive time of each directory, its sub-directories excluded
+  private final Deque<long[]> openDirectories = new ArrayDeque<>();
+  private final PriorityQueue<Directory> slowestDirectories = new PriorityQueue<>((a, b) -> Long.compare(a.nanos, b.nanos));
+
+  public static class Directory {
+
+    public final String path;
+    public final long nanos;
+
+    public Directory(String path, long nanos) {
+      this.path = path;
+      this.nanos = nanos;
+    }
+
+  }
+
+  // the metrics files are written in the given directory
+  public ScanMetrics(Path directory) {
+    this.directory = directory;
+    for (int i = 0; i < phaseNanos.length; i++) {
+      phaseNanos[i] = new LongAdder();
+    }
+  }
+
+  // add(phase, System.nanoTime() - start)
+  public void add(Phase phase, long nanos) {
+    phaseNanos[phase.ordinal()].add(nanos);
+  }
+
+  public long nanos(Phase phase) {
+    return phaseNanos[phase.ordinal()].sum();
+  }
+
+  public void enterDirectory() {
+    openDirectories.push(new long[] {System.nanoTime(), 0});
+  }
+
+  public void exitDirectory(String path) {
+    long[] directory = openDirectories.pop();
+    long elapsed = System.nanoTime() - directory[0];
+    if (!openDirectories.isEmpty()) {
+      openDirectories.peek()[1] += elapsed;
+    }
+    slowestDirectories.add(new Directory(path, elapsed - directory[1]));
+    if (slowestDirectories.size() > SLOWEST_DIRECTORIES) {
+      slowestDirectories.poll();
+    }
+  }
+
+  // the slowest first
+  public List<Directory> slowestDirectories() {
+    List<Directory> result = new ArrayList<>(slowestDirectories);
+    result.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+    return result;
+  }
+
+  // reused / (reused + computed), 0 if no sha1 was needed
+  public double reuseRate() {
+    long reused = reusedSha1.sum();
+    long total = reused + computedSha1.sum();
+    return total == 0 ? 0 : ((double) reused / total);
+  }
+
+  public double entriesPerSecond() {
+    long scanNanos = nanos(Phase.SCAN);
+    return scanNanos == 0 ? 0 : (entries.sum() * 1e9 / scanNanos);
+  }
+
+  // compare-directory.json and compare-directory.prom, replaced atomically for the textfile collector
+  public void write() throws IOException {
+    Files.createDirectories(directory);
+    write(directory.resolve(FILE_NAME + ".json"), this::writeJson);
+    write(directory.resolve(FILE_NAME + ".prom"), this::writePrometheus);
+  }
+
+  private interface Writer {
+    void write(PrintStream out);
+  }
+
+  private static void write(Path path, Writer writer) throws IOException {
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (PrintStream out = new PrintStream(Files.newOutputStream(tempPath), false, UTF_8)) {
+      writer.write(out);
+      if (out.checkError()) {
+        throw new IOException("Failed to write " + tempPath);
+      }
+    }
+    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  void writeJson(PrintStream out) {
+    out.println("{");
+    out.println("  \"entries\": " + entries.sum() + ",");
+    out.println("  \"files\": " + files.sum() + ",");
+    out.println("  \"directories\": " + directories.sum() + ",");
+    out.println("  \"entriesPerSecond\": " + number(entriesPerSecond()) + ",");
+    out.println("  \"hashedFiles\": " + hashedFiles.sum() + ",");
+    out.println("  \"hashedBytes\": " + hashedBytes.sum() + ",");
+    out.println("  \"reusedSha1\": " + reusedSha1.sum() + ",");
+    out.println("  \"computedSha1\": " + computedSha1.sum() + ",");
+    out.println("  \"sha1ReuseRate\": " + number(reuseRate()) + ",");
+    out.println("  \"phaseSeconds\": {");
+    Phase[] phases = Phase.values();
+    for (int i = 0; i < phases.length; i++) {
+      out.println("    \"" + phases[i].code + "\": " + seconds(nanos(phases[i])) + (i + 1 < phases.length ? "," : ""));
+    }
+    out.println("  },");
+    out.println("  \"slowestDirectories\": [");
+    List<Directory> slowest = slowestDirectories();
+    for (int i = 0; i < slowest.size(); i++) {
+      Directory directory = slowest.get(i);
+      out.println("    {\"path\": \"" + escape(directory.path, true) + "\", \"seconds\": " + seconds(directory.nanos) + "}" +
+        (i + 1 < slowest.size() ? "," : ""));
+    }
+    out.println("  ]");
+    out.println("}");
+  }
+
+  void writePrometheus(PrintStream out) {
+    counter(out, "entries_total", "Entries scanned.", entries.sum());
+    counter(out, "files_total", "Files scanned.", files.sum());
+    counter(out, "directories_total", "Directories scanned.", directories.sum());
+    gauge(out, "entries_per_second", "Entries scanned per second.", number(entriesPerSecond()));
+    counter(out, "hashed_files_total", "Files hashed.", hashedFiles.sum());
+    counter(out, "hashed_bytes_total", "Bytes read to hash the files.", hashedBytes.sum());
+    counter(out, "reused_sha1_total", "File sha1 reused from the previous snapshot.", reusedSha1.sum());
+    counter(out, "computed_sha1_total", "File sha1 computed because the file is new or modified.", computedSha1.sum());
+    gauge(out, "sha1_reuse_ratio", "Part of the file sha1 reused from the previous snapshot.", number(reuseRate()));
+    header(out, "phase_seconds", "Time of each phase, summed over the threads.", "gauge");
+    for (Phase phase : Phase.values()) {
+      out.println(name("phase_seconds") + "{phase=\"" + phase.code + "\"} " + seconds(nanos(phase)));
+    }
+    header(out, "slowest_directory_seconds", "Time spent on the slowest directories, sub-directories excluded.", "gauge");
+    for (Directory directory : slowestDirectories()) {
+      out.println(name("slowest_directory_seconds") + "{path=\"" + escape(directory.path, false) + "\"} " + seconds(directory.nanos));
+    }
+  }
+
+  private static void counter(PrintStream out, String name, String help, long value) {
+    header(out, name, help, "counter");
+    out.println(name(name) + " " + value);
+  }
+
+  private static void gauge(PrintStream out, String name, String help, String value) {
+    header(out, name, help, "gauge");
+    out.println(name(name) + " " + value);
+  }
+
+  private static void header(PrintStream out, String name, String help, String type) {
+    out.println("# HELP " + name(name) + " " + help);
+    out.println("# TYPE " + name(name) + " " + type);
+  }
+
+  private static String name(String name) {
+    return "compare_directory_" + name;
+  }
+
+  private static String seconds(long nanos) {
+    return number(nanos / 1e9);
+  }
+
+  private static String number(double value) {
+    return String.format(Locale.ROOT, "%.6f", value);
+  }
+
+  // JSON strings also escape the control characters, Prometheus label values only the new lines
+  static String escape(String text, boolean json) {
+    StringBuilder result = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      if (ch == '"' || ch == '\\') {
+        result.append('\\').append(ch);
+      } else if (ch == '\n') {
+        result.append("\\n");
+      } else if (json && ch < 0x20) {
+        result.append(String.format(Locale.ROOT, "\\u%04x", (int) ch));
+      } else {
+        result.append(ch);
+      }
+    }
+    return result.toString();
+  }
+
+}
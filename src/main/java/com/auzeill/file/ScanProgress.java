@@ -0,0 +1,253 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Progress of a scan, printed at a fixed interval by a timer thread. The scan only increments
+ * counters, the expected totals come from the previous snapshot: its entry count and the size of
+ * its root directory.
+ */
+public class ScanProgress implements AutoCloseable {
+
+  public static class Totals {
+
+    public static final Totals UNKNOWN = new Totals(-1, -1);
+
+    // -1 if unknown
+    public final long entries;
+    public final long bytes;
+
+    public Totals(long entries, long bytes) {
+      this.entries = entries;
+      this.bytes = bytes;
+    }
+
+    // from the end of a binary or delta snapshot, or by counting the lines of a text snapshot whose
+    // last line is the root directory
+    public static Totals read(Path snapshotPath) throws IOException {
+      if (snapshotPath == null) {
+        return UNKNOWN;
+      }
+      try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+        int headerLength = SnapshotWriter.Binary.MAGIC.length + 1;
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        if (channel.size() >= headerLength) {
+          readFully(channel, header, 0);
+        }
+        if (Arrays.equals(Arrays.copyOf(header.array(), SnapshotWriter.Binary.MAGIC.length), SnapshotWriter.Binary.MAGIC)) {
+          return readBinary(channel, header.get(headerLength - 1));
+        } else if (Arrays.equals(Arrays.copyOf(header.array(), DeltaSnapshot.MAGIC.length), DeltaSnapshot.MAGIC)) {
+          return DeltaSnapshot.totals(snapshotPath);
+        }
+        return readText(channel);
+      }
+    }
+
+    // END flags byte, entry count and size of the last entry, followed by the index since INDEX_VERSION
+    private static Totals readBinary(FileChannel channel, int version) throws IOException {
+      long endOffset = channel.size();
+      if (version >= SnapshotWriter.Binary.INDEX_VERSION) {
+        ByteBuffer footer = ByteBuffer.allocate(8);
+        readFully(channel, footer, channel.size() - 8);
+        endOffset = footer.getLong(0);
+      }
+      ByteBuffer end = ByteBuffer.allocate(17);
+      if (endOffset < end.capacity() || endOffset > channel.size()) {
+        throw new IOException("Corrupted binary snapshot, invalid index offset " + endOffset);
+      }
+      readFully(channel, end, endOffset - end.capacity());
+      if ((end.get(0) & 0xFF) != SnapshotWriter.Binary.END) {
+        throw new IOException("Corrupted binary snapshot, no end before " + endOffset);
+      }
+      return new Totals(end.getLong(1), Math.max(end.getLong(9), 0));
+    }
+
+    private static Totals readText(FileChannel channel) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(HashAlgorithm.BUFFER_SIZE);
+      long lines = 0;
+      // the last line is between the two last new lines
+      long previousNewLine = -1;
+      long lastNewLine = -1;
+      long position = 0;
+      while (channel.read(buffer) != -1) {
+        buffer.flip();
+        int limit = buffer.limit();
+        for (int i = 0; i < limit; i++) {
+          if (buffer.get(i) == '\n') {
+            lines++;
+            previousNewLine = lastNewLine;
+            lastNewLine = position + i;
+          }
+        }
+        position += limit;
+        buffer.clear();
+      }
+      if (lines == 0) {
+        return UNKNOWN;
+      }
+      ByteBuffer lastLine = ByteBuffer.allocate((int) Math.min(lastNewLine - previousNewLine - 1, 64 * 1024));
+      readFully(channel, lastLine, previousNewLine + 1);
+      try {
+        return new Totals(lines, FileAttributes.fromString(new String(lastLine.array(), UTF_8).replaceFirst("\r$", "")).size);
+      } catch (RuntimeException e) {
+        // an entry count without the root size
+        return new Totals(lines, -1);
+      }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) == -1) {
+          throw new IOException("Truncated snapshot");
+        }
+      }
+    }
+
+  }
+
+  public final LongAdder entries = new LongAdder();
+  // sizes of the processed files
+  public final LongAdder bytes = new LongAdder();
+  private final PrintStream out;
+  private final LongAdder hashedBytes;
+  // the counters of a shard process instead of the report, see counters()
+  private final boolean counters;
+  private final long startNanos;
+  private final ScheduledExecutorService timer;
+  private volatile Totals totals = Totals.UNKNOWN;
+  // counters of the previous report, for the current throughput
+  private long lastNanos;
+  private long lastEntries = 0;
+  private long lastBytes = 0;
+
+  public ScanProgress(PrintStream out, Path previousSnapshot, LongAdder hashedBytes, int intervalMillis) {
+    this(out, previousSnapshot, hashedBytes, intervalMillis, false);
+  }
+
+  private ScanProgress(PrintStream out, Path previousSnapshot, LongAdder hashedBytes, int intervalMillis, boolean counters) {
+    this.out = out;
+    this.hashedBytes = hashedBytes;
+    this.counters = counters;
+    this.startNanos = System.nanoTime();
+    this.lastNanos = startNanos;
+    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "scan-progress");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // the totals are read by the timer thread before its first report, the scan does not wait for them
+    timer.execute(() -> {
+      try {
+        totals = Totals.read(previousSnapshot);
+      } catch (IOException | RuntimeException e) {
+        out.println("progress: no totals, " + e.getMessage());
+      }
+    });
+    timer.scheduleAtFixedRate(() -> out.println(line()), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // prints the counters of a shard process, read by the ShardedScan process with addCounters
+  public static ScanProgress counters(PrintStream out, LongAdder hashedBytes, int intervalMillis) {
+    return new ScanProgress(out, null, hashedBytes, intervalMillis, true);
+  }
+
+  // called for each entry in the output order
+  public void add(FileAttributes attributes) {
+    entries.increment();
+    if (attributes.type == FileAttributes.Type.FILE) {
+      bytes.add(attributes.size);
+    }
+  }
+
+  // like "1200|1572864|125829120", the entries, the bytes and the hashed bytes
+  String counters() {
+    return entries.sum() + "|" + bytes.sum() + "|" + hashedBytes.sum();
+  }
+
+  // adds the increase of the counters of a shard process since its previous line, returns the new line
+  long[] addCounters(long[] previous, String line) {
+    String[] fields = line.split("\\|");
+    if (fields.length != 3) {
+      throw new IllegalArgumentException("Invalid progress counters: " + line);
+    }
+    long[] current = new long[3];
+    for (int i = 0; i < 3; i++) {
+      current[i] = Long.parseLong(fields[i]);
+    }
+    entries.add(current[0] - previous[0]);
+    bytes.add(current[1] - previous[1]);
+    hashedBytes.add(current[2] - previous[2]);
+    return current;
+  }
+
+  private String line() {
+    return counters ? counters() : report(System.nanoTime());
+  }
+
+  Totals totals() {
+    return totals;
+  }
+
+  // like "progress: 1200/5000 entries 24.0% | 1.5 GB/9.8 GB | hashed 120.0 MB | 240 entries/s 30.0 MB/s | ETA 0:00:16"
+  synchronized String report(long nanos) {
+    long entryCount = entries.sum();
+    long byteCount = bytes.sum();
+    Totals expected = totals;
+    StringBuilder line = new StringBuilder("progress: ").append(entryCount);
+    if (expected.entries > 0) {
+      line.append('/').append(expected.entries);
+    }
+    line.append(" entries");
+    double done = -1;
+    if (expected.entries > 0) {
+      done = Math.min(1.0, (double) entryCount / expected.entries);
+      line.append(String.format(Locale.ROOT, " %.1f%%", done * 100));
+    }
+    line.append(" | ").append(bytes(byteCount));
+    if (expected.bytes >= 0) {
+      line.append('/').append(bytes(expected.bytes));
+    }
+    line.append(" | hashed ").append(bytes(hashedBytes.sum()));
+    double seconds = Math.max(nanos - lastNanos, 1) / 1e9;
+    line.append(String.format(Locale.ROOT, " | %.0f entries/s ", (entryCount - lastEntries) / seconds))
+      .append(bytes((long) ((byteCount - lastBytes) / seconds))).append("/s");
+    lastNanos = nanos;
+    lastEntries = entryCount;
+    lastBytes = byteCount;
+    if (done > 0) {
+      // from the average rate since the start, more stable than the current throughput
+      long etaSeconds = (long) ((nanos - startNanos) / 1e9 * (1 - done) / done);
+      line.append(String.format(Locale.ROOT, " | ETA %d:%02d:%02d", etaSeconds / 3600, etaSeconds / 60 % 60, etaSeconds % 60));
+    }
+    return line.toString();
+  }
+
+  static String bytes(long bytes) {
+    if (bytes < 1024) {
+      return bytes + " B";
+    }
+    int unit = Math.min((63 - Long.numberOfLeadingZeros(bytes)) / 10, 4);
+    return String.format(Locale.ROOT, "%.1f %sB", bytes / (double) (1L << (10 * unit)), "KMGT".charAt(unit - 1));
+  }
+
+  // stops the timer and prints a last report
+  @Override
+  public void close() {
+    timer.shutdownNow();
+    out.println(line());
+  }
+
+}
@@ -0,0 +1,278 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Consumes the walk in the output order on its own thread, merge-joins each entry with the previous
+ * snapshot, reuses or schedules the file sha1 and queues the resulting items for the output. With the
+ * inodeOrder option, the items are held back by batches whose files are hashed in inode order, to limit
+ * the seeks of a spinning disk, before being queued in the output order.
+ */
+public class ScanSequencer implements AutoCloseable {
+
+  static final int QUEUE_CAPACITY = 16 * 1024;
+  // files to hash sorted together by inode
+  static final int INODE_ORDER_BATCH = 4096;
+
+  public enum Kind {
+    ENTER_DIRECTORY,
+    // a file, a link or any other entry
+    ENTRY,
+    // a directory, after all its children, its size and sha1 still need to be aggregated
+    EXIT_DIRECTORY,
+    // an entry of the previous snapshot that no longer exists
+    DELETED,
+    END,
+    FAILURE
+  }
+
+  public static class Item {
+
+    public final Kind kind;
+    public final FileAttributes previous;
+    public final FileAttributes attributes;
+    // set when the batch of the item is submitted in inode order, before the item is queued
+    private Future<String> pendingSha1;
+    private final Throwable failure;
+
+    private Item(Kind kind, FileAttributes previous, FileAttributes attributes, Future<String> pendingSha1, Throwable failure) {
+      this.kind = kind;
+      this.previous = previous;
+      this.attributes = attributes;
+      this.pendingSha1 = pendingSha1;
+      this.failure = failure;
+    }
+
+    // waits for the sha1 of the file if it is not known yet
+    public FileAttributes resolveAttributes(HashPipeline hashPipeline) throws IOException {
+      if (pendingSha1 == null) {
+        return attributes;
+      }
+      return attributes.withSha1OrSymbolicLink(hashPipeline.await(pendingSha1));
+    }
+
+  }
+
+  private final StatContext context;
+  private final HashPipeline hashPipeline;
+  private final SnapshotCursor previousSnapshot;
+  private final BlockingQueue<Item> queue;
+  private final Thread thread;
+  // only used with the inodeOrder option, the items not queued yet and the files they wait for
+  private final List<Item> batch = new ArrayList<>();
+  private final List<Submission> submissions = new ArrayList<>();
+
+  private static class Submission {
+
+    final Item item;
+    final Path path;
+    final boolean chunks;
+    final long inode;
+
+    Submission(Item item, Path path, boolean chunks, long inode) {
+      this.item = item;
+      this.path = path;
+      this.chunks = chunks;
+      this.inode = inode;
+    }
+
+  }
+
+  public ScanSequencer(StatContext context, HashPipeline hashPipeline, SnapshotCursor previousSnapshot, DirectoryWalker.Entry root) {
+    this(context, hashPipeline, previousSnapshot, root, QUEUE_CAPACITY);
+  }
+
+  ScanSequencer(StatContext context, HashPipeline hashPipeline, SnapshotCursor previousSnapshot, DirectoryWalker.Entry root,
+    int queueCapacity) {
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.context = context;
+    this.hashPipeline = hashPipeline;
+    this.previousSnapshot = previousSnapshot;
+    this.thread = new Thread(() -> run(root), "scan-sequencer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  // items in the output order, until END
+  public Item take() throws IOException {
+    Item item;
+    try {
+      item = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the scan");
+    }
+    if (item.kind == Kind.FAILURE) {
+      if (item.failure instanceof IOException) {
+        throw (IOException) item.failure;
+      } else if (item.failure instanceof RuntimeException) {
+        throw (RuntimeException) item.failure;
+      } else if (item.failure instanceof Error) {
+        throw (Error) item.failure;
+      }
+      throw new IllegalStateException(item.failure);
+    }
+    return item;
+  }
+
+  int queuedItems() {
+    return queue.size();
+  }
+
+  @Override
+  public void close() {
+    thread.interrupt();
+  }
+
+  private void run(DirectoryWalker.Entry root) {
+    try {
+      try {
+        sequence(root);
+        for (FileAttributes previous = previousSnapshot.next(); previous != null; previous = previousSnapshot.next()) {
+          deleted(previous);
+        }
+        flushBatch();
+        queue.put(new Item(Kind.END, null, null, null, null));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable e) {
+        queue.put(new Item(Kind.FAILURE, null, null, null, e));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void sequence(DirectoryWalker.Entry entry) throws IOException, InterruptedException {
+    FileAttributes attributes = entry.attributes();
+    if (attributes == null) {
+      return;
+    }
+    if (attributes.type == FileAttributes.Type.DIRECTORY) {
+      put(new Item(Kind.ENTER_DIRECTORY, null, attributes, null, null));
+      List<DirectoryWalker.Entry> children = entry.takeChildren();
+      for (int i = 0; i < children.size(); i++) {
+        sequence(children.get(i));
+        children.set(i, null);
+      }
+      FileAttributes previous = previousAttributes(attributes.relativeLinuxPath);
+      put(new Item(Kind.EXIT_DIRECTORY, previous, attributes, null, null));
+    } else {
+      FileAttributes previous = previousAttributes(attributes.relativeLinuxPath);
+      Future<String> pendingSha1 = null;
+      boolean hashFile = false;
+      boolean hashChunks = false;
+      FileChunks.Store chunkStore = context.chunkStore;
+      if (attributes.type == FileAttributes.Type.FILE && context.computeSha1 && chunkStore != null && attributes.size >= context.chunkThreshold) {
+        // the chunks are reused with the sha1, or computed with it
+        FileChunks chunks = chunkStore.reusable(context.hashAlgorithm, attributes);
+        if (chunks != null) {
+          chunkStore.add(chunks);
+          attributes = attributes.withSha1OrSymbolicLink(chunks.digest);
+        } else if (context.inodeOrder) {
+          hashChunks = true;
+        } else {
+          pendingSha1 = hashPipeline.submitChunks(entry.path, attributes, chunkStore);
+        }
+        countSha1(chunks != null);
+      } else if (attributes.type == FileAttributes.Type.FILE && context.computeSha1) {
+        String sha1 = FileAttributes.reusableSha1(context, previous, attributes);
+        if (sha1 != null) {
+          attributes = attributes.withSha1OrSymbolicLink(sha1);
+        } else if (context.inodeOrder) {
+          hashFile = true;
+        } else {
+          pendingSha1 = hashPipeline.submit(entry.path, attributes.size);
+        }
+        countSha1(sha1 != null);
+      }
+      Item item = new Item(Kind.ENTRY, previous, attributes, pendingSha1, null);
+      if (hashFile || hashChunks) {
+        submissions.add(new Submission(item, entry.path, hashChunks, inode(entry.path)));
+      }
+      put(item);
+    }
+  }
+
+  // 0 when the file system has no "unix" view, the files are then hashed in the output order
+  private static long inode(Path path) throws IOException {
+    if (!path.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+      return 0;
+    }
+    return ((Number) Files.getAttribute(path, "unix:ino", LinkOption.NOFOLLOW_LINKS)).longValue();
+  }
+
+  // submits the files of the batch in inode order, then queues its items in the output order
+  private void flushBatch() throws IOException, InterruptedException {
+    submissions.sort(Comparator.comparingLong(submission -> submission.inode));
+    for (Submission submission : submissions) {
+      Item item = submission.item;
+      item.pendingSha1 = submission.chunks ? hashPipeline.submitChunks(submission.path, item.attributes, context.chunkStore) :
+        hashPipeline.submit(submission.path, item.attributes.size);
+    }
+    submissions.clear();
+    for (Item item : batch) {
+      queue.put(item);
+    }
+    batch.clear();
+  }
+
+  private void countSha1(boolean reused) {
+    if (context.metrics != null) {
+      (reused ? context.metrics.reusedSha1 : context.metrics.computedSha1).increment();
+    }
+  }
+
+  // skips, as deleted, the previous entries before the given path
+  private FileAttributes previousAttributes(String relativeLinuxPath) throws IOException, InterruptedException {
+    if (context.metrics == null) {
+      return joinPrevious(relativeLinuxPath);
+    }
+    long start = System.nanoTime();
+    FileAttributes previous = joinPrevious(relativeLinuxPath);
+    // includes the time to queue the deleted entries
+    context.metrics.add(ScanMetrics.Phase.SNAPSHOT_LOAD, System.nanoTime() - start);
+    return previous;
+  }
+
+  private FileAttributes joinPrevious(String relativeLinuxPath) throws IOException, InterruptedException {
+    FileAttributes previous = previousSnapshot.peek();
+    while (previous != null && FileAttributes.comparePath(previous.relativeLinuxPath, relativeLinuxPath) < 0) {
+      deleted(previousSnapshot.next());
+      previous = previousSnapshot.peek();
+    }
+    if (previous != null && FileAttributes.comparePath(previous.relativeLinuxPath, relativeLinuxPath) == 0) {
+      return previousSnapshot.next();
+    }
+    return null;
+  }
+
+  private void deleted(FileAttributes previous) throws IOException, InterruptedException {
+    // also needed to know which directory sha1 can be reused
+    if (context.diff || context.reuseDirectorySha1) {
+      put(new Item(Kind.DELETED, previous, null, null, null));
+    }
+  }
+
+  private void put(Item item) throws IOException, InterruptedException {
+    if (!context.inodeOrder) {
+      queue.put(item);
+      return;
+    }
+    batch.add(item);
+    if (submissions.size() >= INODE_ORDER_BATCH || batch.size() >= QUEUE_CAPACITY) {
+      flushBatch();
+    }
+  }
+
+}
@@ -1,52 +1,62 @@
 package com.auzeill.file;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Formatter;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 public class Sha1 {
 
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(ISO_8859_1);
+
   public static String digest(byte[] data) {
-    try {
-      MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
-      byte[] sha1 = messageDigest.digest(data);
-      return byteToHex(sha1);
-    } catch (NoSuchAlgorithmException e) {
-      throw new IllegalStateException(e);
-    }
+    return digest(data, 0, data.length);
+  }
+
+  public static String digest(byte[] data, int offset, int length) {
+    return HashAlgorithm.SHA1.digest(data, offset, length);
   }
 
   public static String digest(Path path) throws IOException {
-    try {
-      MessageDigest digest = MessageDigest.getInstance("SHA-1");
-      try(InputStream fis = new FileInputStream(path.toFile())) {
-        int n = 0;
-        byte[] buffer = new byte[8192];
-        while (n != -1) {
-          n = fis.read(buffer);
-          if (n > 0) {
-            digest.update(buffer, 0, n);
-          }
-        }
-        return byteToHex(digest.digest());
+    return HashAlgorithm.SHA1.digest(path);
+  }
+
+  public static String byteToHex(final byte[] data) {
+    byte[] hex = new byte[data.length * 2];
+    for (int i = 0; i < data.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(data[i] >> 4) & 0xF];
+      hex[2 * i + 1] = HEX_DIGITS[data[i] & 0xF];
+    }
+    return new String(hex, ISO_8859_1);
+  }
+
+  public static boolean isHex(String text, int length) {
+    if (text.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      char ch = text.charAt(i);
+      if ((ch < '0' || ch > '9') && (ch < 'a' || ch > 'f')) {
+        return false;
       }
-    } catch (NoSuchAlgorithmException e) {
-      throw new IllegalStateException(e);
     }
+    return true;
   }
 
-  public static String byteToHex(final byte[] data) {
-    Formatter formatter = new Formatter();
-    for (byte b : data) {
-      formatter.format("%02x", b);
+  public static byte[] hexToByte(String hex) {
+    if (!isHex(hex, hex.length() & ~1)) {
+      throw new IllegalArgumentException("Invalid hex: " + hex);
+    }
+    byte[] data = new byte[hex.length() / 2];
+    hexToByte(hex, data, 0);
+    return data;
+  }
+
+  // the hex text has to be valid
+  public static void hexToByte(String hex, byte[] data, int offset) {
+    for (int i = 0; i < hex.length() / 2; i++) {
+      data[offset + i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
     }
-    String result = formatter.toString();
-    formatter.close();
-    return result;
   }
 
 }
@@ -0,0 +1,298 @@
+package com.auzeill.file;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Scans a directory with one Stats process per shard. The entries of the root are split into shards balanced
+ * by their size in the last snapshot, each process saves the subtrees of its shard in a partial snapshot, and
+ * the partial snapshots are merged in the comparePath order into a single snapshot. The root is the only
+ * directory having entries in several shards, its size and sha1 are aggregated by the merge. The threads are
+ * divided between the processes, and with --progress this process reports the sum of their counters.
+ */
+public class ShardedScan {
+
+  private ShardedScan() {
+    // static methods
+  }
+
+  // saves the snapshot of the whole tree, returns its path. In diff mode, the output receives the differences
+  // with the last snapshot.
+  public static Path save(LineWriter out, StatContext context) throws IOException {
+    if (!Files.isDirectory(context.rootPath, LinkOption.NOFOLLOW_LINKS)) {
+      throw new IllegalArgumentException("Invalid --shards, not a directory: " + context.rootPath);
+    }
+    List<String> names;
+    try (Stream<Path> children = Files.list(context.rootPath)) {
+      names = children
+        .filter(child -> context.include(child, child.getFileName().toString()))
+        .map(child -> child.getFileName().toString())
+        .collect(Collectors.toList());
+    }
+    List<List<String>> shards = assign(names, lastSizes(context.lastStatPath), context.shards);
+    Path outPath = context.newStatSavedPath();
+    Files.createDirectories(outPath.getParent());
+    // not a "stat-*" name of the stats directory, a leftover of a failed run is never taken as the last snapshot
+    Path shardDirectory = Files.createTempDirectory(outPath.getParent(), "shards-");
+    List<Path> partials = new ArrayList<>();
+    List<Path> nameFiles = new ArrayList<>();
+    try {
+      List<Process> processes = new ArrayList<>();
+      for (int i = 0; i < shards.size(); i++) {
+        Path nameFile = shardDirectory.resolve("shard-" + i + ".names");
+        Path partial = shardDirectory.resolve("shard-" + i);
+        nameFiles.add(nameFile);
+        partials.add(partial);
+        Files.write(nameFile, shards.get(i), UTF_8);
+        processes.add(start(context, nameFile, partial, shards.size()));
+      }
+      try (ScanProgress progress = context.progress ?
+        new ScanProgress(System.err, context.lastStatPath, new LongAdder(), context.progressIntervalMillis) : null) {
+        List<Thread> readers = new ArrayList<>();
+        if (progress != null) {
+          for (Process process : processes) {
+            readers.add(readCounters(process, progress));
+          }
+        }
+        for (int i = 0; i < processes.size(); i++) {
+          int exitCode = waitFor(processes.get(i));
+          if (exitCode != 0) {
+            throw new IOException("Shard " + i + " of " + context.rootPath + " failed with exit code " + exitCode);
+          }
+        }
+        for (Thread reader : readers) {
+          join(reader);
+        }
+        if (progress != null) {
+          // each partial snapshot has its own root entry, merged into one
+          progress.entries.add(1L - processes.size());
+        }
+      }
+      merge(out, context, partials, outPath);
+    } finally {
+      for (Path path : partials) {
+        Files.deleteIfExists(path);
+      }
+      for (Path path : nameFiles) {
+        Files.deleteIfExists(path);
+      }
+      Files.deleteIfExists(shardDirectory);
+    }
+    return outPath;
+  }
+
+  // the names of the root entries by shard, the biggest entries first, each one in the smallest shard.
+  // An entry missing from the last snapshot weighs the average of the known ones.
+  static List<List<String>> assign(List<String> names, Map<String, Long> lastSizes, int shardCount) {
+    long knownSize = 0;
+    int knownCount = 0;
+    for (String name : names) {
+      Long size = lastSizes.get(name);
+      if (size != null) {
+        knownSize += size;
+        knownCount++;
+      }
+    }
+    long defaultSize = knownCount == 0 ? 1 : Math.max(1, knownSize / knownCount);
+    Map<String, Long> weights = new HashMap<>();
+    for (String name : names) {
+      weights.put(name, lastSizes.getOrDefault(name, defaultSize));
+    }
+    List<String> sorted = new ArrayList<>(names);
+    sorted.sort(Comparator.<String>comparingLong(weights::get).reversed().thenComparing(FileAttributes::comparePath));
+    List<List<String>> shards = new ArrayList<>();
+    long[] shardSizes = new long[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(new ArrayList<>());
+    }
+    for (String name : sorted) {
+      int smallest = 0;
+      for (int i = 1; i < shardCount; i++) {
+        if (shardSizes[i] < shardSizes[smallest]) {
+          smallest = i;
+        }
+      }
+      shards.get(smallest).add(name);
+      shardSizes[smallest] += weights.get(name);
+    }
+    shards.removeIf(List::isEmpty);
+    return shards;
+  }
+
+  // the sizes of the root entries in the last snapshot, empty without last snapshot
+  static Map<String, Long> lastSizes(Path lastStatPath) throws IOException {
+    if (lastStatPath == null) {
+      return Collections.emptyMap();
+    }
+    Map<String, Long> sizes = new HashMap<>();
+    try (SnapshotCursor cursor = SnapshotCursor.open(lastStatPath)) {
+      for (String path = cursor.peekPath(); path != null; path = cursor.peekPath()) {
+        if (path.indexOf('/') == -1 && !path.equals(".")) {
+          sizes.put(path, cursor.next().size);
+        } else {
+          cursor.next();
+        }
+      }
+    }
+    return sizes;
+  }
+
+  // the same arguments, each process only saving its shard with its part of the threads. The metrics, the diff and the
+  // progress are only written by this process, a shard process prints its progress counters on its stdout.
+  private static Process start(StatContext context, Path nameFile, Path partial, int shardCount) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Stats.class.getName());
+    List<String> arguments = new ArrayList<>(context.arguments);
+    removeOption(arguments, StatContext.SHARDS);
+    removeOption(arguments, StatContext.METRICS);
+    removeOption(arguments, StatContext.THREADS);
+    removeOption(arguments, StatContext.HASH_THREADS);
+    arguments.remove(StatContext.DIFF);
+    arguments.remove(StatContext.PROGRESS);
+    command.add(StatContext.SHARD_NAMES);
+    command.add(nameFile.toString());
+    command.add(StatContext.SHARD_OUTPUT);
+    command.add(partial.toString());
+    command.add(StatContext.THREADS);
+    command.add(String.valueOf(Math.max(1, context.threads / shardCount)));
+    command.add(StatContext.HASH_THREADS);
+    command.add(String.valueOf(Math.max(1, context.hashThreads / shardCount)));
+    if (context.progress) {
+      command.add(StatContext.SHARD_PROGRESS);
+    }
+    command.addAll(arguments);
+    return new ProcessBuilder(command)
+      .redirectOutput(context.progress ? ProcessBuilder.Redirect.PIPE : ProcessBuilder.Redirect.DISCARD)
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+  }
+
+  // adds the counters printed by a shard process to the progress, until the end of the process
+  private static Thread readCounters(Process process, ScanProgress progress) {
+    Thread reader = new Thread(() -> {
+      try (BufferedReader lines = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+        long[] previous = new long[3];
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+          previous = progress.addCounters(previous, line);
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        System.err.println("progress: no shard counters, " + e.getMessage());
+      }
+    }, "shard-progress");
+    reader.setDaemon(true);
+    reader.start();
+    return reader;
+  }
+
+  private static void removeOption(List<String> arguments, String option) {
+    int pos = arguments.indexOf(option);
+    if (pos != -1) {
+      arguments.subList(pos, Math.min(pos + 2, arguments.size())).clear();
+    }
+  }
+
+  private static void join(Thread thread) throws InterruptedIOException {
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading the progress of a shard");
+    }
+  }
+
+  private static int waitFor(Process process) throws InterruptedIOException {
+    try {
+      return process.waitFor();
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a shard");
+    }
+  }
+
+  // the partial snapshots have disjoint subtrees of the root, their root entry only has the aggregates of their shard.
+  // The shard processes do not diff, the merged entries are compared with the last snapshot in diff mode.
+  static void merge(LineWriter out, StatContext context, List<Path> partials, Path outPath) throws IOException {
+    List<SnapshotCursor> cursors = new ArrayList<>();
+    try (SnapshotWriter writer = SnapshotWriter.create(outPath, context.format, context.hashAlgorithm);
+         SnapshotCursor lastStat = context.diff ? context.openLastStat() : SnapshotCursor.open(null)) {
+      PriorityQueue<SnapshotCursor> heads = new PriorityQueue<>((a, b) -> {
+        try {
+          return FileAttributes.comparePath(a.peekPath(), b.peekPath());
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      for (Path partial : partials) {
+        SnapshotCursor cursor = SnapshotCursor.open(partial);
+        cursors.add(cursor);
+        if (skipRoot(cursor)) {
+          heads.add(cursor);
+        }
+      }
+      DirectorySummary root = new DirectorySummary(context, ".");
+      for (SnapshotCursor cursor = heads.poll(); cursor != null; cursor = heads.poll()) {
+        FileAttributes attributes = cursor.next();
+        if (attributes.relativeLinuxPath.indexOf('/') == -1) {
+          root.add(attributes);
+        }
+        write(out, context, lastStat, writer, attributes);
+        if (skipRoot(cursor)) {
+          heads.add(cursor);
+        }
+      }
+      write(out, context, lastStat, writer, root.attributes(FileAttributes.metadataFromPath(context, context.rootPath), null));
+    } finally {
+      for (SnapshotCursor cursor : cursors) {
+        cursor.close();
+      }
+    }
+  }
+
+  private static void write(LineWriter out, StatContext context, SnapshotCursor lastStat, SnapshotWriter writer,
+    FileAttributes attributes) throws IOException {
+    if (context.diff) {
+      String path = attributes.relativeLinuxPath;
+      String lastPath = lastStat.peekPath();
+      while (lastPath != null && FileAttributes.comparePath(lastPath, path) < 0) {
+        context.printDeleted(out, lastStat.next());
+        lastPath = lastStat.peekPath();
+      }
+      FileAttributes previous = lastPath != null && FileAttributes.comparePath(lastPath, path) == 0 ? lastStat.next() : null;
+      context.printStats(out, context.comparableLastStat(previous, attributes), attributes);
+    }
+    writer.write(attributes);
+  }
+
+  // false at the end of the partial snapshot, its root entry is skipped
+  private static boolean skipRoot(SnapshotCursor cursor) throws IOException {
+    String path = cursor.peekPath();
+    if (".".equals(path)) {
+      cursor.next();
+      path = cursor.peekPath();
+    }
+    return path != null;
+  }
+
+}
@@ -0,0 +1,74 @@
+package com.auzeill.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads a snapshot one entry ahead, entries come in the comparePath order so a cursor can be
+ * merge-joined with a walk without loading the snapshot.
+ */
+public class SnapshotCursor implements Closeable {
+
+  private final SnapshotReader reader;
+  // the reader is on the entry returned by the next call of next()
+  private boolean positioned = false;
+  private boolean hasNext = false;
+  // decoded on demand, null until peek() is called
+  private FileAttributes next;
+
+  public SnapshotCursor(SnapshotReader reader) {
+    this.reader = reader;
+  }
+
+  // an empty cursor if there is no snapshot
+  public static SnapshotCursor open(Path snapshotPath) throws IOException {
+    return new SnapshotCursor(snapshotPath != null ? SnapshotReader.open(snapshotPath) : null);
+  }
+
+  // null at the end of the snapshot
+  public FileAttributes peek() throws IOException {
+    if (!position()) {
+      return null;
+    }
+    if (next == null) {
+      next = reader.attributes();
+    }
+    return next;
+  }
+
+  // null at the end of the snapshot, without decoding the other attributes
+  public String peekPath() throws IOException {
+    return position() ? reader.path() : null;
+  }
+
+  public FileAttributes next() throws IOException {
+    FileAttributes result = peek();
+    positioned = false;
+    return result;
+  }
+
+  // skips to the given directory of an indexed binary snapshot without reading the entries in between
+  public void skipTo(SnapshotIndex index, SnapshotIndex.Directory directory) throws IOException {
+    position();
+    ((SnapshotReader.Binary) reader).skipTo(index, directory);
+    positioned = false;
+  }
+
+  private boolean position() throws IOException {
+    if (!positioned) {
+      hasNext = reader != null && reader.next();
+      next = null;
+      positioned = true;
+    }
+    return hasNext;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (reader != null) {
+      reader.close();
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two saved snapshots without accessing the scanned files. When both snapshots have an index
+ * (binary format), a directory having the same size and sha1 in both has the same content, so its
+ * descendants are skipped without being read, unless fullDiff is set. Changes of owner, group,
+ * permissions or modified time under such a directory are then not reported.
+ */
+public class SnapshotDiff {
+
+  static class UnchangedDirectory {
+
+    private final SnapshotIndex.Directory previous;
+    private final SnapshotIndex.Directory current;
+
+    private UnchangedDirectory(SnapshotIndex.Directory previous, SnapshotIndex.Directory current) {
+      this.previous = previous;
+      this.current = current;
+    }
+
+  }
+
+  public static void diff(LineWriter out, StatContext context, Path previousSnapshot, Path snapshot) throws IOException {
+    SnapshotIndex previousIndex = null;
+    SnapshotIndex index = null;
+    Map<String, UnchangedDirectory> unchangedDirectories = Collections.emptyMap();
+    if (!context.fullDiff) {
+      previousIndex = SnapshotIndex.read(previousSnapshot);
+      index = previousIndex != null ? SnapshotIndex.read(snapshot) : null;
+      // without index, reading the snapshots to find the unchanged directories costs more than comparing all the entries
+      if (index != null) {
+        unchangedDirectories = unchangedDirectories(previousIndex, index);
+      }
+    }
+    // the chunks of both snapshots are needed to know the changed bytes of a file
+    Map<String, FileChunks> previousChunks = FileChunks.load(FileChunks.sideFile(previousSnapshot));
+    Map<String, FileChunks> chunks = previousChunks.isEmpty() ? Collections.emptyMap() : FileChunks.load(FileChunks.sideFile(snapshot));
+    try (SnapshotCursor previousCursor = SnapshotCursor.open(previousSnapshot);
+         SnapshotCursor cursor = SnapshotCursor.open(snapshot)) {
+      // the ancestors of the entries of the last parent are known to be changed
+      String lastParent = null;
+      for (String path = cursor.peekPath(); path != null; path = cursor.peekPath()) {
+        String parent = parent(path);
+        if (!unchangedDirectories.isEmpty() && !parent.equals(lastParent)) {
+          String unchangedPath = unchangedAncestor(unchangedDirectories, path);
+          if (unchangedPath != null) {
+            printDeletedBefore(out, context, previousCursor, path);
+            UnchangedDirectory unchanged = unchangedDirectories.get(unchangedPath);
+            previousCursor.skipTo(previousIndex, unchanged.previous);
+            cursor.skipTo(index, unchanged.current);
+            lastParent = null;
+            continue;
+          }
+        }
+        lastParent = parent;
+        printDeletedBefore(out, context, previousCursor, path);
+        String previousPath = previousCursor.peekPath();
+        FileAttributes previous = previousPath != null && FileAttributes.comparePath(previousPath, path) == 0 ? previousCursor.next() : null;
+        FileAttributes attributes = cursor.next();
+        FileChunks fileChunks = previous != null ? chunks.get(path) : null;
+        FileChunks previousFileChunks = fileChunks != null ? previousChunks.get(path) : null;
+        context.printStats(out, previous, attributes, previousFileChunks != null ? fileChunks.changedBytes(previousFileChunks) : null);
+      }
+      for (FileAttributes previous = previousCursor.next(); previous != null; previous = previousCursor.next()) {
+        context.printDeleted(out, previous);
+      }
+    }
+  }
+
+  static Map<String, UnchangedDirectory> unchangedDirectories(SnapshotIndex previousIndex, SnapshotIndex index) {
+    Map<String, UnchangedDirectory> unchangedDirectories = new HashMap<>();
+    List<SnapshotIndex.Directory> previousDirectories = previousIndex.directories;
+    int previousPos = 0;
+    for (SnapshotIndex.Directory directory : index.directories) {
+      while (previousPos < previousDirectories.size() && FileAttributes.comparePath(previousDirectories.get(previousPos).path, directory.path) < 0) {
+        previousPos++;
+      }
+      if (previousPos < previousDirectories.size()) {
+        SnapshotIndex.Directory previous = previousDirectories.get(previousPos);
+        if (FileAttributes.comparePath(previous.path, directory.path) == 0 && !directory.sha1.isEmpty() &&
+          directory.size == previous.size && directory.sha1.equals(previous.sha1)) {
+          unchangedDirectories.put(directory.path, new UnchangedDirectory(previous, directory));
+        }
+      }
+    }
+    return unchangedDirectories;
+  }
+
+  // the top most unchanged directory containing the given path, null if none
+  private static String unchangedAncestor(Map<String, UnchangedDirectory> unchangedDirectories, String path) {
+    if (path.equals(".")) {
+      return null;
+    } else if (unchangedDirectories.containsKey(".")) {
+      return ".";
+    }
+    for (int i = path.indexOf('/'); i != -1; i = path.indexOf('/', i + 1)) {
+      String directory = path.substring(0, i);
+      if (unchangedDirectories.containsKey(directory)) {
+        return directory;
+      }
+    }
+    return null;
+  }
+
+  private static String parent(String path) {
+    int separator = path.lastIndexOf('/');
+    return separator != -1 ? path.substring(0, separator) : ".";
+  }
+
+  private static void printDeletedBefore(LineWriter out, StatContext context, SnapshotCursor previousCursor, String path) throws IOException {
+    String previousPath = previousCursor.peekPath();
+    while (previousPath != null && FileAttributes.comparePath(previousPath, path) < 0) {
+      context.printDeleted(out, previousCursor.next());
+      previousPath = previousCursor.peekPath();
+    }
+  }
+
+}
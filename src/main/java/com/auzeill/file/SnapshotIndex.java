@@ -0,0 +1,110 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Directories of a binary snapshot, stored after its entries, to compare directories and skip their
+ * descendants without reading the whole snapshot.
+ */
+public class SnapshotIndex {
+
+  public static class Directory {
+
+    public final String path;
+    public final long size;
+    public final String sha1;
+    // offset of the directory entry in the snapshot file, and its entry number
+    public final long offset;
+    public final long entry;
+
+    public Directory(String path, long size, String sha1, long offset, long entry) {
+      this.path = path;
+      this.size = size;
+      this.sha1 = sha1;
+      this.offset = offset;
+      this.entry = entry;
+    }
+
+  }
+
+  // in the snapshot order
+  public final List<Directory> directories;
+  // values of the dictionary ids, needed to decode an entry after skipping
+  public final List<String> dictionary;
+
+  public SnapshotIndex(List<Directory> directories, List<String> dictionary) {
+    this.directories = directories;
+    this.dictionary = dictionary;
+  }
+
+  // null for text snapshots and binary snapshots written without index
+  public static SnapshotIndex read(Path snapshotPath) throws IOException {
+    try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+      int headerLength = SnapshotWriter.Binary.MAGIC.length + 1;
+      if (channel.size() < headerLength + 8) {
+        return null;
+      }
+      ByteBuffer header = ByteBuffer.allocate(headerLength);
+      readFully(channel, header, 0);
+      if (!Arrays.equals(Arrays.copyOf(header.array(), SnapshotWriter.Binary.MAGIC.length), SnapshotWriter.Binary.MAGIC) ||
+        header.get(headerLength - 1) < SnapshotWriter.Binary.INDEX_VERSION) {
+        return null;
+      }
+      channel.position(headerLength);
+      HashAlgorithm algorithm = SnapshotReader.Binary.readHashAlgorithm(
+        new BinaryInput(Channels.newInputStream(channel), 256, headerLength), header.get(headerLength - 1));
+      ByteBuffer footer = ByteBuffer.allocate(8);
+      readFully(channel, footer, channel.size() - 8);
+      long indexOffset = footer.getLong(0);
+      if (indexOffset < headerLength || indexOffset > channel.size() - 8) {
+        throw new IOException("Corrupted binary snapshot, invalid index offset " + indexOffset);
+      }
+      channel.position(indexOffset);
+      BinaryInput in = new BinaryInput(Channels.newInputStream(channel), 64 * 1024, indexOffset);
+      long directoryCount = in.readVarLong();
+      List<Directory> directories = new ArrayList<>();
+      String path = "";
+      long offset = 0;
+      long entry = 0;
+      byte[] sha1Bytes = new byte[algorithm.length];
+      for (long i = 0; i < directoryCount; i++) {
+        path = in.readPath(path);
+        long size = in.readVarLong();
+        int sha1Encoding = in.readByte();
+        String sha1 = "";
+        if (sha1Encoding == SnapshotWriter.Binary.RAW_SHA1) {
+          in.readFully(sha1Bytes);
+          sha1 = algorithm.format(sha1Bytes);
+        } else if (sha1Encoding == SnapshotWriter.Binary.TEXT_SHA1) {
+          sha1 = in.readString();
+        }
+        offset += in.readVarLong();
+        entry += in.readVarLong();
+        directories.add(new Directory(path, size, sha1, offset, entry));
+      }
+      int dictionarySize = (int) in.readVarLong();
+      List<String> dictionary = new ArrayList<>(dictionarySize);
+      for (int i = 0; i < dictionarySize; i++) {
+        dictionary.add(in.readString());
+      }
+      return new SnapshotIndex(directories, dictionary);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) {
+        throw new IOException("Truncated binary snapshot");
+      }
+    }
+  }
+
+}
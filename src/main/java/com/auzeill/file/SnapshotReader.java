@@ -0,0 +1,293 @@
+package com.auzeill.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public interface SnapshotReader extends Closeable {
+
+  // moves to the next entry, false at the end of the snapshot
+  boolean next() throws IOException;
+
+  // the following methods give the current entry, the attributes are only decoded when needed
+
+  String path();
+
+  FileAttributes.Type type();
+
+  FileAttributes attributes();
+
+  // null at the end of the snapshot
+  default FileAttributes read() throws IOException {
+    return next() ? attributes() : null;
+  }
+
+  // a text snapshot in a regular file is read by a TextSnapshotLoader, a delta snapshot replays its chain
+  static SnapshotReader open(Path path) throws IOException {
+    if (Files.isRegularFile(path) && DeltaSnapshot.isDelta(path)) {
+      return new DeltaSnapshot.Reader(path);
+    }
+    InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024);
+    try {
+      SnapshotReader reader = open(in);
+      if (reader instanceof Text && Files.isRegularFile(path)) {
+        in.close();
+        return new TextSnapshotLoader(path);
+      }
+      return reader;
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  // the SnapshotWriter.DIRECTORY_DIGEST_VERSION of the directories of a snapshot file: from the version byte of
+  // a binary snapshot, from the head file for a text snapshot, and 1 for a text snapshot it does not name
+  static int directoryDigestVersion(Path path) throws IOException {
+    if (DeltaSnapshot.isDelta(path)) {
+      // delta snapshots were introduced after the current directory digest
+      return SnapshotWriter.DIRECTORY_DIGEST_VERSION;
+    }
+    byte[] header;
+    try (InputStream in = Files.newInputStream(path)) {
+      header = in.readNBytes(SnapshotWriter.Binary.MAGIC.length + 1);
+    }
+    int magicLength = SnapshotWriter.Binary.MAGIC.length;
+    if (header.length > magicLength && Arrays.equals(Arrays.copyOf(header, magicLength), SnapshotWriter.Binary.MAGIC)) {
+      return header[magicLength] >= SnapshotWriter.Binary.CURRENT_DIGEST_VERSION ? SnapshotWriter.DIRECTORY_DIGEST_VERSION : 1;
+    }
+    int headVersion = DeltaSnapshot.headDirectoryDigestVersion(path);
+    return headVersion != 0 ? headVersion : 1;
+  }
+
+  // detects the format from the first bytes, the given stream has to support mark
+  static SnapshotReader open(InputStream in) throws IOException {
+    byte[] magic = new byte[SnapshotWriter.Binary.MAGIC.length];
+    in.mark(magic.length);
+    int length = in.readNBytes(magic, 0, magic.length);
+    if (length == magic.length && Arrays.equals(magic, SnapshotWriter.Binary.MAGIC)) {
+      return new Binary(in);
+    }
+    in.reset();
+    return new Text(in);
+  }
+
+  class Text implements SnapshotReader {
+
+    private final BufferedReader reader;
+    private String line;
+    private int pathEnd;
+
+    public Text(InputStream in) {
+      this.reader = new BufferedReader(new InputStreamReader(in, UTF_8), 64 * 1024);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      line = reader.readLine();
+      if (line == null) {
+        return false;
+      }
+      // the path can contain '|', it ends before the 7 last fields
+      pathEnd = line.length();
+      for (int i = 0; i < 7; i++) {
+        pathEnd = line.lastIndexOf('|', pathEnd - 1);
+        if (pathEnd == -1) {
+          throw new IllegalArgumentException("Invalid fileDescription: " + line);
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public String path() {
+      return line.substring(0, pathEnd);
+    }
+
+    @Override
+    public FileAttributes.Type type() {
+      return FileAttributes.Type.fromString(line.substring(pathEnd + 1, line.indexOf('|', pathEnd + 1)));
+    }
+
+    @Override
+    public FileAttributes attributes() {
+      return FileAttributes.fromString(line);
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+
+  }
+
+  // reads the SnapshotWriter.Binary format, the magic bytes being already consumed
+  class Binary implements SnapshotReader {
+
+    private static final FileAttributes.Type[] TYPES = FileAttributes.Type.values();
+
+    private final BinaryInput in;
+    private final int version;
+    private final HashAlgorithm algorithm;
+    private List<String> dictionary = new ArrayList<>();
+    private long count = 0;
+    private boolean ended = false;
+    private final byte[] sha1;
+    // current entry
+    private int flags;
+    private String path = "";
+    private long size;
+    private String owner;
+    private String group;
+    private String permissions;
+    private long modifiedNanos;
+    private String text;
+
+    public Binary(InputStream in) throws IOException {
+      this.in = new BinaryInput(in, 64 * 1024, SnapshotWriter.Binary.MAGIC.length);
+      this.version = this.in.readByte();
+      if (version < 1 || version > SnapshotWriter.Binary.VERSION) {
+        throw new IOException("Unsupported binary snapshot version: " + version);
+      }
+      this.algorithm = readHashAlgorithm(this.in, version);
+      this.sha1 = new byte[algorithm.length];
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      if (ended) {
+        return false;
+      }
+      try {
+        flags = in.readByte();
+      } catch (EOFException e) {
+        throw new IOException("Truncated binary snapshot after " + count + " entries", e);
+      }
+      if (flags == SnapshotWriter.Binary.END) {
+        ended = true;
+        long expectedCount = in.readLong();
+        if (expectedCount != count) {
+          throw new IOException("Corrupted binary snapshot, " + count + " entries instead of " + expectedCount);
+        }
+        return false;
+      }
+      path = in.readPath(path);
+      size = in.readVarLong();
+      owner = readDictionaryValue();
+      group = readDictionaryValue();
+      permissions = readDictionaryValue();
+      String textModifiedTime = null;
+      if ((flags & SnapshotWriter.Binary.TEXT_MODIFIED_TIME) != 0) {
+        textModifiedTime = in.readString();
+      } else {
+        long zigzag = in.readVarLong();
+        modifiedNanos = (zigzag >>> 1) ^ -(zigzag & 1);
+      }
+      int sha1Encoding = flags & SnapshotWriter.Binary.SHA1_MASK;
+      if (sha1Encoding == SnapshotWriter.Binary.RAW_SHA1) {
+        in.readFully(sha1);
+        text = textModifiedTime;
+      } else if (sha1Encoding == SnapshotWriter.Binary.TEXT_SHA1) {
+        // a text modified time and a text sha1 can not be both kept in the "text" field
+        String textSha1 = in.readString();
+        text = textModifiedTime != null ? textModifiedTime + '|' + textSha1 : textSha1;
+      } else {
+        text = textModifiedTime;
+      }
+      count++;
+      return true;
+    }
+
+    @Override
+    public String path() {
+      return path;
+    }
+
+    @Override
+    public FileAttributes.Type type() {
+      return TYPES[flags & SnapshotWriter.Binary.TYPE_MASK];
+    }
+
+    @Override
+    public FileAttributes attributes() {
+      boolean textModifiedTime = (flags & SnapshotWriter.Binary.TEXT_MODIFIED_TIME) != 0;
+      int sha1Encoding = flags & SnapshotWriter.Binary.SHA1_MASK;
+      String modifiedTime;
+      String sha1OrSymbolicLink;
+      if (sha1Encoding == SnapshotWriter.Binary.TEXT_SHA1) {
+        int separator = textModifiedTime ? text.indexOf('|') : -1;
+        modifiedTime = textModifiedTime ? text.substring(0, separator) : SnapshotWriter.Binary.modifiedTime(modifiedNanos);
+        sha1OrSymbolicLink = text.substring(separator + 1);
+      } else {
+        modifiedTime = textModifiedTime ? text : SnapshotWriter.Binary.modifiedTime(modifiedNanos);
+        sha1OrSymbolicLink = sha1Encoding == SnapshotWriter.Binary.RAW_SHA1 ? algorithm.format(sha1) : "";
+      }
+      return new FileAttributes(path, type(), size, owner, group, permissions, modifiedTime, sha1OrSymbolicLink);
+    }
+
+    // moves forward to the given directory of the index of this snapshot, the next entry being this directory
+    public void skipTo(SnapshotIndex index, SnapshotIndex.Directory directory) throws IOException {
+      in.skipTo(directory.offset);
+      count = directory.entry;
+      dictionary = index.dictionary;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    // stored after the version byte, older versions only have sha1 digests
+    static HashAlgorithm readHashAlgorithm(BinaryInput in, int version) throws IOException {
+      if (version < SnapshotWriter.Binary.HASH_ALGORITHM_VERSION) {
+        return HashAlgorithm.SHA1;
+      }
+      String code = in.readString();
+      try {
+        return HashAlgorithm.fromString(code);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Unsupported binary snapshot hash: " + code, e);
+      }
+    }
+
+    private String readDictionaryValue() throws IOException {
+      long value = in.readVarLong();
+      if (version == 1) {
+        int id = (int) value;
+        if (id == dictionary.size()) {
+          dictionary.add(in.readString());
+        }
+        return dictionaryValue(id);
+      }
+      int id = (int) (value >>> 1);
+      if ((value & 1) != 0) {
+        String newValue = in.readString();
+        // already known when the dictionary comes from the index
+        if (id == dictionary.size()) {
+          dictionary.add(newValue);
+        }
+      }
+      return dictionaryValue(id);
+    }
+
+    private String dictionaryValue(int id) throws IOException {
+      if (id >= dictionary.size()) {
+        throw new IOException("Corrupted binary snapshot, unknown dictionary id " + id);
+      }
+      return dictionary.get(id);
+    }
+
+  }
+
+}
@@ -0,0 +1,269 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The entries of a snapshot held in columns of primitive arrays, about 60 bytes per entry instead
+ * of the six strings of a FileAttributes. The paths are front-coded by blocks of BLOCK_SIZE entries
+ * in the comparePath order, a lookup is a binary search on the first path of the blocks followed by
+ * a scan of one block. Owner, group and permissions are dictionary ids, the modified time is epoch
+ * nanos and the digests of the store algorithm are raw bytes, the other values are kept as text.
+ */
+public class SnapshotStore {
+
+  static final int BLOCK_SIZE = 16;
+
+  private static final int TYPE_MASK = 0x03;
+  private static final int TEXT_MODIFIED_TIME = 0x04;
+  private static final int RAW_DIGEST = 0x08;
+  private static final int TEXT_DIGEST = 0x10;
+  private static final FileAttributes.Type[] TYPES = FileAttributes.Type.values();
+
+  public final HashAlgorithm algorithm;
+  private int count = 0;
+  // for each entry: shared prefix length with the previous path of its block, suffix length and suffix bytes
+  private byte[] paths = new byte[1024];
+  private int pathsLength = 0;
+  private int[] blockOffsets = new int[16];
+  private byte[] flags = new byte[256];
+  private long[] sizes = new long[256];
+  private long[] modifiedNanos = new long[256];
+  private int[] owners = new int[256];
+  private int[] groups = new int[256];
+  private int[] permissions = new int[256];
+  private byte[] digests;
+  private final Map<String, Integer> dictionary = new HashMap<>();
+  private final List<String> dictionaryValues = new ArrayList<>();
+  // sparse, by entry index
+  private final Map<Integer, String> textModifiedTimes = new HashMap<>();
+  private final Map<Integer, String> textDigests = new HashMap<>();
+  private String lastPath = null;
+  private byte[] lastPathBytes = new byte[0];
+
+  public SnapshotStore(HashAlgorithm algorithm) {
+    this.algorithm = algorithm;
+    this.digests = new byte[256 * algorithm.length];
+  }
+
+  // an empty store if there is no snapshot
+  public static SnapshotStore load(Path snapshotPath, HashAlgorithm algorithm) throws IOException {
+    SnapshotStore store = new SnapshotStore(algorithm);
+    try (SnapshotCursor cursor = SnapshotCursor.open(snapshotPath)) {
+      for (FileAttributes attributes = cursor.next(); attributes != null; attributes = cursor.next()) {
+        store.add(attributes);
+      }
+    }
+    store.trim();
+    return store;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  // the entries have to be added in the comparePath order
+  public void add(FileAttributes attributes) {
+    String path = attributes.relativeLinuxPath;
+    if (lastPath != null && FileAttributes.comparePath(lastPath, path) >= 0) {
+      throw new IllegalArgumentException("Invalid snapshot order: " + path + " after " + lastPath);
+    }
+    ensureCapacity();
+    byte[] pathBytes = path.getBytes(UTF_8);
+    int shared = 0;
+    if (count % BLOCK_SIZE == 0) {
+      blockOffsets[count / BLOCK_SIZE] = pathsLength;
+    } else {
+      int maxShared = Math.min(pathBytes.length, lastPathBytes.length);
+      while (shared < maxShared && pathBytes[shared] == lastPathBytes[shared]) {
+        shared++;
+      }
+    }
+    writeVarInt(shared);
+    writeVarInt(pathBytes.length - shared);
+    ensurePathsCapacity(pathBytes.length - shared);
+    System.arraycopy(pathBytes, shared, paths, pathsLength, pathBytes.length - shared);
+    pathsLength += pathBytes.length - shared;
+    lastPath = path;
+    lastPathBytes = pathBytes;
+
+    int entryFlags = attributes.type.ordinal();
+    long nanos = SnapshotWriter.Binary.epochNanos(attributes.modifiedTime);
+    if (nanos == Long.MIN_VALUE) {
+      entryFlags |= TEXT_MODIFIED_TIME;
+      textModifiedTimes.put(count, attributes.modifiedTime);
+    }
+    String digest = attributes.sha1OrSymbolicLink;
+    if (attributes.type != FileAttributes.Type.SYMBOLIC_LINK && algorithm.isDigest(digest)) {
+      entryFlags |= RAW_DIGEST;
+      algorithm.parse(digest, digests, count * algorithm.length);
+    } else if (!digest.isEmpty()) {
+      entryFlags |= TEXT_DIGEST;
+      textDigests.put(count, digest);
+    }
+    flags[count] = (byte) entryFlags;
+    sizes[count] = attributes.size;
+    modifiedNanos[count] = nanos;
+    owners[count] = id(attributes.owner);
+    groups[count] = id(attributes.group);
+    permissions[count] = id(attributes.permissions);
+    count++;
+  }
+
+  // -1 if the path is not in the store
+  public int indexOf(String path) {
+    int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    // the last block whose first path is not after the given path
+    int low = 0;
+    int high = blockCount - 1;
+    int block = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (FileAttributes.comparePath(blockHead(middle), path) <= 0) {
+        block = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    if (block == -1) {
+      return -1;
+    }
+    byte[] target = path.getBytes(UTF_8);
+    byte[] current = new byte[64];
+    int currentLength = 0;
+    int[] offset = {blockOffsets[block]};
+    int end = Math.min(count, (block + 1) * BLOCK_SIZE);
+    for (int index = block * BLOCK_SIZE; index < end; index++) {
+      int shared = readVarInt(offset);
+      int suffixLength = readVarInt(offset);
+      currentLength = shared + suffixLength;
+      if (current.length < currentLength) {
+        current = Arrays.copyOf(current, Math.max(currentLength, current.length * 2));
+      }
+      System.arraycopy(paths, offset[0], current, shared, suffixLength);
+      offset[0] += suffixLength;
+      if (Arrays.equals(current, 0, currentLength, target, 0, target.length)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  // null if the path is not in the store
+  public FileAttributes get(String path) {
+    int index = indexOf(path);
+    return index == -1 ? null : attributes(index, path);
+  }
+
+  // approximate heap size of the columns
+  public long memoryBytes() {
+    long bytes = (long) paths.length + 4L * blockOffsets.length + flags.length + 8L * sizes.length + 8L * modifiedNanos.length +
+      4L * (owners.length + groups.length + permissions.length) + digests.length;
+    for (String value : dictionaryValues) {
+      bytes += 40 + 2L * value.length();
+    }
+    return bytes + 80L * (textModifiedTimes.size() + textDigests.size());
+  }
+
+  private FileAttributes attributes(int index, String path) {
+    return new FileAttributes(path, TYPES[flags[index] & TYPE_MASK], sizes[index], dictionaryValues.get(owners[index]),
+      dictionaryValues.get(groups[index]), dictionaryValues.get(permissions[index]), modifiedTime(index), digest(index));
+  }
+
+  private String modifiedTime(int index) {
+    return (flags[index] & TEXT_MODIFIED_TIME) != 0 ? textModifiedTimes.get(index) : SnapshotWriter.Binary.modifiedTime(modifiedNanos[index]);
+  }
+
+  private String digest(int index) {
+    if ((flags[index] & RAW_DIGEST) != 0) {
+      return algorithm.format(Arrays.copyOfRange(digests, index * algorithm.length, (index + 1) * algorithm.length));
+    }
+    return (flags[index] & TEXT_DIGEST) != 0 ? textDigests.get(index) : "";
+  }
+
+  private String blockHead(int block) {
+    int[] offset = {blockOffsets[block]};
+    readVarInt(offset);
+    int length = readVarInt(offset);
+    return new String(paths, offset[0], length, UTF_8);
+  }
+
+  private int id(String value) {
+    Integer id = dictionary.get(value);
+    if (id == null) {
+      id = dictionaryValues.size();
+      dictionary.put(value, id);
+      dictionaryValues.add(value);
+    }
+    return id;
+  }
+
+  private void ensureCapacity() {
+    if (count == flags.length) {
+      int capacity = Math.max(flags.length * 2, 256);
+      flags = Arrays.copyOf(flags, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      modifiedNanos = Arrays.copyOf(modifiedNanos, capacity);
+      owners = Arrays.copyOf(owners, capacity);
+      groups = Arrays.copyOf(groups, capacity);
+      permissions = Arrays.copyOf(permissions, capacity);
+      digests = Arrays.copyOf(digests, capacity * algorithm.length);
+    }
+    if (count / BLOCK_SIZE == blockOffsets.length) {
+      blockOffsets = Arrays.copyOf(blockOffsets, Math.max(blockOffsets.length * 2, 16));
+    }
+  }
+
+  private void ensurePathsCapacity(int length) {
+    if (pathsLength + length > paths.length) {
+      long capacity = Math.max(2L * paths.length, (long) pathsLength + length);
+      if (capacity > Integer.MAX_VALUE - 8) {
+        throw new IllegalStateException("Snapshot paths bigger than 2GB");
+      }
+      paths = Arrays.copyOf(paths, (int) capacity);
+    }
+  }
+
+  // releases the unused capacity once loaded
+  private void trim() {
+    paths = Arrays.copyOf(paths, pathsLength);
+    blockOffsets = Arrays.copyOf(blockOffsets, (count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    flags = Arrays.copyOf(flags, count);
+    sizes = Arrays.copyOf(sizes, count);
+    modifiedNanos = Arrays.copyOf(modifiedNanos, count);
+    owners = Arrays.copyOf(owners, count);
+    groups = Arrays.copyOf(groups, count);
+    permissions = Arrays.copyOf(permissions, count);
+    digests = Arrays.copyOf(digests, count * algorithm.length);
+  }
+
+  private void writeVarInt(int value) {
+    ensurePathsCapacity(5);
+    while ((value & ~0x7F) != 0) {
+      paths[pathsLength++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    paths[pathsLength++] = (byte) value;
+  }
+
+  private int readVarInt(int[] offset) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = paths[offset[0]++];
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+}
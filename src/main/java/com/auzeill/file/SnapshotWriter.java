@@ -0,0 +1,350 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public interface SnapshotWriter extends Closeable {
+
+  // version of the DirectorySummary digest of the directories, version 1 is the digest of the concatenated
+  // hex text of the children, see SnapshotReader.directoryDigestVersion
+  int DIRECTORY_DIGEST_VERSION = 2;
+
+  void write(FileAttributes attributes) throws IOException;
+
+  static SnapshotWriter create(Path path, Format format) throws IOException {
+    return create(path, format, HashAlgorithm.SHA1);
+  }
+
+  // the algorithm of the digests, the text format does not need it
+  static SnapshotWriter create(Path path, Format format, HashAlgorithm algorithm) throws IOException {
+    if (format == Format.TEXT) {
+      return new Text(LineWriter.create(path, false));
+    }
+    return new Binary(Files.newOutputStream(path), algorithm);
+  }
+
+  enum Format {
+    TEXT("text"),
+    BINARY("binary");
+
+    public final String code;
+
+    Format(String code) {
+      this.code = code;
+    }
+
+    public static Format fromString(String code) {
+      for (Format format : values()) {
+        if (format.code.equals(code)) {
+          return format;
+        }
+      }
+      throw new IllegalArgumentException("Invalid format: " + code);
+    }
+
+    @Override
+    public String toString() {
+      return code;
+    }
+
+  }
+
+  class Text implements SnapshotWriter {
+
+    private final LineWriter out;
+
+    // the stream is closed with the writer
+    public Text(OutputStream out) {
+      this(new LineWriter(out, true, false));
+    }
+
+    public Text(LineWriter out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(FileAttributes attributes) throws IOException {
+      out.append(attributes).newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+
+  }
+
+  /**
+   * header: "CDSB" magic, version byte, hash algorithm code
+   * entry: flags byte (type, modified time and sha1 encoding), path as the length shared with the
+   * previous path followed by the remaining characters (nothing shared for directories), size, owner,
+   * group and permissions as dictionary ids (a new id is followed by its value), modified time as
+   * epoch nanos, raw digest of the header algorithm, other digests are stored as text.
+   * end: END flags byte, entry count and size of the last entry (the root directory).
+   * index: directory count, for each directory its path, size, sha1, offset and entry number,
+   * dictionary values, and the offset of the index as the 8 last bytes.
+   */
+  class Binary implements SnapshotWriter {
+
+    static final byte[] MAGIC = {'C', 'D', 'S', 'B'};
+    // version 1 has no index and does not flag new dictionary ids, version 2 has no hash algorithm
+    // and only stores sha1 digests as raw bytes
+    static final int VERSION = 3;
+    static final int INDEX_VERSION = 2;
+    static final int HASH_ALGORITHM_VERSION = 3;
+    // first version with the current DIRECTORY_DIGEST_VERSION
+    static final int CURRENT_DIGEST_VERSION = 3;
+
+    static final int TYPE_MASK = 0x03;
+    static final int TEXT_MODIFIED_TIME = 0x04;
+    static final int SHA1_MASK = 0x18;
+    static final int NO_SHA1 = 0x00;
+    static final int RAW_SHA1 = 0x08;
+    static final int TEXT_SHA1 = 0x10;
+    static final int END = 0xFF;
+
+    private final BinaryOutput out;
+    private final HashAlgorithm algorithm;
+    private final byte[] digest;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> dictionaryValues = new ArrayList<>();
+    private String previousPath = "";
+    private long count = 0;
+    private long lastSize = -1;
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    private final BinaryOutput index = new BinaryOutput(indexBytes, 8 * 1024);
+    private long directoryCount = 0;
+    private String previousDirectoryPath = "";
+    private long previousDirectoryOffset = 0;
+    private long previousDirectoryEntry = 0;
+
+    public Binary(OutputStream out) throws IOException {
+      this(out, HashAlgorithm.SHA1);
+    }
+
+    public Binary(OutputStream out, HashAlgorithm algorithm) throws IOException {
+      this.out = new BinaryOutput(out, 64 * 1024);
+      this.algorithm = algorithm;
+      this.digest = new byte[algorithm.length];
+      this.out.writeBytes(MAGIC);
+      this.out.writeByte(VERSION);
+      this.out.writeString(algorithm.code);
+    }
+
+    @Override
+    public void write(FileAttributes attributes) throws IOException {
+      long modifiedNanos = epochNanos(attributes.modifiedTime);
+      boolean textModifiedTime = modifiedNanos == Long.MIN_VALUE;
+      int sha1Encoding = sha1Encoding(algorithm, attributes);
+      long offset = out.offset();
+      out.writeByte(attributes.type.ordinal() | (textModifiedTime ? TEXT_MODIFIED_TIME : 0) | sha1Encoding);
+      String path = attributes.relativeLinuxPath;
+      boolean directory = attributes.type == FileAttributes.Type.DIRECTORY;
+      // a directory entry can be decoded after skipping its descendants
+      out.writePath(path, directory ? "" : previousPath);
+      previousPath = path;
+      out.writeVarLong(attributes.size);
+      writeDictionaryValue(attributes.owner);
+      writeDictionaryValue(attributes.group);
+      writeDictionaryValue(attributes.permissions);
+      if (textModifiedTime) {
+        out.writeString(attributes.modifiedTime);
+      } else {
+        out.writeVarLong((modifiedNanos << 1) ^ (modifiedNanos >> 63));
+      }
+      writeSha1(out, sha1Encoding, attributes.sha1OrSymbolicLink);
+      if (directory) {
+        index.writePath(path, previousDirectoryPath);
+        index.writeVarLong(attributes.size);
+        index.writeByte(sha1Encoding);
+        writeSha1(index, sha1Encoding, attributes.sha1OrSymbolicLink);
+        index.writeVarLong(offset - previousDirectoryOffset);
+        index.writeVarLong(count - previousDirectoryEntry);
+        previousDirectoryPath = path;
+        previousDirectoryOffset = offset;
+        previousDirectoryEntry = count;
+        directoryCount++;
+      }
+      count++;
+      lastSize = attributes.size;
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.writeByte(END);
+      out.writeLong(count);
+      out.writeLong(lastSize);
+      long indexOffset = out.offset();
+      out.writeVarLong(directoryCount);
+      index.flush();
+      out.writeBytes(indexBytes);
+      out.writeVarLong(dictionaryValues.size());
+      for (String value : dictionaryValues) {
+        out.writeString(value);
+      }
+      out.writeLong(indexOffset);
+      out.close();
+    }
+
+    static int sha1Encoding(HashAlgorithm algorithm, FileAttributes attributes) {
+      String sha1 = attributes.sha1OrSymbolicLink;
+      if (sha1.isEmpty()) {
+        return NO_SHA1;
+      } else if (attributes.type != FileAttributes.Type.SYMBOLIC_LINK && algorithm.isDigest(sha1)) {
+        return RAW_SHA1;
+      }
+      return TEXT_SHA1;
+    }
+
+    private void writeSha1(BinaryOutput output, int sha1Encoding, String sha1) throws IOException {
+      if (sha1Encoding == RAW_SHA1) {
+        algorithm.parse(sha1, digest, 0);
+        output.writeBytes(digest);
+      } else if (sha1Encoding == TEXT_SHA1) {
+        output.writeString(sha1);
+      }
+    }
+
+    // Long.MIN_VALUE if the text can not be restored from epoch nanos
+    static long epochNanos(String modifiedTime) {
+      long canonicalNanos = canonicalEpochNanos(modifiedTime);
+      if (canonicalNanos != Long.MIN_VALUE) {
+        return canonicalNanos;
+      }
+      try {
+        Instant instant = Instant.parse(modifiedTime);
+        long nanos = Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+        if (nanos != Long.MIN_VALUE && modifiedTime(nanos).equals(modifiedTime)) {
+          return nanos;
+        }
+      } catch (DateTimeParseException | ArithmeticException e) {
+        // stored as text
+      }
+      return Long.MIN_VALUE;
+    }
+
+    // the text written by modifiedTime(long) after 1970, "yyyy-MM-ddTHH:mm:ss[.fraction]Z" without a
+    // trailing zero in the fraction, decoded without Instant.parse, Long.MIN_VALUE for any other text
+    private static long canonicalEpochNanos(String text) {
+      int length = text.length();
+      if (length < 20 || length == 21 || length > 30 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T' ||
+        text.charAt(13) != ':' || text.charAt(16) != ':' || text.charAt(length - 1) != 'Z') {
+        return Long.MIN_VALUE;
+      }
+      int year = digits(text, 0, 4);
+      int month = digits(text, 5, 2);
+      int day = digits(text, 8, 2);
+      int hour = digits(text, 11, 2);
+      int minute = digits(text, 14, 2);
+      int second = digits(text, 17, 2);
+      if (year < 1970 || month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year)) ||
+        hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+        return Long.MIN_VALUE;
+      }
+      long nanos = 0;
+      if (length > 20) {
+        int fractionDigits = length - 21;
+        nanos = digits(text, 20, fractionDigits);
+        if (text.charAt(19) != '.' || text.charAt(length - 2) == '0' || nanos < 0) {
+          return Long.MIN_VALUE;
+        }
+        for (int i = fractionDigits; i < 9; i++) {
+          nanos *= 10;
+        }
+      }
+      long epochSecond = LocalDate.of(year, month, day).toEpochDay() * 86400 + hour * 3600 + minute * 60 + second;
+      try {
+        return Math.addExact(Math.multiplyExact(epochSecond, 1_000_000_000L), nanos);
+      } catch (ArithmeticException e) {
+        return Long.MIN_VALUE;
+      }
+    }
+
+    // -1 if the text has a non digit character
+    private static int digits(String text, int offset, int count) {
+      int value = 0;
+      for (int i = offset; i < offset + count; i++) {
+        char ch = text.charAt(i);
+        if (ch < '0' || ch > '9') {
+          return -1;
+        }
+        value = value * 10 + (ch - '0');
+      }
+      return value;
+    }
+
+    // same text as FileTime.toString(), without its formatter overhead after 1970
+    static String modifiedTime(long epochNanos) {
+      if (epochNanos < 0) {
+        return FileTime.from(epochNanos, TimeUnit.NANOSECONDS).toString();
+      }
+      long epochSecond = epochNanos / 1_000_000_000L;
+      int nanos = (int) (epochNanos % 1_000_000_000L);
+      int secondOfDay = (int) (epochSecond % 86400);
+      LocalDate date = LocalDate.ofEpochDay(epochSecond / 86400);
+      char[] text = new char[30];
+      appendDigits(text, 0, date.getYear(), 4);
+      text[4] = '-';
+      appendDigits(text, 5, date.getMonthValue(), 2);
+      text[7] = '-';
+      appendDigits(text, 8, date.getDayOfMonth(), 2);
+      text[10] = 'T';
+      appendDigits(text, 11, secondOfDay / 3600, 2);
+      text[13] = ':';
+      appendDigits(text, 14, secondOfDay / 60 % 60, 2);
+      text[16] = ':';
+      appendDigits(text, 17, secondOfDay % 60, 2);
+      int length = 19;
+      if (nanos != 0) {
+        text[length++] = '.';
+        int digits = 9;
+        while (nanos % 10 == 0) {
+          nanos /= 10;
+          digits--;
+        }
+        appendDigits(text, length, nanos, digits);
+        length += digits;
+      }
+      text[length++] = 'Z';
+      return new String(text, 0, length);
+    }
+
+    private static void appendDigits(char[] text, int offset, int value, int digits) {
+      for (int i = offset + digits - 1; i >= offset; i--) {
+        text[i] = (char) ('0' + value % 10);
+        value /= 10;
+      }
+    }
+
+    // the id shifted left, the low bit flags a new id followed by its value
+    private void writeDictionaryValue(String value) throws IOException {
+      Integer id = dictionary.get(value);
+      if (id != null) {
+        out.writeVarLong((long) id << 1);
+      } else {
+        id = dictionaryValues.size();
+        out.writeVarLong(((long) id << 1) | 1);
+        out.writeString(value);
+        dictionary.put(value, id);
+        dictionaryValues.add(value);
+      }
+    }
+
+  }
+
+}
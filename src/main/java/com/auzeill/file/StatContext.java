@@ -1,7 +1,6 @@
 package com.auzeill.file;
 
 import java.io.IOException;
-import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
@@ -9,18 +8,14 @@ import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 import java.util.TimeZone;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -31,8 +26,47 @@ public class StatContext {
   private static final String NO_SHA1 = "--no-sha1";
   private static final String IGNORE = "--ignore";
   private static final String SAVE = "--save";
-  private static final String DIFF = "--diff";
+  static final String DIFF = "--diff";
   private static final String COLOR = "--color";
+  static final String THREADS = "--threads";
+  private static final String HASH = "--hash";
+  private static final String QUICK_HASH = "--quick-hash";
+  private static final String FULL_HASH = "--full-hash";
+  private static final String CHUNKS = "--chunks";
+  private static final String CHUNK_THRESHOLD = "--chunk-threshold";
+  static final String HASH_THREADS = "--hash-threads";
+  private static final String HASH_MAX_IN_FLIGHT = "--hash-max-in-flight";
+  private static final String HASH_REPORT = "--hash-report";
+  private static final String FORMAT = "--format";
+  private static final String DIFF_SNAPSHOTS = "--diff-snapshots";
+  private static final String FULL_DIFF = "--full-diff";
+  private static final String REUSE_DIRECTORY_SHA1 = "--reuse-directory-sha1";
+  private static final String WATCH = "--watch";
+  private static final String WATCH_WINDOW = "--watch-window";
+  static final String METRICS = "--metrics";
+  static final String PROGRESS = "--progress";
+  private static final String PROGRESS_INTERVAL = "--progress-interval";
+  private static final String DELTA = "--delta";
+  private static final String FULL_SNAPSHOT_EVERY = "--full-snapshot-every";
+  private static final String COMPACT = "--compact";
+  private static final String OUTPUT_THREAD = "--output-thread";
+  private static final String COMPARE = "--compare";
+  private static final String DUPLICATES = "--duplicates";
+  private static final String INODE_ORDER = "--inode-order";
+  private static final String MAX_READ_RATE = "--max-read-rate";
+  private static final String MAX_IOPS = "--max-iops";
+  private static final String THROTTLE_FILE = "--throttle-file";
+  static final String SHARDS = "--shards";
+  static final String SHARD_NAMES = "--shard-names";
+  static final String SHARD_OUTPUT = "--shard-output";
+  static final String SHARD_PROGRESS = "--shard-progress";
+
+  public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+  public static final long DEFAULT_HASH_MAX_IN_FLIGHT = 256L * 1024 * 1024;
+  public static final int DEFAULT_WATCH_WINDOW_MILLIS = 200;
+  public static final long DEFAULT_CHUNK_THRESHOLD = 64L * 1024 * 1024;
+  public static final int DEFAULT_PROGRESS_INTERVAL_MILLIS = 5000;
+  public static final int DEFAULT_FULL_SNAPSHOT_EVERY = 10;
 
   public static final String ANSI_RESET = "\u001B[0m";
   public static final String ANSI_GREEN = "\u001B[32m";
@@ -43,32 +77,198 @@ public class StatContext {
   public final Path statsDirectory;
   public final Path rootPath;
   public final boolean computeSha1;
+  // content hash of the files and directories, the sha1 fields keep their name whatever the algorithm
+  public final HashAlgorithm hashAlgorithm;
+  // big files only get a quick fingerprint from sampled blocks
+  public final boolean quickHash;
+  // the quick fingerprints of the last snapshot are not reused, so they are upgraded to full digests
+  public final boolean fullHash;
+  // content-defined chunks of the files from chunkThreshold bytes, null without the --chunks option
+  public final FileChunks.Store chunkStore;
+  public final long chunkThreshold;
   public final boolean save;
   public final boolean diff;
   public final boolean color;
+  public final int threads;
+  public final int hashThreads;
+  public final long hashMaxInFlight;
+  public final boolean hashReport;
+  public final SnapshotWriter.Format format;
   public final IgnoreExpression.Matcher ignoreMatcher;
-  public final Map<String, FileAttributes> lastFileAttributesMap;
-  public final List<String> previousPathsToDiff;
+  // the previous and the current snapshot of --diff-snapshots, empty when scanning
+  public final List<Path> snapshotsToDiff;
+  // the left and the right directory of --compare, empty otherwise
+  public final List<Path> directoriesToCompare;
+  // prints the sets of files having the same content instead of the entries
+  public final boolean duplicates;
+  // compare all the entries of the snapshots, even under directories having the same sha1
+  public final boolean fullDiff;
+  // the directory sha1 of the last snapshot is kept when no child changed, false when the last snapshot
+  // has another directory digest
+  public final boolean reuseDirectorySha1;
+  public final boolean watch;
+  // events received during this delay after a first event are processed together
+  public final int watchWindowMillis;
+  // counters and timers of the run, null without the --metrics option
+  public final ScanMetrics metrics;
+  // progress of the scan printed on stderr every progressIntervalMillis
+  public final boolean progress;
+  public final int progressIntervalMillis;
+  // --save writes a delta snapshot against the last one, and a full snapshot every fullSnapshotEvery saves
+  public final boolean delta;
+  public final int fullSnapshotEvery;
+  // rewrites the last snapshot as a full one instead of scanning
+  public final boolean compact;
+  // the output blocks are written by a dedicated thread while the scan goes on
+  public final boolean outputThread;
+  // the files are hashed by batches in inode order, the output stays in the path order
+  public final boolean inodeOrder;
+  // limits of the bytes read and of the metadata operations, IoThrottle.UNLIMITED without option
+  public final IoThrottle throttle;
+  // --save runs one process per shard of the root entries, --threads and --hash-threads are divided between them
+  public final int shards;
+  // the root entries scanned by a shard process, null when not scanning a shard
+  public final Set<String> shardNames;
+  // the partial snapshot saved by a shard process, null when not scanning a shard
+  public final Path shardOutput;
+  // a shard process prints its progress counters on stdout for the progress of ShardedScan
+  public final boolean shardProgress;
+  // the command line arguments, given again to the shard processes
+  public final List<String> arguments;
+  // null if there is no previous stats, the snapshot of the "head" file
+  public final Path lastStatPath;
+  // the directory sha1 of the last snapshot are not comparable, computed by another directory digest
+  public final boolean lastDirectoryDigestChanged;
+  // owner and group names by uid and gid, the name service is only asked once per scan
+  public final Map<Integer, String> userNames = new ConcurrentHashMap<>();
+  public final Map<Integer, String> groupNames = new ConcurrentHashMap<>();
+  private SnapshotStore lastSnapshot;
 
   public StatContext(Path baseDirectory, Path rootPath, boolean computeSha1) {
     this.baseDirectory = baseDirectory;
     this.statsDirectory = this.baseDirectory.resolve(StatContext.DEFAULT_STATS_DIRECTORY);
     this.rootPath = rootPath;
     this.computeSha1 = computeSha1;
+    this.hashAlgorithm = HashAlgorithm.SHA1;
+    this.quickHash = false;
+    this.fullHash = false;
+    this.chunkStore = null;
+    this.chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
     this.save = false;
     this.diff = false;
     this.color = false;
+    this.threads = DEFAULT_THREADS;
+    this.hashThreads = DEFAULT_THREADS;
+    this.hashMaxInFlight = DEFAULT_HASH_MAX_IN_FLIGHT;
+    this.hashReport = false;
+    this.format = SnapshotWriter.Format.TEXT;
     this.ignoreMatcher = new IgnoreExpression.Matcher();
-    this.lastFileAttributesMap = new HashMap<>();
-    this.previousPathsToDiff = Collections.emptyList();
+    this.snapshotsToDiff = List.of();
+    this.directoriesToCompare = List.of();
+    this.duplicates = false;
+    this.fullDiff = false;
+    this.reuseDirectorySha1 = false;
+    this.lastDirectoryDigestChanged = false;
+    this.watch = false;
+    this.watchWindowMillis = DEFAULT_WATCH_WINDOW_MILLIS;
+    this.metrics = null;
+    this.progress = false;
+    this.progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL_MILLIS;
+    this.delta = false;
+    this.fullSnapshotEvery = DEFAULT_FULL_SNAPSHOT_EVERY;
+    this.compact = false;
+    this.outputThread = false;
+    this.inodeOrder = false;
+    this.throttle = IoThrottle.UNLIMITED;
+    this.shards = 1;
+    this.shardNames = null;
+    this.shardOutput = null;
+    this.shardProgress = false;
+    this.arguments = List.of();
+    this.lastStatPath = null;
   }
 
   public StatContext(String[] args) throws IOException {
+    long start = System.nanoTime();
+    this.arguments = List.of(args);
     List<String> arguments = new ArrayList<>(Arrays.asList(args));
     this.computeSha1 = !arguments.remove(NO_SHA1);
     this.save = arguments.remove(SAVE);
-    this.diff = arguments.remove(DIFF);
+    List<String> snapshotNames = new ArrayList<>();
+    int diffSnapshotsPos = arguments.indexOf(DIFF_SNAPSHOTS);
+    if (diffSnapshotsPos != -1) {
+      if (diffSnapshotsPos + 2 >= arguments.size()) {
+        throw new IllegalArgumentException("Invalid " + DIFF_SNAPSHOTS + " arguments, expecting two snapshots");
+      }
+      snapshotNames.add(arguments.get(diffSnapshotsPos + 1));
+      snapshotNames.add(arguments.get(diffSnapshotsPos + 2));
+      arguments.subList(diffSnapshotsPos, diffSnapshotsPos + 3).clear();
+    }
+    List<Path> directories = new ArrayList<>();
+    int comparePos = arguments.indexOf(COMPARE);
+    if (comparePos != -1) {
+      if (comparePos + 2 >= arguments.size()) {
+        throw new IllegalArgumentException("Invalid " + COMPARE + " arguments, expecting two directories");
+      }
+      for (String name : arguments.subList(comparePos + 1, comparePos + 3)) {
+        Path directory = Paths.get(name).toRealPath(LinkOption.NOFOLLOW_LINKS);
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+          throw new IllegalArgumentException("Invalid " + COMPARE + " argument, not a directory: " + name);
+        }
+        directories.add(directory);
+      }
+      arguments.subList(comparePos, comparePos + 3).clear();
+    }
+    this.directoriesToCompare = directories;
+    this.duplicates = arguments.remove(DUPLICATES);
+    this.fullDiff = arguments.remove(FULL_DIFF);
+    boolean reuseDirectorySha1 = arguments.remove(REUSE_DIRECTORY_SHA1);
+    this.watch = arguments.remove(WATCH);
+    this.watchWindowMillis = parsePositiveInt(WATCH_WINDOW, removeOption(arguments, WATCH_WINDOW, String.valueOf(DEFAULT_WATCH_WINDOW_MILLIS)));
+    this.diff = arguments.remove(DIFF) || !snapshotNames.isEmpty() || watch || !directories.isEmpty();
     this.color = arguments.remove(COLOR);
+    this.threads = parsePositiveInt(THREADS, removeOption(arguments, THREADS, String.valueOf(DEFAULT_THREADS)));
+    this.hashAlgorithm = HashAlgorithm.fromString(removeOption(arguments, HASH, HashAlgorithm.SHA1.code));
+    this.quickHash = arguments.remove(QUICK_HASH);
+    this.fullHash = arguments.remove(FULL_HASH);
+    if (quickHash && fullHash) {
+      throw new IllegalArgumentException("Invalid arguments, " + QUICK_HASH + " and " + FULL_HASH + " are exclusive");
+    }
+    boolean chunks = arguments.remove(CHUNKS);
+    this.chunkThreshold = parseSize(CHUNK_THRESHOLD, removeOption(arguments, CHUNK_THRESHOLD, String.valueOf(DEFAULT_CHUNK_THRESHOLD)));
+    this.hashThreads = parsePositiveInt(HASH_THREADS, removeOption(arguments, HASH_THREADS, String.valueOf(DEFAULT_THREADS)));
+    this.hashMaxInFlight = parseSize(HASH_MAX_IN_FLIGHT, removeOption(arguments, HASH_MAX_IN_FLIGHT, String.valueOf(DEFAULT_HASH_MAX_IN_FLIGHT)));
+    this.hashReport = arguments.remove(HASH_REPORT);
+    String metricsDirectory = removeOption(arguments, METRICS, "");
+    this.metrics = metricsDirectory.isEmpty() ? null : new ScanMetrics(Paths.get(metricsDirectory));
+    this.progress = arguments.remove(PROGRESS);
+    this.progressIntervalMillis = parsePositiveInt(PROGRESS_INTERVAL,
+      removeOption(arguments, PROGRESS_INTERVAL, String.valueOf(DEFAULT_PROGRESS_INTERVAL_MILLIS)));
+    this.format = SnapshotWriter.Format.fromString(removeOption(arguments, FORMAT, SnapshotWriter.Format.TEXT.code));
+    this.delta = arguments.remove(DELTA);
+    this.fullSnapshotEvery = parsePositiveInt(FULL_SNAPSHOT_EVERY,
+      removeOption(arguments, FULL_SNAPSHOT_EVERY, String.valueOf(DEFAULT_FULL_SNAPSHOT_EVERY)));
+    this.compact = arguments.remove(COMPACT);
+    this.outputThread = arguments.remove(OUTPUT_THREAD);
+    this.inodeOrder = arguments.remove(INODE_ORDER);
+    long maxReadRate = IoThrottle.parseRate(MAX_READ_RATE, removeOption(arguments, MAX_READ_RATE, "0"));
+    long maxIops = IoThrottle.parseRate(MAX_IOPS, removeOption(arguments, MAX_IOPS, "0"));
+    String throttleFile = removeOption(arguments, THROTTLE_FILE, "");
+    this.throttle = maxReadRate == 0 && maxIops == 0 && throttleFile.isEmpty() ? IoThrottle.UNLIMITED :
+      IoThrottle.create(maxReadRate, maxIops, throttleFile.isEmpty() ? null : Paths.get(throttleFile));
+    this.shards = parsePositiveInt(SHARDS, removeOption(arguments, SHARDS, "1"));
+    if (shards > 1 && (!save || delta || chunks)) {
+      throw new IllegalArgumentException("Invalid " + SHARDS + ", only with " + SAVE + " and without " + DELTA + " or " + CHUNKS);
+    }
+    // each shard process would read at the full rate
+    if (shards > 1 && throttle.enabled()) {
+      throw new IllegalArgumentException("Invalid " + SHARDS + ", not with " + MAX_READ_RATE + ", " + MAX_IOPS + " or " + THROTTLE_FILE);
+    }
+    String shardNamesPath = removeOption(arguments, SHARD_NAMES, "");
+    this.shardNames = shardNamesPath.isEmpty() ? null : new HashSet<>(Files.readAllLines(Paths.get(shardNamesPath), UTF_8));
+    String shardOutputPath = removeOption(arguments, SHARD_OUTPUT, "");
+    this.shardOutput = shardOutputPath.isEmpty() ? null : Paths.get(shardOutputPath);
+    this.shardProgress = arguments.remove(SHARD_PROGRESS);
     this.ignoreMatcher = new IgnoreExpression.Matcher();
     int ignorePos = arguments.indexOf(IGNORE);
     while (ignorePos != -1 && ignorePos + 1 < arguments.size()) {
@@ -77,14 +277,13 @@ public class StatContext {
       arguments.remove(ignorePos);
       ignorePos = arguments.indexOf(IGNORE);
     }
-    String customStatsDirectory = "";
-    int statsDirectoryOptionPos = arguments.indexOf(STATS_DIRECTORY_OPTION);
-    if (statsDirectoryOptionPos != -1 && statsDirectoryOptionPos + 1 < arguments.size()) {
-      customStatsDirectory = arguments.get(statsDirectoryOptionPos + 1);
-      arguments.remove(statsDirectoryOptionPos + 1);
-      arguments.remove(statsDirectoryOptionPos);
-    }
-    if (arguments.isEmpty()) {
+    String customStatsDirectory = removeOption(arguments, STATS_DIRECTORY_OPTION, "");
+    if (!directories.isEmpty() && !arguments.isEmpty()) {
+      throw new IllegalArgumentException("Invalid arguments, " + COMPARE + " does not scan " + String.join(" ", arguments));
+    } else if (!directories.isEmpty()) {
+      // the ignore patterns are relative to each compared directory
+      this.rootPath = directories.get(0);
+    } else if (arguments.isEmpty()) {
       this.rootPath = Paths.get(".").toRealPath(LinkOption.NOFOLLOW_LINKS);
     } else if (arguments.size() == 1) {
       this.rootPath = Paths.get(arguments.get(0)).toRealPath(LinkOption.NOFOLLOW_LINKS);
@@ -104,113 +303,216 @@ public class StatContext {
       this.ignoreMatcher.add(StatContext.DEFAULT_STATS_DIRECTORY);
       this.ignoreMatcher.add("*/" + StatContext.DEFAULT_STATS_DIRECTORY);
     }
-    this.lastFileAttributesMap = new HashMap<>();
-    if (Files.isDirectory(statsDirectory)) {
-      Path ignorePath = statsDirectory.resolve("ignore");
-      if (Files.exists(ignorePath)) {
-        for (String pattern : Files.readAllLines(ignorePath, UTF_8)) {
-          this.ignoreMatcher.add(pattern);
-        }
+    Path ignorePath = statsDirectory.resolve("ignore");
+    if (Files.exists(ignorePath)) {
+      for (String pattern : Files.readAllLines(ignorePath, UTF_8)) {
+        this.ignoreMatcher.add(pattern);
       }
-      Optional<String> lastStat = Files.list(statsDirectory)
-        .map(p -> p.getFileName().toString())
-        .filter(name -> name.startsWith("stat-"))
-        .max(Comparator.comparing(Object::toString));
-      if (lastStat.isPresent()) {
-        Path lastStatPath = statsDirectory.resolve(lastStat.get());
-        for (String line : Files.readAllLines(lastStatPath, UTF_8)) {
-          FileAttributes attributes = FileAttributes.fromString(line);
-          lastFileAttributesMap.put(attributes.relativeLinuxPath, attributes);
-        }
+    }
+    Path lastStat = DeltaSnapshot.head(statsDirectory);
+    this.lastStatPath = lastStat;
+    this.lastDirectoryDigestChanged = lastStat != null &&
+      SnapshotReader.directoryDigestVersion(lastStat) != SnapshotWriter.DIRECTORY_DIGEST_VERSION;
+    this.reuseDirectorySha1 = reuseDirectorySha1 && !lastDirectoryDigestChanged;
+    this.chunkStore = chunks ? new FileChunks.Store(lastStat != null ? FileChunks.sideFile(lastStat) : null) : null;
+    List<Path> snapshots = new ArrayList<>();
+    for (String name : snapshotNames) {
+      // a path, or the name of a snapshot of the stats directory
+      Path snapshot = Paths.get(name);
+      snapshots.add(Files.exists(snapshot) ? snapshot : statsDirectory.resolve(name));
+    }
+    this.snapshotsToDiff = snapshots;
+    if (metrics != null) {
+      metrics.add(ScanMetrics.Phase.CONTEXT, System.nanoTime() - start);
+    }
+  }
+
+  // the previous snapshot, to be merge-joined with the walk
+  public SnapshotCursor openLastStat() throws IOException {
+    return SnapshotCursor.open(lastStatPath);
+  }
+
+  // random access to the previous snapshot, loaded on the first call
+  public synchronized SnapshotStore lastSnapshot() throws IOException {
+    if (lastSnapshot == null) {
+      long start = System.nanoTime();
+      lastSnapshot = SnapshotStore.load(lastStatPath, hashAlgorithm);
+      if (metrics != null) {
+        metrics.add(ScanMetrics.Phase.SNAPSHOT_LOAD, System.nanoTime() - start);
+      }
+    }
+    return lastSnapshot;
+  }
+
+  // null if the entry is not in the previous snapshot
+  public FileAttributes lastAttributes(String relativeLinuxPath) throws IOException {
+    return lastSnapshot().get(relativeLinuxPath);
+  }
+
+  private static String removeOption(List<String> arguments, String option, String defaultValue) {
+    int optionPos = arguments.indexOf(option);
+    if (optionPos != -1 && optionPos + 1 < arguments.size()) {
+      String value = arguments.get(optionPos + 1);
+      arguments.remove(optionPos + 1);
+      arguments.remove(optionPos);
+      return value;
+    }
+    return defaultValue;
+  }
+
+  private static int parsePositiveInt(String option, String value) {
+    try {
+      int result = Integer.parseInt(value);
+      if (result > 0) {
+        return result;
       }
+    } catch (NumberFormatException e) {
+      // reported below
     }
+    throw new IllegalArgumentException("Invalid " + option + " value: " + value);
+  }
 
-    this.previousPathsToDiff = this.lastFileAttributesMap.keySet().stream()
-      .sorted(FileAttributes::comparePath)
-      .collect(Collectors.toCollection(LinkedList::new));
+  // a number of bytes with an optional K, M or G unit
+  static long parseSize(String option, String value) {
+    String digits = value;
+    long unit = 1;
+    if (!value.isEmpty()) {
+      int unitPos = "KMG".indexOf(Character.toUpperCase(value.charAt(value.length() - 1)));
+      if (unitPos != -1) {
+        digits = value.substring(0, value.length() - 1);
+        unit = 1L << (10 * (unitPos + 1));
+      }
+    }
+    try {
+      long result = Long.parseLong(digits);
+      if (result > 0) {
+        return result * unit;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException("Invalid " + option + " value: " + value);
   }
 
   public Path newStatSavedPath() {
-    SimpleDateFormat format = new SimpleDateFormat("'stat'-yyyy.MM.dd-HH'h'mm'm'ss's'SSS", Locale.ROOT);
+    return statsDirectory.resolve("stat-" + savedTime());
+  }
+
+  public Path newDeltaSavedPath() {
+    return statsDirectory.resolve(DeltaSnapshot.PREFIX + savedTime());
+  }
+
+  private static String savedTime() {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy.MM.dd-HH'h'mm'm'ss's'SSS", Locale.ROOT);
     format.setTimeZone(TimeZone.getTimeZone("UTC"));
-    return statsDirectory.resolve(format.format(new Date()));
+    return format.format(new Date());
+  }
+
+  // a delta snapshot if the chain of the last snapshot is shorter than fullSnapshotEvery - 1
+  public boolean saveDelta() throws IOException {
+    return delta && lastStatPath != null && DeltaSnapshot.chain(lastStatPath).size() + 1 < fullSnapshotEvery;
   }
 
   public boolean include(Path absolutePath, String relativePath) {
-    return !this.ignoreMatcher.ignore(absolutePath, relativePath);
-  }
-
-  public void printStats(PrintStream out, FileAttributes attributes) {
-    if (diff) {
-      Iterator<String> previousIterator = previousPathsToDiff.iterator();
-      boolean compared = false;
-      while (previousIterator.hasNext()) {
-        FileAttributes prevAttributes = this.lastFileAttributesMap.get(previousIterator.next());
-        int comp = FileAttributes.comparePath(prevAttributes.relativeLinuxPath, attributes.relativeLinuxPath);
-        if (comp < 0) {
-          if (color) {
-            out.println(ANSI_RED + "-del- " + prevAttributes.toString() + ANSI_RESET);
-          } else {
-            out.println("-del- " + prevAttributes.toString());
-          }
-          previousIterator.remove();
-        } else if (comp == 0) {
-          compared = true;
-          previousIterator.remove();
-          if (!prevAttributes.toString().equals(attributes.toString())) {
-            StringBuilder diffLine = new StringBuilder();
-            diffLine.append("~mod~ ").append(attributes.relativeLinuxPath).append("|");
-            if (prevAttributes.type != attributes.type) {
-              diffLine.append(" type ").append(prevAttributes.type).append(" -> ").append(attributes.type).append(" |");
-            }
-            if (prevAttributes.size != attributes.size) {
-              diffLine.append(" size ").append(prevAttributes.size).append(" -> ").append(attributes.size).append(" |");
-            }
-            if (!prevAttributes.owner.equals(attributes.owner)) {
-              diffLine.append(" owner ").append(prevAttributes.owner).append(" -> ").append(attributes.owner).append(" |");
-            }
-            if (!prevAttributes.group.equals(attributes.group)) {
-              diffLine.append(" group ").append(prevAttributes.group).append(" -> ").append(attributes.group).append(" |");
-            }
-            if (!prevAttributes.permissions.equals(attributes.permissions)) {
-              diffLine.append(" permissions ").append(prevAttributes.permissions).append(" -> ").append(attributes.permissions).append(" |");
-            }
-            if (!prevAttributes.modifiedTime.equals(attributes.modifiedTime)) {
-              diffLine.append(" modifiedTime ").append(prevAttributes.modifiedTime).append(" -> ").append(attributes.modifiedTime).append(" |");
-            }
-            if (!prevAttributes.sha1OrSymbolicLink.equals(attributes.sha1OrSymbolicLink)) {
-              diffLine.append(" sha1OrSymbolicLink ").append(prevAttributes.sha1OrSymbolicLink).append(" -> ").append(attributes.sha1OrSymbolicLink).append(" |");
-            }
-            if (color) {
-              out.println(ANSI_BLUE + diffLine.toString() + ANSI_RESET);
-            } else {
-              out.println(diffLine.toString());
-            }
-          }
-        } else {
-          break;
-        }
-      }
-      if (!compared) {
-        if (color) {
-          out.println(ANSI_GREEN + "+new+ " + attributes.toString() + ANSI_RESET);
-        } else {
-          out.println("+new+ " + attributes.toString());
-        }
-      }
-    } else {
-      out.println(attributes.toString());
+    return include(absolutePath, relativePath, null);
+  }
+
+  // siblings are the names of the parent directory listing, null if unknown
+  public boolean include(Path absolutePath, String relativePath, Set<String> siblings) {
+    // a shard process only scans the root and the subtrees of its root entries
+    if (shardNames != null && relativePath.indexOf('/') == -1 && !relativePath.equals(".") && !shardNames.contains(relativePath)) {
+      return false;
+    }
+    if (metrics == null) {
+      return !this.ignoreMatcher.ignore(absolutePath, relativePath, siblings);
     }
+    long start = System.nanoTime();
+    boolean ignored = this.ignoreMatcher.ignore(absolutePath, relativePath, siblings);
+    metrics.add(ScanMetrics.Phase.IGNORE, System.nanoTime() - start);
+    return !ignored;
   }
 
-  public void exitStats(PrintStream out) {
-    if (diff) {
-      Iterator<String> previousIterator = previousPathsToDiff.iterator();
-      while (previousIterator.hasNext()) {
-        FileAttributes prevAttributes = this.lastFileAttributesMap.get(previousIterator.next());
-        out.println("-del- " + prevAttributes.toString());
-        previousIterator.remove();
+  // the entry of the last snapshot to compare with the scanned attributes, its directory sha1 is not compared
+  // when the last snapshot has another directory digest
+  public FileAttributes comparableLastStat(FileAttributes previous, FileAttributes attributes) {
+    if (lastDirectoryDigestChanged && previous != null && previous.type == FileAttributes.Type.DIRECTORY &&
+      attributes.type == FileAttributes.Type.DIRECTORY) {
+      return previous.withSha1OrSymbolicLink(attributes.sha1OrSymbolicLink);
+    }
+    return previous;
+  }
+
+  // previous is null for new entries
+  public void printStats(LineWriter out, FileAttributes previous, FileAttributes attributes) throws IOException {
+    printStats(out, previous, attributes, null);
+  }
+
+  // changedBytes are the byte ranges of the changed chunks of a modified file, null if unknown
+  public void printStats(LineWriter out, FileAttributes previous, FileAttributes attributes, String changedBytes) throws IOException {
+    if (!diff) {
+      out.append(attributes).newLine();
+    } else if (previous == null) {
+      if (color) {
+        out.append(ANSI_GREEN).append("+new+ ").append(attributes).append(ANSI_RESET).newLine();
+      } else {
+        out.append("+new+ ").append(attributes).newLine();
       }
+    } else if (!previous.sameAs(attributes)) {
+      printModified(out, previous, attributes, changedBytes, -1);
+    }
+  }
+
+  // the same path in the left and the right directory of --compare, firstDifference is the offset of the first
+  // different byte of two files having the same size, -1 if their content is the same or was not compared
+  public void printCompared(LineWriter out, FileAttributes left, FileAttributes right, long firstDifference) throws IOException {
+    if (firstDifference != -1 || !left.sameAs(right)) {
+      printModified(out, left, right, null, firstDifference);
+    }
+  }
+
+  private void printModified(LineWriter out, FileAttributes previous, FileAttributes attributes, String changedBytes,
+    long firstDifference) throws IOException {
+    if (color) {
+      out.append(ANSI_BLUE);
+    }
+    out.append("~mod~ ").append(attributes.relativeLinuxPath).append('|');
+    if (previous.type != attributes.type) {
+      out.append(" type ").append(previous.type.code).append(" -> ").append(attributes.type.code).append(" |");
+    }
+    if (previous.size != attributes.size) {
+      out.append(" size ").append(previous.size).append(" -> ").append(attributes.size).append(" |");
+    }
+    printChange(out, "owner", previous.owner, attributes.owner);
+    printChange(out, "group", previous.group, attributes.group);
+    printChange(out, "permissions", previous.permissions, attributes.permissions);
+    printChange(out, "modifiedTime", previous.modifiedTime, attributes.modifiedTime);
+    if (printChange(out, "sha1OrSymbolicLink", previous.sha1OrSymbolicLink, attributes.sha1OrSymbolicLink) && changedBytes != null) {
+      out.append(" changedBytes ").append(changedBytes.isEmpty() ? "none" : changedBytes).append(" |");
+    }
+    if (firstDifference != -1) {
+      out.append(" content differs from byte ").append(firstDifference).append(" |");
+    }
+    if (color) {
+      out.append(ANSI_RESET);
+    }
+    out.newLine();
+  }
+
+  // true if the field changed
+  private static boolean printChange(LineWriter out, String field, String previous, String value) throws IOException {
+    if (previous.equals(value)) {
+      return false;
+    }
+    out.append(' ').append(field).append(' ').append(previous).append(" -> ").append(value).append(" |");
+    return true;
+  }
+
+  // also the deletions after the last entry, which were printed without color before the diff was streamed
+  public void printDeleted(LineWriter out, FileAttributes previous) throws IOException {
+    if (color) {
+      out.append(ANSI_RED).append("-del- ").append(previous).append(ANSI_RESET).newLine();
+    } else {
+      out.append("-del- ").append(previous).newLine();
     }
   }
 
@@ -1,76 +1,219 @@
 package com.auzeill.file;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 public class Stats {
 
   public static void main(String[] args) throws IOException {
-    stats(System.out, args);
+    StatContext context = new StatContext(args);
+    try (LineWriter output = LineWriter.stdout(context.outputThread)) {
+      stats(output, context);
+    }
   }
 
   public static void stats(PrintStream out, String[] args) throws IOException {
     StatContext context = new StatContext(args);
-    if (context.save) {
-      Path outPath = context.newStatSavedPath();
+    try (LineWriter output = LineWriter.of(out, context.outputThread)) {
+      stats(output, context);
+    }
+  }
+
+  private static void stats(LineWriter out, StatContext context) throws IOException {
+    if (context.compact) {
+      out.append(DeltaSnapshot.compact(context).toString()).newLine();
+    } else if (!context.snapshotsToDiff.isEmpty()) {
+      SnapshotDiff.diff(out, context, context.snapshotsToDiff.get(0), context.snapshotsToDiff.get(1));
+      writeMetrics(context);
+    } else if (!context.directoriesToCompare.isEmpty()) {
+      DirectoryComparison.compare(out, context);
+      writeMetrics(context);
+    } else if (context.duplicates) {
+      DuplicateFinder.find(out, context);
+      writeMetrics(context);
+    } else if (context.watch) {
+      warnDirectoryDigestChanged(context);
+      try (DirectoryWatcher watcher = new DirectoryWatcher(out, context)) {
+        scan(out, context, watcher::scan);
+        // the metrics of the first scan, the watch only ends with the watched directory
+        writeMetrics(context);
+        watcher.watch();
+      }
+    } else if (context.shards > 1) {
+      warnDirectoryDigestChanged(context);
+      Path outPath = ShardedScan.save(out, context);
+      DeltaSnapshot.writeHead(context.statsDirectory, outPath);
+      out.append(outPath.toString()).newLine();
+      writeMetrics(context);
+    } else {
+      warnDirectoryDigestChanged(context);
+      scan(out, context, snapshot -> stats(out, snapshot, context, context.rootPath));
+      writeMetrics(context);
+    }
+  }
+
+  // once instead of a modified sha1 for each directory
+  private static void warnDirectoryDigestChanged(StatContext context) {
+    if (context.diff && context.lastDirectoryDigestChanged) {
+      System.err.println("Directory sha1 not compared, " + context.lastStatPath + " has another directory digest");
+    }
+  }
+
+  private static void writeMetrics(StatContext context) throws IOException {
+    if (context.throttle.enabled()) {
+      System.err.println(context.throttle.report());
+    }
+    if (context.metrics != null) {
+      context.metrics.add(ScanMetrics.Phase.THROTTLE, context.throttle.waitNanos());
+      context.metrics.write();
+    }
+  }
+
+  private interface Scan {
+    void scan(SnapshotWriter snapshot) throws IOException;
+  }
+
+  private static void scan(LineWriter out, StatContext context, Scan scan) throws IOException {
+    if (context.shardOutput != null) {
+      // the partial snapshot of a shard process, merged by ShardedScan
+      try (SnapshotWriter snapshot = SnapshotWriter.create(context.shardOutput, context.format, context.hashAlgorithm)) {
+        scan.scan(snapshot);
+      }
+    } else if (context.save) {
+      boolean delta = context.saveDelta();
+      Path outPath = delta ? context.newDeltaSavedPath() : context.newStatSavedPath();
       Files.createDirectories(outPath.getParent());
-      try(FileOutputStream fileOutputStream = new FileOutputStream(outPath.toFile())) {
-        try (PrintStream outFile = new PrintStream(new BufferedOutputStream(fileOutputStream))) {
-          stats(outFile, context, context.rootPath);
-        }
+      try (SnapshotWriter snapshot = delta ? new DeltaSnapshot.Writer(outPath, context.lastStatPath) :
+        SnapshotWriter.create(outPath, context.format, context.hashAlgorithm)) {
+        scan.scan(snapshot);
       }
-      out.println(outPath.toString());
+      if (context.chunkStore != null) {
+        context.chunkStore.save(FileChunks.sideFile(outPath));
+      }
+      DeltaSnapshot.writeHead(context.statsDirectory, outPath);
+      out.append(outPath.toString()).newLine();
     } else {
-      stats(out, context, context.rootPath);
+      scan.scan(null);
     }
-    context.exitStats(out);
   }
 
   public static FileAttributes stats(PrintStream out, StatContext context, Path path) throws IOException {
-    if (path.getFileName().toString().equals(StatContext.DEFAULT_STATS_DIRECTORY)) {
-      return null;
+    try (LineWriter output = LineWriter.of(out, context.outputThread)) {
+      return stats(output, null, context, path);
+    }
+  }
+
+  // snapshot can be null, when saving, the output only receives the differences in diff mode
+  public static FileAttributes stats(LineWriter out, SnapshotWriter snapshot, StatContext context, Path path) throws IOException {
+    long start = System.nanoTime();
+    boolean needLastStat = context.diff || context.computeSha1;
+    try (DirectoryWalker walker = new DirectoryWalker(context);
+         HashPipeline hashPipeline = new HashPipeline(context.hashAlgorithm, context.quickHash, context.hashThreads, context.hashMaxInFlight,
+           context.throttle);
+         SnapshotCursor lastStat = needLastStat ? context.openLastStat() : SnapshotCursor.open(null);
+         ScanSequencer sequencer = new ScanSequencer(context, hashPipeline, lastStat, walker.walk(path));
+         ScanProgress progress = progress(context, hashPipeline)) {
+      FileAttributes attributes = stats(out, snapshot, context, sequencer, hashPipeline, progress);
+      if (context.hashReport) {
+        System.err.println(hashPipeline.report());
+      }
+      ScanMetrics metrics = context.metrics;
+      if (metrics != null) {
+        metrics.hashedFiles.add(hashPipeline.hashedFiles.sum());
+        metrics.hashedBytes.add(hashPipeline.hashedBytes.sum());
+        metrics.add(ScanMetrics.Phase.HASH, hashPipeline.hashNanos.sum());
+        metrics.add(ScanMetrics.Phase.HASH_WAIT, hashPipeline.waitNanos.sum());
+        metrics.add(ScanMetrics.Phase.SCAN, System.nanoTime() - start);
+      }
+      return attributes;
+    }
+  }
+
+  // null without --progress, the counters of a shard process are printed on its stdout, not used by the shard scan
+  private static ScanProgress progress(StatContext context, HashPipeline hashPipeline) {
+    if (context.shardProgress) {
+      return ScanProgress.counters(System.out, hashPipeline.hashedBytes, context.progressIntervalMillis);
+    } else if (context.progress) {
+      return new ScanProgress(System.err, context.lastStatPath, hashPipeline.hashedBytes, context.progressIntervalMillis);
     }
-    FileAttributes attributes = FileAttributes.fromPath(context, path);
-    if (context.include(path, attributes.relativeLinuxPath)) {
-      if (attributes.type == FileAttributes.Type.DIRECTORY) {
-        long size = 0;
-        StringBuilder allSha1 = new StringBuilder();
-        List<Path> childPaths;
-        try (Stream<Path> fileList = Files.list(path)) {
-          childPaths = fileList
-            .sorted((a, b) -> FileAttributes.comparePath(a.getFileName().toString(), b.getFileName().toString()))
-            .collect(Collectors.toList());
+    return null;
+  }
+
+  // progress can be null
+  private static FileAttributes stats(LineWriter out, SnapshotWriter snapshot, StatContext context, ScanSequencer sequencer,
+    HashPipeline hashPipeline, ScanProgress progress) throws IOException {
+    Deque<DirectorySummary> directories = new ArrayDeque<>();
+    ScanMetrics metrics = context.metrics;
+    FileAttributes lastAttributes = null;
+    for (ScanSequencer.Item item = sequencer.take(); item.kind != ScanSequencer.Kind.END; item = sequencer.take()) {
+      if (item.kind == ScanSequencer.Kind.DELETED) {
+        if (context.diff) {
+          context.printDeleted(out, item.previous);
+        }
+        deleted(directories, item.previous.relativeLinuxPath);
+      } else if (item.kind == ScanSequencer.Kind.ENTER_DIRECTORY) {
+        directories.push(new DirectorySummary(context, item.attributes.relativeLinuxPath));
+        if (metrics != null) {
+          metrics.enterDirectory();
+        }
+      } else {
+        FileAttributes attributes;
+        if (item.kind == ScanSequencer.Kind.EXIT_DIRECTORY) {
+          attributes = directories.pop().attributes(item.attributes, item.previous);
+        } else {
+          attributes = item.resolveAttributes(hashPipeline);
+        }
+        if (!directories.isEmpty()) {
+          directories.peek().add(attributes, item.previous);
+        }
+        if (progress != null) {
+          progress.add(attributes);
         }
-        for (Path childPath : childPaths) {
-          FileAttributes childAttributes = stats(out, context, childPath);
-          if (childAttributes != null) {
-            size += childAttributes.size;
-            allSha1.append(childAttributes.sha1OrSymbolicLink);
+        long start = 0;
+        if (metrics != null) {
+          count(metrics, item, attributes);
+          start = System.nanoTime();
+        }
+        if (snapshot != null) {
+          snapshot.write(attributes);
+        }
+        if (snapshot == null || context.diff) {
+          String changedBytes = null;
+          if (context.diff && context.chunkStore != null && item.previous != null && attributes.type == FileAttributes.Type.FILE) {
+            changedBytes = context.chunkStore.changedBytes(attributes.relativeLinuxPath);
           }
+          context.printStats(out, context.comparableLastStat(item.previous, attributes), attributes, changedBytes);
+        }
+        if (metrics != null) {
+          metrics.add(ScanMetrics.Phase.OUTPUT, System.nanoTime() - start);
         }
-        attributes = new FileAttributes(
-          attributes.relativeLinuxPath,
-          attributes.type,
-          size,
-          attributes.owner,
-          attributes.group,
-          attributes.permissions,
-          attributes.modifiedTime,
-          context.computeSha1 ? Sha1.digest(allSha1.toString().getBytes(UTF_8)) : "");
+        lastAttributes = attributes;
+      }
+    }
+    return lastAttributes;
+  }
+
+  private static void count(ScanMetrics metrics, ScanSequencer.Item item, FileAttributes attributes) {
+    metrics.entries.increment();
+    if (item.kind == ScanSequencer.Kind.EXIT_DIRECTORY) {
+      metrics.directories.increment();
+      metrics.exitDirectory(attributes.relativeLinuxPath);
+    } else if (attributes.type == FileAttributes.Type.FILE) {
+      metrics.files.increment();
+    }
+  }
+
+  // the deleted entry is not always under the last entered directory, like "a-b" deleted before "a/b"
+  private static void deleted(Deque<DirectorySummary> directories, String deletedPath) {
+    for (DirectorySummary directory : directories) {
+      if (directory.path.equals(".") || deletedPath.startsWith(directory.path + "/")) {
+        directory.deleted();
+        return;
       }
-      context.printStats(out, attributes);
-      return attributes;
-    } else {
-      return null;
     }
   }
 
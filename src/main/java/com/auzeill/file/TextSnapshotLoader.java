@@ -0,0 +1,250 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads a text snapshot memory-mapped by chunks ending at a new line, the chunks ahead of the
+ * current one being parsed in parallel on the common pool. A line is split from its end without
+ * regex, the size is decoded from the bytes and the repeated owner, group and permissions share
+ * their string. The lines not matching the usual format are left to FileAttributes.fromString.
+ */
+public class TextSnapshotLoader implements SnapshotReader {
+
+  // small enough for a chunk copy not to be a humongous object of G1
+  static final int CHUNK_SIZE = 256 * 1024;
+
+  private static final FileAttributes.Type[] TYPES = FileAttributes.Type.values();
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private final int chunkSize;
+  // chunks mapped and being parsed, in the file order
+  private final Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+  private final int readAhead;
+  private long nextChunkStart = 0;
+  private Chunk chunk = null;
+  private int index = 0;
+  private FileAttributes current = null;
+
+  public TextSnapshotLoader(Path path) throws IOException {
+    this(path, CHUNK_SIZE);
+  }
+
+  TextSnapshotLoader(Path path, int chunkSize) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.fileSize = channel.size();
+    this.chunkSize = chunkSize;
+    this.readAhead = ForkJoinPool.getCommonPoolParallelism() + 1;
+  }
+
+  @Override
+  public boolean next() throws IOException {
+    while (chunk == null || index == chunk.count) {
+      if (chunk != null && chunk.error != null) {
+        // the entries before the invalid line have been read
+        throw chunk.error;
+      }
+      mapChunks();
+      ForkJoinTask<Chunk> task = pending.poll();
+      if (task == null) {
+        current = null;
+        return false;
+      }
+      chunk = task.join();
+      index = 0;
+    }
+    current = chunk.entries[index++];
+    return true;
+  }
+
+  @Override
+  public String path() {
+    return current.relativeLinuxPath;
+  }
+
+  @Override
+  public FileAttributes.Type type() {
+    return current.type;
+  }
+
+  @Override
+  public FileAttributes attributes() {
+    return current;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (ForkJoinTask<Chunk> task : pending) {
+      task.cancel(false);
+    }
+    pending.clear();
+    channel.close();
+  }
+
+  private void mapChunks() throws IOException {
+    while (pending.size() < readAhead && nextChunkStart < fileSize) {
+      long start = nextChunkStart;
+      long length = Math.min(chunkSize, fileSize - start);
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+      int end = (int) length;
+      if (start + length < fileSize) {
+        end = lastNewLine(buffer) + 1;
+        while (end == 0) {
+          // a line longer than the chunk
+          if (length > Integer.MAX_VALUE / 2) {
+            throw new IOException("Snapshot line too long at " + start);
+          }
+          length = Math.min(2 * length, fileSize - start);
+          buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+          end = start + length < fileSize ? (lastNewLine(buffer) + 1) : (int) length;
+        }
+      }
+      nextChunkStart = start + end;
+      MappedByteBuffer chunkBuffer = buffer;
+      int chunkLength = end;
+      pending.add(ForkJoinPool.commonPool().submit(() -> parse(chunkBuffer, chunkLength)));
+    }
+  }
+
+  private static int lastNewLine(MappedByteBuffer buffer) {
+    int i = buffer.limit() - 1;
+    while (i >= 0 && buffer.get(i) != '\n') {
+      i--;
+    }
+    return i;
+  }
+
+  private static class Chunk {
+
+    private FileAttributes[] entries = new FileAttributes[1024];
+    private int count = 0;
+    // thrown after the entries
+    private RuntimeException error = null;
+    // values of the previous line, reused when the next line has the same bytes
+    private String owner = null;
+    private String group = null;
+    private String permissions = null;
+
+    private void add(FileAttributes attributes) {
+      if (count == entries.length) {
+        entries = Arrays.copyOf(entries, count * 2);
+      }
+      entries[count++] = attributes;
+    }
+
+  }
+
+  private static Chunk parse(MappedByteBuffer buffer, int length) {
+    byte[] data = new byte[length];
+    buffer.get(data);
+    Chunk chunk = new Chunk();
+    int start = 0;
+    while (start < length) {
+      int end = start;
+      while (end < length && data[end] != '\n') {
+        end++;
+      }
+      // same lines as BufferedReader.readLine for "\n" and "\r\n"
+      int lineEnd = end > start && data[end - 1] == '\r' ? (end - 1) : end;
+      try {
+        chunk.add(parseLine(chunk, data, start, lineEnd));
+      } catch (RuntimeException e) {
+        chunk.error = e;
+        return chunk;
+      }
+      start = end + 1;
+    }
+    return chunk;
+  }
+
+  private static FileAttributes parseLine(Chunk chunk, byte[] data, int start, int end) {
+    int sha1Start = fieldStart(data, start, end);
+    int modifiedTimeStart = fieldStart(data, start, sha1Start - 1);
+    int permissionsStart = fieldStart(data, start, modifiedTimeStart - 1);
+    int groupStart = fieldStart(data, start, permissionsStart - 1);
+    int ownerStart = fieldStart(data, start, groupStart - 1);
+    int sizeStart = fieldStart(data, start, ownerStart - 1);
+    int typeStart = fieldStart(data, start, sizeStart - 1);
+    FileAttributes.Type type = typeStart > start ? type(data, typeStart, sizeStart - 1) : null;
+    long size = type != null ? size(data, sizeStart, ownerStart - 1) : -1;
+    if (size == -1) {
+      // unusual line, parsed again to get the same attributes or error
+      return FileAttributes.fromString(new String(data, start, end - start, UTF_8));
+    }
+    chunk.owner = string(data, ownerStart, groupStart - 1, chunk.owner);
+    chunk.group = string(data, groupStart, permissionsStart - 1, chunk.group);
+    chunk.permissions = string(data, permissionsStart, modifiedTimeStart - 1, chunk.permissions);
+    return new FileAttributes(
+      new String(data, start, typeStart - 1 - start, UTF_8),
+      type,
+      size,
+      chunk.owner,
+      chunk.group,
+      chunk.permissions,
+      new String(data, modifiedTimeStart, sha1Start - 1 - modifiedTimeStart, UTF_8),
+      new String(data, sha1Start, end - sha1Start, UTF_8));
+  }
+
+  // start of the field ending at fieldEnd, the line start if there is no '|' before
+  private static int fieldStart(byte[] data, int lineStart, int fieldEnd) {
+    int i = fieldEnd - 1;
+    while (i >= lineStart && data[i] != '|') {
+      i--;
+    }
+    return i + 1;
+  }
+
+  // null if it is not a one character type code
+  private static FileAttributes.Type type(byte[] data, int start, int end) {
+    if (end - start == 1) {
+      for (FileAttributes.Type type : TYPES) {
+        if (type.code.charAt(0) == data[start]) {
+          return type;
+        }
+      }
+    }
+    return null;
+  }
+
+  // -1 if it is not 1 to 18 digits
+  private static long size(byte[] data, int start, int end) {
+    if (end <= start || end - start > 18) {
+      return -1;
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      int digit = data[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  // the previous value if it has the same ascii bytes
+  private static String string(byte[] data, int start, int end, String previous) {
+    if (previous != null && previous.length() == end - start) {
+      int i = start;
+      while (i < end && data[i] >= 0 && previous.charAt(i - start) == data[i]) {
+        i++;
+      }
+      if (i == end) {
+        return previous;
+      }
+    }
+    return new String(data, start, end - start, UTF_8);
+  }
+
+}
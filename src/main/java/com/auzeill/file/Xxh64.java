@@ -0,0 +1,131 @@
+package com.auzeill.file;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming XXH64 with a zero seed, the digest is the canonical big-endian form of the hash.
+ */
+public class Xxh64 implements HashAlgorithm.Hasher {
+
+  private static final long PRIME1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME3 = 0x165667B19E3779F9L;
+  private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME5 = 0x27D4EB2F165667C5L;
+  private static final int STRIPE_LENGTH = 32;
+
+  private long v1;
+  private long v2;
+  private long v3;
+  private long v4;
+  private long totalLength;
+  // the bytes of an incomplete stripe
+  private final ByteBuffer pending = ByteBuffer.allocate(STRIPE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+  public Xxh64() {
+    reset();
+  }
+
+  @Override
+  public void update(byte[] data, int offset, int length) {
+    update(ByteBuffer.wrap(data, offset, length));
+  }
+
+  @Override
+  public void update(ByteBuffer data) {
+    ByteOrder order = data.order();
+    data.order(ByteOrder.LITTLE_ENDIAN);
+    totalLength += data.remaining();
+    if (pending.position() > 0) {
+      while (pending.hasRemaining() && data.hasRemaining()) {
+        pending.put(data.get());
+      }
+      if (pending.hasRemaining()) {
+        data.order(order);
+        return;
+      }
+      stripe(pending, 0);
+      pending.clear();
+    }
+    int position = data.position();
+    int limit = data.limit();
+    while (limit - position >= STRIPE_LENGTH) {
+      stripe(data, position);
+      position += STRIPE_LENGTH;
+    }
+    data.position(position);
+    pending.put(data);
+    data.order(order);
+  }
+
+  @Override
+  public byte[] digest() {
+    long hash;
+    if (totalLength >= STRIPE_LENGTH) {
+      hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      hash = mergeRound(hash, v1);
+      hash = mergeRound(hash, v2);
+      hash = mergeRound(hash, v3);
+      hash = mergeRound(hash, v4);
+    } else {
+      hash = PRIME5;
+    }
+    hash += totalLength;
+    int length = pending.position();
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      hash ^= round(0, pending.getLong(i));
+      hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+    }
+    if (i + 4 <= length) {
+      hash ^= (pending.getInt(i) & 0xFFFFFFFFL) * PRIME1;
+      hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+      i += 4;
+    }
+    for (; i < length; i++) {
+      hash ^= (pending.get(i) & 0xFFL) * PRIME5;
+      hash = Long.rotateLeft(hash, 11) * PRIME1;
+    }
+    hash ^= hash >>> 33;
+    hash *= PRIME2;
+    hash ^= hash >>> 29;
+    hash *= PRIME3;
+    hash ^= hash >>> 32;
+    reset();
+    byte[] digest = new byte[8];
+    for (int j = 7; j >= 0; j--) {
+      digest[j] = (byte) hash;
+      hash >>>= 8;
+    }
+    return digest;
+  }
+
+  private void stripe(ByteBuffer data, int position) {
+    v1 = round(v1, data.getLong(position));
+    v2 = round(v2, data.getLong(position + 8));
+    v3 = round(v3, data.getLong(position + 16));
+    v4 = round(v4, data.getLong(position + 24));
+  }
+
+  private void reset() {
+    v1 = PRIME1 + PRIME2;
+    v2 = PRIME2;
+    v3 = 0;
+    v4 = -PRIME1;
+    totalLength = 0;
+    pending.clear();
+  }
+
+  private static long round(long accumulator, long input) {
+    accumulator += input * PRIME2;
+    accumulator = Long.rotateLeft(accumulator, 31);
+    return accumulator * PRIME1;
+  }
+
+  private static long mergeRound(long accumulator, long value) {
+    accumulator ^= round(0, value);
+    return accumulator * PRIME1 + PRIME4;
+  }
+
+}
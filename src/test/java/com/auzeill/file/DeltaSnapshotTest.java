@@ -0,0 +1,130 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeltaSnapshotTest {
+
+  private static final List<String> BASE = List.of(
+    "a/b|f|1|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+    "a/c|f|2|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+    "a|d|3|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|",
+    "a-b|f|4|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+    ".|d|7|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|");
+
+  private static final List<String> CURRENT = List.of(
+    "a/a|f|5|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+    "a/b|f|1|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+    "a|d|6|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|",
+    "a-b|f|4|root|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+    "b|f|0|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+    ".|d|10|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|");
+
+  @Test
+  void write_and_replay(@TempDir Path tempDir) throws IOException {
+    Path base = write(tempDir.resolve("stat-1"), BASE, SnapshotWriter.Format.BINARY);
+    Path delta = tempDir.resolve("delta-2");
+    writeDelta(delta, base, CURRENT);
+    assertThat(Files.readAllLines(delta, UTF_8)).containsExactly(
+      "CDSD|stat-1",
+      "+|a/a|f|5|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+      "-|a/c",
+      "+|a|d|6|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|",
+      "+|a-b|f|4|root|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+      "+|b|f|0|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|",
+      "+|.|d|10|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|",
+      "=|6|10");
+    assertThat(DeltaSnapshot.isDelta(delta)).isTrue();
+    assertThat(DeltaSnapshot.isDelta(base)).isFalse();
+    assertThat(DeltaSnapshot.base(delta)).isEqualTo(base);
+    assertThat(readAll(delta)).containsExactlyElementsOf(CURRENT);
+
+    // a second delta over the first one, back to the base entries
+    Path secondDelta = tempDir.resolve("delta-3");
+    writeDelta(secondDelta, delta, BASE);
+    assertThat(readAll(secondDelta)).containsExactlyElementsOf(BASE);
+    assertThat(DeltaSnapshot.chain(secondDelta)).containsExactly(secondDelta, delta);
+    assertThat(DeltaSnapshot.chain(base)).isEmpty();
+    ScanProgress.Totals totals = ScanProgress.Totals.read(secondDelta);
+    assertThat(totals.entries).isEqualTo(5);
+    assertThat(totals.bytes).isEqualTo(7);
+  }
+
+  @Test
+  void unchanged_snapshot(@TempDir Path tempDir) throws IOException {
+    Path base = write(tempDir.resolve("stat-1"), BASE, SnapshotWriter.Format.TEXT);
+    Path delta = tempDir.resolve("delta-2");
+    writeDelta(delta, base, BASE);
+    assertThat(Files.readAllLines(delta, UTF_8)).containsExactly("CDSD|stat-1", "=|5|7");
+    assertThat(readAll(delta)).containsExactlyElementsOf(BASE);
+  }
+
+  @Test
+  void corrupted(@TempDir Path tempDir) throws IOException {
+    Path base = write(tempDir.resolve("stat-1"), BASE, SnapshotWriter.Format.TEXT);
+    Path delta = tempDir.resolve("delta-2");
+    Files.write(delta, List.of("CDSD|stat-1", "-|unknown", "=|4|7"), UTF_8);
+    assertThatThrownBy(() -> readAll(delta)).isInstanceOf(IOException.class)
+      .hasMessage("Corrupted delta snapshot, " + delta + " deletes unknown missing from its base");
+    Files.write(delta, List.of("CDSD|stat-1", "+|.|d|7|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|"), UTF_8);
+    assertThatThrownBy(() -> readAll(delta)).isInstanceOf(IOException.class)
+      .hasMessage("Corrupted delta snapshot, no end line in " + delta);
+    Files.write(delta, List.of("CDSD|delta-2", "=|0|0"), UTF_8);
+    assertThatThrownBy(() -> DeltaSnapshot.chain(delta)).isInstanceOf(IOException.class)
+      .hasMessage("Corrupted delta snapshot, cyclic base " + delta);
+    assertThat(readAll(base)).containsExactlyElementsOf(BASE);
+  }
+
+  @Test
+  void head(@TempDir Path tempDir) throws IOException {
+    assertThat(DeltaSnapshot.head(tempDir.resolve("missing"))).isNull();
+    assertThat(DeltaSnapshot.head(tempDir)).isNull();
+    // without head file, the last full snapshot name
+    Files.write(tempDir.resolve("stat-1"), new byte[0]);
+    Files.write(tempDir.resolve("stat-2"), new byte[0]);
+    Files.write(tempDir.resolve("delta-3"), new byte[0]);
+    assertThat(DeltaSnapshot.head(tempDir)).isEqualTo(tempDir.resolve("stat-2"));
+    DeltaSnapshot.writeHead(tempDir, tempDir.resolve("delta-3"));
+    assertThat(Files.readString(tempDir.resolve(DeltaSnapshot.HEAD_FILE), UTF_8)).isEqualTo("delta-3\ndirectory-digest-version=2\n");
+    assertThat(DeltaSnapshot.head(tempDir)).isEqualTo(tempDir.resolve("delta-3"));
+    Files.delete(tempDir.resolve("delta-3"));
+    assertThat(DeltaSnapshot.head(tempDir)).isEqualTo(tempDir.resolve("stat-2"));
+  }
+
+  static Path write(Path path, List<String> lines, SnapshotWriter.Format format) throws IOException {
+    try (SnapshotWriter writer = SnapshotWriter.create(path, format)) {
+      for (String line : lines) {
+        writer.write(FileAttributes.fromString(line));
+      }
+    }
+    return path;
+  }
+
+  private static void writeDelta(Path delta, Path base, List<String> lines) throws IOException {
+    try (SnapshotWriter writer = new DeltaSnapshot.Writer(delta, base)) {
+      for (String line : lines) {
+        writer.write(FileAttributes.fromString(line));
+      }
+    }
+  }
+
+  private static List<String> readAll(Path snapshot) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (SnapshotReader reader = SnapshotReader.open(snapshot)) {
+      for (FileAttributes attributes = reader.read(); attributes != null; attributes = reader.read()) {
+        lines.add(attributes.toString());
+      }
+    }
+    return lines;
+  }
+
+}
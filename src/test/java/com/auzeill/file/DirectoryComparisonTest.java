@@ -0,0 +1,116 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirectoryComparisonTest {
+
+  private static final int BIG_SIZE = 2 * DirectoryComparison.BLOCK_SIZE + 10;
+
+  @Test
+  void compare(@TempDir Path tempDir) throws IOException {
+    Path left = tempDir.resolve("left");
+    Path right = tempDir.resolve("right");
+    byte[] big = new byte[BIG_SIZE];
+    write(left.resolve("big.bin"), big);
+    big[DirectoryComparison.BLOCK_SIZE + 5] = 1;
+    write(right.resolve("big.bin"), big);
+    write(left.resolve("diff.txt"), "hello".getBytes(UTF_8));
+    write(right.resolve("diff.txt"), "hallo".getBytes(UTF_8));
+    write(left.resolve("only-left").resolve("x.txt"), "x".getBytes(UTF_8));
+    write(right.resolve("only-right.txt"), "zz".getBytes(UTF_8));
+    write(left.resolve("replaced").resolve("y.txt"), "y".getBytes(UTF_8));
+    write(right.resolve("replaced"), "yyyy".getBytes(UTF_8));
+    write(left.resolve("same.txt"), "same!".getBytes(UTF_8));
+    write(right.resolve("same.txt"), "same!".getBytes(UTF_8));
+    write(left.resolve("size.txt"), "s".getBytes(UTF_8));
+    write(right.resolve("size.txt"), "sss".getBytes(UTF_8));
+    sameModifiedTime(left, right);
+
+    List<String> lines = compare("--compare", left.toString(), right.toString());
+    assertThat(lines).hasSize(9);
+    assertThat(lines.get(0)).isEqualTo("~mod~ big.bin| content differs from byte " + (DirectoryComparison.BLOCK_SIZE + 5) + " |");
+    assertThat(lines.get(1)).isEqualTo("~mod~ diff.txt| content differs from byte 1 |");
+    assertThat(lines.get(2)).startsWith("-del- only-left/x.txt|f|1|");
+    assertThat(lines.get(3)).startsWith("-del- only-left|d|1|");
+    assertThat(lines.get(4)).startsWith("+new+ only-right.txt|f|2|");
+    assertThat(lines.get(5)).startsWith("-del- replaced/y.txt|f|1|");
+    assertThat(lines.get(6)).startsWith("~mod~ replaced| type d -> f | size 1 -> 4 |");
+    assertThat(lines.get(7)).isEqualTo("~mod~ size.txt| size 1 -> 3 |");
+    assertThat(lines.get(8)).isEqualTo("~mod~ .| size " + (BIG_SIZE + 13) + " -> " + (BIG_SIZE + 19) + " |");
+
+    // the content is not read without sha1
+    assertThat(compare("--no-sha1", "--compare", left.toString(), right.toString()))
+      .noneMatch(line -> line.contains("content differs"))
+      .hasSize(7);
+    // the ignore patterns are relative to each directory
+    assertThat(compare("--ignore", "(?glob)only-*", "--ignore", "replaced", "--compare", left.toString(), right.toString()))
+      .noneMatch(line -> line.contains("only-") || line.contains("replaced"))
+      .hasSize(4);
+  }
+
+  @Test
+  void same_directories(@TempDir Path tempDir) throws IOException {
+    Path left = tempDir.resolve("left");
+    Path right = tempDir.resolve("right");
+    for (Path directory : Arrays.asList(left, right)) {
+      write(directory.resolve("a").resolve("b.txt"), "b".getBytes(UTF_8));
+      write(directory.resolve("c.txt"), "ccc".getBytes(UTF_8));
+      write(directory.resolve("empty.txt"), new byte[0]);
+    }
+    sameModifiedTime(left, right);
+    assertThat(compare("--compare", left.toString(), right.toString())).isEmpty();
+  }
+
+  @Test
+  void first_difference(@TempDir Path tempDir) throws IOException {
+    Path left = write(tempDir.resolve("left"), "abcdef".getBytes(UTF_8));
+    Path right = write(tempDir.resolve("right"), "abcdef".getBytes(UTF_8));
+    assertThat(DirectoryComparison.firstDifference(left, right, 6, IoThrottle.UNLIMITED)).isEqualTo(-1);
+    write(right, "abcdeF".getBytes(UTF_8));
+    assertThat(DirectoryComparison.firstDifference(left, right, 6, IoThrottle.UNLIMITED)).isEqualTo(5);
+    // a file truncated since its size was read
+    write(right, "abc".getBytes(UTF_8));
+    assertThat(DirectoryComparison.firstDifference(left, right, 6, IoThrottle.UNLIMITED)).isEqualTo(3);
+  }
+
+  private static Path write(Path path, byte[] content) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, content);
+    return path;
+  }
+
+  // the entries before their directory, so setting a time does not change the time of the parent
+  private static void sameModifiedTime(Path... directories) throws IOException {
+    FileTime time = FileTime.fromMillis(1_600_000_000_000L);
+    for (Path directory : directories) {
+      try (Stream<Path> paths = Files.walk(directory)) {
+        for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+          Files.setLastModifiedTime(path, time);
+        }
+      }
+    }
+  }
+
+  private static List<String> compare(String... args) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), args);
+    String output = new String(out.toByteArray(), UTF_8);
+    return output.isEmpty() ? List.of() : Arrays.asList(output.split(System.lineSeparator()));
+  }
+
+}
@@ -0,0 +1,108 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirectorySummaryTest {
+
+  private static final String FILE_SHA1 = "a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0";
+  private static final String PREVIOUS_SHA1 = "0123456789abcdef0123456789abcdef01234567";
+
+  @Test
+  void digest_of_children_records() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    DirectorySummary summary = new DirectorySummary(context, "dir");
+    summary.add(file("dir/data.txt", 4, FILE_SHA1));
+    summary.add(new FileAttributes("dir/link.txt", FileAttributes.Type.SYMBOLIC_LINK, 8, "alban", "alban", "rwxrwxrwx", "2020-09-02T15:43:48.680382Z", "data.txt"));
+    FileAttributes attributes = summary.attributes(directory("dir", ""), null);
+    assertThat(attributes.size).isEqualTo(12);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write('f');
+    expected.write(8);
+    expected.writeBytes("data.txt".getBytes(UTF_8));
+    expected.write(20);
+    expected.writeBytes(Sha1.hexToByte(FILE_SHA1));
+    expected.write('l');
+    expected.write(8);
+    expected.writeBytes("link.txt".getBytes(UTF_8));
+    expected.write(8);
+    expected.writeBytes("data.txt".getBytes(UTF_8));
+    assertThat(attributes.sha1OrSymbolicLink).isEqualTo(Sha1.digest(expected.toByteArray()));
+  }
+
+  @Test
+  void empty_directory() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    FileAttributes attributes = new DirectorySummary(context, "dir").attributes(directory("dir", ""), null);
+    assertThat(attributes.size).isZero();
+    assertThat(attributes.sha1OrSymbolicLink).isEqualTo("da39a3ee5e6b4b0d3255bfef95601890afd80709");
+    context = new StatContext(new String[] {"--no-sha1", "src"});
+    assertThat(new DirectorySummary(context, "dir").attributes(directory("dir", ""), null).sha1OrSymbolicLink).isEmpty();
+  }
+
+  @Test
+  void children_beyond_the_buffer_limit() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    DirectorySummary summary = new DirectorySummary(context, "dir");
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    int count = DirectorySummary.BUFFER_LIMIT / 20;
+    for (int i = 0; i < count; i++) {
+      String name = "file-" + i;
+      summary.add(file("dir/" + name, 1, FILE_SHA1));
+      expected.write('f');
+      expected.write(name.length());
+      expected.writeBytes(name.getBytes(UTF_8));
+      expected.write(20);
+      expected.writeBytes(Sha1.hexToByte(FILE_SHA1));
+    }
+    FileAttributes attributes = summary.attributes(directory("dir", ""), null);
+    assertThat(attributes.size).isEqualTo(count);
+    assertThat(attributes.sha1OrSymbolicLink).isEqualTo(Sha1.digest(expected.toByteArray()));
+  }
+
+  @Test
+  void reuse_previous_sha1() throws IOException {
+    StatContext context = new StatContext(new String[] {"--reuse-directory-sha1", "src"});
+    FileAttributes previousFile = file("dir/data.txt", 4, FILE_SHA1);
+    FileAttributes previous = directory("dir", PREVIOUS_SHA1);
+
+    DirectorySummary summary = new DirectorySummary(context, "dir");
+    summary.add(file("dir/data.txt", 4, FILE_SHA1), previousFile);
+    assertThat(summary.attributes(directory("dir", ""), previous).sha1OrSymbolicLink).isEqualTo(PREVIOUS_SHA1);
+
+    // unknown previous child
+    summary = new DirectorySummary(context, "dir");
+    summary.add(file("dir/data.txt", 4, FILE_SHA1));
+    assertThat(summary.attributes(directory("dir", ""), previous).sha1OrSymbolicLink).isNotEqualTo(PREVIOUS_SHA1);
+
+    // changed child
+    summary = new DirectorySummary(context, "dir");
+    summary.add(file("dir/data.txt", 4, "326efcd48d5188b2c2f820b1b6b4a62b8497e9c9"), previousFile);
+    assertThat(summary.attributes(directory("dir", ""), previous).sha1OrSymbolicLink).isNotEqualTo(PREVIOUS_SHA1);
+
+    // deleted child
+    summary = new DirectorySummary(context, "dir");
+    summary.add(file("dir/data.txt", 4, FILE_SHA1), previousFile);
+    summary.deleted();
+    assertThat(summary.attributes(directory("dir", ""), previous).sha1OrSymbolicLink).isNotEqualTo(PREVIOUS_SHA1);
+
+    // option not set
+    summary = new DirectorySummary(new StatContext(new String[] {"src"}), "dir");
+    summary.add(file("dir/data.txt", 4, FILE_SHA1), previousFile);
+    assertThat(summary.attributes(directory("dir", ""), previous).sha1OrSymbolicLink).isNotEqualTo(PREVIOUS_SHA1);
+  }
+
+  private static FileAttributes file(String path, long size, String sha1) {
+    return new FileAttributes(path, FileAttributes.Type.FILE, size, "alban", "alban", "rw-r--r--", "2020-09-02T15:43:48.680382Z", sha1);
+  }
+
+  private static FileAttributes directory(String path, String sha1) {
+    return new FileAttributes(path, FileAttributes.Type.DIRECTORY, 4, "alban", "alban", "rwxr-xr-x", "2020-09-02T15:43:48.680382Z", sha1);
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirectoryWalkerTest {
+
+  @Test
+  void walk() throws IOException {
+    Path baseDir = Paths.get("src", "test", "resources");
+    StatContext context = new StatContext(baseDir, baseDir, false);
+    try (DirectoryWalker walker = new DirectoryWalker(context)) {
+      DirectoryWalker.Entry root = walker.walk(baseDir);
+      assertThat(root.attributes().relativeLinuxPath).isEqualTo(".");
+      assertThat(root.attributes().type).isEqualTo(FileAttributes.Type.DIRECTORY);
+      List<DirectoryWalker.Entry> children = root.takeChildren();
+      List<String> childNames = children.stream()
+        .map(child -> child.path.getFileName().toString())
+        .collect(Collectors.toList());
+      assertThat(childNames).containsExactly(".directory-stats", ".ignore1", "data.txt", "link.txt", "subfolder");
+      assertThat(children.get(0).attributes()).isNull();
+      assertThat(children.get(2).attributes().relativeLinuxPath).isEqualTo("data.txt");
+      assertThat(children.get(2).takeChildren()).isNull();
+      assertThat(children.get(4).takeChildren()).hasSize(2);
+      assertThat(root.takeChildren()).isNull();
+    }
+  }
+
+  @Test
+  void bounded_walk_ahead(@TempDir Path tempDir) throws IOException, InterruptedException {
+    for (int i = 0; i < 30; i++) {
+      Path directory = Files.createDirectories(tempDir.resolve("d" + i));
+      for (int j = 0; j < 40; j++) {
+        Files.createFile(directory.resolve("f" + j));
+      }
+    }
+    StatContext context = new StatContext(new String[] {"--threads", "2", tempDir.toString()});
+    try (DirectoryWalker walker = new DirectoryWalker(context, tempDir, 100)) {
+      DirectoryWalker.Entry root = walker.walk(tempDir);
+      List<DirectoryWalker.Entry> directories = root.takeChildren();
+      Thread.sleep(300);
+      // the window and the children of a directory listed by each thread, far from the 1231 entries
+      assertThat(walker.pendingEntries()).isLessThanOrEqualTo(100 + 2 * 40);
+      int files = 0;
+      for (DirectoryWalker.Entry directory : directories) {
+        for (DirectoryWalker.Entry file : directory.takeChildren()) {
+          assertThat(file.attributes().type).isEqualTo(FileAttributes.Type.FILE);
+          files++;
+        }
+        assertThat(walker.pendingEntries()).isLessThanOrEqualTo(100 + 2 * 40);
+      }
+      assertThat(files).isEqualTo(30 * 40);
+      assertThat(walker.pendingEntries()).isZero();
+    }
+  }
+
+}
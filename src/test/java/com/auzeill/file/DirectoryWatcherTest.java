@@ -0,0 +1,98 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirectoryWatcherTest {
+
+  @Test
+  void watch(@TempDir Path tempDir) throws IOException {
+    Files.write(tempDir.resolve("a.txt"), "a".getBytes(UTF_8));
+    Files.createDirectories(tempDir.resolve("sub"));
+    Files.write(tempDir.resolve("sub").resolve("b.txt"), "b".getBytes(UTF_8));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StatContext context = new StatContext(new String[] {"--watch", "--watch-window", "50", tempDir.toString()});
+    try (DirectoryWatcher watcher = new DirectoryWatcher(new PrintStream(out, true, UTF_8), context)) {
+      watcher.scan(null);
+      assertThat(new String(out.toByteArray(), UTF_8)).contains("+new+ sub/b.txt|f|1|").contains("+new+ .|d|2|");
+      assertSameAsFullScan(watcher, tempDir);
+
+      out.reset();
+      Files.write(tempDir.resolve("a.txt"), "aa".getBytes(UTF_8));
+      processEvents(watcher);
+      assertThat(new String(out.toByteArray(), UTF_8))
+        .contains("~mod~ a.txt| size 1 -> 2 |")
+        .contains("~mod~ .| size 2 -> 3 |")
+        .doesNotContain("sub");
+      assertSameAsFullScan(watcher, tempDir);
+
+      out.reset();
+      Files.createDirectories(tempDir.resolve("new"));
+      Files.write(tempDir.resolve("new").resolve("c.txt"), "ccc".getBytes(UTF_8));
+      processEvents(watcher);
+      assertThat(new String(out.toByteArray(), UTF_8))
+        .contains("+new+ new/c.txt|f|3|")
+        .contains("+new+ new|d|3|")
+        .contains("~mod~ .| size 3 -> 6 |");
+      assertSameAsFullScan(watcher, tempDir);
+
+      out.reset();
+      Files.delete(tempDir.resolve("sub").resolve("b.txt"));
+      Files.delete(tempDir.resolve("sub"));
+      processEvents(watcher);
+      assertThat(new String(out.toByteArray(), UTF_8))
+        .contains("-del- sub/b.txt|f|1|")
+        .contains("-del- sub|d|1|");
+      assertThat(watcher.attributes("sub")).isNull();
+      assertSameAsFullScan(watcher, tempDir);
+    }
+  }
+
+  @Test
+  void overflow_rescans_the_directory(@TempDir Path tempDir) throws IOException {
+    Files.createDirectories(tempDir.resolve("sub"));
+    Files.write(tempDir.resolve("sub").resolve("b.txt"), "b".getBytes(UTF_8));
+    Files.write(tempDir.resolve("sub").resolve("c.txt"), "c".getBytes(UTF_8));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StatContext context = new StatContext(new String[] {"--watch", tempDir.toString()});
+    try (DirectoryWatcher watcher = new DirectoryWatcher(new PrintStream(out, true, UTF_8), context)) {
+      watcher.scan(null);
+      String unchangedSha1 = watcher.attributes("sub/c.txt").sha1OrSymbolicLink;
+      Files.write(tempDir.resolve("sub").resolve("b.txt"), "bb".getBytes(UTF_8));
+      Files.write(tempDir.resolve("sub").resolve("d.txt"), "d".getBytes(UTF_8));
+      out.reset();
+      watcher.update(Collections.emptySet(), Collections.singleton("sub"));
+      assertThat(new String(out.toByteArray(), UTF_8))
+        .contains("~mod~ sub/b.txt| size 1 -> 2 |")
+        .contains("+new+ sub/d.txt|")
+        .doesNotContain("c.txt");
+      assertThat(watcher.attributes("sub/c.txt").sha1OrSymbolicLink).isEqualTo(unchangedSha1);
+      assertSameAsFullScan(watcher, tempDir);
+    }
+  }
+
+  private static void processEvents(DirectoryWatcher watcher) throws IOException {
+    assertThat(watcher.processEvents(5000)).isTrue();
+    while (watcher.processEvents(300)) {
+      // until there is no more event
+    }
+  }
+
+  private static void assertSameAsFullScan(DirectoryWatcher watcher, Path directory) throws IOException {
+    PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream(), true, UTF_8);
+    FileAttributes root = Stats.stats(nowhere, new StatContext(directory, directory, true), directory);
+    assertThat(watcher.attributes(".").size).isEqualTo(root.size);
+    assertThat(watcher.attributes(".").sha1OrSymbolicLink).isEqualTo(root.sha1OrSymbolicLink);
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DuplicateFinderTest {
+
+  private static final int BIG_SIZE = 300_000;
+  private static final String HELLO_SHA1 = "aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d";
+
+  @Test
+  void duplicates(@TempDir Path tempDir) throws IOException {
+    createTree(tempDir);
+    List<String> lines = duplicates("--duplicates", tempDir.toString());
+    assertThat(lines).hasSize(7);
+    assertThat(lines.get(0)).isEqualTo("=dup= 5|5|2|" + HELLO_SHA1);
+    assertThat(lines.subList(1, 3)).containsExactly("a.txt", "sub/b.txt");
+    assertThat(lines.get(3)).isEqualTo("=dup= " + BIG_SIZE + "|" + BIG_SIZE + "|2|" + Sha1.digest(big(0, 0)));
+    assertThat(lines.subList(4, 6)).containsExactly("e.bin", "sub/f.bin");
+    assertThat(lines.get(6)).isEqualTo("=wasted= " + (BIG_SIZE + 5) + "|2|4");
+  }
+
+  @Test
+  void spilled_runs(@TempDir Path tempDir) throws IOException {
+    createTree(tempDir);
+    StatContext context = new StatContext(new String[] {tempDir.toString()});
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LineWriter writer = LineWriter.of(out, false);
+         DuplicateFinder finder = new DuplicateFinder(writer, context, 2)) {
+      try (DirectoryWalker walker = new DirectoryWalker(context)) {
+        add(finder, walker.walk(tempDir));
+      }
+      assertThat(finder.spilledRuns()).isEqualTo(4);
+      finder.report();
+    }
+    assertThat(new String(out.toByteArray(), UTF_8)).isEqualTo(String.join(System.lineSeparator(), duplicates("--duplicates", tempDir.toString())) +
+      System.lineSeparator());
+  }
+
+  @Test
+  void reuse_digests_of_the_last_snapshot(@TempDir Path tempDir) throws IOException {
+    createTree(tempDir);
+    duplicates("--save", tempDir.toString());
+    // same size and time, so the digest of "world" is reused
+    Path path = tempDir.resolve("c.txt");
+    FileTime time = Files.getLastModifiedTime(path);
+    Files.write(path, "hello".getBytes(UTF_8));
+    Files.setLastModifiedTime(path, time);
+    assertThat(duplicates("--duplicates", tempDir.toString())).contains("a.txt", "sub/b.txt").doesNotContain("c.txt");
+  }
+
+  private static void createTree(Path directory) throws IOException {
+    write(directory.resolve("a.txt"), "hello".getBytes(UTF_8));
+    write(directory.resolve("sub").resolve("b.txt"), "hello".getBytes(UTF_8));
+    write(directory.resolve("c.txt"), "world".getBytes(UTF_8));
+    write(directory.resolve("d.txt"), "hi".getBytes(UTF_8));
+    write(directory.resolve("e.bin"), big(0, 0));
+    write(directory.resolve("sub").resolve("f.bin"), big(0, 0));
+    // same edges as e.bin, only the full digest tells them apart
+    write(directory.resolve("g.bin"), big(BIG_SIZE / 2, 1));
+    write(directory.resolve("h.bin"), big(BIG_SIZE - 1, 1));
+    write(directory.resolve("empty-1"), new byte[0]);
+    write(directory.resolve("empty-2"), new byte[0]);
+  }
+
+  private static byte[] big(int position, int value) {
+    byte[] content = new byte[BIG_SIZE];
+    Arrays.fill(content, (byte) 'x');
+    content[position] = (byte) (content[position] + value);
+    return content;
+  }
+
+  private static void write(Path path, byte[] content) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, content);
+  }
+
+  private static void add(DuplicateFinder finder, DirectoryWalker.Entry entry) throws IOException {
+    FileAttributes attributes = entry.attributes();
+    if (attributes.type == FileAttributes.Type.DIRECTORY) {
+      for (DirectoryWalker.Entry child : entry.takeChildren()) {
+        add(finder, child);
+      }
+    } else {
+      finder.add(attributes);
+    }
+  }
+
+  private static List<String> duplicates(String... args) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), args);
+    return Arrays.asList(new String(out.toByteArray(), UTF_8).split(System.lineSeparator()));
+  }
+
+}
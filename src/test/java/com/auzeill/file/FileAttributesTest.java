@@ -1,8 +1,11 @@
 package com.auzeill.file;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Arrays;
 import java.util.List;
 import org.junit.jupiter.api.Test;
@@ -37,12 +40,33 @@ class FileAttributesTest {
     assertThat(attributes.toString()).isEqualTo(description);
   }
 
+  @Test
+  void from_string_with_pipes() {
+    FileAttributes attributes = FileAttributes.fromString("a|b||f|0|alban|alban|rw-rw-r--|2020-09-02T13:32:46Z|");
+    assertThat(attributes.relativeLinuxPath).isEqualTo("a|b|");
+    assertThat(attributes.type).isEqualTo(FileAttributes.Type.FILE);
+    assertThat(attributes.sha1OrSymbolicLink).isEmpty();
+    assertThatThrownBy(() -> FileAttributes.fromString("f|0|alban|alban|rw-rw-r--|2020-09-02T13:32:46Z|"))
+      .isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid fileDescription: f|0|alban|alban|rw-rw-r--|2020-09-02T13:32:46Z|");
+    assertThatThrownBy(() -> FileAttributes.fromString("")).isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid fileDescription: ");
+  }
+
+  @Test
+  void same_as() {
+    FileAttributes attributes = FileAttributes.fromString("a/b|f|2|alban|alban|rw-rw-r--|2020-09-02T13:32:46Z|b6589fc6");
+    assertThat(attributes.sameAs(FileAttributes.fromString(attributes.toString()))).isTrue();
+    assertThat(attributes.sameAs(attributes.withSha1OrSymbolicLink("356a192b"))).isFalse();
+    assertThat(attributes.sameAs(FileAttributes.fromString("a/b|f|2|root|alban|rw-rw-r--|2020-09-02T13:32:46Z|b6589fc6"))).isFalse();
+    assertThat(attributes.sameAs(FileAttributes.fromString("a/b|f|3|alban|alban|rw-rw-r--|2020-09-02T13:32:46Z|b6589fc6"))).isFalse();
+    assertThat(attributes.sameAs(FileAttributes.fromString("a/c|f|2|alban|alban|rw-rw-r--|2020-09-02T13:32:46Z|b6589fc6"))).isFalse();
+  }
+
   @Test
   void from_file() throws IOException {
     Path baseDir = Paths.get("src", "test");
     StatContext context = new StatContext(baseDir, baseDir, true);
     Path path = context.baseDirectory.resolve(Paths.get("resources", "data.txt"));
-    FileAttributes attributes = FileAttributes.fromPath(context, path);
+    FileAttributes attributes = FileAttributes.metadataFromPath(context, path);
     assertThat(attributes.relativeLinuxPath).isEqualTo("resources/data.txt");
     assertThat(attributes.type).isEqualTo(FileAttributes.Type.FILE);
     assertThat(attributes.size).isEqualTo(4);
@@ -50,7 +74,8 @@ class FileAttributesTest {
     assertThat(attributes.group).isEqualTo("alban");
     assertThat(attributes.permissions).matches("rw-r[w\\-]-r--");
     assertThat(attributes.modifiedTime).matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{1,6}Z");
-    assertThat(attributes.sha1OrSymbolicLink).isEqualTo("a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0");
+    assertThat(attributes.sha1OrSymbolicLink).isEmpty();
+    attributes = attributes.withSha1OrSymbolicLink(context.hashAlgorithm.digest(path));
     assertThat(forceSysFields(attributes.toString())).isEqualTo("resources/data.txt|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0");
   }
 
@@ -59,7 +84,7 @@ class FileAttributesTest {
     Path baseDir = Paths.get("src", "test");
     StatContext context = new StatContext(baseDir, baseDir, true);
     Path path = context.baseDirectory.resolve(Paths.get("resources", "link.txt"));
-    FileAttributes attributes = FileAttributes.fromPath(context, path);
+    FileAttributes attributes = FileAttributes.metadataFromPath(context, path);
     assertThat(attributes.relativeLinuxPath).isEqualTo("resources/link.txt");
     assertThat(attributes.type).isEqualTo(FileAttributes.Type.SYMBOLIC_LINK);
     assertThat(attributes.size).isEqualTo(8);
@@ -71,6 +96,27 @@ class FileAttributesTest {
     assertThat(forceSysFields(attributes.toString())).isEqualTo("resources/link.txt|l|8|alban|alban|rwxrwxrwx|2020-09-02T15:43:48.680382Z|data.txt");
   }
 
+  @Test
+  void metadata_from_path() throws IOException {
+    Path baseDir = Paths.get("src", "test");
+    StatContext context = new StatContext(baseDir, baseDir, true);
+    Path path = context.baseDirectory.resolve(Paths.get("resources", "subfolder"));
+    FileAttributes attributes = FileAttributes.metadataFromPath(context, path);
+    assertThat(attributes.relativeLinuxPath).isEqualTo("resources/subfolder");
+    assertThat(attributes.type).isEqualTo(FileAttributes.Type.DIRECTORY);
+    assertThat(attributes.permissions)
+      .isEqualTo(PosixFilePermissions.toString(Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS)));
+    assertThat(attributes.owner).isEqualTo(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).getName());
+    // owner and group names are resolved once per scan
+    assertThat(context.userNames.values()).containsExactly(attributes.owner);
+    assertThat(context.groupNames.values()).containsExactly(attributes.group);
+    assertThat(FileAttributes.metadataFromPath(context, path.resolve("subfile.txt")).owner).isSameAs(attributes.owner);
+
+    assertThatThrownBy(() -> FileAttributes.metadataFromPath(context, path.resolve("missing")))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessageStartingWith("File not found: ");
+  }
+
   @Test
   void compare_path() {
     assertThat(comparePath('/', '/')).isEqualTo(0);
@@ -0,0 +1,100 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileChunksTest {
+
+  @Test
+  void content_defined_chunks(@TempDir Path tempDir) throws IOException {
+    byte[] data = random(12 * 1024 * 1024);
+    FileChunks chunks = compute(tempDir, "big", data);
+    assertThat(chunks.size).isEqualTo(data.length);
+    assertThat(chunks.digest).isEqualTo(HashAlgorithm.XXH64.digest(data, 0, data.length));
+    assertThat(chunks.ends.length).isGreaterThan(2);
+    assertThat(chunks.ends[chunks.ends.length - 1]).isEqualTo(data.length);
+    long start = 0;
+    for (int i = 0; i < chunks.ends.length; i++) {
+      int length = (int) (chunks.ends[i] - start);
+      assertThat(length).isLessThanOrEqualTo(FileChunks.MAX_SIZE);
+      if (i < chunks.ends.length - 1) {
+        assertThat(length).isGreaterThan(FileChunks.MIN_SIZE);
+      }
+      assertThat(chunks.digests[i]).isEqualTo(HashAlgorithm.XXH64.digest(data, (int) start, length));
+      start = chunks.ends[i];
+    }
+    assertThat(chunks.changedBytes(chunks)).isEmpty();
+  }
+
+  @Test
+  void insertion_only_changes_the_chunks_around_it(@TempDir Path tempDir) throws IOException {
+    byte[] data = random(12 * 1024 * 1024);
+    FileChunks previous = compute(tempDir, "previous", data);
+    int insertion = 5 * 1024 * 1024;
+    byte[] inserted = new byte[data.length + 100];
+    System.arraycopy(data, 0, inserted, 0, insertion);
+    System.arraycopy(data, insertion, inserted, insertion + 100, data.length - insertion);
+    FileChunks chunks = compute(tempDir, "inserted", inserted);
+    String changedBytes = chunks.changedBytes(previous);
+    assertThat(changedBytes).matches("\\d+-\\d+");
+    long rangeStart = Long.parseLong(changedBytes.substring(0, changedBytes.indexOf('-')));
+    long rangeEnd = Long.parseLong(changedBytes.substring(changedBytes.indexOf('-') + 1));
+    assertThat(rangeStart).isLessThanOrEqualTo(insertion);
+    assertThat(rangeEnd).isGreaterThanOrEqualTo(insertion + 99);
+    assertThat(rangeEnd - rangeStart).isLessThan(2L * FileChunks.MAX_SIZE);
+  }
+
+  @Test
+  void changed_bytes() {
+    FileChunks previous = new FileChunks("f", 40, "t", "d", new long[] {10, 20, 30, 40}, new String[] {"a", "b", "c", "d"});
+    FileChunks chunks = new FileChunks("f", 50, "t", "d", new long[] {10, 20, 30, 40, 50}, new String[] {"x", "b", "y", "z", "d"});
+    assertThat(chunks.changedBytes(previous)).isEqualTo("0-9,20-39");
+  }
+
+  @Test
+  void save_and_load(@TempDir Path tempDir) throws IOException {
+    Path sideFile = FileChunks.sideFile(tempDir.resolve("stat-2020.09.02-15h43m48s680"));
+    assertThat(sideFile.getFileName()).hasToString("chunks-2020.09.02-15h43m48s680");
+    assertThat(FileChunks.sideFile(tempDir.resolve("delta-2020.09.02-15h43m48s680"))).isEqualTo(sideFile);
+    assertThat(FileChunks.load(sideFile)).isEmpty();
+    FileChunks.save(sideFile, List.of(
+      new FileChunks("dir/a|b", 20, "2020-09-02T15:43:48.680382Z", "xxh64:44bc2cf5ad770999", new long[] {10, 20}, new String[] {"x", "y"}),
+      new FileChunks("empty", 0, "2020-09-02T15:43:48Z", "xxh64:ef46db3751d8e999", new long[0], new String[0])));
+    Map<String, FileChunks> files = FileChunks.load(sideFile);
+    assertThat(files.keySet()).containsExactlyInAnyOrder("dir/a|b", "empty");
+    FileChunks file = files.get("dir/a|b");
+    assertThat(file.size).isEqualTo(20L);
+    assertThat(file.modifiedTime).isEqualTo("2020-09-02T15:43:48.680382Z");
+    assertThat(file.digest).isEqualTo("xxh64:44bc2cf5ad770999");
+    assertThat(file.ends).containsExactly(10L, 20L);
+    assertThat(file.digests).containsExactly("x", "y");
+    assertThat(files.get("empty").ends).isEmpty();
+
+    Files.writeString(sideFile, "f|1|t|d|2\n1|x\n");
+    assertThatThrownBy(() -> FileChunks.load(sideFile))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid chunks of f: null");
+  }
+
+  private static FileChunks compute(Path tempDir, String name, byte[] data) throws IOException {
+    Path path = Files.write(tempDir.resolve(name), data);
+    FileAttributes attributes = new FileAttributes(name, FileAttributes.Type.FILE, data.length, "alban", "alban", "rw-r--r--", "2020-09-02T15:43:48.680382Z", "");
+    return FileChunks.compute(HashAlgorithm.XXH64, path, attributes, IoThrottle.UNLIMITED);
+  }
+
+  private static byte[] random(int length) {
+    byte[] data = new byte[length];
+    new Random(42).nextBytes(data);
+    return data;
+  }
+
+}
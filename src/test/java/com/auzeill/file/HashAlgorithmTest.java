@@ -0,0 +1,101 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HashAlgorithmTest {
+
+  @Test
+  void digest_of_bytes() {
+    byte[] abc = "abc".getBytes(UTF_8);
+    assertThat(HashAlgorithm.SHA1.digest(abc, 0, 3)).isEqualTo("a9993e364706816aba3e25717850c26c9cd0d89d");
+    assertThat(HashAlgorithm.SHA256.digest(abc, 0, 3)).isEqualTo("sha256:ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    assertThat(HashAlgorithm.XXH64.digest(abc, 0, 3)).isEqualTo("xxh64:44bc2cf5ad770999");
+    assertThat(HashAlgorithm.CRC32C.digest(abc, 0, 3)).isEqualTo("crc32c:364b3fb7");
+    assertThat(HashAlgorithm.CRC32C.digest(new byte[0], 0, 0)).isEqualTo("crc32c:00000000");
+  }
+
+  @Test
+  void digest_of_file(@TempDir Path tempDir) throws IOException {
+    assertThat(HashAlgorithm.XXH64.digest(Paths.get("src", "test", "resources", "data.txt")))
+      .isEqualTo(HashAlgorithm.XXH64.digest("123\n".getBytes(UTF_8), 0, 4));
+    byte[] data = new byte[HashAlgorithm.BUFFER_SIZE * 2 + 17];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31 + (i >> 11));
+    }
+    Path path = Files.write(tempDir.resolve("big"), data);
+    for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+      assertThat(algorithm.digest(path)).isEqualTo(algorithm.digest(data, 0, data.length));
+    }
+  }
+
+  @Test
+  void quick_fingerprint(@TempDir Path tempDir) throws IOException {
+    byte[] data = new byte[(int) HashAlgorithm.QUICK_THRESHOLD + 1];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31 + (i >> 11));
+    }
+    Path path = Files.write(tempDir.resolve("big"), data);
+    String fingerprint = HashAlgorithm.XXH64.digest(path, data.length, true);
+    assertThat(HashAlgorithm.XXH64.isFingerprint(fingerprint)).isTrue();
+    assertThat(HashAlgorithm.XXH64.isDigest(fingerprint)).isFalse();
+
+    ByteArrayOutputStream sampled = new ByteArrayOutputStream();
+    sampled.writeBytes(ByteBuffer.allocate(8).putLong(data.length).array());
+    int sampleSize = HashAlgorithm.QUICK_SAMPLE_SIZE;
+    for (int i = 0; i < HashAlgorithm.QUICK_SAMPLES; i++) {
+      int position = (int) ((data.length - sampleSize) * (long) i / (HashAlgorithm.QUICK_SAMPLES - 1));
+      sampled.write(data, position, sampleSize);
+    }
+    assertThat(fingerprint).isEqualTo("quick:" + HashAlgorithm.XXH64.digest(sampled.toByteArray(), 0, sampled.size()));
+
+    // only the sampled blocks are read
+    data[sampleSize + 1]++;
+    Files.write(path, data);
+    assertThat(HashAlgorithm.XXH64.digest(path, data.length, true)).isEqualTo(fingerprint);
+    data[0]++;
+    Files.write(path, data);
+    assertThat(HashAlgorithm.XXH64.digest(path, data.length, true)).isNotEqualTo(fingerprint);
+    assertThat(HashAlgorithm.XXH64.digest(path, data.length, false)).isEqualTo(HashAlgorithm.XXH64.digest(data, 0, data.length));
+
+    Path small = Files.write(tempDir.resolve("small"), new byte[] {1, 2, 3});
+    assertThat(HashAlgorithm.SHA1.digest(small, 3, true)).isEqualTo(HashAlgorithm.SHA1.digest(small));
+    assertThat(HashAlgorithm.readBytes(3, true)).isEqualTo(3);
+    assertThat(HashAlgorithm.readBytes(data.length, true)).isEqualTo(HashAlgorithm.QUICK_SAMPLES * (long) sampleSize);
+    assertThat(HashAlgorithm.readBytes(data.length, false)).isEqualTo(data.length);
+  }
+
+  @Test
+  void text_of_digests() {
+    assertThat(HashAlgorithm.fromString("xxh64")).isEqualTo(HashAlgorithm.XXH64);
+    assertThat(HashAlgorithm.SHA256).hasToString("sha256");
+    assertThatThrownBy(() -> HashAlgorithm.fromString("md5"))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid hash: md5");
+
+    assertThat(HashAlgorithm.SHA1.isDigest("a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0")).isTrue();
+    assertThat(HashAlgorithm.SHA1.isDigest("xxh64:44bc2cf5ad770999")).isFalse();
+    assertThat(HashAlgorithm.XXH64.isDigest("xxh64:44bc2cf5ad770999")).isTrue();
+    assertThat(HashAlgorithm.XXH64.isDigest("a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0")).isFalse();
+    assertThat(HashAlgorithm.XXH64.isDigest("crc32c:364b3fb7")).isFalse();
+    assertThat(HashAlgorithm.CRC32C.isDigest("crc32c:364b3fb7")).isTrue();
+    assertThat(HashAlgorithm.CRC32C.isDigest("crc32c:364b3fb")).isFalse();
+    assertThat(HashAlgorithm.CRC32C.isDigest("")).isFalse();
+
+    byte[] digest = new byte[10];
+    HashAlgorithm.XXH64.parse("xxh64:44bc2cf5ad770999", digest, 1);
+    assertThat(Sha1.byteToHex(digest)).isEqualTo("0044bc2cf5ad77099900");
+    assertThat(HashAlgorithm.XXH64.format(Sha1.hexToByte("44bc2cf5ad770999"))).isEqualTo("xxh64:44bc2cf5ad770999");
+  }
+
+}
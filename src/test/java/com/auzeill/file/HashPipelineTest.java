@@ -0,0 +1,51 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HashPipelineTest {
+
+  @Test
+  void hash_in_submission_order(@TempDir Path tempDir) throws IOException {
+    List<Path> paths = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Path path = tempDir.resolve("f" + i);
+      Files.writeString(path, "content " + i, UTF_8);
+      paths.add(path);
+    }
+    // an in-flight limit smaller than a file still lets one file at a time be hashed
+    try (HashPipeline pipeline = new HashPipeline(3, 5)) {
+      List<Future<String>> futures = new ArrayList<>();
+      for (Path path : paths) {
+        futures.add(pipeline.submit(path, Files.size(path)));
+      }
+      for (int i = 0; i < paths.size(); i++) {
+        assertThat(pipeline.await(futures.get(i))).isEqualTo(Sha1.digest(paths.get(i)));
+      }
+      assertThat(pipeline.hashedFiles.sum()).isEqualTo(20);
+      assertThat(pipeline.hashedBytes.sum()).isEqualTo(10 * 9 + 10 * 10);
+      assertThat(pipeline.report()).matches("hash: 20 files, 190 bytes, 3 threads, \\d+ ms waiting for hashes");
+    }
+  }
+
+  @Test
+  void propagate_errors(@TempDir Path tempDir) throws IOException {
+    try (HashPipeline pipeline = new HashPipeline(1, 1024)) {
+      Future<String> sha1 = pipeline.submit(tempDir.resolve("missing"), 10);
+      assertThatThrownBy(() -> pipeline.await(sha1)).isInstanceOf(IOException.class);
+      Path path = Files.writeString(tempDir.resolve("f1"), "abcd", UTF_8);
+      assertThat(pipeline.await(pipeline.submit(path, 4))).isEqualTo("81fe8bfe87576c3ecb22426f8e57847382917acf");
+    }
+  }
+
+}
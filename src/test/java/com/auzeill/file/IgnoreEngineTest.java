@@ -0,0 +1,77 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IgnoreEngineTest {
+
+  private static final List<String> PATTERNS = List.of(
+    "exact/path.txt", "*.log", "*/.git", "*~", "*.[ch]", "name?", "(?glob)build/", "(?glob)/target", "(?glob)**/gen/*.java",
+    "(?glob)docs/**", "(?glob)cache-?/[a-f]*", "(?glob)**/node_modules", "(?glob)a/**/z", "(?glob)*.tmp/", "(?glob)[!x]y.md",
+    "(?sibling:pom.xml)out");
+
+  private static final List<String> PATHS = List.of(
+    "exact/path.txt", "exact/path.txt2", "sub/exact/path.txt", "app.log", "a/b/app.log", "app.log.gz", ".git", "x/.git",
+    "notes~", "build", "a/build", "build.gradle", "target", "a/target", "src/gen/A.java", "gen/B.java", "gen/sub/B.java",
+    "docs", "docs/index.md", "docs/a/b", "cache-1/abc", "cache-1/xyz", "cache-12/abc", "node_modules", "a/b/node_modules",
+    "a/z", "a/b/c/z", "b/a/z", "dir.tmp", "file.tmp", "ay.md", "xy.md", "out", "b.c", "b.[ch]", "name?", "names");
+
+  @Test
+  void same_result_as_each_expression(@TempDir Path tempDir) throws IOException {
+    for (String path : PATHS) {
+      Path absolutePath = tempDir.resolve(path);
+      Files.createDirectories(absolutePath.getParent());
+      boolean parent = PATHS.stream().anyMatch(other -> other.startsWith(path + "/"));
+      if (parent || path.equals("build") || path.equals("a/build") || path.equals("dir.tmp")) {
+        Files.createDirectories(absolutePath);
+      } else {
+        Files.createFile(absolutePath);
+      }
+    }
+    IgnoreExpression.Matcher matcher = new IgnoreExpression.Matcher();
+    PATTERNS.forEach(matcher::add);
+    for (String path : PATHS) {
+      Path absolutePath = tempDir.resolve(path);
+      boolean expected = matcher.ignoredRelativePaths.contains(path) ||
+        matcher.advancedMatchers.stream().anyMatch(expression -> expression.ignore(absolutePath, path));
+      assertThat(matcher.ignore(absolutePath, path)).as(path).isEqualTo(expected);
+    }
+    assertThat(matcher.ignore(tempDir.resolve("a/b/node_modules"), "a/b/node_modules")).isTrue();
+    assertThat(matcher.ignore(tempDir.resolve("docs"), "docs")).isFalse();
+    assertThat(matcher.ignore(tempDir.resolve("dir.tmp"), "dir.tmp")).isTrue();
+    assertThat(matcher.ignore(tempDir.resolve("file.tmp"), "file.tmp")).isFalse();
+    assertThat(matcher.ignore(tempDir.resolve("b.[ch]"), "b.[ch]")).isTrue();
+    assertThat(matcher.ignore(tempDir.resolve("b.c"), "b.c")).isFalse();
+  }
+
+  @Test
+  void siblings_from_the_listing() {
+    IgnoreExpression.Matcher matcher = new IgnoreExpression.Matcher();
+    matcher.add("*.log");
+    assertThat(matcher.hasSiblingConditions()).isFalse();
+    matcher.add("(?sibling:pom.xml)target");
+    assertThat(matcher.hasSiblingConditions()).isTrue();
+    // the listing answers, the file system is not used
+    Path target = Paths.get("does-not-exist", "target");
+    assertThat(matcher.ignore(target, "target", Set.of("pom.xml", "target"))).isTrue();
+    assertThat(matcher.ignore(target, "target", Set.of("target"))).isFalse();
+    assertThat(matcher.ignore(target, "target")).isFalse();
+  }
+
+  @Test
+  void patterns_added_after_a_match() {
+    IgnoreExpression.Matcher matcher = new IgnoreExpression.Matcher();
+    assertThat(matcher.ignore(Paths.get("a.log"), "a.log")).isFalse();
+    matcher.add("*.log");
+    assertThat(matcher.ignore(Paths.get("a.log"), "a.log")).isTrue();
+  }
+
+}
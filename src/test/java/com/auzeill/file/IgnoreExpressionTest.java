@@ -1,6 +1,7 @@
 package com.auzeill.file;
 
 import com.auzeill.file.IgnoreExpression.EndWith;
+import com.auzeill.file.IgnoreExpression.Glob;
 import java.nio.file.Paths;
 import org.junit.jupiter.api.Test;
 
@@ -31,9 +32,56 @@ class IgnoreExpressionTest {
   @Test
   void end_with() {
     assertThat(EndWith.create("not-end-with")).isNull();
+    assertThat(EndWith.create("(?glob)*.txt")).isNull();
     assertThat(EndWith.create("*.txt")).isNotNull();
     assertThat(EndWith.create("*.txt").ignore(Paths.get("/parent/file.txt"), "file.txt")).isTrue();
     assertThat(EndWith.create("*.txt").ignore(Paths.get("/parent/file-txt"), "file-txt")).isFalse();
   }
 
+  @Test
+  void wildcards_of_the_other_forms_are_literal() {
+    IgnoreExpression.Matcher matcher = new IgnoreExpression.Matcher();
+    matcher.add("*.[ch]");
+    matcher.add("*foo*");
+    matcher.add("name?");
+    matcher.add("*/build");
+    assertThat(matcher.ignore(Paths.get("b.[ch]"), "b.[ch]")).isTrue();
+    assertThat(matcher.ignore(Paths.get("b.c"), "b.c")).isFalse();
+    assertThat(matcher.ignore(Paths.get("a-foo*"), "a-foo*")).isTrue();
+    assertThat(matcher.ignore(Paths.get("a-foo-b"), "a-foo-b")).isFalse();
+    assertThat(matcher.ignore(Paths.get("name?"), "name?")).isTrue();
+    assertThat(matcher.ignore(Paths.get("names"), "names")).isFalse();
+    assertThat(matcher.ignore(Paths.get("a/build"), "a/build")).isTrue();
+    assertThat(matcher.ignore(Paths.get("build"), "build")).isFalse();
+    assertThat(matcher.ignore(Paths.get("a/b/build"), "a/b/build")).isTrue();
+    assertThat(matcher.ignoredRelativePaths).containsExactly("name?");
+  }
+
+  @Test
+  void glob() {
+    assertThat(Glob.create("file.txt")).isNull();
+    assertThat(Glob.create("build/")).isNull();
+    assertThat(Glob.create("(?glob)")).isNull();
+    assertThat(((Glob) Glob.create("(?glob)build/")).segments).containsExactly("**", "build");
+    assertThat(((Glob) Glob.create("(?glob)build/")).directoryOnly).isTrue();
+    assertThat(((Glob) Glob.create("(?glob)/target")).segments).containsExactly("target");
+    assertThat(((Glob) Glob.create("(?glob)src/**/**/*.java")).segments).containsExactly("src", "**", "*.java");
+    assertThat(((Glob) Glob.create("(?glob)docs/**")).segments).containsExactly("docs", "*", "**");
+
+    IgnoreExpression glob = Glob.create("(?glob)src/**/gen/*.java");
+    assertThat(glob.ignore(Paths.get("src/gen/A.java"), "src/gen/A.java")).isTrue();
+    assertThat(glob.ignore(Paths.get("src/a/b/gen/A.java"), "src/a/b/gen/A.java")).isTrue();
+    assertThat(glob.ignore(Paths.get("src/gen/sub/A.java"), "src/gen/sub/A.java")).isFalse();
+    assertThat(glob.ignore(Paths.get("lib/src/gen/A.java"), "lib/src/gen/A.java")).isFalse();
+
+    glob = Glob.create("(?glob)cache-?/[!a-c]*");
+    assertThat(glob.ignore(Paths.get("cache-1/data"), "cache-1/data")).isTrue();
+    assertThat(glob.ignore(Paths.get("cache-1/bin"), "cache-1/bin")).isFalse();
+    assertThat(glob.ignore(Paths.get("a/cache-1/data"), "a/cache-1/data")).isFalse();
+
+    glob = Glob.create("(?glob)\\*.md");
+    assertThat(glob.ignore(Paths.get("*.md"), "*.md")).isTrue();
+    assertThat(glob.ignore(Paths.get("a.md"), "a.md")).isFalse();
+  }
+
 }
@@ -0,0 +1,81 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IoThrottleTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  void bucket() {
+    IoThrottle.Bucket bucket = new IoThrottle.Bucket(1000, 0);
+    assertThat(bucket.reserve(100, 0)).isZero();
+    // waits for the 100 tokens taken before
+    assertThat(bucket.reserve(100, 0)).isEqualTo(100 * MS);
+    assertThat(bucket.reserve(300, 50 * MS)).isEqualTo(150 * MS);
+    // paid back at 500 ms, only 100 ms of unused tokens are saved
+    assertThat(bucket.reserve(200, 2000 * MS)).isZero();
+    assertThat(bucket.reserve(1, 2000 * MS)).isEqualTo(100 * MS);
+    bucket.setRate(0);
+    assertThat(bucket.reserve(1_000_000, 2000 * MS)).isZero();
+  }
+
+  @Test
+  void throttled_reads() throws IOException {
+    IoThrottle throttle = new IoThrottle(10 * 1024 * 1024, 0, null);
+    assertThat(throttle.enabled()).isTrue();
+    assertThat(throttle.limitsReads()).isTrue();
+    long start = System.nanoTime();
+    for (int i = 0; i < 3; i++) {
+      throttle.read(1024 * 1024);
+    }
+    // the third read waits for the 2 MB read before
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(190 * MS);
+    throttle.operation();
+    assertThat(throttle.report()).matches("throttle: 3145728 bytes read, \\d+ bytes/s \\(limit 10485760\\), " +
+      "1 operations, \\d+ operations/s \\(limit none\\), \\d+ ms throttled");
+    assertThat(throttle.waitNanos()).isGreaterThanOrEqualTo(190 * MS);
+
+    assertThat(IoThrottle.UNLIMITED.enabled()).isFalse();
+    assertThat(IoThrottle.UNLIMITED.limitsReads()).isFalse();
+  }
+
+  @Test
+  void control_file(@TempDir Path tempDir) throws IOException {
+    Path controlFile = tempDir.resolve("throttle");
+    // the file can be created during the scan
+    IoThrottle throttle = IoThrottle.create(1024, 0, controlFile);
+    assertThat(throttle.enabled()).isTrue();
+    assertThat(throttle.reads.rate()).isEqualTo(1024);
+
+    Files.write(controlFile, List.of("# during business hours", "max-iops=500"), UTF_8);
+    throttle.readControlFile();
+    assertThat(throttle.reads.rate()).isEqualTo(1024);
+    assertThat(throttle.operations.rate()).isEqualTo(500);
+
+    Files.write(controlFile, List.of("max-read-rate = 20M", "max-iops=0"), UTF_8);
+    Files.setLastModifiedTime(controlFile, FileTime.fromMillis(Files.getLastModifiedTime(controlFile).toMillis() + 1000));
+    throttle.readControlFile();
+    assertThat(throttle.reads.rate()).isEqualTo(20 * 1024 * 1024);
+    assertThat(throttle.operations.rate()).isZero();
+
+    Files.write(controlFile, List.of("max-read-rate=fast"), UTF_8);
+    assertThatThrownBy(() -> IoThrottle.create(0, 0, controlFile)).isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid " + controlFile + " max-read-rate value: fast");
+    Files.write(controlFile, List.of("max-rate=1M"), UTF_8);
+    assertThatThrownBy(() -> IoThrottle.create(0, 0, controlFile)).isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid throttle control file " + controlFile + ", unknown line: max-rate=1M");
+  }
+
+}
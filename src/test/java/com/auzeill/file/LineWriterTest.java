@@ -0,0 +1,96 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LineWriterTest {
+
+  @Test
+  void same_bytes_as_print_stream() throws IOException {
+    String[] lines = {"", "ascii", "caf\u00e9 \u20ac", "\ud83d\ude00 emoji", "lone \ud83d surrogate", "end \ude00"};
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    try (PrintStream printStream = new PrintStream(expected, false, UTF_8);
+         LineWriter writer = LineWriter.of(actual, false)) {
+      for (String line : lines) {
+        printStream.println(line);
+        writer.append(line).newLine();
+      }
+      printStream.println('x');
+      writer.append('x').newLine();
+      for (long number : new long[] {0, 7, -12, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+        printStream.println(number);
+        writer.append(number).newLine();
+      }
+    }
+    assertThat(actual.toByteArray()).isEqualTo(expected.toByteArray());
+  }
+
+  @Test
+  void file_attributes() throws IOException {
+    FileAttributes attributes = FileAttributes.fromString("r\u00e9p/b|f|2087|alban|alban|rw-rw-r--|2020-09-02T13:32:46Z|b6589fc6");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LineWriter writer = LineWriter.of(out, false)) {
+      writer.append(attributes);
+    }
+    assertThat(out.toString(UTF_8)).isEqualTo(attributes.toString());
+  }
+
+  @Test
+  void blocks(@TempDir Path tempDir) throws IOException {
+    // lines longer than the buffer, and a lot of short ones, with and without writer thread
+    StringBuilder expected = new StringBuilder();
+    String longLine = "\u00e9a".repeat(LineWriter.BUFFER_SIZE);
+    for (boolean writerThread : new boolean[] {false, true}) {
+      Path path = tempDir.resolve("out-" + writerThread);
+      expected.setLength(0);
+      try (LineWriter writer = LineWriter.create(path, writerThread)) {
+        for (int i = 0; i < 100_000; i++) {
+          String line = i % 20_000 == 0 ? longLine : "line " + i;
+          writer.append(line).newLine();
+          expected.append(line).append(System.lineSeparator());
+        }
+      }
+      assertThat(Files.readString(path, UTF_8)).isEqualTo(expected.toString());
+    }
+  }
+
+  @Test
+  void flush() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LineWriter writer = LineWriter.of(out, true);
+    writer.append("first").newLine();
+    assertThat(out.size()).isZero();
+    writer.flush();
+    assertThat(out.toString(UTF_8)).isEqualTo("first" + System.lineSeparator());
+    writer.close();
+  }
+
+  @Test
+  void write_error() {
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("No space left on device");
+      }
+    };
+    for (boolean writerThread : new boolean[] {false, true}) {
+      LineWriter writer = new LineWriter(failing, true, writerThread);
+      assertThatThrownBy(() -> {
+        writer.append("line").newLine();
+        writer.close();
+      }).isInstanceOf(IOException.class).hasMessage("No space left on device");
+    }
+  }
+
+}
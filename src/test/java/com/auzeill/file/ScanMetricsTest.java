@@ -0,0 +1,71 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScanMetricsTest {
+
+  @Test
+  void slowest_directories_exclude_sub_directories() throws InterruptedException {
+    ScanMetrics metrics = new ScanMetrics(Paths.get("metrics"));
+    metrics.enterDirectory();
+    metrics.enterDirectory();
+    Thread.sleep(20);
+    metrics.exitDirectory("slow");
+    metrics.exitDirectory(".");
+    for (int i = 0; i < ScanMetrics.SLOWEST_DIRECTORIES + 5; i++) {
+      metrics.enterDirectory();
+      metrics.exitDirectory("fast" + i);
+    }
+    assertThat(metrics.slowestDirectories()).hasSize(ScanMetrics.SLOWEST_DIRECTORIES);
+    assertThat(metrics.slowestDirectories().get(0).path).isEqualTo("slow");
+    assertThat(metrics.slowestDirectories().get(0).nanos).isGreaterThanOrEqualTo(20_000_000L);
+  }
+
+  @Test
+  void rates() {
+    ScanMetrics metrics = new ScanMetrics(Paths.get("metrics"));
+    assertThat(metrics.reuseRate()).isEqualTo(0.0);
+    assertThat(metrics.entriesPerSecond()).isEqualTo(0.0);
+    metrics.reusedSha1.add(3);
+    metrics.computedSha1.add(1);
+    metrics.entries.add(500);
+    metrics.add(ScanMetrics.Phase.SCAN, 250_000_000L);
+    assertThat(metrics.reuseRate()).isEqualTo(0.75);
+    assertThat(metrics.entriesPerSecond()).isEqualTo(2000.0);
+  }
+
+  @Test
+  void json_and_prometheus() {
+    ScanMetrics metrics = new ScanMetrics(Paths.get("metrics"));
+    metrics.entries.add(2);
+    metrics.add(ScanMetrics.Phase.HASH, 1_500_000_000L);
+    metrics.enterDirectory();
+    metrics.exitDirectory("a\"b");
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    metrics.writeJson(new PrintStream(json, true, UTF_8));
+    assertThat(new String(json.toByteArray(), UTF_8))
+      .startsWith("{" + System.lineSeparator() + "  \"entries\": 2,")
+      .contains("    \"hash\": 1.500000,", "    {\"path\": \"a\\\"b\", \"seconds\": ");
+    ByteArrayOutputStream prometheus = new ByteArrayOutputStream();
+    metrics.writePrometheus(new PrintStream(prometheus, true, UTF_8));
+    assertThat(new String(prometheus.toByteArray(), UTF_8))
+      .startsWith("# HELP compare_directory_entries_total Entries scanned." + System.lineSeparator() +
+        "# TYPE compare_directory_entries_total counter" + System.lineSeparator() +
+        "compare_directory_entries_total 2" + System.lineSeparator())
+      .contains("compare_directory_phase_seconds{phase=\"hash\"} 1.500000")
+      .contains("compare_directory_slowest_directory_seconds{path=\"a\\\"b\"} ");
+  }
+
+  @Test
+  void escape() {
+    assertThat(ScanMetrics.escape("a\\b\"c\nd\te", true)).isEqualTo("a\\\\b\\\"c\\nd\\u0009e");
+    assertThat(ScanMetrics.escape("a\\b\"c\nd\te", false)).isEqualTo("a\\\\b\\\"c\\nd\te");
+  }
+
+}
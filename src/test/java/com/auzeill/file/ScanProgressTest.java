@@ -0,0 +1,103 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ScanProgressTest {
+
+  private static final FileAttributes FILE = FileAttributes.fromString("a|f|10|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|");
+  private static final FileAttributes ROOT = FileAttributes.fromString(".|d|1234|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|");
+
+  @Test
+  void totals_of_text_snapshot(@TempDir Path tempDir) throws IOException {
+    Path snapshot = tempDir.resolve("stat-text");
+    try (SnapshotWriter writer = SnapshotWriter.create(snapshot, SnapshotWriter.Format.TEXT)) {
+      writer.write(FILE);
+      writer.write(ROOT);
+    }
+    ScanProgress.Totals totals = ScanProgress.Totals.read(snapshot);
+    assertThat(totals.entries).isEqualTo(2L);
+    assertThat(totals.bytes).isEqualTo(1234L);
+  }
+
+  @Test
+  void totals_of_binary_snapshot(@TempDir Path tempDir) throws IOException {
+    Path snapshot = tempDir.resolve("stat-binary");
+    try (SnapshotWriter writer = SnapshotWriter.create(snapshot, SnapshotWriter.Format.BINARY)) {
+      writer.write(FILE);
+      writer.write(ROOT);
+    }
+    ScanProgress.Totals totals = ScanProgress.Totals.read(snapshot);
+    assertThat(totals.entries).isEqualTo(2L);
+    assertThat(totals.bytes).isEqualTo(1234L);
+
+    Files.write(snapshot, new byte[] {'C', 'D', 'S', 'B', 3, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+    assertThatThrownBy(() -> ScanProgress.Totals.read(snapshot)).isInstanceOf(IOException.class)
+      .hasMessageStartingWith("Corrupted binary snapshot");
+  }
+
+  @Test
+  void unknown_totals(@TempDir Path tempDir) throws IOException {
+    assertThat(ScanProgress.Totals.read(null)).isSameAs(ScanProgress.Totals.UNKNOWN);
+    Path empty = Files.write(tempDir.resolve("stat-empty"), new byte[0]);
+    assertThat(ScanProgress.Totals.read(empty)).isSameAs(ScanProgress.Totals.UNKNOWN);
+  }
+
+  @Test
+  void report(@TempDir Path tempDir) throws IOException, InterruptedException {
+    Path snapshot = tempDir.resolve("stat-text");
+    Files.writeString(snapshot, (FILE + "\n").repeat(3) + ROOT + "\n", UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LongAdder hashedBytes = new LongAdder();
+    try (ScanProgress progress = new ScanProgress(new PrintStream(out, true, UTF_8), snapshot, hashedBytes, 3_600_000)) {
+      for (int i = 0; i < 100 && progress.totals() == ScanProgress.Totals.UNKNOWN; i++) {
+        Thread.sleep(10);
+      }
+      progress.add(FILE);
+      hashedBytes.add(3 * 1024 * 1024);
+      assertThat(progress.report(System.nanoTime()))
+        .matches("progress: 1/4 entries 25\\.0% \\| 10 B/1\\.2 KB \\| hashed 3\\.0 MB \\| \\d+ entries/s \\d+(\\.\\d)? [KM]?B/s \\| ETA \\d+:\\d\\d:\\d\\d");
+    }
+    assertThat(new String(out.toByteArray(), UTF_8)).startsWith("progress: 1/4 entries 25.0% | 10 B/1.2 KB | hashed 3.0 MB | 0 entries/s 0 B/s");
+  }
+
+  @Test
+  void report_without_totals() {
+    ScanProgress progress = new ScanProgress(new PrintStream(new ByteArrayOutputStream(), true, UTF_8), null, new LongAdder(), 3_600_000);
+    progress.add(ROOT);
+    assertThat(progress.report(System.nanoTime())).matches("progress: 1 entries \\| 0 B \\| hashed 0 B \\| \\d+ entries/s 0 B/s");
+    progress.close();
+  }
+
+  @Test
+  void counters() {
+    ScanProgress progress = new ScanProgress(new PrintStream(new ByteArrayOutputStream(), true, UTF_8), null, new LongAdder(), 3_600_000);
+    long[] previous = progress.addCounters(new long[3], "2|10|4");
+    previous = progress.addCounters(previous, "5|30|20");
+    assertThat(previous).containsExactly(5, 30, 20);
+    assertThat(progress.counters()).isEqualTo("5|30|20");
+    assertThatThrownBy(() -> progress.addCounters(new long[3], "progress: 5 entries")).isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid progress counters: progress: 5 entries");
+    progress.close();
+  }
+
+  @Test
+  void bytes() {
+    assertThat(ScanProgress.bytes(0)).isEqualTo("0 B");
+    assertThat(ScanProgress.bytes(1023)).isEqualTo("1023 B");
+    assertThat(ScanProgress.bytes(1536)).isEqualTo("1.5 KB");
+    assertThat(ScanProgress.bytes(5L * 1024 * 1024 * 1024)).isEqualTo("5.0 GB");
+    assertThat(ScanProgress.bytes(3L << 50)).isEqualTo("3072.0 TB");
+  }
+
+}
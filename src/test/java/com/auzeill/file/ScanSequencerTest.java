@@ -0,0 +1,147 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScanSequencerTest {
+
+  @Test
+  void merge_join_with_previous_stats(@TempDir Path tempDir) throws IOException {
+    Files.createDirectories(tempDir.resolve("a").resolve("deleted"));
+    Files.writeString(tempDir.resolve("a").resolve("deleted").resolve("f1"), "1", UTF_8);
+    Files.writeString(tempDir.resolve("a").resolve("same"), "same", UTF_8);
+    Files.writeString(tempDir.resolve("b"), "b", UTF_8);
+    Stats.stats(new PrintStream(new ByteArrayOutputStream(), true, UTF_8), new String[] {"--save", tempDir.toString()});
+
+    Files.delete(tempDir.resolve("a").resolve("deleted").resolve("f1"));
+    Files.delete(tempDir.resolve("a").resolve("deleted"));
+    Files.writeString(tempDir.resolve("a").resolve("new"), "new", UTF_8);
+
+    StatContext context = new StatContext(new String[] {"--diff", tempDir.toString()});
+    List<String> items = new ArrayList<>();
+    try (DirectoryWalker walker = new DirectoryWalker(context);
+         HashPipeline hashPipeline = new HashPipeline(2, 1024);
+         SnapshotCursor lastStat = context.openLastStat();
+         ScanSequencer sequencer = new ScanSequencer(context, hashPipeline, lastStat, walker.walk(context.rootPath))) {
+      for (ScanSequencer.Item item = sequencer.take(); item.kind != ScanSequencer.Kind.END; item = sequencer.take()) {
+        String path = item.attributes != null ? item.attributes.relativeLinuxPath : item.previous.relativeLinuxPath;
+        items.add(item.kind + " " + path + (item.previous != null && item.attributes != null ? " (previous)" : ""));
+        if (item.kind == ScanSequencer.Kind.ENTRY) {
+          assertThat(item.resolveAttributes(hashPipeline).sha1OrSymbolicLink).isEqualTo(Sha1.digest(tempDir.resolve(path)));
+        }
+      }
+    }
+    assertThat(items).containsExactly(
+      "ENTER_DIRECTORY .",
+      "ENTER_DIRECTORY a",
+      "DELETED a/deleted/f1",
+      "DELETED a/deleted",
+      "ENTRY a/new",
+      "ENTRY a/same (previous)",
+      "EXIT_DIRECTORY a (previous)",
+      "ENTRY b (previous)",
+      "EXIT_DIRECTORY . (previous)");
+  }
+
+  @Test
+  void inode_order(@TempDir Path tempDir) throws IOException {
+    // created in the reverse order of their names
+    for (int i = 9; i >= 0; i--) {
+      Files.createDirectories(tempDir.resolve("d" + (i % 3)));
+      Files.writeString(tempDir.resolve("d" + (i % 3)).resolve("f" + i), "content " + i, UTF_8);
+    }
+    StatContext context = new StatContext(new String[] {"--inode-order", tempDir.toString()});
+    List<Path> submitted = new ArrayList<>();
+    List<String> entries = new ArrayList<>();
+    try (DirectoryWalker walker = new DirectoryWalker(context);
+         HashPipeline hashPipeline = new HashPipeline(1, 1024) {
+           @Override
+           public Future<String> submit(Path path, long size) throws IOException {
+             submitted.add(path);
+             return super.submit(path, size);
+           }
+         };
+         SnapshotCursor lastStat = SnapshotCursor.open(null);
+         ScanSequencer sequencer = new ScanSequencer(context, hashPipeline, lastStat, walker.walk(context.rootPath))) {
+      for (ScanSequencer.Item item = sequencer.take(); item.kind != ScanSequencer.Kind.END; item = sequencer.take()) {
+        if (item.kind == ScanSequencer.Kind.ENTRY) {
+          String path = item.attributes.relativeLinuxPath;
+          entries.add(path);
+          assertThat(item.resolveAttributes(hashPipeline).sha1OrSymbolicLink).isEqualTo(Sha1.digest(tempDir.resolve(path)));
+        }
+      }
+    }
+    assertThat(entries).containsExactly("d0/f0", "d0/f3", "d0/f6", "d0/f9", "d1/f1", "d1/f4", "d1/f7", "d2/f2", "d2/f5", "d2/f8");
+    List<Path> inodeOrder = new ArrayList<>(submitted);
+    inodeOrder.sort(Comparator.comparingLong(ScanSequencerTest::inode));
+    assertThat(submitted).hasSize(10);
+    assertThat(submitted).containsExactlyElementsOf(inodeOrder);
+  }
+
+  private static long inode(Path path) {
+    try {
+      return ((Number) Files.getAttribute(path, "unix:ino")).longValue();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Test
+  void bounded_memory_on_a_tree_bigger_than_the_queue(@TempDir Path tempDir) throws IOException, InterruptedException {
+    for (int i = 0; i < 20; i++) {
+      Path directory = Files.createDirectories(tempDir.resolve("d" + i));
+      for (int j = 0; j < 50; j++) {
+        Files.createFile(directory.resolve("f" + j));
+      }
+    }
+    StatContext context = new StatContext(new String[] {"--threads", "2", "--no-sha1", tempDir.toString()});
+    try (DirectoryWalker walker = new DirectoryWalker(context, tempDir, 100);
+         HashPipeline hashPipeline = new HashPipeline(1, 1024);
+         SnapshotCursor lastStat = SnapshotCursor.open(null);
+         ScanSequencer sequencer = new ScanSequencer(context, hashPipeline, lastStat, walker.walk(tempDir), 50)) {
+      // the output does not consume, the walk and the queue stop far before the 1021 entries
+      Thread.sleep(300);
+      assertThat(sequencer.queuedItems()).isLessThanOrEqualTo(50);
+      assertThat(walker.pendingEntries()).isLessThanOrEqualTo(100 + 2 * 50);
+      int entries = 0;
+      for (ScanSequencer.Item item = sequencer.take(); item.kind != ScanSequencer.Kind.END; item = sequencer.take()) {
+        if (item.kind == ScanSequencer.Kind.ENTRY) {
+          entries++;
+        }
+        assertThat(walker.pendingEntries()).isLessThanOrEqualTo(100 + 2 * 50);
+      }
+      assertThat(entries).isEqualTo(20 * 50);
+    }
+  }
+
+  @Test
+  void propagate_walk_errors(@TempDir Path tempDir) throws IOException {
+    StatContext context = new StatContext(tempDir, tempDir, true);
+    try (DirectoryWalker walker = new DirectoryWalker(context);
+         HashPipeline hashPipeline = new HashPipeline(1, 1024);
+         SnapshotCursor lastStat = SnapshotCursor.open(null);
+         ScanSequencer sequencer = new ScanSequencer(context, hashPipeline, lastStat, walker.walk(tempDir.resolve("missing")))) {
+      IllegalArgumentException exception = null;
+      try {
+        sequencer.take();
+      } catch (IllegalArgumentException e) {
+        exception = e;
+      }
+      assertThat(exception).isNotNull();
+      assertThat(exception.getMessage()).startsWith("File not found: ");
+    }
+  }
+
+}
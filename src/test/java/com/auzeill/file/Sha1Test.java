@@ -1,10 +1,17 @@
 package com.auzeill.file;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class Sha1Test {
 
@@ -14,4 +21,55 @@ class Sha1Test {
       .isEqualTo("a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0");
   }
 
+  @Test
+  void sha1_of_bytes() {
+    assertThat(Sha1.digest(new byte[0])).isEqualTo("da39a3ee5e6b4b0d3255bfef95601890afd80709");
+    assertThat(Sha1.digest("abcd".getBytes(UTF_8))).isEqualTo("81fe8bfe87576c3ecb22426f8e57847382917acf");
+  }
+
+  @Test
+  void sha1_of_empty_file(@TempDir Path tempDir) throws IOException {
+    Path path = Files.write(tempDir.resolve("empty"), new byte[0]);
+    assertThat(Sha1.digest(path)).isEqualTo("da39a3ee5e6b4b0d3255bfef95601890afd80709");
+  }
+
+  @Test
+  void sha1_of_file_bigger_than_buffer(@TempDir Path tempDir) throws IOException, NoSuchAlgorithmException {
+    byte[] data = pattern(HashAlgorithm.BUFFER_SIZE * 3 + 17);
+    Path path = Files.write(tempDir.resolve("big"), data);
+    assertThat(Sha1.digest(path)).isEqualTo(Sha1.byteToHex(MessageDigest.getInstance("SHA-1").digest(data)));
+  }
+
+  @Test
+  void sha1_of_memory_mapped_file(@TempDir Path tempDir) throws IOException, NoSuchAlgorithmException {
+    byte[] data = pattern((int) HashAlgorithm.MAPPED_THRESHOLD + 5);
+    Path path = Files.write(tempDir.resolve("huge"), data);
+    assertThat(Sha1.digest(path)).isEqualTo(Sha1.byteToHex(MessageDigest.getInstance("SHA-1").digest(data)));
+  }
+
+  @Test
+  void byte_to_hex() {
+    assertThat(Sha1.byteToHex(new byte[0])).isEqualTo("");
+    assertThat(Sha1.byteToHex(new byte[] {0, 1, 0x7f, (byte) 0x80, (byte) 0xab, (byte) 0xff})).isEqualTo("00017f80abff");
+  }
+
+  @Test
+  void hex_to_byte() {
+    assertThat(Sha1.hexToByte("")).isEqualTo(new byte[0]);
+    assertThat(Sha1.hexToByte("00017f80abff")).isEqualTo(new byte[] {0, 1, 0x7f, (byte) 0x80, (byte) 0xab, (byte) 0xff});
+    assertThatThrownBy(() -> Sha1.hexToByte("abc")).isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid hex: abc");
+    assertThatThrownBy(() -> Sha1.hexToByte("AB")).isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid hex: AB");
+    assertThat(Sha1.isHex("a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0", 40)).isTrue();
+    assertThat(Sha1.isHex("a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0", 20)).isFalse();
+    assertThat(Sha1.isHex("data.txt", 8)).isFalse();
+  }
+
+  private static byte[] pattern(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i * 31 + (i >> 11));
+    }
+    return data;
+  }
+
 }
@@ -0,0 +1,135 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardedScanTest {
+
+  @Test
+  void assign() {
+    List<String> names = List.of("a", "b", "c", "d", "e");
+    Map<String, Long> lastSizes = Map.of("a", 10L, "b", 60L, "c", 30L, "d", 20L);
+    // "e" is unknown and weighs the average, 30
+    assertThat(ShardedScan.assign(names, lastSizes, 2)).containsExactly(
+      List.of("b", "d"),
+      List.of("c", "e", "a"));
+    assertThat(ShardedScan.assign(names, Map.of(), 3)).containsExactly(
+      List.of("a", "d"),
+      List.of("b", "e"),
+      List.of("c"));
+    assertThat(ShardedScan.assign(List.of("a"), Map.of(), 4)).containsExactly(List.of("a"));
+    assertThat(ShardedScan.assign(List.of(), Map.of(), 4)).isEmpty();
+  }
+
+  @Test
+  void same_snapshot_as_a_single_process(@TempDir Path tempDir) throws IOException, InterruptedException {
+    Files.createDirectories(tempDir.resolve("a/sub"));
+    Files.writeString(tempDir.resolve("a/sub/f1"), "abcd", UTF_8);
+    Files.writeString(tempDir.resolve("a/f2"), "efgh", UTF_8);
+    Files.createDirectories(tempDir.resolve("a-b"));
+    Files.writeString(tempDir.resolve("a-b/f3"), "ijkl", UTF_8);
+    Files.writeString(tempDir.resolve("b"), "mnop", UTF_8);
+    Files.writeString(tempDir.resolve("c"), "qrstuvwxyz", UTF_8);
+
+    Path single = save(tempDir);
+    Thread.sleep(10);
+    Path sharded = save(tempDir, "--shards", "3");
+    assertThat(sharded).isNotEqualTo(single);
+    assertThat(Files.readString(sharded, UTF_8)).isEqualTo(Files.readString(single, UTF_8));
+    assertThat(DeltaSnapshot.head(tempDir.resolve(StatContext.DEFAULT_STATS_DIRECTORY))).isEqualTo(sharded);
+    try (var files = Files.list(sharded.getParent())) {
+      assertThat(files.map(path -> path.getFileName().toString()).collect(Collectors.toList())).noneMatch(name -> name.startsWith("shards-"));
+    }
+    // the leftover of a failed run is not a snapshot
+    Path leftover = Files.createDirectories(sharded.resolveSibling("shards-1234"));
+    Files.writeString(leftover.resolve("shard-0"), "", UTF_8);
+    Files.delete(sharded.resolveSibling(DeltaSnapshot.HEAD_FILE));
+    assertThat(DeltaSnapshot.head(sharded.getParent())).isEqualTo(sharded);
+
+    // the binary format, the shards balanced by the sizes of the last snapshot
+    Thread.sleep(10);
+    Path binary = save(tempDir, "--format", "binary", "--shards", "2");
+    Thread.sleep(10);
+    Path binarySingle = save(tempDir, "--format", "binary");
+    assertThat(readAll(binary)).containsExactlyElementsOf(readAll(binarySingle));
+  }
+
+  @Test
+  void diff_with_the_last_snapshot(@TempDir Path tempDir) throws IOException, InterruptedException {
+    Files.createDirectories(tempDir.resolve("a"));
+    Files.writeString(tempDir.resolve("a/f1"), "abcd", UTF_8);
+    Files.writeString(tempDir.resolve("a/f2"), "efgh", UTF_8);
+    Files.writeString(tempDir.resolve("b"), "ijkl", UTF_8);
+    save(tempDir, "--shards", "2");
+
+    Thread.sleep(10);
+    Files.writeString(tempDir.resolve("a/f1"), "changed", UTF_8);
+    Files.delete(tempDir.resolve("a/f2"));
+    Files.writeString(tempDir.resolve("c"), "new", UTF_8);
+    String diff = run("--diff", tempDir.toString());
+    assertThat(diff).contains("~mod~ a/f1|", "-del- a/f2|", "+new+ c|");
+
+    String output = run("--save", "--diff", "--shards", "2", tempDir.toString());
+    String snapshot = DeltaSnapshot.head(tempDir.resolve(StatContext.DEFAULT_STATS_DIRECTORY)).toString();
+    assertThat(output).isEqualTo(diff + snapshot + System.lineSeparator());
+  }
+
+  @Test
+  void progress_of_all_the_shards(@TempDir Path tempDir) throws IOException {
+    Files.createDirectories(tempDir.resolve("a"));
+    Files.writeString(tempDir.resolve("a/f1"), "abcd", UTF_8);
+    Files.writeString(tempDir.resolve("b"), "efgh", UTF_8);
+    Files.writeString(tempDir.resolve("c"), "ij", UTF_8);
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    PrintStream systemErr = System.err;
+    Path snapshot;
+    System.setErr(new PrintStream(err, true, UTF_8));
+    try {
+      snapshot = save(tempDir, "--shards", "2", "--threads", "3", "--progress", "--progress-interval", "3600000");
+    } finally {
+      System.setErr(systemErr);
+    }
+    // a single last report of this process, with the counters of both shards and a single root entry
+    List<String> progress = new String(err.toByteArray(), UTF_8).lines().filter(line -> line.startsWith("progress: "))
+      .collect(Collectors.toList());
+    assertThat(progress).hasSize(1);
+    assertThat(progress.get(0)).startsWith("progress: " + Files.readAllLines(snapshot, UTF_8).size() + " entries | 10 B | hashed 10 B | ");
+  }
+
+  private static Path save(Path directory, String... options) throws IOException {
+    List<String> args = new ArrayList<>(List.of(options));
+    args.add(0, "--save");
+    args.add(directory.toString());
+    return Paths.get(run(args.toArray(new String[0])).replaceFirst("[\r\n]+$", ""));
+  }
+
+  private static String run(String... args) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), args);
+    return new String(out.toByteArray(), UTF_8);
+  }
+
+  private static List<String> readAll(Path snapshot) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (SnapshotReader reader = SnapshotReader.open(snapshot)) {
+      for (FileAttributes attributes = reader.read(); attributes != null; attributes = reader.read()) {
+        lines.add(attributes.toString());
+      }
+    }
+    return lines;
+  }
+
+}
@@ -0,0 +1,35 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotCursorTest {
+
+  @Test
+  void peek_and_next() throws IOException {
+    String snapshot = "" +
+      "a|f|1|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|" + System.lineSeparator() +
+      ".|d|1|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|" + System.lineSeparator();
+    try (SnapshotCursor cursor = new SnapshotCursor(SnapshotReader.open(new ByteArrayInputStream(snapshot.getBytes(UTF_8))))) {
+      assertThat(cursor.peek().relativeLinuxPath).isEqualTo("a");
+      assertThat(cursor.peek().relativeLinuxPath).isEqualTo("a");
+      assertThat(cursor.next().relativeLinuxPath).isEqualTo("a");
+      assertThat(cursor.next().relativeLinuxPath).isEqualTo(".");
+      assertThat(cursor.peek()).isNull();
+      assertThat(cursor.next()).isNull();
+    }
+  }
+
+  @Test
+  void no_snapshot() throws IOException {
+    try (SnapshotCursor cursor = SnapshotCursor.open(null)) {
+      assertThat(cursor.peek()).isNull();
+      assertThat(cursor.next()).isNull();
+    }
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotDiffTest {
+
+  private static final List<String> PREVIOUS = Arrays.asList(
+    "a/x|f|1|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|1111111111111111111111111111111111111111",
+    "a|d|1|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+    "b|f|2|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|2222222222222222222222222222222222222222",
+    "c/y|f|3|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|3333333333333333333333333333333333333333",
+    "c|d|3|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|cccccccccccccccccccccccccccccccccccccccc",
+    ".|d|6|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|0000000000000000000000000000000000000000");
+
+  private static final List<String> CURRENT = Arrays.asList(
+    "a/x|f|1|alban|alban|rwx------|2020-09-02T13:32:46Z|1111111111111111111111111111111111111111",
+    "a|d|1|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+    "b|f|5|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|5555555555555555555555555555555555555555",
+    "c/z|f|3|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|3333333333333333333333333333333333333333",
+    "c|d|3|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|dddddddddddddddddddddddddddddddddddddddd",
+    "d|f|0|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|da39a3ee5e6b4b0d3255bfef95601890afd80709",
+    ".|d|9|alban|alban|rwxr-xr-x|2020-09-02T13:32:46Z|9999999999999999999999999999999999999999");
+
+  @Test
+  void diff_snapshots(@TempDir Path tempDir) throws IOException {
+    Path previous = write(tempDir.resolve("previous"), PREVIOUS, SnapshotWriter.Format.BINARY);
+    Path current = write(tempDir.resolve("current"), CURRENT, SnapshotWriter.Format.BINARY);
+    assertThat(diff("--diff-snapshots", previous.toString(), current.toString(), tempDir.toString()))
+      .isEqualTo("" +
+        "~mod~ b| size 2 -> 5 | sha1OrSymbolicLink 2222222222222222222222222222222222222222 -> 5555555555555555555555555555555555555555 |" + System.lineSeparator() +
+        "-del- c/y|f|3|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|3333333333333333333333333333333333333333" + System.lineSeparator() +
+        "+new+ c/z|f|3|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|3333333333333333333333333333333333333333" + System.lineSeparator() +
+        "~mod~ c| sha1OrSymbolicLink cccccccccccccccccccccccccccccccccccccccc -> dddddddddddddddddddddddddddddddddddddddd |" + System.lineSeparator() +
+        "+new+ d|f|0|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|da39a3ee5e6b4b0d3255bfef95601890afd80709" + System.lineSeparator() +
+        "~mod~ .| size 6 -> 9 | sha1OrSymbolicLink 0000000000000000000000000000000000000000 -> 9999999999999999999999999999999999999999 |" + System.lineSeparator());
+  }
+
+  @Test
+  void full_diff(@TempDir Path tempDir) throws IOException {
+    Path previous = write(tempDir.resolve("previous"), PREVIOUS, SnapshotWriter.Format.BINARY);
+    Path current = write(tempDir.resolve("current"), CURRENT, SnapshotWriter.Format.TEXT);
+    String fullDiff = diff("--full-diff", "--diff-snapshots", previous.toString(), current.toString(), tempDir.toString());
+    assertThat(fullDiff)
+      .startsWith("" +
+        "~mod~ a/x| permissions rw-r--r-- -> rwx------ |" + System.lineSeparator() +
+        "~mod~ b| size 2 -> 5 |");
+    // without index, all the entries are compared
+    assertThat(diff("--diff-snapshots", previous.toString(), current.toString(), tempDir.toString())).isEqualTo(fullDiff);
+  }
+
+  @Test
+  void snapshot_name_in_stats_directory(@TempDir Path tempDir) throws IOException {
+    Path statsDirectory = tempDir.resolve(StatContext.DEFAULT_STATS_DIRECTORY);
+    Files.createDirectories(statsDirectory);
+    write(statsDirectory.resolve("stat-1"), PREVIOUS, SnapshotWriter.Format.TEXT);
+    write(statsDirectory.resolve("stat-2"), PREVIOUS, SnapshotWriter.Format.TEXT);
+    assertThat(diff("--diff-snapshots", "stat-1", "stat-2", tempDir.toString())).isEmpty();
+  }
+
+  @Test
+  void unchanged_directories(@TempDir Path tempDir) throws IOException {
+    Path previous = write(tempDir.resolve("previous"), PREVIOUS, SnapshotWriter.Format.BINARY);
+    Path current = write(tempDir.resolve("current"), CURRENT, SnapshotWriter.Format.BINARY);
+    assertThat(SnapshotDiff.unchangedDirectories(SnapshotIndex.read(previous), SnapshotIndex.read(current)).keySet())
+      .containsExactly("a");
+    assertThat(SnapshotDiff.unchangedDirectories(SnapshotIndex.read(previous), SnapshotIndex.read(previous)).keySet())
+      .containsExactlyInAnyOrder("a", "c", ".");
+  }
+
+  private static Path write(Path path, List<String> lines, SnapshotWriter.Format format) throws IOException {
+    try (SnapshotWriter writer = SnapshotWriter.create(path, format)) {
+      for (String line : lines) {
+        writer.write(FileAttributes.fromString(line));
+      }
+    }
+    return path;
+  }
+
+  private static String diff(String... args) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), args);
+    return new String(out.toByteArray(), UTF_8);
+  }
+
+}
@@ -0,0 +1,47 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotIndexTest {
+
+  @Test
+  void read(@TempDir Path tempDir) throws IOException {
+    Path text = tempDir.resolve("text");
+    Path binary = tempDir.resolve("binary");
+    try (SnapshotWriter textWriter = SnapshotWriter.create(text, SnapshotWriter.Format.TEXT);
+         SnapshotWriter binaryWriter = SnapshotWriter.create(binary, SnapshotWriter.Format.BINARY)) {
+      for (String line : SnapshotWriterTest.SNAPSHOT) {
+        textWriter.write(FileAttributes.fromString(line));
+        binaryWriter.write(FileAttributes.fromString(line));
+      }
+    }
+    assertThat(SnapshotIndex.read(text)).isNull();
+
+    SnapshotIndex index = SnapshotIndex.read(binary);
+    assertThat(index.dictionary).contains("alban");
+    assertThat(index.directories).hasSize(2);
+    SnapshotIndex.Directory root = index.directories.get(index.directories.size() - 1);
+    assertThat(root.path).isEqualTo(".");
+    assertThat(root.entry).isEqualTo(SnapshotWriterTest.SNAPSHOT.size() - 1);
+
+    // the entries before a directory are not read when skipping to it
+    for (SnapshotIndex.Directory directory : index.directories) {
+      try (SnapshotCursor cursor = SnapshotCursor.open(binary)) {
+        cursor.skipTo(index, directory);
+        FileAttributes attributes = cursor.next();
+        assertThat(attributes).hasToString(SnapshotWriterTest.SNAPSHOT.get((int) directory.entry));
+        assertThat(attributes.size).isEqualTo(directory.size);
+        assertThat(attributes.sha1OrSymbolicLink).isEqualTo(directory.sha1);
+        while (cursor.next() != null) {
+          // reads until the end to check the entry count
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnapshotReaderTest {
+
+  @Test
+  void detect_format(@TempDir Path tempDir) throws IOException {
+    for (SnapshotWriter.Format format : SnapshotWriter.Format.values()) {
+      Path path = tempDir.resolve("stat-" + format);
+      try (SnapshotWriter writer = SnapshotWriter.create(path, format)) {
+        for (String line : SnapshotWriterTest.SNAPSHOT) {
+          writer.write(FileAttributes.fromString(line));
+        }
+      }
+      try (SnapshotReader reader = SnapshotReader.open(path)) {
+        assertThat(reader).isInstanceOf(format == SnapshotWriter.Format.BINARY ? SnapshotReader.Binary.class : TextSnapshotLoader.class);
+        assertThat(reader.read().toString()).isEqualTo(SnapshotWriterTest.SNAPSHOT.get(0));
+      }
+    }
+  }
+
+  @Test
+  void short_text() throws IOException {
+    assertThat(SnapshotWriterTest.readAll("".getBytes(UTF_8))).isEmpty();
+    assertThat(SnapshotWriterTest.readAll(".|d|0|a|b|rwx------|2020-09-02T13:32:46Z|".getBytes(UTF_8)))
+      .containsExactly(".|d|0|a|b|rwx------|2020-09-02T13:32:46Z|");
+  }
+
+  @Test
+  void corrupted_binary() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (SnapshotWriter writer = new SnapshotWriter.Binary(out)) {
+      writer.write(FileAttributes.fromString(SnapshotWriterTest.SNAPSHOT.get(0)));
+    }
+    byte[] bytes = out.toByteArray();
+    // END, entry count and last size are just before the index
+    int indexOffset = (int) ByteBuffer.wrap(bytes).getLong(bytes.length - 8);
+    byte[] truncated = Arrays.copyOf(bytes, indexOffset - 17);
+    assertThatThrownBy(() -> SnapshotWriterTest.readAll(truncated))
+      .isInstanceOf(IOException.class)
+      .hasMessage("Truncated binary snapshot after 1 entries");
+
+    byte[] wrongCount = bytes.clone();
+    wrongCount[indexOffset - 9] = 2;
+    assertThatThrownBy(() -> SnapshotWriterTest.readAll(wrongCount))
+      .isInstanceOf(IOException.class)
+      .hasMessage("Corrupted binary snapshot, 1 entries instead of 2");
+
+    byte[] wrongVersion = bytes.clone();
+    wrongVersion[4] = 99;
+    assertThatThrownBy(() -> SnapshotReader.open(new ByteArrayInputStream(wrongVersion)))
+      .isInstanceOf(IOException.class)
+      .hasMessage("Unsupported binary snapshot version: 99");
+  }
+
+  @Test
+  void binary_version_1() throws IOException {
+    byte[] bytes = {
+      'C', 'D', 'S', 'B', 1,
+      // file "a", size 3, new owner, group and permissions ids, modified time 2 ns, no sha1
+      0, 0, 1, 'a', 3, 0, 1, 'u', 0, 1, 1, 'p', 4,
+      // directory ".", shares 0, size 3, known ids
+      1, 0, 1, '.', 3, 0, 0, 1, 4,
+      (byte) 0xFF, 0, 0, 0, 0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 3};
+    try (SnapshotReader reader = SnapshotReader.open(new ByteArrayInputStream(bytes))) {
+      assertThat(reader.read()).hasToString("a|f|3|u|u|p|1970-01-01T00:00:00.000000002Z|");
+      assertThat(reader.read()).hasToString(".|d|3|u|u|p|1970-01-01T00:00:00.000000002Z|");
+      assertThat(reader.read()).isNull();
+    }
+  }
+
+  @Test
+  void directory_digest_version(@TempDir Path tempDir) throws IOException {
+    Path binary = tempDir.resolve("stat-binary");
+    try (SnapshotWriter writer = SnapshotWriter.create(binary, SnapshotWriter.Format.BINARY)) {
+      writer.write(FileAttributes.fromString(SnapshotWriterTest.SNAPSHOT.get(0)));
+    }
+    assertThat(SnapshotReader.directoryDigestVersion(binary)).isEqualTo(SnapshotWriter.DIRECTORY_DIGEST_VERSION);
+    byte[] bytes = Files.readAllBytes(binary);
+    bytes[4] = 2;
+    Files.write(binary, bytes);
+    assertThat(SnapshotReader.directoryDigestVersion(binary)).isEqualTo(1);
+
+    // a text snapshot only has the version of the head file
+    Path text = tempDir.resolve("stat-text");
+    try (SnapshotWriter writer = SnapshotWriter.create(text, SnapshotWriter.Format.TEXT)) {
+      writer.write(FileAttributes.fromString(SnapshotWriterTest.SNAPSHOT.get(0)));
+    }
+    assertThat(SnapshotReader.directoryDigestVersion(text)).isEqualTo(1);
+    DeltaSnapshot.writeHead(tempDir, text);
+    assertThat(SnapshotReader.directoryDigestVersion(text)).isEqualTo(SnapshotWriter.DIRECTORY_DIGEST_VERSION);
+    DeltaSnapshot.writeHead(tempDir, binary);
+    assertThat(SnapshotReader.directoryDigestVersion(text)).isEqualTo(1);
+
+    Files.writeString(tempDir.resolve(DeltaSnapshot.HEAD_FILE), "stat-text\ndirectory-digest-version=x\n", UTF_8);
+    assertThatThrownBy(() -> SnapshotReader.directoryDigestVersion(text))
+      .isInstanceOf(IOException.class)
+      .hasMessage("Corrupted head file " + tempDir.resolve(DeltaSnapshot.HEAD_FILE) + ", invalid line: directory-digest-version=x");
+  }
+
+}
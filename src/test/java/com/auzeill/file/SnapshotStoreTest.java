@@ -0,0 +1,92 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnapshotStoreTest {
+
+  private static final List<String> ENTRIES = List.of(
+    "a/b|l|8|alban|alban|rwxrwxrwx|2020-09-02T15:43:48Z|a-b",
+    "a/c|f|0|root|staff|rw-------|1969-12-31T23:59:59.999Z|",
+    "a/x|o|0|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|xxh64:0123456789abcdef",
+    "a/\u00e9 d|f|12|alban|alban|rw-r--r--|+10000-01-01T00:00:00Z|quick:0123456789abcdef0123456789abcdef01234567",
+    "a|d|23|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|e8f30c18399e10c00b2f503236414bb53de9f493",
+    "a-b|f|3|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0",
+    ".|d|26|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|2cad3770d4a690d2a8bc8a1a3d48ae3538eb0b72");
+
+  @Test
+  void same_attributes_as_added() {
+    SnapshotStore store = new SnapshotStore(HashAlgorithm.SHA1);
+    for (String entry : ENTRIES) {
+      store.add(FileAttributes.fromString(entry));
+    }
+    assertThat(store.size()).isEqualTo(ENTRIES.size());
+    for (int i = 0; i < ENTRIES.size(); i++) {
+      String path = ENTRIES.get(i).substring(0, ENTRIES.get(i).indexOf('|'));
+      assertThat(store.indexOf(path)).isEqualTo(i);
+      assertThat(store.get(path).toString()).isEqualTo(ENTRIES.get(i));
+    }
+    assertThat(store.get("a/a")).isNull();
+    assertThat(store.get("0")).isNull();
+    assertThat(store.get("z")).isNull();
+  }
+
+  @Test
+  void lookup_in_many_blocks(@TempDir Path tempDir) throws IOException {
+    List<FileAttributes> entries = new ArrayList<>();
+    Random random = new Random(42);
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      paths.add("dir" + random.nextInt(20) + "/file-" + i);
+    }
+    paths.sort(FileAttributes::comparePath);
+    byte[] sha1 = new byte[20];
+    for (String path : paths) {
+      random.nextBytes(sha1);
+      entries.add(new FileAttributes(path, FileAttributes.Type.FILE, random.nextInt(1000), "alban", "alban", "rw-r--r--",
+        "2020-09-02T15:43:48.680382Z", Sha1.byteToHex(sha1)));
+    }
+    Path snapshot = tempDir.resolve("stat-binary");
+    try (SnapshotWriter writer = SnapshotWriter.create(snapshot, SnapshotWriter.Format.BINARY)) {
+      for (FileAttributes attributes : entries) {
+        writer.write(attributes);
+      }
+    }
+    SnapshotStore store = SnapshotStore.load(snapshot, HashAlgorithm.SHA1);
+    assertThat(store.size()).isEqualTo(1000);
+    for (int i = 0; i < entries.size(); i++) {
+      assertThat(store.indexOf(entries.get(i).relativeLinuxPath)).isEqualTo(i);
+      assertThat(store.get(entries.get(i).relativeLinuxPath).toString()).isEqualTo(entries.get(i).toString());
+    }
+    assertThat(store.indexOf("dir1/file-x")).isEqualTo(-1);
+    // the same entries take more than 400 bytes as FileAttributes in a HashMap
+    assertThat(store.memoryBytes() / store.size()).isLessThan(80L);
+  }
+
+  @Test
+  void empty_store() throws IOException {
+    SnapshotStore store = SnapshotStore.load(null, HashAlgorithm.SHA1);
+    assertThat(store.size()).isEqualTo(0);
+    assertThat(store.get(".")).isNull();
+    store.add(FileAttributes.fromString(ENTRIES.get(0)));
+    assertThat(store.get("a/b").toString()).isEqualTo(ENTRIES.get(0));
+  }
+
+  @Test
+  void invalid_order() {
+    SnapshotStore store = new SnapshotStore(HashAlgorithm.SHA1);
+    store.add(FileAttributes.fromString(ENTRIES.get(1)));
+    FileAttributes before = FileAttributes.fromString(ENTRIES.get(0));
+    assertThatThrownBy(() -> store.add(before)).isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid snapshot order: a/b after a/c");
+  }
+
+}
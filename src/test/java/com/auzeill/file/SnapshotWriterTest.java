@@ -0,0 +1,132 @@
+package com.auzeill.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnapshotWriterTest {
+
+  static final List<String> SNAPSHOT = Arrays.asList(
+    "dir/file.txt|f|2087|alban|alban|rw-rw-r--|2020-09-02T13:32:46.222112Z|b6589fc6ab0dc82cf12099d1c2d40ab994e8410c",
+    "dir/file|with|pipes|f|0|alban|staff|rw-r--r--|2020-09-02T13:32:46Z|da39a3ee5e6b4b0d3255bfef95601890afd80709",
+    "dir/link|l|8|root|root|rwxrwxrwx|1969-12-31T23:59:59.999999999Z|../data.txt",
+    "dir/no-sha1|f|4|alban|alban|rw-r--r--|2020-09-02T13:32:46.1Z|",
+    "dir/r\u00e9sum\u00e9\ud83d\ude00|o|0|alban|alban|rw-r--r--|+300000-01-01T00:00:00Z|",
+    "dir|d|2099|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|2c94f765cf3d9fe03281b14f07f3cbf338f620ca",
+    ".|d|2099|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|cfb6eec19128353d2a5bad7c73cd8efc33358979");
+
+  @Test
+  void format() {
+    assertThat(SnapshotWriter.Format.fromString("text")).isEqualTo(SnapshotWriter.Format.TEXT);
+    assertThat(SnapshotWriter.Format.fromString("binary")).isEqualTo(SnapshotWriter.Format.BINARY);
+    assertThatThrownBy(() -> SnapshotWriter.Format.fromString("xml")).isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid format: xml");
+  }
+
+  @Test
+  void text() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (SnapshotWriter writer = new SnapshotWriter.Text(out)) {
+      for (String line : SNAPSHOT) {
+        writer.write(FileAttributes.fromString(line));
+      }
+    }
+    assertThat(new String(out.toByteArray(), UTF_8)).isEqualTo(String.join(System.lineSeparator(), SNAPSHOT) + System.lineSeparator());
+    assertThat(readAll(out.toByteArray())).isEqualTo(SNAPSHOT);
+  }
+
+  @Test
+  void binary() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (SnapshotWriter writer = new SnapshotWriter.Binary(out)) {
+      for (String line : SNAPSHOT) {
+        writer.write(FileAttributes.fromString(line));
+      }
+    }
+    byte[] bytes = out.toByteArray();
+    assertThat(new String(bytes, 0, 4, UTF_8)).isEqualTo("CDSB");
+    assertThat(bytes.length).isLessThan(String.join("\n", SNAPSHOT).getBytes(UTF_8).length);
+    assertThat(readAll(bytes)).isEqualTo(SNAPSHOT);
+  }
+
+  @Test
+  void binary_with_another_hash() throws IOException {
+    List<String> snapshot = new ArrayList<>(SNAPSHOT);
+    snapshot.add(0, "a|f|3|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|xxh64:44bc2cf5ad770999");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (SnapshotWriter writer = new SnapshotWriter.Binary(out, HashAlgorithm.XXH64)) {
+      for (String line : snapshot) {
+        writer.write(FileAttributes.fromString(line));
+      }
+    }
+    // sha1 digests are kept as text
+    assertThat(readAll(out.toByteArray())).isEqualTo(snapshot);
+  }
+
+  @Test
+  void empty_binary() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new SnapshotWriter.Binary(out).close();
+    assertThat(readAll(out.toByteArray())).isEmpty();
+  }
+
+  @Test
+  void epoch_nanos() {
+    assertThat(SnapshotWriter.Binary.epochNanos("1970-01-01T00:00:00Z")).isEqualTo(0L);
+    assertThat(SnapshotWriter.Binary.epochNanos("2020-09-02T13:32:46.222112Z")).isEqualTo(1599053566222112000L);
+    assertThat(SnapshotWriter.Binary.modifiedTime(1599053566222112000L)).isEqualTo("2020-09-02T13:32:46.222112Z");
+    // can not be restored identically
+    assertThat(SnapshotWriter.Binary.epochNanos("2020-09-02T13:32:46.100Z")).isEqualTo(Long.MIN_VALUE);
+    assertThat(SnapshotWriter.Binary.epochNanos("+300000-01-01T00:00:00Z")).isEqualTo(Long.MIN_VALUE);
+    assertThat(SnapshotWriter.Binary.epochNanos("yesterday")).isEqualTo(Long.MIN_VALUE);
+    assertThat(SnapshotWriter.Binary.epochNanos("2020-02-29T23:59:59.000000001Z")).isEqualTo(1583020799000000001L);
+    assertThat(SnapshotWriter.Binary.epochNanos("2021-02-29T00:00:00Z")).isEqualTo(Long.MIN_VALUE);
+    assertThat(SnapshotWriter.Binary.epochNanos("2020-09-02T24:00:00Z")).isEqualTo(Long.MIN_VALUE);
+    assertThat(SnapshotWriter.Binary.epochNanos("2020-09-02T13:32:46.Z")).isEqualTo(Long.MIN_VALUE);
+    assertThat(SnapshotWriter.Binary.epochNanos("1969-12-31T23:59:59.999999999Z")).isEqualTo(-1L);
+    assertThat(SnapshotWriter.Binary.epochNanos("2262-04-11T23:47:16.854775807Z")).isEqualTo(Long.MAX_VALUE);
+    assertThat(SnapshotWriter.Binary.epochNanos("2262-04-11T23:47:16.854775808Z")).isEqualTo(Long.MIN_VALUE);
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      long nanos = random.nextLong() & Long.MAX_VALUE;
+      assertThat(SnapshotWriter.Binary.epochNanos(SnapshotWriter.Binary.modifiedTime(nanos))).isEqualTo(nanos);
+    }
+  }
+
+  @Test
+  void modified_time() {
+    long[] samples = {0, 1, 999_999_999L, 1_000_000_000L, 1599053566222112000L, 1599053566000000000L, 951782400_123456789L,
+      -1, -1_000_000_000L, Long.MAX_VALUE, Long.MIN_VALUE + 1};
+    for (long nanos : samples) {
+      assertThat(SnapshotWriter.Binary.modifiedTime(nanos)).isEqualTo(FileTime.from(nanos, TimeUnit.NANOSECONDS).toString());
+    }
+    Random random = new Random(3);
+    for (int i = 0; i < 10_000; i++) {
+      long nanos = random.nextLong() >>> 1;
+      nanos -= i % 2 == 0 ? nanos % 1000 : 0;
+      assertThat(SnapshotWriter.Binary.modifiedTime(nanos)).isEqualTo(FileTime.from(nanos, TimeUnit.NANOSECONDS).toString());
+    }
+  }
+
+  static List<String> readAll(byte[] snapshot) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (SnapshotReader reader = SnapshotReader.open(new ByteArrayInputStream(snapshot))) {
+      for (FileAttributes attributes = reader.read(); attributes != null; attributes = reader.read()) {
+        lines.add(attributes.toString());
+      }
+      assertThat(reader.read()).isNull();
+    }
+    return lines;
+  }
+
+}
@@ -1,10 +1,17 @@
 package com.auzeill.file;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class StatContextTest {
 
@@ -56,4 +63,246 @@ class StatContextTest {
     assertThat(((IgnoreExpression.EndWith) context.ignoreMatcher.advancedMatchers.get(2)).suffix).isEqualTo("/.directory-stats");
   }
 
+  @Test
+  void threads() throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).threads).isEqualTo(StatContext.DEFAULT_THREADS);
+    StatContext context = new StatContext(new String[] {"--threads", "3", "src"});
+    assertThat(context.baseDirectory.toString()).isEqualTo(Paths.get("src").toRealPath().toString());
+    assertThat(context.threads).isEqualTo(3);
+    assertThatThrownBy(() -> new StatContext(new String[] {"--threads", "0", "src"}))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid --threads value: 0");
+  }
+
+  @Test
+  void hash_pipeline() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    assertThat(context.hashThreads).isEqualTo(StatContext.DEFAULT_THREADS);
+    assertThat(context.hashMaxInFlight).isEqualTo(StatContext.DEFAULT_HASH_MAX_IN_FLIGHT);
+    assertThat(context.hashReport).isFalse();
+    context = new StatContext(new String[] {"--hash-threads", "2", "--hash-max-in-flight", "64M", "--hash-report", "src"});
+    assertThat(context.hashThreads).isEqualTo(2);
+    assertThat(context.hashMaxInFlight).isEqualTo(64L * 1024 * 1024);
+    assertThat(context.hashReport).isTrue();
+  }
+
+  @Test
+  void hash_algorithm() throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).hashAlgorithm).isEqualTo(HashAlgorithm.SHA1);
+    assertThat(new StatContext(new String[] {"--hash", "crc32c", "src"}).hashAlgorithm).isEqualTo(HashAlgorithm.CRC32C);
+    assertThatThrownBy(() -> new StatContext(new String[] {"--hash", "md5", "src"}))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid hash: md5");
+  }
+
+  @Test
+  void quick_and_full_hash() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    assertThat(context.quickHash).isFalse();
+    assertThat(context.fullHash).isFalse();
+    assertThat(new StatContext(new String[] {"--quick-hash", "src"}).quickHash).isTrue();
+    assertThat(new StatContext(new String[] {"--full-hash", "src"}).fullHash).isTrue();
+    assertThatThrownBy(() -> new StatContext(new String[] {"--quick-hash", "--full-hash", "src"}))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid arguments, --quick-hash and --full-hash are exclusive");
+  }
+
+  @Test
+  void chunks() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    assertThat(context.chunkStore).isNull();
+    assertThat(context.chunkThreshold).isEqualTo(StatContext.DEFAULT_CHUNK_THRESHOLD);
+    context = new StatContext(new String[] {"--chunks", "--chunk-threshold", "1G", "src"});
+    assertThat(context.chunkStore).isNotNull();
+    assertThat(context.chunkThreshold).isEqualTo(1024L * 1024 * 1024);
+  }
+
+  @Test
+  void metrics() throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).metrics).isNull();
+    StatContext context = new StatContext(new String[] {"--metrics", "target/metrics", "src"});
+    assertThat(context.metrics.directory).isEqualTo(Paths.get("target/metrics"));
+    assertThat(context.metrics.nanos(ScanMetrics.Phase.CONTEXT)).isPositive();
+  }
+
+  @Test
+  void progress() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    assertThat(context.progress).isFalse();
+    assertThat(context.progressIntervalMillis).isEqualTo(StatContext.DEFAULT_PROGRESS_INTERVAL_MILLIS);
+    context = new StatContext(new String[] {"--progress", "--progress-interval", "500", "src"});
+    assertThat(context.progress).isTrue();
+    assertThat(context.progressIntervalMillis).isEqualTo(500);
+    assertThatThrownBy(() -> new StatContext(new String[] {"--progress-interval", "0", "src"}))
+      .isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid --progress-interval value: 0");
+  }
+
+  @Test
+  void delta() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    assertThat(context.delta).isFalse();
+    assertThat(context.compact).isFalse();
+    assertThat(context.fullSnapshotEvery).isEqualTo(StatContext.DEFAULT_FULL_SNAPSHOT_EVERY);
+    context = new StatContext(new String[] {"--delta", "--full-snapshot-every", "3", "--compact", "src"});
+    assertThat(context.delta).isTrue();
+    assertThat(context.compact).isTrue();
+    assertThat(context.fullSnapshotEvery).isEqualTo(3);
+    assertThat(context.newDeltaSavedPath().getFileName().toString()).matches("delta-\\d{4}\\.\\d{2}\\.\\d{2}-\\d{2}h\\d{2}m\\d{2}s\\d{3}");
+    assertThatThrownBy(() -> new StatContext(new String[] {"--full-snapshot-every", "0", "src"}))
+      .isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid --full-snapshot-every value: 0");
+  }
+
+  @Test
+  void parse_size() {
+    assertThat(StatContext.parseSize("--size", "12")).isEqualTo(12L);
+    assertThat(StatContext.parseSize("--size", "3k")).isEqualTo(3L * 1024);
+    assertThat(StatContext.parseSize("--size", "5M")).isEqualTo(5L * 1024 * 1024);
+    assertThat(StatContext.parseSize("--size", "2G")).isEqualTo(2L * 1024 * 1024 * 1024);
+    assertThatThrownBy(() -> StatContext.parseSize("--size", "M"))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid --size value: M");
+    assertThatThrownBy(() -> StatContext.parseSize("--size", "-1"))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid --size value: -1");
+  }
+
+  @Test
+  void format() throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).format).isEqualTo(SnapshotWriter.Format.TEXT);
+    assertThat(new StatContext(new String[] {"--format", "binary", "src"}).format).isEqualTo(SnapshotWriter.Format.BINARY);
+    assertThatThrownBy(() -> new StatContext(new String[] {"--format", "json", "src"}))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid format: json");
+  }
+
+  @Test
+  void diff_snapshots() throws IOException {
+    StatContext context = new StatContext(new String[] {"--diff-snapshots", "stat-1", "src/test", "src"});
+    assertThat(context.diff).isTrue();
+    assertThat(context.fullDiff).isFalse();
+    assertThat(context.snapshotsToDiff).containsExactly(
+      Paths.get("src").toRealPath().resolve(StatContext.DEFAULT_STATS_DIRECTORY).resolve("stat-1"),
+      Paths.get("src/test"));
+    assertThat(new StatContext(new String[] {"src"}).snapshotsToDiff).isEmpty();
+    assertThatThrownBy(() -> new StatContext(new String[] {"--diff-snapshots", "stat-1"}))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid --diff-snapshots arguments, expecting two snapshots");
+  }
+
+  @Test
+  void reuse_directory_sha1() throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).reuseDirectorySha1).isFalse();
+    assertThat(new StatContext(new String[] {"--reuse-directory-sha1", "src"}).reuseDirectorySha1).isTrue();
+  }
+
+  @Test
+  void print_deleted() throws IOException {
+    FileAttributes deleted = FileAttributes.fromString("f2|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|");
+    assertThat(printDeleted(new StatContext(new String[] {"--diff", "src"}), deleted))
+      .isEqualTo("-del- " + deleted + System.lineSeparator());
+    // colored like the +new+ and ~mod~ lines
+    assertThat(printDeleted(new StatContext(new String[] {"--diff", "--color", "src"}), deleted))
+      .isEqualTo(StatContext.ANSI_RED + "-del- " + deleted + StatContext.ANSI_RESET + System.lineSeparator());
+  }
+
+  private static String printDeleted(StatContext context, FileAttributes deleted) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LineWriter writer = LineWriter.of(out, false)) {
+      context.printDeleted(writer, deleted);
+    }
+    return new String(out.toByteArray(), UTF_8);
+  }
+
+  @Test
+  void watch() throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    assertThat(context.watch).isFalse();
+    assertThat(context.watchWindowMillis).isEqualTo(StatContext.DEFAULT_WATCH_WINDOW_MILLIS);
+    context = new StatContext(new String[] {"--watch", "--watch-window", "50", "src"});
+    assertThat(context.watch).isTrue();
+    assertThat(context.diff).isTrue();
+    assertThat(context.watchWindowMillis).isEqualTo(50);
+  }
+
+  @Test
+  void output_thread() throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).outputThread).isFalse();
+    assertThat(new StatContext(new String[] {"--output-thread", "src"}).outputThread).isTrue();
+  }
+
+  @Test
+  void compare() throws IOException {
+    StatContext context = new StatContext(new String[] {"--compare", "src/main", "src/test"});
+    assertThat(context.diff).isTrue();
+    assertThat(context.directoriesToCompare).containsExactly(Paths.get("src/main").toRealPath(), Paths.get("src/test").toRealPath());
+    assertThat(context.rootPath).isEqualTo(Paths.get("src/main").toRealPath());
+    assertThat(new StatContext(new String[] {"src"}).directoriesToCompare).isEmpty();
+    assertThatThrownBy(() -> new StatContext(new String[] {"--compare", "src"}))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid --compare arguments, expecting two directories");
+    assertThatThrownBy(() -> new StatContext(new String[] {"--compare", "src", "build.gradle"}))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid --compare argument, not a directory: build.gradle");
+    assertThatThrownBy(() -> new StatContext(new String[] {"--compare", "src/main", "src/test", "src"}))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid arguments, --compare does not scan src");
+  }
+
+  @Test
+  void duplicates() throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).duplicates).isFalse();
+    assertThat(new StatContext(new String[] {"--duplicates", "src"}).duplicates).isTrue();
+  }
+
+  @Test
+  void shards(@TempDir Path tempDir) throws IOException {
+    StatContext context = new StatContext(new String[] {"src"});
+    assertThat(context.shards).isEqualTo(1);
+    assertThat(context.shardNames).isNull();
+    assertThat(context.shardOutput).isNull();
+    assertThat(new StatContext(new String[] {"--save", "--shards", "4", "src"}).shards).isEqualTo(4);
+    assertThat(new StatContext(new String[] {"--save", "--shards", "4", "src"}).arguments).containsExactly("--save", "--shards", "4", "src");
+    assertThatThrownBy(() -> new StatContext(new String[] {"--shards", "2", "src"}))
+      .isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid --shards, only with --save and without --delta or --chunks");
+    assertThatThrownBy(() -> new StatContext(new String[] {"--save", "--delta", "--shards", "2", "src"}))
+      .isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid --shards, only with --save and without --delta or --chunks");
+    assertThatThrownBy(() -> new StatContext(new String[] {"--save", "--shards", "0", "src"}))
+      .isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid --shards value: 0");
+
+    Path names = tempDir.resolve("names");
+    Files.write(names, List.of("main"), UTF_8);
+    Path partial = tempDir.resolve("partial");
+    context = new StatContext(new String[] {"--shard-names", names.toString(), "--shard-output", partial.toString(), "src"});
+    assertThat(context.shardNames).containsExactly("main");
+    assertThat(context.shardOutput).isEqualTo(partial);
+    Path src = context.baseDirectory;
+    assertThat(context.include(src, ".")).isTrue();
+    assertThat(context.include(src.resolve("main"), "main")).isTrue();
+    assertThat(context.include(src.resolve("main/java"), "main/java")).isTrue();
+    assertThat(context.include(src.resolve("test"), "test")).isFalse();
+  }
+
+  @Test
+  void throttle(@TempDir Path tempDir) throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).throttle).isSameAs(IoThrottle.UNLIMITED);
+    StatContext context = new StatContext(new String[] {"--max-read-rate", "50M", "--max-iops", "200", "src"});
+    assertThat(context.throttle.reads.rate()).isEqualTo(50L * 1024 * 1024);
+    assertThat(context.throttle.operations.rate()).isEqualTo(200);
+    Path controlFile = tempDir.resolve("throttle");
+    Files.write(controlFile, List.of("max-read-rate=1M"), UTF_8);
+    context = new StatContext(new String[] {"--max-read-rate", "50M", "--throttle-file", controlFile.toString(), "src"});
+    assertThat(context.throttle.reads.rate()).isEqualTo(1024 * 1024);
+    assertThat(context.throttle.operations.rate()).isZero();
+    assertThatThrownBy(() -> new StatContext(new String[] {"--max-iops", "-1", "src"}))
+      .isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid --max-iops value: -1");
+    assertThatThrownBy(() -> new StatContext(new String[] {"--save", "--shards", "2", "--max-iops", "100", "src"}))
+      .isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid --shards, not with --max-read-rate, --max-iops or --throttle-file");
+  }
+
+  @Test
+  void inode_order() throws IOException {
+    assertThat(new StatContext(new String[] {"src"}).inodeOrder).isFalse();
+    assertThat(new StatContext(new String[] {"--inode-order", "src"}).inodeOrder).isTrue();
+  }
+
 }
@@ -7,6 +7,9 @@ import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -25,8 +28,8 @@ class StatsTest {
         "data.txt|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0" + System.lineSeparator() +
         "link.txt|l|8|alban|alban|rwxrwxrwx|2020-09-02T15:43:48.680382Z|data.txt" + System.lineSeparator() +
         "subfolder/subfile.txt|f|9|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|326efcd48d5188b2c2f820b1b6b4a62b8497e9c9" + System.lineSeparator() +
-        "subfolder|d|9|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|2c94f765cf3d9fe03281b14f07f3cbf338f620ca" + System.lineSeparator() +
-        ".|d|21|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|cfb6eec19128353d2a5bad7c73cd8efc33358979" + System.lineSeparator());
+        "subfolder|d|9|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|4ae187ee0f1be7a4b91337b32b27ebfdd3fd6a18" + System.lineSeparator() +
+        ".|d|21|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|39c5cfd1a67dc0645bf0917a0835bbd206099a0a" + System.lineSeparator());
   }
 
   @Test
@@ -47,8 +50,8 @@ class StatsTest {
       .isEqualTo("" +
         "data.txt|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0" + System.lineSeparator() +
         "subfolder/subfile.txt|f|9|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|326efcd48d5188b2c2f820b1b6b4a62b8497e9c9" + System.lineSeparator() +
-        "subfolder|d|9|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|2c94f765cf3d9fe03281b14f07f3cbf338f620ca" + System.lineSeparator() +
-        ".|d|13|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|4807f6127ef42b333d2d382237a8b04a7800acbf" + System.lineSeparator());
+        "subfolder|d|9|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|4ae187ee0f1be7a4b91337b32b27ebfdd3fd6a18" + System.lineSeparator() +
+        ".|d|13|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|2cad3770d4a690d2a8bc8a1a3d48ae3538eb0b72" + System.lineSeparator());
   }
 
   @Test
@@ -60,7 +63,19 @@ class StatsTest {
       .isEqualTo("" +
         "data.txt|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0" + System.lineSeparator() +
         "link.txt|l|8|alban|alban|rwxrwxrwx|2020-09-02T15:43:48.680382Z|data.txt" + System.lineSeparator() +
-        ".|d|12|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|76a57a2f4b5b9eab89b7ac66722b7bc480b81b6b" + System.lineSeparator());
+        ".|d|12|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|e8f30c18399e10c00b2f503236414bb53de9f493" + System.lineSeparator());
+  }
+
+  @Test
+  void test_ignore_glob() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintStream stream = new PrintStream(out, true, UTF_8);
+    Stats.stats(stream, new String[] { "--ignore", "(?glob)subfolder/", "--ignore", "(?glob)**/*.gz", Paths.get("src", "test", "resources").toString()});
+    assertThat(FileAttributesTest.forceSysFields(new String(out.toByteArray(), UTF_8)))
+      .isEqualTo("" +
+        "data.txt|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|a8fdc205a9f19cc1c7507a60c4f01b13d11d7fd0" + System.lineSeparator() +
+        "link.txt|l|8|alban|alban|rwxrwxrwx|2020-09-02T15:43:48.680382Z|data.txt" + System.lineSeparator() +
+        ".|d|12|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|e8f30c18399e10c00b2f503236414bb53de9f493" + System.lineSeparator());
   }
 
   @Test
@@ -71,7 +86,7 @@ class StatsTest {
     assertThat(FileAttributesTest.forceSysFields(new String(out.toByteArray(), UTF_8)))
       .isEqualTo("" +
         "subfolder|d|0|alban|alban|rwxr-xr-x|2020-09-02T15:43:48.680382Z|da39a3ee5e6b4b0d3255bfef95601890afd80709" + System.lineSeparator() +
-        ".|d|0|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|10a34637ad661d98ba3344717656fcc76209c2f8" + System.lineSeparator());
+        ".|d|0|alban|alban|rwxrwxr-x|2020-09-02T15:43:48.680382Z|3fa6baf2473f71a3dc8046262dc34210c9aa7c10" + System.lineSeparator());
   }
 
   @Test
@@ -89,7 +104,7 @@ class StatsTest {
     assertThat(FileAttributesTest.forceSysFields(fileContent)).isEqualTo("" +
       "f1|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|81fe8bfe87576c3ecb22426f8e57847382917acf" + System.lineSeparator() +
       "f2|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|2aed8aa9f826c21ef07d5ee15b48eea06e9c8a62" + System.lineSeparator() +
-      ".|d|8|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|e3d1e234ae764b4360a8984d25798fefec22910d" + System.lineSeparator());
+      ".|d|8|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|af01d9e8d3bda591e8960a4e276c382764fd5eca" + System.lineSeparator());
   }
 
   @Test
@@ -105,7 +120,7 @@ class StatsTest {
     String fileContent = Files.readString(Paths.get(statPath), UTF_8);
     assertThat(FileAttributesTest.forceSysFields(fileContent)).isEqualTo("" +
       "f1|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|81fe8bfe87576c3ecb22426f8e57847382917acf" + System.lineSeparator() +
-      ".|d|4|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|e72bd3cc1814a0e1186ddb826977df13207264f0" + System.lineSeparator());
+      ".|d|4|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|daf168799db91e2b53ccc77bd8f3318f451a20fa" + System.lineSeparator());
   }
 
   @Test
@@ -120,7 +135,7 @@ class StatsTest {
     String fileContent = Files.readString(Paths.get(statPath), UTF_8);
     assertThat(FileAttributesTest.forceSysFields(fileContent)).isEqualTo("" +
       "f1|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|81fe8bfe87576c3ecb22426f8e57847382917acf" + System.lineSeparator() +
-      ".|d|4|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|e72bd3cc1814a0e1186ddb826977df13207264f0" + System.lineSeparator());
+      ".|d|4|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|daf168799db91e2b53ccc77bd8f3318f451a20fa" + System.lineSeparator());
 
     String newContentWithForcedSha1 = fileContent
       .replace("81fe8bfe87576c3ecb22426f8e57847382917acf" , "0123456789abcdef0123456789abcdef01234567");
@@ -133,7 +148,143 @@ class StatsTest {
     assertThat(FileAttributesTest.forceSysFields(new String(out.toByteArray(), UTF_8)))
       .isEqualTo("" +
       "f1|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|0123456789abcdef0123456789abcdef01234567" + System.lineSeparator() +
-      ".|d|4|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|158b484ae1f6f64f89da22397d25fbdafad02252" + System.lineSeparator());
+      ".|d|4|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|c70c5bc2d0082fcadb9317538e39d1f90e3650b6" + System.lineSeparator());
+  }
+
+  @Test
+  void reuse_directory_sha1_from_previous_save(@TempDir Path tempDir) throws IOException {
+    Files.createDirectory(tempDir.resolve("d1"));
+    Files.createDirectory(tempDir.resolve("d2"));
+    Files.writeString(tempDir.resolve("d1").resolve("f1"), "abcd", UTF_8);
+    Files.writeString(tempDir.resolve("d2").resolve("f2"), "efgh", UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--save", tempDir.toString() });
+    Path statPath = Paths.get(new String(out.toByteArray(), UTF_8).replaceFirst("[\r\n]+$", ""));
+    String fileContent = Files.readString(statPath, UTF_8);
+    String d1Sha1 = FileAttributes.fromString(fileContent.lines().filter(line -> line.startsWith("d1|")).findFirst().orElseThrow()).sha1OrSymbolicLink;
+    String d2Sha1 = FileAttributes.fromString(fileContent.lines().filter(line -> line.startsWith("d2|")).findFirst().orElseThrow()).sha1OrSymbolicLink;
+    // forced directory sha1 can only come from the last snapshot
+    Files.writeString(statPath, fileContent
+      .replace(d1Sha1, "0123456789abcdef0123456789abcdef01234567")
+      .replace(d2Sha1, "89abcdef0123456789abcdef0123456789abcdef"), UTF_8);
+    Files.writeString(tempDir.resolve("d2").resolve("f2"), "ijkl", UTF_8);
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--reuse-directory-sha1", tempDir.toString() });
+    String output = new String(out.toByteArray(), UTF_8);
+    assertThat(output).contains("|0123456789abcdef0123456789abcdef01234567" + System.lineSeparator());
+    assertThat(output).doesNotContain("89abcdef0123456789abcdef0123456789abcdef");
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).doesNotContain("0123456789abcdef0123456789abcdef01234567");
+  }
+
+  @Test
+  void directory_sha1_of_another_digest(@TempDir Path tempDir) throws IOException {
+    Files.createDirectory(tempDir.resolve("d1"));
+    Files.writeString(tempDir.resolve("d1").resolve("f1"), "abcd", UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--save", tempDir.toString() });
+    Path statPath = Paths.get(new String(out.toByteArray(), UTF_8).replaceFirst("[\r\n]+$", ""));
+    String fileContent = Files.readString(statPath, UTF_8);
+    String d1Sha1 = FileAttributes.fromString(fileContent.lines().filter(line -> line.startsWith("d1|")).findFirst().orElseThrow()).sha1OrSymbolicLink;
+    // the directory sha1 of an older build
+    Files.writeString(statPath, fileContent.replace(d1Sha1, "0123456789abcdef0123456789abcdef01234567"), UTF_8);
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--diff", tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).contains("~mod~ d1| sha1OrSymbolicLink 0123456789abcdef0123456789abcdef01234567 -> ");
+
+    // a text snapshot without head file has the older directory digest, not compared and not reused
+    Files.delete(statPath.resolveSibling(DeltaSnapshot.HEAD_FILE));
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--diff", tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).isEmpty();
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--reuse-directory-sha1", tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).doesNotContain("0123456789abcdef0123456789abcdef01234567");
+  }
+
+  @Test
+  void sha1_not_reused_by_another_hash(@TempDir Path tempDir) throws IOException {
+    Files.writeString(tempDir.resolve("f1"), "abcd", UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--save", tempDir.toString() });
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--save", "--hash", "xxh64", "--format", "binary", tempDir.toString() });
+    String statPath = new String(out.toByteArray(), UTF_8).replaceFirst("[\r\n]+$", "");
+    try (SnapshotReader reader = SnapshotReader.open(Paths.get(statPath))) {
+      assertThat(reader.read().sha1OrSymbolicLink).isEqualTo(HashAlgorithm.XXH64.digest("abcd".getBytes(UTF_8), 0, 4));
+      assertThat(reader.read().sha1OrSymbolicLink).startsWith("xxh64:");
+    }
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { tempDir.toString() });
+    assertThat(FileAttributesTest.forceSysFields(new String(out.toByteArray(), UTF_8)))
+      .startsWith("f1|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|81fe8bfe87576c3ecb22426f8e57847382917acf" + System.lineSeparator());
+  }
+
+  @Test
+  void quick_hash_upgraded_by_full_hash(@TempDir Path tempDir) throws IOException {
+    byte[] data = new byte[(int) HashAlgorithm.QUICK_THRESHOLD + 1];
+    Files.write(tempDir.resolve("big"), data);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--save", "--quick-hash", tempDir.toString() });
+    String fingerprint = HashAlgorithm.SHA1.fingerprint(tempDir.resolve("big"));
+    String statPath = new String(out.toByteArray(), UTF_8).replaceFirst("[\r\n]+$", "");
+    assertThat(Files.readString(Paths.get(statPath), UTF_8)).contains("|" + fingerprint + System.lineSeparator());
+
+    // reused while the file is unchanged
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).startsWith("big|").contains("|" + fingerprint + System.lineSeparator());
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--full-hash", tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).contains("|" + Sha1.digest(data) + System.lineSeparator());
+  }
+
+  @Test
+  void changed_bytes_of_chunked_files(@TempDir Path tempDir) throws IOException, InterruptedException {
+    byte[] data = new byte[3 * 1024 * 1024];
+    new Random(42).nextBytes(data);
+    Files.write(tempDir.resolve("big"), data);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--save", "--chunks", "--chunk-threshold", "1M", tempDir.toString() });
+    Path statPath = Paths.get(new String(out.toByteArray(), UTF_8).replaceFirst("[\r\n]+$", ""));
+    assertThat(FileChunks.load(FileChunks.sideFile(statPath)).get("big").digest).isEqualTo(Sha1.digest(data));
+
+    Thread.sleep(10);
+    data[2 * 1024 * 1024]++;
+    Files.write(tempDir.resolve("big"), data);
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--diff", "--chunks", "--chunk-threshold", "1M", tempDir.toString() });
+    String output = new String(out.toByteArray(), UTF_8);
+    assertThat(output).startsWith("~mod~ big|").matches("(?s).* changedBytes [1-9]\\d*-\\d+ \\|\\R.*");
+  }
+
+  @Test
+  void metrics_report(@TempDir Path tempDir) throws IOException {
+    Path scanned = Files.createDirectories(tempDir.resolve("scanned").resolve("dir"));
+    Files.writeString(scanned.resolve("f1"), "abcd", UTF_8);
+    Files.writeString(scanned.resolve("f2"), "efgh", UTF_8);
+    Path metricsDirectory = tempDir.resolve("metrics");
+    String[] args = { "--save", "--metrics", metricsDirectory.toString(), scanned.getParent().toString() };
+    Stats.stats(new PrintStream(new ByteArrayOutputStream(), true, UTF_8), args);
+    String json = Files.readString(metricsDirectory.resolve("compare-directory.json"), UTF_8);
+    assertThat(json)
+      .contains("\"entries\": 4,", "\"files\": 2,", "\"directories\": 2,", "\"hashedFiles\": 2,", "\"hashedBytes\": 8,")
+      .contains("\"reusedSha1\": 0,", "\"computedSha1\": 2,", "{\"path\": \"dir\", \"seconds\": ");
+
+    Files.writeString(scanned.resolve("f2"), "efghi", UTF_8);
+    Stats.stats(new PrintStream(new ByteArrayOutputStream(), true, UTF_8), args);
+    String prometheus = Files.readString(metricsDirectory.resolve("compare-directory.prom"), UTF_8);
+    assertThat(prometheus)
+      .contains("# TYPE compare_directory_entries_total counter" + System.lineSeparator() + "compare_directory_entries_total 4")
+      .contains("compare_directory_reused_sha1_total 1", "compare_directory_computed_sha1_total 1")
+      .contains("compare_directory_sha1_reuse_ratio 0.500000", "compare_directory_phase_seconds{phase=\"stat\"} ");
   }
 
   @Test
@@ -155,7 +306,7 @@ class StatsTest {
       "f2|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|2aed8aa9f826c21ef07d5ee15b48eea06e9c8a62" + System.lineSeparator() +
       "f3|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|cca5603cae64651971a35bc1488f0d23ddabdff9" + System.lineSeparator() +
       "f5|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|2aed8aa9f826c21ef07d5ee15b48eea06e9c8a62" + System.lineSeparator() +
-      ".|d|16|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|f81b3e16656c1bd84d7522ed2f83fa996ffd8497" + System.lineSeparator());
+      ".|d|16|alban|alban|rwx------|2020-09-02T15:43:48.680382Z|b069f0211f312c9c6ed78c08642e1236ed19261e" + System.lineSeparator());
 
     // ensure the following modified file date will be different
     Thread.sleep(10);
@@ -172,7 +323,7 @@ class StatsTest {
         "-del- f2|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|2aed8aa9f826c21ef07d5ee15b48eea06e9c8a62" + System.lineSeparator() +
         "~mod~ f3| size 4 -> 15 | modifiedTime 2020-09-02T15:43:48.680382Z -> 2020-09-02T15:43:48.680382Z | sha1OrSymbolicLink cca5603cae64651971a35bc1488f0d23ddabdff9 -> 1fa817e97796161063e307eac706bb8b06cf956c |" + System.lineSeparator() +
         "+new+ f4|f|16|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|17c494d126c27755e2134a4388178d808b139ce9" + System.lineSeparator() +
-        "~mod~ .| size 16 -> 39 | modifiedTime 2020-09-02T15:43:48.680382Z -> 2020-09-02T15:43:48.680382Z | sha1OrSymbolicLink f81b3e16656c1bd84d7522ed2f83fa996ffd8497 -> 2d8050016ac5619885aaac0402f8c5d88cceb077 |" + System.lineSeparator());
+        "~mod~ .| size 16 -> 39 | modifiedTime 2020-09-02T15:43:48.680382Z -> 2020-09-02T15:43:48.680382Z | sha1OrSymbolicLink b069f0211f312c9c6ed78c08642e1236ed19261e -> a2ae1f3be8acc4df05f5b656eea03606e13ca087 |" + System.lineSeparator());
 
     out = new ByteArrayOutputStream();
     stream = new PrintStream(out, true, UTF_8);
@@ -182,7 +333,121 @@ class StatsTest {
         StatContext.ANSI_RED + "-del- f2|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|2aed8aa9f826c21ef07d5ee15b48eea06e9c8a62" + StatContext.ANSI_RESET + System.lineSeparator() +
         StatContext.ANSI_BLUE + "~mod~ f3| size 4 -> 15 | modifiedTime 2020-09-02T15:43:48.680382Z -> 2020-09-02T15:43:48.680382Z | sha1OrSymbolicLink cca5603cae64651971a35bc1488f0d23ddabdff9 -> 1fa817e97796161063e307eac706bb8b06cf956c |" + StatContext.ANSI_RESET + System.lineSeparator() +
         StatContext.ANSI_GREEN + "+new+ f4|f|16|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|17c494d126c27755e2134a4388178d808b139ce9" + StatContext.ANSI_RESET + System.lineSeparator() +
-        StatContext.ANSI_BLUE + "~mod~ .| size 16 -> 39 | modifiedTime 2020-09-02T15:43:48.680382Z -> 2020-09-02T15:43:48.680382Z | sha1OrSymbolicLink f81b3e16656c1bd84d7522ed2f83fa996ffd8497 -> 2d8050016ac5619885aaac0402f8c5d88cceb077 |" + StatContext.ANSI_RESET + System.lineSeparator());
+        StatContext.ANSI_BLUE + "~mod~ .| size 16 -> 39 | modifiedTime 2020-09-02T15:43:48.680382Z -> 2020-09-02T15:43:48.680382Z | sha1OrSymbolicLink b069f0211f312c9c6ed78c08642e1236ed19261e -> a2ae1f3be8acc4df05f5b656eea03606e13ca087 |" + StatContext.ANSI_RESET + System.lineSeparator());
+  }
+
+  @Test
+  void same_output_whatever_the_number_of_threads(@TempDir Path tempDir) throws IOException {
+    for (int i = 0; i < 5; i++) {
+      Path dir = Files.createDirectories(tempDir.resolve("d" + i).resolve("sub"));
+      for (int j = 0; j < 5; j++) {
+        Files.writeString(dir.resolve("f" + j), "content " + i + " " + j, UTF_8);
+        Files.writeString(dir.getParent().resolve("f" + j + ".txt"), "text " + i + " " + j, UTF_8);
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--threads", "1", tempDir.toString() });
+    String sequentialOutput = new String(out.toByteArray(), UTF_8);
+    assertThat(sequentialOutput.split("\\R")).hasSize(5 * 12 + 1);
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--threads", "8", tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).isEqualTo(sequentialOutput);
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--threads", "8", "--inode-order", tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).isEqualTo(sequentialOutput);
+  }
+
+  @Test
+  void save_binary_and_diff(@TempDir Path tempDir) throws IOException, InterruptedException {
+    Files.writeString(tempDir.resolve("f1"), "abcd", UTF_8);
+    Files.writeString(tempDir.resolve("f2"), "efgh", UTF_8);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--save", "--format", "binary", tempDir.toString() });
+    String statPath = new String(out.toByteArray(), UTF_8).replaceFirst("[\r\n]+$", "");
+    try (SnapshotReader reader = SnapshotReader.open(Paths.get(statPath))) {
+      assertThat(reader).isInstanceOf(SnapshotReader.Binary.class);
+      assertThat(FileAttributesTest.forceSysFields(reader.read().toString()))
+        .isEqualTo("f1|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|81fe8bfe87576c3ecb22426f8e57847382917acf");
+    }
+
+    Thread.sleep(10);
+    Files.writeString(tempDir.resolve("f2"), "changed", UTF_8);
+
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--save", "--diff", tempDir.toString() });
+    String output = FileAttributesTest.forceSysFields(new String(out.toByteArray(), UTF_8));
+    assertThat(output).startsWith("" +
+      "~mod~ f2| size 4 -> 7 | modifiedTime 2020-09-02T15:43:48.680382Z -> 2020-09-02T15:43:48.680382Z | sha1OrSymbolicLink 2aed8aa9f826c21ef07d5ee15b48eea06e9c8a62 -> 37c6c57bedf4305ef41249c1794760b5cb8fad17 |" + System.lineSeparator() +
+      "~mod~ .| size 8 -> 11 |");
+    String[] lines = output.split("\\R");
+    assertThat(lines).hasSize(3);
+    String textStatPath = lines[2];
+    assertThat(FileAttributesTest.forceSysFields(Files.readString(Paths.get(textStatPath), UTF_8))).startsWith("" +
+      "f1|f|4|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|81fe8bfe87576c3ecb22426f8e57847382917acf" + System.lineSeparator() +
+      "f2|f|7|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|37c6c57bedf4305ef41249c1794760b5cb8fad17" + System.lineSeparator());
+  }
+
+  @Test
+  void save_delta_and_compact(@TempDir Path tempDir) throws IOException, InterruptedException {
+    Files.writeString(tempDir.resolve("f1"), "abcd", UTF_8);
+    Files.writeString(tempDir.resolve("f2"), "efgh", UTF_8);
+    Path statsDirectory = tempDir.resolve(StatContext.DEFAULT_STATS_DIRECTORY);
+
+    // no previous snapshot, a full one
+    Path full = save(tempDir, "--delta");
+    assertThat(full.getFileName().toString()).startsWith("stat-");
+    assertThat(Files.readString(statsDirectory.resolve(DeltaSnapshot.HEAD_FILE), UTF_8)).isEqualTo(full.getFileName() + "\ndirectory-digest-version=2\n");
+
+    Thread.sleep(10);
+    Files.writeString(tempDir.resolve("f2"), "changed", UTF_8);
+    Path delta = save(tempDir, "--delta", "--full-snapshot-every", "3");
+    assertThat(delta.getFileName().toString()).startsWith("delta-");
+    List<String> deltaLines = Files.readAllLines(delta, UTF_8);
+    assertThat(deltaLines).hasSize(4);
+    assertThat(deltaLines.get(0)).isEqualTo("CDSD|" + full.getFileName());
+    assertThat(FileAttributesTest.forceSysFields(deltaLines.get(1)))
+      .isEqualTo("+|f2|f|7|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|37c6c57bedf4305ef41249c1794760b5cb8fad17");
+    assertThat(deltaLines.get(2)).startsWith("+|.|d|11|");
+    assertThat(deltaLines.get(3)).isEqualTo("=|3|11");
+    assertThat(DeltaSnapshot.head(statsDirectory)).isEqualTo(delta);
+
+    // the diff reads the delta chain
+    Thread.sleep(10);
+    Files.delete(tempDir.resolve("f1"));
+    Path secondDelta = save(tempDir, "--delta", "--full-snapshot-every", "3");
+    assertThat(secondDelta.getFileName().toString()).startsWith("delta-");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--diff", tempDir.toString() });
+    assertThat(new String(out.toByteArray(), UTF_8)).isEmpty();
+
+    // the chain has fullSnapshotEvery - 1 deltas
+    Thread.sleep(10);
+    Path secondFull = save(tempDir, "--delta", "--full-snapshot-every", "3");
+    assertThat(secondFull.getFileName().toString()).startsWith("stat-");
+    assertThat(FileAttributesTest.forceSysFields(Files.readString(secondFull, UTF_8))).startsWith(
+      "f2|f|7|alban|alban|rw-r--r--|2020-09-02T15:43:48.680382Z|37c6c57bedf4305ef41249c1794760b5cb8fad17" + System.lineSeparator() + ".|d|7|");
+
+    DeltaSnapshot.writeHead(statsDirectory, secondDelta);
+    out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), new String[] { "--compact", tempDir.toString() });
+    Path compacted = Paths.get(new String(out.toByteArray(), UTF_8).replaceFirst("[\r\n]+$", ""));
+    assertThat(compacted.getFileName().toString()).isEqualTo("stat-" + secondDelta.getFileName().toString().substring("delta-".length()));
+    assertThat(Files.readString(compacted, UTF_8)).isEqualTo(Files.readString(secondFull, UTF_8));
+    assertThat(Files.exists(delta)).isFalse();
+    assertThat(Files.exists(secondDelta)).isFalse();
+    assertThat(DeltaSnapshot.head(statsDirectory)).isEqualTo(compacted);
+  }
+
+  private static Path save(Path directory, String... options) throws IOException {
+    List<String> args = new ArrayList<>(List.of(options));
+    args.add(0, "--save");
+    args.add(directory.toString());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Stats.stats(new PrintStream(out, true, UTF_8), args.toArray(new String[0]));
+    return Paths.get(new String(out.toByteArray(), UTF_8).replaceFirst("[\r\n]+$", ""));
   }
 
 }
@@ -0,0 +1,84 @@
+package com.auzeill.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TextSnapshotLoaderTest {
+
+  @Test
+  void same_entries_for_any_chunk_size(@TempDir Path tempDir) throws IOException {
+    List<String> lines = new ArrayList<>(SnapshotWriterTest.SNAPSHOT);
+    // unusual fields parsed by FileAttributes.fromString
+    lines.add("dir/big|f|1234567890123456789|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|");
+    lines.add("|d|0|||||");
+    Path path = tempDir.resolve("stat-text");
+    Files.write(path, String.join("\n", lines).getBytes(UTF_8));
+    for (int chunkSize : new int[] {1, 7, 64, 1024, TextSnapshotLoader.CHUNK_SIZE}) {
+      assertThat(readAll(path, chunkSize)).as("chunk size %d", chunkSize).containsExactlyElementsOf(lines);
+    }
+    Files.write(path, "dir/plus|f|+12|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|".getBytes(UTF_8));
+    assertThat(readAll(path, 7)).containsExactly("dir/plus|f|12|alban|alban|rw-r--r--|2020-09-02T13:32:46Z|");
+  }
+
+  @Test
+  void line_endings(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("stat-text");
+    Files.write(path, "a|f|1|o|g|rw-r--r--|2020-09-02T13:32:46Z|\r\nb|f|2|o|g|rw-r--r--|2020-09-02T13:32:46Z|\n".getBytes(UTF_8));
+    assertThat(readAll(path, 16)).containsExactly(
+      "a|f|1|o|g|rw-r--r--|2020-09-02T13:32:46Z|",
+      "b|f|2|o|g|rw-r--r--|2020-09-02T13:32:46Z|");
+    Files.write(path, new byte[0]);
+    assertThat(readAll(path, 16)).isEmpty();
+  }
+
+  @Test
+  void shared_strings(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("stat-text");
+    Files.write(path, "a|f|1|o|g|rw-r--r--|2020-09-02T13:32:46Z|\nb|f|2|o|g|rw-r--r--|2020-09-02T13:32:46Z|\n".getBytes(UTF_8));
+    try (TextSnapshotLoader loader = new TextSnapshotLoader(path)) {
+      assertThat(loader.next()).isTrue();
+      FileAttributes first = loader.attributes();
+      assertThat(loader.next()).isTrue();
+      assertThat(loader.path()).isEqualTo("b");
+      assertThat(loader.type()).isEqualTo(FileAttributes.Type.FILE);
+      assertThat(loader.attributes().owner).isSameAs(first.owner);
+      assertThat(loader.attributes().permissions).isSameAs(first.permissions);
+      assertThat(loader.next()).isFalse();
+    }
+  }
+
+  @Test
+  void invalid_line_after_the_valid_entries(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("stat-text");
+    Files.write(path, "a|f|1|o|g|rw-r--r--|2020-09-02T13:32:46Z|\ninvalid|line\nb|f|2|o|g|rw-r--r--|2020-09-02T13:32:46Z|\n".getBytes(UTF_8));
+    try (TextSnapshotLoader loader = new TextSnapshotLoader(path)) {
+      assertThat(loader.read().relativeLinuxPath).isEqualTo("a");
+      assertThatThrownBy(loader::next).isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid fileDescription: invalid|line");
+    }
+    Files.write(path, "a|x|1|o|g|rw-r--r--|2020-09-02T13:32:46Z|\n".getBytes(UTF_8));
+    try (TextSnapshotLoader loader = new TextSnapshotLoader(path)) {
+      assertThatThrownBy(loader::next).isInstanceOf(IllegalArgumentException.class).hasMessage("Invalid code: x");
+    }
+  }
+
+  private static List<String> readAll(Path path, int chunkSize) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (TextSnapshotLoader loader = new TextSnapshotLoader(path, chunkSize)) {
+      for (FileAttributes attributes = loader.read(); attributes != null; attributes = loader.read()) {
+        lines.add(attributes.toString());
+      }
+      assertThat(loader.read()).isNull();
+    }
+    return lines;
+  }
+
+}
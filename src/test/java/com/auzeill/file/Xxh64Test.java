@@ -0,0 +1,49 @@
+package com.auzeill.file;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Xxh64Test {
+
+  @Test
+  void reference_values() {
+    assertThat(xxh64("")).isEqualTo("ef46db3751d8e999");
+    assertThat(xxh64("a")).isEqualTo("d24ec4f1a98c6e5b");
+    assertThat(xxh64("abc")).isEqualTo("44bc2cf5ad770999");
+    // longer than a 32 bytes stripe
+    assertThat(xxh64("Nobody inspects the spammish repetition")).isEqualTo("fbcea83c8a378bf1");
+  }
+
+  @Test
+  void same_digest_whatever_the_updates() {
+    byte[] data = new byte[1000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 7);
+    }
+    Xxh64 hasher = new Xxh64();
+    hasher.update(data, 0, data.length);
+    String expected = Sha1.byteToHex(hasher.digest());
+    for (int chunk : new int[] {1, 5, 31, 32, 33, 100}) {
+      for (int offset = 0; offset < data.length; offset += chunk) {
+        int length = Math.min(chunk, data.length - offset);
+        if (chunk % 2 == 0) {
+          hasher.update(data, offset, length);
+        } else {
+          hasher.update(ByteBuffer.allocateDirect(length).put(data, offset, length).flip());
+        }
+      }
+      assertThat(Sha1.byteToHex(hasher.digest())).isEqualTo(expected);
+    }
+  }
+
+  private static String xxh64(String text) {
+    byte[] data = text.getBytes(UTF_8);
+    Xxh64 hasher = new Xxh64();
+    hasher.update(data, 0, data.length);
+    return Sha1.byteToHex(hasher.digest());
+  }
+
+}